@@ -0,0 +1,42 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool;
+
+/**
+ * Decide at startpoint time whether a new report will be captured. Policies are evaluated (in the order configured
+ * with {@link TestTool#setAdmissionPolicies(java.util.List)}) once per report, before the report in progress is
+ * created. A report that isn't admitted is still tracked as a report in progress (so later checkpoints for the same
+ * correlationId only need to look it up) but it's checkpoints are ignored and it will not be stored. Reports that are
+ * rerun from the GUI are always admitted. Implementations need to be thread-safe and fast as they are called by
+ * the threads of the application being debugged.
+ */
+public interface AdmissionPolicy {
+
+	/**
+	 * @param correlationId the correlationId of the new report
+	 * @param name          the name of the new report (the name of the startpoint), might be null
+	 * @return true when the report should be captured
+	 */
+	public boolean admit(String correlationId, String name);
+
+	/**
+	 * @return name used for the admission counters
+	 */
+	public default String getName() {
+		return getClass().getSimpleName();
+	}
+
+}
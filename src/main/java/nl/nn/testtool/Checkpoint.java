@@ -16,12 +16,16 @@
 package nl.nn.testtool;
 
 import java.beans.ExceptionListener;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.io.StringWriter;
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +33,7 @@ import java.util.Map.Entry;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
 
 import javax.json.bind.annotation.JsonbTransient;
 import javax.xml.xpath.XPathExpressionException;
@@ -44,7 +49,12 @@ import nl.nn.testtool.MessageEncoder.ToStringResult;
 import nl.nn.testtool.run.ReportRunner;
 import nl.nn.testtool.run.RunResult;
 import nl.nn.testtool.storage.StorageException;
+import nl.nn.testtool.util.CaptureOutputStream;
+import nl.nn.testtool.util.CaptureWriter;
+import nl.nn.testtool.util.CompressedMessage;
 import nl.nn.testtool.util.ImportResult;
+import nl.nn.testtool.util.SpillFile;
+import nl.nn.testtool.util.SymbolTable;
 import nl.nn.testtool.util.XmlUtil;
 
 /**
@@ -70,25 +80,44 @@ public class Checkpoint implements Serializable, Cloneable {
 	public transient static final int STUB_NO = 0;
 	public transient static final int STUB_YES = 1;
 
+	// The serialized form is kept the same as before the rarely used fields were moved to CheckpointExtras (see
+	// writeObject() and readObject())
+	private transient static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("report", Report.class),
+			new ObjectStreamField("threadName", String.class),
+			new ObjectStreamField("sourceClassName", String.class),
+			new ObjectStreamField("messageClassName", String.class),
+			new ObjectStreamField("name", String.class),
+			new ObjectStreamField("message", String.class),
+			new ObjectStreamField("encoding", String.class),
+			new ObjectStreamField("streaming", String.class),
+			new ObjectStreamField("waitingForStream", Boolean.TYPE),
+			new ObjectStreamField("noCloseReceivedForStream", Boolean.TYPE),
+			new ObjectStreamField("type", Integer.TYPE),
+			new ObjectStreamField("level", Integer.TYPE),
+			new ObjectStreamField("stub", Integer.TYPE),
+			new ObjectStreamField("stubbed", Boolean.TYPE),
+			new ObjectStreamField("stubNotFound", String.class),
+			new ObjectStreamField("preTruncatedMessageLength", Integer.TYPE)
+	};
+
 	private Report report;
+	// Metadata strings are interned with the symbol table of the test tool (see intern())
 	private String threadName;
 	private String sourceClassName;
 	private String messageClassName;
 	private String name;
 	private String message;
 	private String encoding;
-	private String streaming;
-	private boolean waitingForStream = false;
-	private transient StringWriter messageCapturerWriter;
-	private transient ByteArrayOutputStream messageCapturerOutputStream;
-	private boolean noCloseReceivedForStream = false;
 	private int type;
 	private int level = 0;
-	private int stub = STUB_FOLLOW_REPORT_STRATEGY;
-	private boolean stubbed = false;
-	private String stubNotFound;
-	private int preTruncatedMessageLength = -1;
-	private transient Map<String, Pattern> variablePatternMap;
+	// Index in the list of checkpoints of the report (see Report.getIndex(Checkpoint))
+	private transient int index = -1;
+	// Path computed by the path builder of the report (only valid while the report is still using this path builder)
+	private transient Path path;
+	private transient PathBuilder pathBuilder;
+	// Null until one of the rarely used fields is set
+	private transient CheckpointExtras extras;
 
 	public Checkpoint() {
 		// Only for Java XML encoding/decoding! Use other constructor instead.
@@ -96,13 +125,30 @@ public class Checkpoint implements Serializable, Cloneable {
 
 	public Checkpoint(Report report, String threadName, String sourceClassName,	String name, int type, int level) {
 		this.report = report;
-		this.threadName = threadName;
-		this.sourceClassName = sourceClassName;
-		this.name = name;
+		this.threadName = intern(threadName);
+		this.sourceClassName = intern(sourceClassName);
+		this.name = intern(name);
 		this.type = type;
 		this.level = level;
 	}
 
+	private String intern(String string) {
+		if (string != null && report != null && report.getTestTool() != null) {
+			SymbolTable symbolTable = report.getTestTool().getSymbolTable();
+			if (symbolTable != null) {
+				return symbolTable.intern(string);
+			}
+		}
+		return string;
+	}
+
+	private CheckpointExtras extras() {
+		if (extras == null) {
+			extras = new CheckpointExtras();
+		}
+		return extras;
+	}
+
 	// JsonIgnore is used so that Jackson will not get into an infinite loop trying to reference report,
 	// which already contains checkpoint.
 	@JsonIgnore
@@ -119,7 +165,7 @@ public class Checkpoint implements Serializable, Cloneable {
 	}
 
 	public void setThreadName(String threadName) {
-		this.threadName = threadName;
+		this.threadName = intern(threadName);
 	}
 
 	public String getThreadName() {
@@ -127,7 +173,7 @@ public class Checkpoint implements Serializable, Cloneable {
 	}
 
 	public void setSourceClassName(String sourceClassName) {
-		this.sourceClassName = sourceClassName;
+		this.sourceClassName = intern(sourceClassName);
 	}
 
 	public String getSourceClassName() {
@@ -135,7 +181,7 @@ public class Checkpoint implements Serializable, Cloneable {
 	}
 
 	public void setMessageClassName(String messageClassName) {
-		this.messageClassName = messageClassName;
+		this.messageClassName = intern(messageClassName);
 	}
 
 	public String getMessageClassName() {
@@ -143,7 +189,10 @@ public class Checkpoint implements Serializable, Cloneable {
 	}
 
 	public void setName(String name) {
-		this.name = name;
+		this.name = intern(name);
+		if (report != null) {
+			report.invalidatePaths();
+		}
 	}
 
 	public String getName() {
@@ -158,6 +207,37 @@ public class Checkpoint implements Serializable, Cloneable {
 				message = report.getMessageTransformer().transform(this, message);
 			}
 		}
+		removeSpillFile();
+		if (extras != null) {
+			extras.compressedMessage = null;
+			extras.binaryMessage = null;
+			extras.messageXml = null;
+			extras.messageNotLoaded = false;
+		}
+		if (message != null && report != null && report.getTestTool() != null) {
+			TestTool testTool = report.getTestTool();
+			if (report.isInProgress() && testTool.getSpillThreshold() >= 0
+					&& message.length() > testTool.getSpillThreshold()
+					&& message.length() <= SpillFile.MAX_LENGTH) {
+				try {
+					File directory = testTool.getSpillDirectory() == null ? null : new File(testTool.getSpillDirectory());
+					extras().spillFile = SpillFile.create(directory, message);
+					message = null;
+				} catch (IOException e) {
+					log.warn("Could not spill message of checkpoint '" + name + "' to disk, keeping it in memory", e);
+				}
+			}
+			if (message != null && testTool.getMessageCompressor() != null) {
+				CompressedMessage compressedMessage = testTool.getMessageCompressor().compress(message);
+				if (compressedMessage != null) {
+					extras().compressedMessage = compressedMessage;
+					message = null;
+				}
+			}
+		}
+		if (report != null) {
+			message = report.deduplicateMessage(message);
+		}
 		this.message = message;
 	}
 
@@ -167,8 +247,7 @@ public class Checkpoint implements Serializable, Cloneable {
 		// message to a value that shows that Ladybug is waiting for the stream to be read, captured and closed or any
 		// other message
 		ToStringResult toStringResult = report.getMessageEncoder().toString(message, null);
-		setMessage(toStringResult.getString());
-		setEncoding(toStringResult.getEncoding());
+		setEncodedMessage(toStringResult);
 		setMessageClassName(toStringResult.getMessageClassName());
 		if (message != null && report.getMessageCapturer() != null) {
 			// Use message capturer only once for the same message
@@ -179,7 +258,6 @@ public class Checkpoint implements Serializable, Cloneable {
 				if (streamingType == StreamingType.CHARACTER_STREAM || streamingType == StreamingType.BYTE_STREAM) {
 					setWaitingForStream(true);
 					setStreaming(streamingType.toString());
-					TestTool testTool = report.getTestTool();
 					// Listener must be added before calling toWriter() and toOutputStream() as while calling those
 					// methods the close() method on the stream can already be called
 					report.addStreamingMessageListener(message, this);
@@ -189,110 +267,30 @@ public class Checkpoint implements Serializable, Cloneable {
 					String[] charset = new String[1];
 					Throwable[] exception = new Throwable[1];
 					if (streamingType == StreamingType.CHARACTER_STREAM) {
-						messageCapturerWriter = new StringWriter() {
-								int length = 0;
-								boolean truncated = false;
-
-								@Override
-								public void write(String str) {
-									write(str.toCharArray(), 0, str.length());
-								}
-
+						CheckpointExtras extras = extras();
+						extras.messageCapturerWriter = new CaptureWriter(report.getMaxMessageLength()) {
 								@Override
-								public void write(String str, int off, int len) {
-									write(str.toCharArray(), off, len);
-								}
-
-								@Override
-								public void write(int c) {
-									char[] cbuf = new char[1];
-									cbuf[0] = (char)c;
-									write(cbuf, 0, 1);
-								}
-
-								@Override
-								public void write(char[] cbuf) {
-									write(cbuf, 0, cbuf.length);
-								}
-
-								@Override
-								public void write(char[] cbuf, int off, int len) {
-									if (length + len > testTool.getMaxMessageLength()) {
-										if (!truncated) {
-											super.write(cbuf, off, testTool.getMaxMessageLength() - length);
-											truncated = true;
-										}
-									}
-									length = length + len;
-									if (truncated) {
-										return;
-									} else {
-										super.write(cbuf, off, len);
-									}
-								}
-
-								@Override
-								public void close() throws IOException {
-									super.close();
-									int preTruncatedMessageLength = -1;
-									if (truncated) {
-										preTruncatedMessageLength = length;
-									}
-									messageCapturerWriter = null;
+								protected void closed(String message, int preTruncatedMessageLength) {
+									extras.messageCapturerWriter = null;
 									report.closeStreamingMessage(toStringResult.getMessageClassName(),
 											messageToClose[0], streamingType.toString(), charset[0],
-											toString(), preTruncatedMessageLength, exception[0]);
+											message, preTruncatedMessageLength, exception[0]);
 								}
 						};
-						message = report.getMessageCapturer().toWriter(message, messageCapturerWriter,
+						message = report.getMessageCapturer().toWriter(message, extras.messageCapturerWriter,
 								exceptionNotifier -> exception[0] = exceptionNotifier);
 					} else {
-						messageCapturerOutputStream = new ByteArrayOutputStream() {
-								int length = 0;
-								boolean truncated = false;
-
-								@Override
-								public void write(int b) {
-									byte[] buf = new byte[1];
-									buf[0] = (byte)b;
-									write(buf, 0, 1);
-								}
-
-								@Override
-								public void write(byte[] b) {
-									write(b, 0, b.length);
-								}
-
-								@Override
-								public void write(byte[] b, int off, int len) {
-									if (length + len > testTool.getMaxMessageLength()) {
-										if (!truncated) {
-											super.write(b, off, testTool.getMaxMessageLength() - length);
-											truncated = true;
-										}
-									}
-									length = length + len;
-									if (truncated) {
-										return;
-									} else {
-										super.write(b, off, len);
-									}
-								}
-
+						CheckpointExtras extras = extras();
+						extras.messageCapturerOutputStream = new CaptureOutputStream(report.getMaxMessageLength()) {
 								@Override
-								public void close() throws IOException {
-									super.close();
-									int preTruncatedMessageLength = -1;
-									if (truncated) {
-										preTruncatedMessageLength = length;
-									}
-									messageCapturerOutputStream = null;
+								protected void closed(byte[] message, int preTruncatedMessageLength) {
+									extras.messageCapturerOutputStream = null;
 									report.closeStreamingMessage(toStringResult.getMessageClassName(),
 											messageToClose[0], streamingType.toString(), charset[0],
-											toByteArray(), preTruncatedMessageLength, exception[0]);
+											message, preTruncatedMessageLength, exception[0]);
 								}
 						};
-						message = report.getMessageCapturer().toOutputStream(message, messageCapturerOutputStream,
+						message = report.getMessageCapturer().toOutputStream(message, extras.messageCapturerOutputStream,
 								charsetNotifier -> charset[0] = charsetNotifier,
 								exceptionNotifier -> exception[0] = exceptionNotifier);
 					}
@@ -316,22 +314,273 @@ public class Checkpoint implements Serializable, Cloneable {
 		return message;
 	}
 
+	/**
+	 * Set the message and encoding as returned by the message encoder. Binary content (see
+	 * {@link ToStringResult#getBytes()}) is kept as is instead of as (Base64) String unless a message transformer
+	 * needs to be applied.
+	 * 
+	 * @param toStringResult ...
+	 */
+	protected void setEncodedMessage(ToStringResult toStringResult) {
+		byte[] bytes = toStringResult.getBytes();
+		if (bytes != null && report != null && report.getMessageTransformer() == null) {
+			setMessage((String)null);
+			int maxMessageLength = report.getMaxMessageLength();
+			if (maxMessageLength > -1 && bytes.length > maxMessageLength) {
+				setPreTruncatedMessageLength(bytes.length);
+				bytes = Arrays.copyOf(bytes, maxMessageLength);
+			} else {
+				// The application might reuse the array
+				bytes = bytes.clone();
+			}
+			extras().binaryMessage = bytes;
+		} else {
+			setMessage(toStringResult.getString());
+		}
+		setEncoding(toStringResult.getEncoding());
+	}
+
+	/**
+	 * @return the binary content of the message (the bytes of which {@link #getMessage()} returns the Base64 encoded
+	 *         string, encoded again on every call, hence use this method when the text isn't needed) or null when the
+	 *         message isn't kept as binary content. The array should not be modified
+	 */
+	@JsonIgnore
+	@JsonbTransient
+	public byte[] getBinaryMessage() {
+		CheckpointExtras extras = this.extras;
+		return extras == null ? null : extras.binaryMessage;
+	}
+
+	@JsonIgnore
+	@JsonbTransient
+	public boolean isBinaryMessage() {
+		return getBinaryMessage() != null;
+	}
+
+	/**
+	 * Set the binary content of a message read from storage (see {@link ReportCodec}), the bytes are not copied.
+	 */
+	void setBinaryMessage(byte[] binaryMessage) {
+		setMessage((String)null);
+		extras().binaryMessage = binaryMessage;
+	}
+
 	public String getMessage() {
+		byte[] binaryMessage = getBinaryMessage();
+		if (binaryMessage != null) {
+			return Base64.getEncoder().encodeToString(binaryMessage);
+		}
+		SpillFile spillFile = getSpillFile();
+		if (spillFile != null) {
+			try {
+				return spillFile.read();
+			} catch (IOException e) {
+				log.warn("Could not read spilled message of checkpoint '" + name + "' from " + spillFile.getFile(), e);
+				return "Could not read spilled message: " + e.getMessage();
+			}
+		}
+		CompressedMessage compressedMessage = getCompressedMessage();
+		if (compressedMessage != null) {
+			try {
+				return compressedMessage.decompress();
+			} catch (DataFormatException e) {
+				log.warn("Could not decompress message of checkpoint '" + name + "'", e);
+				return "Could not decompress message: " + e.getMessage();
+			}
+		}
 		return message;
 	}
 
+	/**
+	 * @return true when the message of this checkpoint of a report skeleton (see
+	 *         {@link nl.nn.testtool.storage.Storage#getReportSkeleton(Integer)}) hasn't been read from storage, in
+	 *         which case {@link #getMessage()} returns null (use
+	 *         {@link nl.nn.testtool.storage.Storage#getCheckpointMessage(Integer, int)} to get the message)
+	 */
+	public boolean isMessageNotLoaded() {
+		CheckpointExtras extras = this.extras;
+		return extras != null && extras.messageNotLoaded;
+	}
+
+	/**
+	 * No public setter so the XMLEncoder will not write this property (see {@link ReportCodec#decodeSkeleton})
+	 */
+	void setMessageNotLoaded(boolean messageNotLoaded) {
+		if (messageNotLoaded || extras != null) {
+			extras().messageNotLoaded = messageNotLoaded;
+		}
+	}
+
+	/**
+	 * @return true when the message is well-formed xml (see {@link XmlUtil#isXml(String)}), parsed once and cached
+	 *         until the message is changed
+	 */
+	@JsonIgnore
+	@JsonbTransient
+	public boolean isMessageXml() {
+		if (isBinaryMessage()) {
+			// Base64 doesn't start like xml, no need to encode the binary content
+			return false;
+		}
+		return isMessageXml(getMessage());
+	}
+
+	/**
+	 * @param message the current message of this checkpoint (to prevent reading it again, e.g. from a temporary file)
+	 */
+	boolean isMessageXml(String message) {
+		// Messages that don't start like xml (which includes binary messages) are decided without parsing and caching
+		if (!XmlUtil.startsLikeXml(message)) {
+			return false;
+		}
+		CheckpointExtras extras = extras();
+		Boolean messageXml = extras.messageXml;
+		if (messageXml == null) {
+			messageXml = XmlUtil.isXml(message);
+			extras.messageXml = messageXml;
+		}
+		return messageXml;
+	}
+
+	/**
+	 * @return whether the message is well-formed xml or null when not determined yet (see {@link ReportCodec})
+	 */
+	Boolean getMessageXml() {
+		CheckpointExtras extras = this.extras;
+		return extras == null ? null : extras.messageXml;
+	}
+
+	/**
+	 * Set whether the message is well-formed xml as determined before (see {@link ReportCodec}), must be called after
+	 * the message has been set.
+	 */
+	void setMessageXml(Boolean messageXml) {
+		if (messageXml != null || extras != null) {
+			extras().messageXml = messageXml;
+		}
+	}
+
+	/**
+	 * @return true when the message is kept in a temporary file instead of on the heap
+	 */
+	@JsonIgnore
+	@JsonbTransient
+	public boolean isMessageSpilled() {
+		return getSpillFile() != null;
+	}
+
+	/**
+	 * @return true when the message is kept in memory compressed by {@link TestTool#getMessageCompressor()}
+	 */
+	@JsonIgnore
+	@JsonbTransient
+	public boolean isMessageCompressed() {
+		return getCompressedMessage() != null;
+	}
+
+	private CompressedMessage getCompressedMessage() {
+		CheckpointExtras extras = this.extras;
+		return extras == null ? null : extras.compressedMessage;
+	}
+
+	private SpillFile getSpillFile() {
+		CheckpointExtras extras = this.extras;
+		return extras == null ? null : extras.spillFile;
+	}
+
+	/**
+	 * Remove the temporary file holding the message (if any).
+	 *
+	 * @param keepMessage when true the message will be read back from the temporary file onto the heap first
+	 */
+	public void removeSpillFile(boolean keepMessage) {
+		if (getSpillFile() != null) {
+			if (keepMessage) {
+				message = getMessage();
+			}
+			removeSpillFile();
+		}
+	}
+
+	private void removeSpillFile() {
+		SpillFile spillFile = getSpillFile();
+		if (spillFile != null) {
+			spillFile.delete();
+			extras.spillFile = null;
+		}
+	}
+
+	private void writeObject(ObjectOutputStream objectOutputStream) throws IOException {
+		ObjectOutputStream.PutField fields = objectOutputStream.putFields();
+		fields.put("report", report);
+		fields.put("threadName", threadName);
+		fields.put("sourceClassName", sourceClassName);
+		fields.put("messageClassName", messageClassName);
+		fields.put("name", name);
+		// Write a spilled, compressed or binary message as String without keeping the String on the heap afterwards
+		fields.put("message", getMessage());
+		fields.put("encoding", encoding);
+		fields.put("streaming", getStreaming());
+		fields.put("waitingForStream", isWaitingForStream());
+		fields.put("noCloseReceivedForStream", isNoCloseReceivedForStream());
+		fields.put("type", type);
+		fields.put("level", level);
+		fields.put("stub", getStub());
+		fields.put("stubbed", isStubbed());
+		fields.put("stubNotFound", getStubNotFound());
+		fields.put("preTruncatedMessageLength", getPreTruncatedMessageLength());
+		objectOutputStream.writeFields();
+	}
+
+	private void readObject(ObjectInputStream objectInputStream) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = objectInputStream.readFields();
+		report = (Report)fields.get("report", null);
+		threadName = (String)fields.get("threadName", null);
+		sourceClassName = (String)fields.get("sourceClassName", null);
+		messageClassName = (String)fields.get("messageClassName", null);
+		name = (String)fields.get("name", null);
+		message = (String)fields.get("message", null);
+		encoding = (String)fields.get("encoding", null);
+		type = fields.get("type", 0);
+		level = fields.get("level", 0);
+		index = -1;
+		setStreaming((String)fields.get("streaming", null));
+		setWaitingForStream(fields.get("waitingForStream", false));
+		setNoCloseReceivedForStream(fields.get("noCloseReceivedForStream", false));
+		setStub(fields.get("stub", STUB_FOLLOW_REPORT_STRATEGY));
+		setStubbed(fields.get("stubbed", false));
+		setStubNotFound((String)fields.get("stubNotFound", null));
+		setPreTruncatedMessageLength(fields.get("preTruncatedMessageLength", -1));
+		if (message != null && MessageEncoderImpl.BASE64_ENCODER.equals(encoding)) {
+			// Keep binary content as bytes, also prevents a decode step when used as stub
+			try {
+				extras().binaryMessage = Base64.getDecoder().decode(message);
+				message = null;
+			} catch (IllegalArgumentException e) {
+				// E.g. a truncated message, keep it as is
+			}
+		}
+	}
+
 	public void closeMessageCapturer() {
+		CheckpointExtras extras = this.extras;
+		if (extras == null) {
+			return;
+		}
 		try {
+			CaptureWriter messageCapturerWriter = extras.messageCapturerWriter;
 			if (messageCapturerWriter != null) {
-				noCloseReceivedForStream = true;
+				extras.noCloseReceivedForStream = true;
 				messageCapturerWriter.close();
 			}
 		} catch (IOException e) {
 			log.warn("Could not close messageCapturerWriter", e);
 		}
 		try {
+			CaptureOutputStream messageCapturerOutputStream = extras.messageCapturerOutputStream;
 			if (messageCapturerOutputStream != null) {
-				noCloseReceivedForStream = true;
+				extras.noCloseReceivedForStream = true;
 				messageCapturerOutputStream.close();
 			}
 		} catch (IOException e) {
@@ -350,7 +599,7 @@ public class Checkpoint implements Serializable, Cloneable {
 	}
 
 	public void setEncoding(String encoding) {
-		this.encoding = encoding;
+		this.encoding = intern(encoding);
 	}
 
 	public String getEncoding() {
@@ -364,27 +613,33 @@ public class Checkpoint implements Serializable, Cloneable {
 	 * @param streaming ...
 	 */
 	public void setStreaming(String streaming) {
-		this.streaming = streaming;
+		if (streaming != null || extras != null) {
+			extras().streaming = intern(streaming);
+		}
 	}
 
 	public String getStreaming() {
-		return streaming;
+		return extras == null ? null : extras.streaming;
 	}
 
 	public void setWaitingForStream(boolean waitingForStream) {
-		this.waitingForStream = waitingForStream;
+		if (waitingForStream || extras != null) {
+			extras().waitingForStream = waitingForStream;
+		}
 	}
 
 	public boolean isWaitingForStream() {
-		return waitingForStream;
+		return extras == null ? false : extras.waitingForStream;
 	}
 
 	public void setNoCloseReceivedForStream(boolean noCloseReceivedForStream) {
-		this.noCloseReceivedForStream = noCloseReceivedForStream;
+		if (noCloseReceivedForStream || extras != null) {
+			extras().noCloseReceivedForStream = noCloseReceivedForStream;
+		}
 	}
 
 	public boolean isNoCloseReceivedForStream() {
-		return noCloseReceivedForStream;
+		return extras == null ? false : extras.noCloseReceivedForStream;
 	}
 
 	public void setType(int type) {
@@ -417,6 +672,9 @@ public class Checkpoint implements Serializable, Cloneable {
 
 	public void setLevel(int level) {
 		this.level = level;
+		if (report != null) {
+			report.invalidatePaths();
+		}
 	}
 
 	public int getLevel() {
@@ -424,27 +682,33 @@ public class Checkpoint implements Serializable, Cloneable {
 	}
 
 	public void setStub(int stub) {
-		this.stub = stub;
+		if (stub != STUB_FOLLOW_REPORT_STRATEGY || extras != null) {
+			extras().stub = stub;
+		}
 	}
 
 	public int getStub() {
-		return stub;
+		return extras == null ? STUB_FOLLOW_REPORT_STRATEGY : extras.stub;
 	}
 
 	public void setStubbed(boolean stubbed) {
-		this.stubbed = stubbed;
+		if (stubbed || extras != null) {
+			extras().stubbed = stubbed;
+		}
 	}
 
 	public boolean isStubbed() {
-		return stubbed;
+		return extras == null ? false : extras.stubbed;
 	}
 
 	public void setStubNotFound(String stubNotFound) {
-		this.stubNotFound = stubNotFound;
+		if (stubNotFound != null || extras != null) {
+			extras().stubNotFound = stubNotFound;
+		}
 	}
 
 	public String getStubNotFound() {
-		return stubNotFound;
+		return extras == null ? null : extras.stubNotFound;
 	}
 
 	@JsonIgnore
@@ -453,33 +717,19 @@ public class Checkpoint implements Serializable, Cloneable {
 	}
 
 	protected Path getPath(boolean checkpointInProgress) {
-		int currentLevel = level;
-		String currentName = name;
-		if (currentLevel < 0) {
-			currentName = "[INVALID LEVEL " + currentLevel + "]" + currentName;
-			currentLevel = 0;
-		}
-		Path path = new Path(currentLevel + 1);
-		path.setName(currentLevel, currentName);
-		int i = report.getCheckpoints().indexOf(this);
-		if (i == -1 && checkpointInProgress) {
-			// Checkpoint constructed but not added to list of checkpoints yet
-			i = report.getCheckpoints().size();
-		}
-		i--;
-		for ( ; i >= 0; i--) {
-			Checkpoint currentCheckpoint = (Checkpoint)report.getCheckpoints().get(i);
-			String nextName = currentCheckpoint.getName();
-			if (currentCheckpoint.getLevel() == currentLevel &&
-					((nextName == null && currentName == null) || nextName.equals(currentName))) {
-				path.incrementCount(currentLevel);
-			} else if (currentCheckpoint.getLevel() < currentLevel && currentCheckpoint.getLevel() > -1) {
-				currentLevel = currentCheckpoint.getLevel();
-				currentName = nextName;
-				path.setName(currentLevel, currentName);
-			}
-		}
-		return path;
+		return report.getPath(this, checkpointInProgress);
+	}
+
+	/**
+	 * @return the path stored for this checkpoint when it was computed by pathBuilder, otherwise null
+	 */
+	Path getPath(PathBuilder pathBuilder) {
+		return this.pathBuilder == pathBuilder ? path : null;
+	}
+
+	void setPath(Path path, PathBuilder pathBuilder) {
+		this.path = path;
+		this.pathBuilder = pathBuilder;
 	}
 
 	/**
@@ -488,7 +738,13 @@ public class Checkpoint implements Serializable, Cloneable {
 	 * @return estimated memory usage in bytes
 	 */
 	public long getEstimatedMemoryUsage() {
-		if (message == null) {
+		CompressedMessage compressedMessage = getCompressedMessage();
+		byte[] binaryMessage = getBinaryMessage();
+		if (binaryMessage != null) {
+			return binaryMessage.length;
+		} else if (compressedMessage != null) {
+			return compressedMessage.getCompressedLength();
+		} else if (message == null) {
 			return 0L;
 		} else {
 			return message.length() * 2;
@@ -499,6 +755,14 @@ public class Checkpoint implements Serializable, Cloneable {
 	public Checkpoint clone() throws CloneNotSupportedException {
 		Checkpoint checkpoint = (Checkpoint)super.clone();
 		checkpoint.setReport(null);
+		if (extras != null) {
+			checkpoint.extras = extras.clone();
+			if (extras.spillFile != null) {
+				// The clone shouldn't depend on the temporary file of the original
+				checkpoint.message = getMessage();
+				checkpoint.extras.spillFile = null;
+			}
+		}
 		return checkpoint;
 	}
 
@@ -514,20 +778,24 @@ public class Checkpoint implements Serializable, Cloneable {
 	 * @param length The length of the message before it was truncated.
 	 */
 	public void setPreTruncatedMessageLength(int length) {
-		preTruncatedMessageLength = length;
+		if (length != -1 || extras != null) {
+			extras().preTruncatedMessageLength = length;
+		}
 	}
 
 	public int getPreTruncatedMessageLength() {
-		return preTruncatedMessageLength;
+		return extras == null ? -1 : extras.preTruncatedMessageLength;
 	}
 
 	public String getMessageWithResolvedVariables(ReportRunner reportRunner) {
-		String result = getMessage();
-		if(getMessage() != null && containsVariables()) {
+		// Read (or encode) the message once, e.g. a spilled message would otherwise be read from disk for every use
+		String message = getMessage();
+		String result = message;
+		if(containsVariables(message)) {
 			// 1. Parse external report variables
 			if(reportRunner != null) {
 				List<MatchResult> matchResults = new ArrayList<MatchResult>();
-				Matcher m = EXTERNAL_VARIABLE_PATTERN.matcher(getMessage());
+				Matcher m = EXTERNAL_VARIABLE_PATTERN.matcher(message);
 				while(m.find()) {
 					matchResults.add(m.toMatchResult());
 				}
@@ -592,7 +860,7 @@ public class Checkpoint implements Serializable, Cloneable {
 				Map<String, String> variableMap = report.getVariablesAsMap();
 				Map<String, Pattern> variablePatternMap = getVariablePatternMap(variableMap);
 				for(Entry<String, String> entry : variableMap.entrySet()) {
-					Matcher m = variablePatternMap.get(entry.getKey()).matcher(getMessage());
+					Matcher m = variablePatternMap.get(entry.getKey()).matcher(message);
 					while(m.find()) {
 						result = result.replaceAll(Pattern.quote(m.group()), entry.getValue());
 					}
@@ -607,28 +875,46 @@ public class Checkpoint implements Serializable, Cloneable {
 	}
 	
 	public boolean containsVariables() {
-		if(StringUtils.isEmpty(getMessage())) return false;
-		return GENERIC_VARIABLE_PATTERN.matcher(getMessage()).find();
+		// The Base64 alphabet doesn't contain the characters of a variable, no need to encode the binary content
+		if(isBinaryMessage()) return false;
+		return containsVariables(getMessage());
+	}
+
+	private static boolean containsVariables(String message) {
+		if(StringUtils.isEmpty(message)) return false;
+		return GENERIC_VARIABLE_PATTERN.matcher(message).find();
 	}
 
 	protected Map<String, Pattern> getVariablePatternMap(Map<String, String> variableMap) {
-		if(variablePatternMap == null) {
-			variablePatternMap = new HashMap<String, Pattern>();
+		CheckpointExtras extras = extras();
+		if(extras.variablePatternMap == null) {
+			extras.variablePatternMap = new HashMap<String, Pattern>();
 			for(Entry<String, String> entry : variableMap.entrySet()) {
-				variablePatternMap.put(entry.getKey(), Pattern.compile("\\$\\{"+entry.getKey()+"\\}"));
+				extras.variablePatternMap.put(entry.getKey(), Pattern.compile("\\$\\{"+entry.getKey()+"\\}"));
 			}
 		}
-		return variablePatternMap;
+		return extras.variablePatternMap;
 	}
 
 	public int getIndex() {
-		return report.getCheckpoints().indexOf(this);
+		return report.getIndex(this);
+	}
+
+	/**
+	 * @return the index stored for this checkpoint by {@link Report}, which might be outdated
+	 */
+	int getStoredIndex() {
+		return index;
+	}
+
+	void setStoredIndex(int index) {
+		this.index = index;
 	}
 
 	// Use lowercase to make JSON-B behave the same as Jackson
 	// See also comment in Report above Integer transientStorageId
 	public String getUid() {
-		return report.getStorageId()+"#"+report.getCheckpoints().indexOf(this);
+		return report.getStorageId()+"#"+getIndex();
 	}
 
 	/**
@@ -639,6 +925,7 @@ public class Checkpoint implements Serializable, Cloneable {
 	 */
 	public boolean updateVariables(List<ImportResult> importResults) {
 		boolean isVariablesUpdated = false;
+		if(isBinaryMessage()) return isVariablesUpdated;
 		Matcher m = EXTERNAL_VARIABLE_PATTERN.matcher(getMessage());
 		List<MatchResult> matchResults = new ArrayList<MatchResult>();
 		while(m.find()) {
@@ -671,4 +958,38 @@ class XMLEncoderExceptionListener implements ExceptionListener {
 		return exceptionThrown;
 	}
 
-}
\ No newline at end of file
+}
+
+/**
+ * Fields of a checkpoint that are only used by a small part of the checkpoints (stubs, streams, truncated messages,
+ * spilled messages, variables and whether a message that starts like xml is well-formed xml), allocated on first
+ * use to keep the memory footprint of other checkpoints small
+ */
+class CheckpointExtras implements Cloneable {
+	String streaming;
+	boolean waitingForStream = false;
+	boolean noCloseReceivedForStream = false;
+	int stub = Checkpoint.STUB_FOLLOW_REPORT_STRATEGY;
+	boolean stubbed = false;
+	String stubNotFound;
+	int preTruncatedMessageLength = -1;
+	CaptureWriter messageCapturerWriter;
+	CaptureOutputStream messageCapturerOutputStream;
+	SpillFile spillFile;
+	CompressedMessage compressedMessage;
+	byte[] binaryMessage;
+	// Null when not determined yet (see Checkpoint.isMessageXml())
+	Boolean messageXml;
+	// Message of a checkpoint of a report skeleton not read from storage (see Checkpoint.isMessageNotLoaded())
+	boolean messageNotLoaded;
+	Map<String, Pattern> variablePatternMap;
+
+	@Override
+	public CheckpointExtras clone() {
+		try {
+			return (CheckpointExtras)super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
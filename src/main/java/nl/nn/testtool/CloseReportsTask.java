@@ -15,6 +15,17 @@
 */
 package nl.nn.testtool;
 
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
 import lombok.Setter;
 
 /**
@@ -23,6 +34,12 @@ import lombok.Setter;
  * capturers a chance to finish after the last checkpoint of a report has already finished. For more information see
  * {@link TestTool#close(long, long, boolean, boolean, long, long)}
  * 
+ * Instead of scheduling {@link #closeReports()} (which will check all reports in progress every time) this task can
+ * also be set on the test tool with {@link TestTool#setCloseReportsTask(CloseReportsTask)}. In that case the test tool
+ * will schedule the close deadlines of a report in progress on an internal {@link DelayQueue} when the main thread of
+ * the report has finished (or when the report is created when waitForMainThreadToFinish is false) and a daemon thread
+ * of this task will close the report when a deadline expires.
+ * 
  * @see TestTool#close(long, long, boolean, boolean, long, long)
  * @see TestTool#close(String)
  * @see TestTool#setCloseThreads(boolean)
@@ -30,18 +47,150 @@ import lombok.Setter;
  * @author Jaco de Groot
  */
 public class CloseReportsTask {
+	private static Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 	private @Setter TestTool testTool;
 	private @Setter long threadsTime = 60 * 1000;
 	private @Setter long messageCapturersTime = 60 * 1000;
-	private @Setter boolean waitForMainThreadToFinish = true;
+	private @Setter @Getter boolean waitForMainThreadToFinish = true;
 	private @Setter boolean logThreadInfoBeforeClose = false;
 	// Log thread info is disabled when minimum age and maximum age is the same
 	private @Setter long logThreadInfoMinReportAge = 5 * 60 * 1000;
 	private @Setter long logThreadInfoMaxReportAge = 5 * 60 * 1000;
+	private DelayQueue<ScheduledClose> scheduledCloses = new DelayQueue<ScheduledClose>();
+	private Thread thread;
+	private volatile boolean stopped = false;
 
 	public void closeReports() {
 		testTool.close(threadsTime, messageCapturersTime, waitForMainThreadToFinish, logThreadInfoBeforeClose,
 				logThreadInfoMinReportAge, logThreadInfoMaxReportAge);
 	}
 
+	/**
+	 * Schedule the close deadlines of a report in progress (to be called while holding the lock on the report)
+	 */
+	protected void schedule(Report report) {
+		long time = waitForMainThreadToFinish ? report.getMainThreadFinishedTime() : report.getStartTime();
+		ScheduledClose scheduledClose = new ScheduledClose(report,
+				threadsTime == -1 ? -1 : time + threadsTime,
+				messageCapturersTime == -1 ? -1 : time + messageCapturersTime);
+		report.setScheduledClose(scheduledClose);
+		if (scheduledClose.getDeadline() != -1) {
+			startThread();
+			scheduledCloses.put(scheduledClose);
+		}
+	}
+
+	/**
+	 * Remove the reference to a report that has been closed (to be called while holding the lock on the report). The
+	 * scheduled close itself will be discarded when it expires.
+	 */
+	protected void cancel(Report report) {
+		ScheduledClose scheduledClose = report.getScheduledClose();
+		if (scheduledClose != null) {
+			scheduledClose.report = null;
+			report.setScheduledClose(null);
+		}
+	}
+
+	private synchronized void startThread() {
+		if (thread == null && !stopped) {
+			thread = new Thread(this::closeScheduledReports, "Ladybug-CloseReportsTask");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	@PreDestroy
+	public synchronized void close() {
+		stopped = true;
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	private void closeScheduledReports() {
+		while (!stopped) {
+			ScheduledClose scheduledClose;
+			try {
+				scheduledClose = scheduledCloses.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			Report report = scheduledClose.report;
+			if (report != null) {
+				try {
+					closeScheduledReport(report, scheduledClose);
+				} catch (Throwable t) {
+					log.warn("Could not close report in progress '" + report.getName() + "'", t);
+				}
+			}
+		}
+	}
+
+	private void closeScheduledReport(Report report, ScheduledClose scheduledClose) {
+		synchronized(report) {
+			if (scheduledClose.report == null) {
+				// Report closed in the meantime
+				return;
+			}
+			long now = System.currentTimeMillis();
+			boolean closeThreads = false;
+			boolean closeMessageCapturers = false;
+			if (scheduledClose.threadsDeadline != -1 && scheduledClose.threadsDeadline <= now) {
+				closeThreads = true;
+				scheduledClose.threadsDeadline = -1;
+			}
+			if (scheduledClose.messageCapturersDeadline != -1 && scheduledClose.messageCapturersDeadline <= now) {
+				closeMessageCapturers = true;
+				scheduledClose.messageCapturersDeadline = -1;
+			}
+			String message = "Thread info for report in progress '" + report.getName() + "' (closeThreads="
+					+ closeThreads + ",closeMessageCapturers=" + closeMessageCapturers + "): "
+					+ report.getThreadInfo();
+			if (logThreadInfoBeforeClose) {
+				log.info(message);
+			} else {
+				log.debug(message);
+			}
+			testTool.close(report, closeThreads, closeMessageCapturers);
+			if (!report.isClosed() && scheduledClose.getDeadline() != -1) {
+				scheduledCloses.put(scheduledClose);
+			}
+		}
+	}
+
+}
+
+class ScheduledClose implements Delayed {
+	// Null when report has been closed
+	volatile Report report;
+	long threadsDeadline;
+	long messageCapturersDeadline;
+
+	ScheduledClose(Report report, long threadsDeadline, long messageCapturersDeadline) {
+		this.report = report;
+		this.threadsDeadline = threadsDeadline;
+		this.messageCapturersDeadline = messageCapturersDeadline;
+	}
+
+	long getDeadline() {
+		if (threadsDeadline == -1) {
+			return messageCapturersDeadline;
+		} else if (messageCapturersDeadline == -1) {
+			return threadsDeadline;
+		} else {
+			return Math.min(threadsDeadline, messageCapturersDeadline);
+		}
+	}
+
+	@Override
+	public long getDelay(TimeUnit unit) {
+		return unit.convert(getDeadline() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public int compareTo(Delayed delayed) {
+		return Long.compare(getDeadline(), ((ScheduledClose)delayed).getDeadline());
+	}
 }
@@ -0,0 +1,41 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool;
+
+/**
+ * Encoder for messages of a specific class (and it's subclasses) that can be added to {@link MessageEncoderImpl} to
+ * encode messages of that class faster or better than the default encoders.
+ *
+ * @see MessageEncoderImpl#addCustomMessageEncoder(CustomMessageEncoder)
+ */
+public interface CustomMessageEncoder {
+
+	/**
+	 * @return the class of messages (including subclasses) this encoder can encode
+	 */
+	public Class<?> getMessageClass();
+
+	/**
+	 * @return the name of the encoding, stored in the checkpoint and used to find this encoder when the message needs
+	 *         to be decoded (e.g. for stubbing)
+	 */
+	public String getEncoding();
+
+	public String toString(Object message);
+
+	public Object toObject(String message);
+
+}
@@ -0,0 +1,224 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool;
+
+import java.lang.invoke.MethodHandles;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Limit the latency added by Ladybug to the requests of the application being debugged. The time spent in
+ * {@link TestTool} for every checkpoint (encoding and capturing the message, setting up the capture of streams and
+ * handing the report over to the storage) is measured separately from the stubable code it wraps and added up per
+ * report. When a report is finished the overhead as a percentage of the duration of the report is added to a rolling
+ * window per report name. When the {@link #setPercentile(double)} of this window exceeds
+ * {@link #setMaxOverheadPercentage(double)} the capture detail for reports with this name is reduced one step (see
+ * {@link CaptureMode}). When it drops below the budget times {@link #setRecoveryFactor(double)} the capture detail is
+ * increased one step again. Every decision is logged and available through {@link #getStatistics()}. Use
+ * {@link TestTool#setLatencyBudget(LatencyBudget)} to enable it.
+ */
+public class LatencyBudget {
+	private static Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+	private @Setter @Getter double maxOverheadPercentage = 5;
+	private @Setter @Getter double percentile = 95;
+	private @Setter @Getter int windowSize = 100;
+	/** Minimum number of reports in the window before a decision is made */
+	private @Setter @Getter int minReports = 20;
+	private @Setter @Getter double recoveryFactor = 0.5;
+	/** Max message length used for {@link CaptureMode#TRUNCATE} and higher */
+	private @Setter @Getter int truncatedMessageLength = 1000;
+	/**
+	 * Fraction of reports admitted for {@link CaptureMode#SAMPLE} (reports that are not admitted are not measured, hence
+	 * the sampled reports decide when to increase the capture detail again)
+	 */
+	private @Setter @Getter double sampleRate = 0.1;
+	private @Setter @Getter int maxReportNames = 1000;
+	private @Setter @Getter int maxDecisions = 100;
+	private Map<String, ReportNameBudget> reportNameBudgets = new ConcurrentHashMap<String, ReportNameBudget>();
+	private ReportNameBudget overflowReportNameBudget;
+	private Deque<String> decisions = new ArrayDeque<String>();
+
+	/**
+	 * Capture detail, every next mode also applies the reductions of the previous modes
+	 */
+	public enum CaptureMode {
+		/** Capture everything */
+		FULL,
+		/** Truncate messages to {@link LatencyBudget#setTruncatedMessageLength(int)} */
+		TRUNCATE,
+		/** Don't add infopoints to the report */
+		SKIP_INFOPOINTS,
+		/** Only admit {@link LatencyBudget#setSampleRate(double)} of the reports */
+		SAMPLE
+	}
+
+	public CaptureMode getCaptureMode(String name) {
+		ReportNameBudget reportNameBudget = getReportNameBudget(name, false);
+		return reportNameBudget == null ? CaptureMode.FULL : reportNameBudget.captureMode;
+	}
+
+	public boolean admit(String name) {
+		return getCaptureMode(name) != CaptureMode.SAMPLE || ThreadLocalRandom.current().nextDouble() < sampleRate;
+	}
+
+	/**
+	 * To be called while holding the lock on the report after a checkpoint has been added to the report
+	 * 
+	 * @param report    the report the checkpoint has been added to
+	 * @param start     value of {@link System#nanoTime()} at the start of the checkpoint
+	 * @param overhead  nanoseconds spent by Ladybug for this checkpoint (excluding the stubable code)
+	 */
+	protected void checkpointFinished(Report report, long start, long overhead) {
+		if (start - report.getStartNanoTime() < 0) {
+			// The first checkpoint started before the report was created
+			report.setStartNanoTime(start);
+		}
+		report.setCaptureOverhead(report.getCaptureOverhead() + overhead);
+		if (report.isClosed() && !report.isCaptureOverheadRecorded()) {
+			report.setCaptureOverheadRecorded(true);
+			long duration = Math.max(1, System.nanoTime() - report.getStartNanoTime());
+			double overheadPercentage = report.getCaptureOverhead() * 100.0 / duration;
+			getReportNameBudget(report.getName(), true).add(report.getName(), overheadPercentage);
+		}
+	}
+
+	private ReportNameBudget getReportNameBudget(String name, boolean create) {
+		if (name == null) {
+			name = "";
+		}
+		ReportNameBudget reportNameBudget = reportNameBudgets.get(name);
+		if (reportNameBudget == null) {
+			if (reportNameBudgets.size() < maxReportNames) {
+				if (create) {
+					reportNameBudget = reportNameBudgets.computeIfAbsent(name, key -> new ReportNameBudget());
+				}
+			} else {
+				reportNameBudget = getOverflowReportNameBudget();
+			}
+		}
+		return reportNameBudget;
+	}
+
+	private synchronized ReportNameBudget getOverflowReportNameBudget() {
+		if (overflowReportNameBudget == null) {
+			overflowReportNameBudget = new ReportNameBudget();
+		}
+		return overflowReportNameBudget;
+	}
+
+	private void decision(String decision) {
+		log.info(decision);
+		synchronized(decisions) {
+			decisions.addLast(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date()) + " " + decision);
+			while (decisions.size() > maxDecisions) {
+				decisions.removeFirst();
+			}
+		}
+	}
+
+	public List<String> getDecisions() {
+		synchronized(decisions) {
+			return new ArrayList<String>(decisions);
+		}
+	}
+
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		Map<String, Object> reportNames = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, ReportNameBudget> entry : reportNameBudgets.entrySet()) {
+			reportNames.put(entry.getKey(), entry.getValue().getStatistics());
+		}
+		if (overflowReportNameBudget != null) {
+			reportNames.put("(other report names)", overflowReportNameBudget.getStatistics());
+		}
+		statistics.put("maxOverheadPercentage", maxOverheadPercentage);
+		statistics.put("percentile", percentile);
+		statistics.put("reportNames", reportNames);
+		statistics.put("decisions", getDecisions());
+		return statistics;
+	}
+
+	private class ReportNameBudget {
+		volatile CaptureMode captureMode = CaptureMode.FULL;
+		double[] window;
+		int size;
+		int next;
+		double lastPercentile = -1;
+
+		synchronized void add(String name, double overheadPercentage) {
+			if (window == null || window.length != windowSize) {
+				window = new double[windowSize];
+				size = 0;
+				next = 0;
+			}
+			window[next] = overheadPercentage;
+			next = (next + 1) % window.length;
+			if (size < window.length) {
+				size++;
+			}
+			if (size >= minReports) {
+				double[] sorted = Arrays.copyOf(window, size);
+				Arrays.sort(sorted);
+				lastPercentile = sorted[Math.max(0, (int)Math.ceil(percentile / 100 * size) - 1)];
+				CaptureMode newCaptureMode = captureMode;
+				if (lastPercentile > maxOverheadPercentage && captureMode != CaptureMode.SAMPLE) {
+					newCaptureMode = CaptureMode.values()[captureMode.ordinal() + 1];
+				} else if (lastPercentile < maxOverheadPercentage * recoveryFactor
+						&& captureMode != CaptureMode.FULL) {
+					newCaptureMode = CaptureMode.values()[captureMode.ordinal() - 1];
+				}
+				if (newCaptureMode != captureMode) {
+					decision("Capture mode for report name '" + name + "' changed from " + captureMode + " to "
+							+ newCaptureMode + " (p" + formatPercentage(percentile) + " of overhead is "
+							+ formatPercentage(lastPercentile) + "% for last " + size + " reports, budget is "
+							+ formatPercentage(maxOverheadPercentage) + "%)");
+					captureMode = newCaptureMode;
+					// Measure the effect of the new capture mode
+					size = 0;
+					next = 0;
+				}
+			}
+		}
+
+		synchronized Map<String, Object> getStatistics() {
+			Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+			statistics.put("captureMode", captureMode.toString());
+			statistics.put("overheadPercentile", lastPercentile);
+			statistics.put("reports", size);
+			return statistics;
+		}
+	}
+
+	private static String formatPercentage(double percentage) {
+		return String.valueOf(Math.round(percentage * 100) / 100.0);
+	}
+
+}
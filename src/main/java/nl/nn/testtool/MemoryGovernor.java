@@ -0,0 +1,248 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Degrade the capturing of reports when memory is getting scarce. The maximum memory usage of
+ * {@link TestTool#setMaxMemoryUsage(long)} applies per report, so many concurrent reports that each stay below that
+ * maximum can still exhaust the heap. This governor looks at the estimated memory usage of all reports in progress
+ * together and at the usage of the heap memory pools after the last garbage collection (of which it subscribes to
+ * collection usage threshold notifications). The usage after a garbage collection is used instead of the current usage
+ * as the current usage includes garbage that hasn't been collected yet (e.g. with a parallel or serial garbage
+ * collector the old generation will normally fill up above 80% before a full garbage collection). When pressure rises
+ * it will go to {@link Level#METADATA_ONLY} (checkpoints are added without their message) and next to
+ * {@link Level#NO_NEW_REPORTS}. When memory has recovered (below the threshold minus {@link #setRecoveryMargin(double)})
+ * it will automatically go back to the previous level. Use {@link TestTool#setMemoryGovernor(MemoryGovernor)} to enable
+ * it.
+ */
+public class MemoryGovernor implements NotificationListener {
+	private static Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+	/**
+	 * Fraction of the maximum heap pool size (usage after the last garbage collection), zero or less to disable. Note
+	 * that on {@link #init()} this value is also used to set the collection usage threshold of the heap memory pools
+	 * when not already set. This threshold is JVM wide (the MXBeans of the memory pools are shared), hence it will
+	 * also apply to other listeners of memory notifications. A collection usage threshold that has been set already
+	 * (by another component) is left untouched
+	 */
+	private @Setter @Getter double metadataOnlyHeapUsage = 0.8;
+	/** Fraction of the maximum heap pool size (usage after the last garbage collection), zero or less to disable */
+	private @Setter @Getter double noNewReportsHeapUsage = 0.9;
+	/** Estimated memory usage of all reports in progress together in bytes, negative to disable */
+	private @Setter @Getter long metadataOnlyMemoryUsage = -1;
+	/** Estimated memory usage of all reports in progress together in bytes, negative to disable */
+	private @Setter @Getter long noNewReportsMemoryUsage = -1;
+	/** Fraction below a threshold that usage needs to drop before going back to a previous level */
+	private @Setter @Getter double recoveryMargin = 0.05;
+	/** Milliseconds between polling the heap pools (notifications will trigger a check immediately) */
+	private @Setter @Getter long checkInterval = 1000;
+	private volatile Level level = Level.NORMAL;
+	private volatile double heapUsage;
+	private volatile long nextHeapCheck;
+	private Map<Level, AtomicLong> transitions = new LinkedHashMap<Level, AtomicLong>();
+	private List<MemoryPoolMXBean> memoryPools;
+	private NotificationEmitter notificationEmitter;
+
+	public enum Level {
+		/** Capture reports and messages */
+		NORMAL,
+		/** Capture reports but not the messages of checkpoints */
+		METADATA_ONLY,
+		/** Don't start new reports */
+		NO_NEW_REPORTS
+	}
+
+	public MemoryGovernor() {
+		for (Level level : Level.values()) {
+			transitions.put(level, new AtomicLong());
+		}
+	}
+
+	/**
+	 * Subscribe to collection usage threshold notifications of the heap memory pools. Note that the collection usage
+	 * threshold of a memory pool is JVM wide (see {@link #setMetadataOnlyHeapUsage(double)}), hence it is only set
+	 * when it isn't already set (by another component). The (non collection) usage threshold isn't touched.
+	 */
+	@PostConstruct
+	public synchronized void init() {
+		if (notificationEmitter == null && metadataOnlyHeapUsage > 0) {
+			for (MemoryPoolMXBean memoryPool : getMemoryPools()) {
+				long max = memoryPool.getUsage().getMax();
+				if (max > 0 && memoryPool.getCollectionUsageThreshold() == 0) {
+					memoryPool.setCollectionUsageThreshold((long)(max * metadataOnlyHeapUsage));
+				}
+			}
+			notificationEmitter = (NotificationEmitter)ManagementFactory.getMemoryMXBean();
+			notificationEmitter.addNotificationListener(this, null, null);
+		}
+	}
+
+	@PreDestroy
+	public synchronized void close() {
+		if (notificationEmitter != null) {
+			try {
+				notificationEmitter.removeNotificationListener(this);
+			} catch (ListenerNotFoundException e) {
+				log.debug("Memory notification listener already removed", e);
+			}
+			notificationEmitter = null;
+		}
+	}
+
+	@Override
+	public void handleNotification(Notification notification, Object handback) {
+		if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+			// Check the heap pools on the next call to getLevel()
+			nextHeapCheck = 0;
+		}
+	}
+
+	/**
+	 * @param reportsInProgressMemoryUsage  estimated memory usage of all reports in progress together
+	 * @return the current level (evaluated again when needed)
+	 */
+	public Level getLevel(long reportsInProgressMemoryUsage) {
+		long now = System.currentTimeMillis();
+		if (now >= nextHeapCheck) {
+			nextHeapCheck = now + checkInterval;
+			heapUsage = getHeapUsage();
+		}
+		Level level = this.level;
+		Level newLevel = Level.NORMAL;
+		if (isReached(Level.NO_NEW_REPORTS, level, reportsInProgressMemoryUsage)) {
+			newLevel = Level.NO_NEW_REPORTS;
+		} else if (isReached(Level.METADATA_ONLY, level, reportsInProgressMemoryUsage)) {
+			newLevel = Level.METADATA_ONLY;
+		}
+		if (newLevel != level) {
+			setLevel(newLevel, reportsInProgressMemoryUsage);
+		}
+		return newLevel;
+	}
+
+	/**
+	 * @return the level as evaluated on the last call to {@link #getLevel(long)}
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	private boolean isReached(Level thresholdLevel, Level currentLevel, long reportsInProgressMemoryUsage) {
+		double heapThreshold;
+		long memoryThreshold;
+		if (thresholdLevel == Level.NO_NEW_REPORTS) {
+			heapThreshold = noNewReportsHeapUsage;
+			memoryThreshold = noNewReportsMemoryUsage;
+		} else {
+			heapThreshold = metadataOnlyHeapUsage;
+			memoryThreshold = metadataOnlyMemoryUsage;
+		}
+		boolean heapReached = heapThreshold > 0;
+		boolean memoryReached = memoryThreshold >= 0;
+		if (currentLevel.compareTo(thresholdLevel) >= 0) {
+			// Prevent switching levels on every call when usage is around the threshold
+			heapThreshold = heapThreshold - recoveryMargin;
+			memoryThreshold = (long)(memoryThreshold * (1 - recoveryMargin));
+		}
+		return (heapReached && heapUsage >= heapThreshold)
+				|| (memoryReached && reportsInProgressMemoryUsage >= memoryThreshold);
+	}
+
+	private synchronized void setLevel(Level newLevel, long reportsInProgressMemoryUsage) {
+		if (newLevel != level) {
+			String message = "Memory governor level changed from " + level + " to " + newLevel
+					+ " (heap usage " + Math.round(heapUsage * 100) + "%, reports in progress estimated memory usage "
+					+ reportsInProgressMemoryUsage + ")";
+			if (newLevel.compareTo(level) > 0) {
+				log.warn(message);
+			} else {
+				log.info(message);
+			}
+			level = newLevel;
+			transitions.get(newLevel).incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return highest usage of the heap pools after the last garbage collection as a fraction of their maximum size
+	 */
+	private double getHeapUsage() {
+		double heapUsage = 0;
+		if (metadataOnlyHeapUsage > 0 || noNewReportsHeapUsage > 0) {
+			for (MemoryPoolMXBean memoryPool : getMemoryPools()) {
+				MemoryUsage memoryUsage = memoryPool.getCollectionUsage();
+				if (memoryUsage != null && memoryUsage.getMax() > 0) {
+					heapUsage = Math.max(heapUsage, (double)memoryUsage.getUsed() / memoryUsage.getMax());
+				}
+			}
+		}
+		return heapUsage;
+	}
+
+	/**
+	 * @return heap pools that support a usage threshold and a collection usage threshold (pools like eden space are
+	 *         expected to fill up completely before a garbage collection and are not taken into account)
+	 */
+	private synchronized List<MemoryPoolMXBean> getMemoryPools() {
+		if (memoryPools == null) {
+			memoryPools = new ArrayList<MemoryPoolMXBean>();
+			for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (memoryPool.getType() == MemoryType.HEAP && memoryPool.isUsageThresholdSupported()
+						&& memoryPool.isCollectionUsageThresholdSupported()) {
+					memoryPools.add(memoryPool);
+				}
+			}
+		}
+		return memoryPools;
+	}
+
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		Map<String, Long> transitions = new LinkedHashMap<String, Long>();
+		for (Map.Entry<Level, AtomicLong> entry : this.transitions.entrySet()) {
+			transitions.put(entry.getKey().toString(), entry.getValue().get());
+		}
+		statistics.put("level", level.toString());
+		statistics.put("heapUsagePercentage", Math.round(heapUsage * 100));
+		statistics.put("transitions", transitions);
+		return statistics;
+	}
+
+}
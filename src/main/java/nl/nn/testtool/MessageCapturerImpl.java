@@ -58,7 +58,9 @@ public class MessageCapturerImpl implements MessageCapturer {
 				@Override
 				public int read() throws IOException {
 					int c = super.read();
-					writer.write(c);
+					if (c != -1) {
+						writer.write(c);
+					}
 					return c;
 				}
 
@@ -124,7 +126,9 @@ public class MessageCapturerImpl implements MessageCapturer {
 				@Override
 				public synchronized int read() throws IOException {
 					int b = super.read();
-					outputStream.write(b);
+					if (b != -1) {
+						outputStream.write(b);
+					}
 					return b;
 				}
 
@@ -16,6 +16,7 @@
 package nl.nn.testtool;
 
 import java.io.Closeable;
+import java.util.Base64;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -53,6 +54,9 @@ public interface MessageEncoder {
 		private String string;
 		private String encoding;
 		private String messageClassName;
+		// Binary content for which the string representation (e.g. Base64) is only created when asked for, see
+		// Checkpoint.getBinaryMessage()
+		private byte[] bytes;
 
 		public ToStringResult(String string, String encoding) {
 			this.string = string;
@@ -65,6 +69,17 @@ public interface MessageEncoder {
 			this.messageClassName = messageClassName;
 		}
 
+		/**
+		 * @return the string representation of the message, when only {@link #getBytes()} has been set the Base64
+		 *         encoded bytes
+		 */
+		public String getString() {
+			if (string == null && bytes != null) {
+				return Base64.getEncoder().encodeToString(bytes);
+			}
+			return string;
+		}
+
 	}
 
 	/**
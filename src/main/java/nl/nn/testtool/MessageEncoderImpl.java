@@ -33,11 +33,16 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
 import java.text.SimpleDateFormat;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.w3c.dom.Node;
 
 import lombok.SneakyThrows;
+import nl.nn.testtool.util.BeanXmlEncoder;
 import nl.nn.testtool.util.XmlUtil;
 import nl.nn.xmldecoder.XMLDecoder;
 
@@ -60,6 +65,75 @@ public class MessageEncoderImpl implements MessageEncoder {
 	public static final String DATE_ENCODER = "SimpleDateFormat(\"" + DATE_PATTERN + "\")";
 	public static final String WAITING_FOR_STREAM_MESSAGE = "Waiting for stream to be read, captured and closed...";
 
+	// The encoder to use is looked up once per message class instead of walking the list of instanceof checks (and
+	// trying XMLEncoder for objects that aren't a bean) for every message
+	private volatile ClassValue<ClassEncoder> classEncoders = createClassEncoders();
+	private List<CustomMessageEncoder> customMessageEncoders = new CopyOnWriteArrayList<CustomMessageEncoder>();
+
+	private enum EncoderType {BYTE_ARRAY, STREAM, THROWABLE, DOM_NODE, DATE, CUSTOM, XML_ENCODER}
+
+	private static class ClassEncoder {
+		EncoderType encoderType;
+		String messageClassName;
+		CustomMessageEncoder customMessageEncoder;
+		// Set to true when XMLEncoder failed for an object of this class (object doesn't seem to be a bean) to not
+		// try XMLEncoder again for the next objects of this class
+		volatile boolean toStringEncoder;
+	}
+
+	private ClassValue<ClassEncoder> createClassEncoders() {
+		return new ClassValue<ClassEncoder>() {
+			@Override
+			protected ClassEncoder computeValue(Class<?> type) {
+				ClassEncoder classEncoder = new ClassEncoder();
+				classEncoder.messageClassName = type.getTypeName();
+				for (CustomMessageEncoder customMessageEncoder : customMessageEncoders) {
+					if (customMessageEncoder.getMessageClass().isAssignableFrom(type)) {
+						classEncoder.encoderType = EncoderType.CUSTOM;
+						classEncoder.customMessageEncoder = customMessageEncoder;
+						return classEncoder;
+					}
+				}
+				if (byte[].class.equals(type)) {
+					classEncoder.encoderType = EncoderType.BYTE_ARRAY;
+				} else if (Reader.class.isAssignableFrom(type) || InputStream.class.isAssignableFrom(type)
+						|| Writer.class.isAssignableFrom(type) || OutputStream.class.isAssignableFrom(type)) {
+					classEncoder.encoderType = EncoderType.STREAM;
+				} else if (Throwable.class.isAssignableFrom(type)) {
+					classEncoder.encoderType = EncoderType.THROWABLE;
+				} else if (Node.class.isAssignableFrom(type)) {
+					classEncoder.encoderType = EncoderType.DOM_NODE;
+				} else if (Date.class.isAssignableFrom(type)) {
+					classEncoder.encoderType = EncoderType.DATE;
+				} else {
+					classEncoder.encoderType = EncoderType.XML_ENCODER;
+				}
+				return classEncoder;
+			}
+		};
+	}
+
+	/**
+	 * Add an encoder for messages of a specific class. Custom message encoders are used before the default encoders
+	 * (in the order in which they have been added) for all messages except String messages.
+	 * 
+	 * @param customMessageEncoder ...
+	 */
+	public void addCustomMessageEncoder(CustomMessageEncoder customMessageEncoder) {
+		customMessageEncoders.add(customMessageEncoder);
+		classEncoders = createClassEncoders();
+	}
+
+	public void setCustomMessageEncoders(List<CustomMessageEncoder> customMessageEncoders) {
+		this.customMessageEncoders.clear();
+		this.customMessageEncoders.addAll(customMessageEncoders);
+		classEncoders = createClassEncoders();
+	}
+
+	public List<CustomMessageEncoder> getCustomMessageEncoders() {
+		return customMessageEncoders;
+	}
+
 	@Override
 	@SneakyThrows(UnsupportedEncodingException.class)
 	public ToStringResult toString(Object message, String charset) {
@@ -69,56 +143,85 @@ public class MessageEncoderImpl implements MessageEncoder {
 		} else if (message instanceof String) {
 			toStringResult = new ToStringResult((String)message, null);
 		} else {
-			if (message instanceof byte[]) {
-				String encoding;
-				if (charset == null) {
-					charset = "UTF-8";
-					encoding = UTF8_ENCODER;
-				} else {
-					encoding = CHARSET_ENCODER_PREFIX + charset;
-				}
-				CharsetDecoder charsetDecoder = Charset.forName(charset).newDecoder();
-				try {
-					// This will throw an exception were new String(((byte[])message), "UTF-8") would use the
-					// replacement character instead of throwing an exception. See https://en.wikipedia.org/wiki/UTF-8
-					// also (search for replacement character)
-					CharBuffer charBuffer = charsetDecoder.decode(ByteBuffer.wrap((byte[])message));
-					toStringResult = new ToStringResult(charBuffer.toString(), encoding);
-				} catch (CharacterCodingException e) {
-					toStringResult = new ToStringResult(java.util.Base64.getEncoder().encodeToString((byte[])message),
-							BASE64_ENCODER);
-				}
-			} else if (message instanceof Reader || message instanceof InputStream
-					|| message instanceof Writer || message instanceof OutputStream) {
-				// See comment at the top of CHeckpoint.setMessage(T message)
-				toStringResult = new ToStringResult(WAITING_FOR_STREAM_MESSAGE, null);
-			} else if (message instanceof Throwable) {
-				StringWriter stringWriter = new StringWriter();
-				((Throwable)message).printStackTrace(new PrintWriter(stringWriter));
-				toStringResult = new ToStringResult(stringWriter.toString(), THROWABLE_ENCODER);
-			} else if (message instanceof Node) {
-				Node node = (Node)message;
-				toStringResult = new ToStringResult(XmlUtil.nodeToString(node), DOM_NODE_ENCODER);
-			} else if (message instanceof Date) {
-				toStringResult = new ToStringResult(new SimpleDateFormat(DATE_PATTERN).format((Date)message),
-						DATE_ENCODER);
-			} else {
-				String xml = null;
-				ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-				XMLEncoder encoder = new XMLEncoder(byteArrayOutputStream);
-				XMLEncoderExceptionListener exceptionListener = new XMLEncoderExceptionListener();
-				encoder.setExceptionListener(exceptionListener);
-				encoder.writeObject(message);
-				encoder.close();
-				xml = byteArrayOutputStream.toString("UTF-8");
-				if (exceptionListener.isExceptionThrown()) {
-					// Object doesn't seem to be a bean
-					toStringResult = new ToStringResult(message.toString(), TO_STRING_ENCODER);
-				} else {
-					toStringResult = new ToStringResult(xml, XML_ENCODER);
-				}
+			ClassEncoder classEncoder = classEncoders.get(message.getClass());
+			switch (classEncoder.encoderType) {
+				case BYTE_ARRAY:
+					String encoding;
+					if (charset == null) {
+						charset = "UTF-8";
+						encoding = UTF8_ENCODER;
+					} else {
+						encoding = CHARSET_ENCODER_PREFIX + charset;
+					}
+					CharsetDecoder charsetDecoder = Charset.forName(charset).newDecoder();
+					try {
+						// This will throw an exception were new String(((byte[])message), "UTF-8") would use the
+						// replacement character instead of throwing an exception. See
+						// https://en.wikipedia.org/wiki/UTF-8 also (search for replacement character)
+						CharBuffer charBuffer = charsetDecoder.decode(ByteBuffer.wrap((byte[])message));
+						toStringResult = new ToStringResult(charBuffer.toString(), encoding);
+					} catch (CharacterCodingException e) {
+						// Keep the bytes, the checkpoint will only Base64 encode them when the message is displayed
+						// or stored
+						toStringResult = new ToStringResult(null, BASE64_ENCODER);
+						toStringResult.setBytes((byte[])message);
+					}
+					break;
+				case STREAM:
+					// See comment at the top of CHeckpoint.setMessage(T message)
+					toStringResult = new ToStringResult(WAITING_FOR_STREAM_MESSAGE, null);
+					break;
+				case THROWABLE:
+					StringWriter stringWriter = new StringWriter();
+					((Throwable)message).printStackTrace(new PrintWriter(stringWriter));
+					toStringResult = new ToStringResult(stringWriter.toString(), THROWABLE_ENCODER);
+					break;
+				case DOM_NODE:
+					Node node = (Node)message;
+					toStringResult = new ToStringResult(XmlUtil.nodeToString(node), DOM_NODE_ENCODER);
+					break;
+				case DATE:
+					toStringResult = new ToStringResult(new SimpleDateFormat(DATE_PATTERN).format((Date)message),
+							DATE_ENCODER);
+					break;
+				case CUSTOM:
+					CustomMessageEncoder customMessageEncoder = classEncoder.customMessageEncoder;
+					toStringResult = new ToStringResult(customMessageEncoder.toString(message),
+							customMessageEncoder.getEncoding());
+					break;
+				default:
+					toStringResult = null;
+					if (!classEncoder.toStringEncoder) {
+						// Try the fast encoder for simple beans first
+						String xml = BeanXmlEncoder.toXml(message);
+						if (xml != null) {
+							toStringResult = new ToStringResult(xml, XML_ENCODER);
+						}
+					}
+					if (toStringResult == null && !classEncoder.toStringEncoder) {
+						ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+						XMLEncoder encoder = new XMLEncoder(byteArrayOutputStream);
+						XMLEncoderExceptionListener exceptionListener = new XMLEncoderExceptionListener();
+						encoder.setExceptionListener(exceptionListener);
+						encoder.writeObject(message);
+						encoder.close();
+						String xml = byteArrayOutputStream.toString("UTF-8");
+						if (exceptionListener.isExceptionThrown()) {
+							// Object doesn't seem to be a bean. Whether XMLEncoder fails for collections, maps and
+							// arrays depends on their content, hence only remember it for other classes
+							if (!(message instanceof Collection || message instanceof Map
+									|| message.getClass().isArray())) {
+								classEncoder.toStringEncoder = true;
+							}
+						} else {
+							toStringResult = new ToStringResult(xml, XML_ENCODER);
+						}
+					}
+					if (toStringResult == null) {
+						toStringResult = new ToStringResult(message.toString(), TO_STRING_ENCODER);
+					}
 			}
-			toStringResult.setMessageClassName(message.getClass().getTypeName());
+			toStringResult.setMessageClassName(classEncoder.messageClassName);
 		}
 		return toStringResult;
 	}
@@ -142,6 +245,14 @@ public class MessageEncoderImpl implements MessageEncoder {
 		// originalCheckpoint in MessageEncoder
 		if (originalCheckpoint == null) {
 			return (T)TestTool.DEFAULT_STUB_MESSAGE;
+		} else if (originalCheckpoint.isBinaryMessage() && BASE64_ENCODER.equals(originalCheckpoint.getEncoding())) {
+			// Copy to prevent the system under test from changing the original report
+			byte[] bytes = originalCheckpoint.getBinaryMessage().clone();
+			if (originalCheckpoint.getStreaming() == null) {
+				return (T)bytes;
+			} else {
+				return (T)new ByteArrayInputStream(bytes);
+			}
 		} else if (originalCheckpoint.getMessage() == null) {
 			return null;
 		} else {
@@ -193,6 +304,11 @@ public class MessageEncoderImpl implements MessageEncoder {
 				XMLDecoder xmlDecoder = new XMLDecoder(byteArrayInputStream);
 				return (T)xmlDecoder.readObject();
 			} else {
+				for (CustomMessageEncoder customMessageEncoder : customMessageEncoders) {
+					if (encoding.equals(customMessageEncoder.getEncoding())) {
+						return (T)customMessageEncoder.toObject(message);
+					}
+				}
 				return (T)message;
 			}
 		}
@@ -15,6 +15,13 @@
 */
 package nl.nn.testtool;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 /**
  * @author Jaco de Groot
  */
@@ -38,18 +45,25 @@ public class Path {
 		counts[index]++;
 	}
 
-	public boolean equals(Path path) {
-		if (names.length != path.names.length) {
+	protected void setCount(int index, int count) {
+		counts[index] = count;
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if (this == object) {
+			return true;
+		}
+		if (!(object instanceof Path)) {
 			return false;
-		} else {
-			for (int i = 0; i < names.length; i++) {
-				if (!((names[i] == null && path.names[i] == null) || names[i].equals(path.names[i]))
-						|| counts[i] != path.counts[i]) {
-					return false;
-				}
-			}
 		}
-		return true;
+		Path path = (Path)object;
+		return Arrays.equals(names, path.names) && Arrays.equals(counts, path.counts);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(names) + Arrays.hashCode(counts);
 	}
 
 	public String toString() {
@@ -60,3 +74,97 @@ public class Path {
 		return stringBuffer.toString();
 	}
 }
+
+/**
+ * Compute the paths of checkpoints appended to a report one by one in O(depth) per checkpoint. The path of a
+ * checkpoint consists of the names of it's ancestors (for every ancestor the nearest previous checkpoint with a lower
+ * level) and for every level the number of previous checkpoints with the same level and name that have the same
+ * parent. Gives the same result as walking back through all previous checkpoints.
+ */
+class PathBuilder {
+	private List<PathFrame> frames = new ArrayList<PathFrame>();
+
+	PathBuilder() {
+		frames.add(new PathFrame(-1, null, 0));
+	}
+
+	Path append(int level, String name) {
+		return getPath(level, name, true);
+	}
+
+	Path peek(int level, String name) {
+		return getPath(level, name, false);
+	}
+
+	private Path getPath(int level, String name, boolean append) {
+		if (level < 0) {
+			Path path = new Path(1);
+			path.setName(0, "[INVALID LEVEL " + level + "]" + name);
+			return path;
+		}
+		int parentIndex = frames.size() - 1;
+		while (frames.get(parentIndex).level >= level) {
+			parentIndex--;
+		}
+		PathFrame parent = frames.get(parentIndex);
+		int count = parent.getChildCount(level, name);
+		Path path = new Path(level + 1);
+		for (int i = 1; i <= parentIndex; i++) {
+			PathFrame frame = frames.get(i);
+			path.setName(frame.level, frame.name);
+			path.setCount(frame.level, frame.count);
+		}
+		path.setName(level, name);
+		path.setCount(level, count);
+		if (append) {
+			while (frames.size() > parentIndex + 1) {
+				frames.remove(frames.size() - 1);
+			}
+			parent.incrementChildCount(level, name);
+			frames.add(new PathFrame(level, name, count));
+		}
+		return path;
+	}
+}
+
+class PathFrame {
+	int level;
+	String name;
+	int count;
+	// Number of children per level and name
+	Map<Integer, Map<String, Integer>> childCounts;
+
+	PathFrame(int level, String name, int count) {
+		this.level = level;
+		this.name = name;
+		this.count = count;
+	}
+
+	int getChildCount(int level, String name) {
+		if (childCounts != null) {
+			Map<String, Integer> counts = childCounts.get(level);
+			if (counts != null) {
+				Integer count = counts.get(name);
+				if (count != null) {
+					return count;
+				}
+			}
+		}
+		return 0;
+	}
+
+	void incrementChildCount(int level, String name) {
+		if (childCounts == null) {
+			childCounts = new HashMap<Integer, Map<String, Integer>>();
+		}
+		// Children on a deeper level can no longer be counted as the new child will be the parent of later
+		// checkpoints on a deeper level
+		Iterator<Integer> iterator = childCounts.keySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next() > level) {
+				iterator.remove();
+			}
+		}
+		childCounts.computeIfAbsent(level, key -> new HashMap<String, Integer>()).merge(name, 1, Integer::sum);
+	}
+}
@@ -0,0 +1,80 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Limit the number of reports admitted per report name using a token bucket per name. Every name can start
+ * {@link #setBurst(int)} reports at once after which reports are admitted at a rate of
+ * {@link #setReportsPerSecond(double)}. To prevent unbounded memory usage at most {@link #setMaxReportNames(int)}
+ * buckets are kept, report names that don't fit anymore share one bucket.
+ */
+public class RateLimitAdmissionPolicy implements AdmissionPolicy {
+	private @Setter @Getter double reportsPerSecond = 1;
+	private @Setter @Getter int burst = 10;
+	private @Setter @Getter int maxReportNames = 1000;
+	private Map<String, TokenBucket> tokenBuckets = new ConcurrentHashMap<String, TokenBucket>();
+	private TokenBucket overflowTokenBucket;
+
+	@Override
+	public boolean admit(String correlationId, String name) {
+		if (name == null) {
+			name = "";
+		}
+		TokenBucket tokenBucket = tokenBuckets.get(name);
+		if (tokenBucket == null) {
+			if (tokenBuckets.size() < maxReportNames) {
+				tokenBucket = tokenBuckets.computeIfAbsent(name, key -> new TokenBucket(burst));
+			} else {
+				tokenBucket = getOverflowTokenBucket();
+			}
+		}
+		return tokenBucket.tryAcquire(reportsPerSecond, burst);
+	}
+
+	private synchronized TokenBucket getOverflowTokenBucket() {
+		if (overflowTokenBucket == null) {
+			overflowTokenBucket = new TokenBucket(burst);
+		}
+		return overflowTokenBucket;
+	}
+
+	private static class TokenBucket {
+		private double tokens;
+		private long lastRefill = System.nanoTime();
+
+		TokenBucket(int burst) {
+			tokens = burst;
+		}
+
+		synchronized boolean tryAcquire(double reportsPerSecond, int burst) {
+			long now = System.nanoTime();
+			tokens = Math.min(burst, tokens + (now - lastRefill) * reportsPerSecond / 1000000000);
+			lastRefill = now;
+			if (tokens >= 1) {
+				tokens--;
+				return true;
+			}
+			return false;
+		}
+	}
+
+}
@@ -16,7 +16,10 @@
 package nl.nn.testtool;
 
 import java.beans.Transient;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.Writer;
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -29,6 +32,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang.StringUtils;
@@ -39,6 +44,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import lombok.Data;
 import lombok.SneakyThrows;
+import nl.nn.testtool.LatencyBudget.CaptureMode;
 import nl.nn.testtool.MessageEncoder.ToStringResult;
 import nl.nn.testtool.run.ReportRunner;
 import nl.nn.testtool.storage.Storage;
@@ -46,6 +52,7 @@ import nl.nn.testtool.transform.MessageTransformer;
 import nl.nn.testtool.transform.ReportXmlTransformer;
 import nl.nn.testtool.util.CsvUtil;
 import nl.nn.testtool.util.EscapeUtil;
+import nl.nn.testtool.util.StringBuilderWriter;
 import nl.nn.testtool.util.XmlUtil;
 
 /**
@@ -62,6 +69,9 @@ public class Report implements Serializable {
 	private transient static final long serialVersionUID = 5;
 	private transient static Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 	protected transient static final long TIME_NOT_SET_VALUE = Long.MIN_VALUE;
+	private transient static final long ESTIMATED_MEMORY_USAGE_RELEASED = Long.MIN_VALUE;
+	// Shorter messages are not worth the overhead of a map entry
+	private transient static final int MIN_DEDUPLICATE_MESSAGE_LENGTH = 100;
 	// Please note that the set method should return void for XmlEncoder to
 	// store the property (hence the setVariableCsvWithoutException method)
 	private long startTime;
@@ -84,14 +94,29 @@ public class Report implements Serializable {
 	private transient String mainThread;
 	private transient long mainThreadFinishedTime = TIME_NOT_SET_VALUE;
 	private transient List<String> threads = new ArrayList<String>();
-	private transient List<String> threadsWithThreadCreatepoint = new ArrayList<String>();
-	private transient Map<String, Integer> threadCheckpointIndex = new HashMap<String, Integer>();
+	private transient Set<String> threadsWithThreadCreatepoint = new HashSet<String>();
+	// Checkpoints of a report in progress are appended to a segment per thread (see ThreadSegment) and the list of
+	// checkpoints is updated when the checkpoint is added to the end of the report, otherwise the list is marked
+	// outdated and created again from the segments when read
+	private transient Map<String, ThreadSegment> threadSegments = new HashMap<String, ThreadSegment>();
+	private transient ThreadSegment mainThreadSegment;
+	private transient ThreadSegment tailSegment;
+	private transient volatile boolean checkpointsOutdated = false;
+	private transient int numberOfCheckpointsInSegments = 0;
 	private transient Map<String, Integer> threadFirstLevel = new HashMap<String, Integer>();
 	private transient Map<String, Integer> threadLevel = new HashMap<String, Integer>();
 	private transient Map<String, String> threadParent = new HashMap<String, String>();
 	private transient int threadsActiveCount = 0;
 	private transient TestTool testTool;
 	private transient boolean closed;
+	// Only messages of a report in progress are spilled to disk, the spill files are removed when the report is stored
+	// or discarded (reports read from storage, e.g. edited in the GUI, don't have such a moment)
+	private transient volatile boolean inProgress;
+	private transient long reportInProgressSequence;
+	// Estimated memory usage of a report in progress, updated incrementally instead of iterating all checkpoints as it
+	// is checked for every new checkpoint. Streams can be closed by other threads than the threads writing to the
+	// report (and not holding the lock on the report), hence AtomicLong
+	private transient AtomicLong estimatedMemoryUsageInProgress = new AtomicLong();
 	private transient Storage storage;
 	// Property storageId will not be exposed by JSON-B when using storageId instead of transientStorageId, see also:
 	//   https://github.com/jakartaee/jsonb-api/issues/269
@@ -115,10 +140,28 @@ public class Report implements Serializable {
 	private transient ReportXmlTransformer globalReportXmlTransformer;
 	private transient String xml;
 	private transient Report originalReport;
+	private transient Map<Path, Checkpoint> checkpointsByPath;
+	private transient volatile PathBuilder pathBuilder;
+	private transient int pathBuilderSize;
+	// Paths of the checkpoints of a rerun (to find the checkpoints of the original report) are computed in the order
+	// in which the checkpoints are reserved, instead of peeking at the end of the list of checkpoints, which would need
+	// to be created again (together with all paths) every time a checkpoint is inserted (after nested stubable
+	// checkpoints) or added by another thread than the last thread
+	private transient PathBuilder rerunPathBuilder;
 	private transient boolean differenceChecked = false;
 	private transient boolean differenceFound = false;
 	private transient Map<String, String> truncatedMessageMap = new RefCompareMap<String, String>();
+	// Identical messages of different checkpoints of a report in progress share one String object (not needed anymore
+	// once the report is closed). Streams can be closed by other threads than the threads holding the lock on the
+	// report, hence a concurrent map
+	private transient volatile Map<String, String> messages = new ConcurrentHashMap<String, String>();
 	private transient boolean reportFilterMatching = true;
+	private transient CaptureMode captureMode = CaptureMode.FULL;
+	// Used by LatencyBudget, nanoseconds spent by Ladybug for the checkpoints of this report
+	private transient long startNanoTime = System.nanoTime();
+	private transient long captureOverhead;
+	private transient boolean captureOverheadRecorded;
+	private transient ScheduledClose scheduledClose;
 	private transient boolean logReportFilterMatching = true;
 	private transient boolean logMaxCheckpoints = true;
 	private transient boolean logMaxMemoryUsage = true;
@@ -128,7 +171,9 @@ public class Report implements Serializable {
 	public Report() {
 		mainThread = Thread.currentThread().getName();
 		threads.add(mainThread);
-		threadCheckpointIndex.put(mainThread, 0);
+		mainThreadSegment = new ThreadSegment(null);
+		tailSegment = mainThreadSegment;
+		threadSegments.put(mainThread, mainThreadSegment);
 		threadFirstLevel.put(mainThread, 0);
 		threadLevel.put(mainThread, 0);
 		threadsActiveCount++;
@@ -150,6 +195,9 @@ public class Report implements Serializable {
 	@JsonIgnore
 	public void setClosed(boolean closed) {
 		this.closed = closed;
+		if (closed) {
+			messages = null;
+		}
 	}
 
 	@Transient
@@ -158,6 +206,53 @@ public class Report implements Serializable {
 		return closed;
 	}
 
+	protected void setInProgress(boolean inProgress) {
+		this.inProgress = inProgress;
+	}
+
+	@Transient
+	@JsonIgnore
+	public boolean isInProgress() {
+		return inProgress;
+	}
+
+	protected void setReportInProgressSequence(long reportInProgressSequence) {
+		this.reportInProgressSequence = reportInProgressSequence;
+	}
+
+	protected long getReportInProgressSequence() {
+		return reportInProgressSequence;
+	}
+
+	private void updateEstimatedMemoryUsageInProgress(long delta) {
+		if (delta != 0) {
+			long value;
+			do {
+				value = estimatedMemoryUsageInProgress.get();
+				if (value == ESTIMATED_MEMORY_USAGE_RELEASED) {
+					// Report is no longer in progress
+					return;
+				}
+			} while (!estimatedMemoryUsageInProgress.compareAndSet(value, value + delta));
+			testTool.updateReportsInProgressEstimatedMemoryUsage(delta);
+		}
+	}
+
+	/**
+	 * Called by {@link TestTool} when the report is no longer in progress. Changes to the estimated memory usage after
+	 * this call (e.g. a stream that is closed after the report has been closed by {@link CloseReportsTask}) are no
+	 * longer passed on to {@link TestTool#getReportsInProgressEstimatedMemoryUsage()}
+	 * 
+	 * @return the estimated memory usage to subtract from the estimated memory usage of all reports in progress
+	 */
+	protected long releaseEstimatedMemoryUsageInProgress() {
+		long value = estimatedMemoryUsageInProgress.getAndSet(ESTIMATED_MEMORY_USAGE_RELEASED);
+		if (value == ESTIMATED_MEMORY_USAGE_RELEASED) {
+			return 0L;
+		}
+		return value;
+	}
+
 	@Transient
 	@JsonIgnore
 	public void setStorage(Storage storage) {
@@ -315,12 +410,74 @@ public class Report implements Serializable {
 		return reportFilterMatching;
 	}
 
-	protected <T> T checkpoint(String childThreadId, String sourceClassName, String name, T message,
-			StubableCode stubableCode, StubableCodeThrowsException stubableCodeThrowsException,
-			Set<String> matchingStubStrategies, int checkpointType, int levelChangeNextCheckpoint) {
+	protected void setCaptureMode(CaptureMode captureMode) {
+		this.captureMode = captureMode;
+	}
+
+	protected CaptureMode getCaptureMode() {
+		return captureMode;
+	}
+
+	protected void setScheduledClose(ScheduledClose scheduledClose) {
+		this.scheduledClose = scheduledClose;
+	}
+
+	protected ScheduledClose getScheduledClose() {
+		return scheduledClose;
+	}
+
+	protected void setStartNanoTime(long startNanoTime) {
+		this.startNanoTime = startNanoTime;
+	}
+
+	protected long getStartNanoTime() {
+		return startNanoTime;
+	}
+
+	protected void setCaptureOverhead(long captureOverhead) {
+		this.captureOverhead = captureOverhead;
+	}
+
+	protected long getCaptureOverhead() {
+		return captureOverhead;
+	}
+
+	protected void setCaptureOverheadRecorded(boolean captureOverheadRecorded) {
+		this.captureOverheadRecorded = captureOverheadRecorded;
+	}
+
+	protected boolean isCaptureOverheadRecorded() {
+		return captureOverheadRecorded;
+	}
+
+	/**
+	 * @return max message length of {@link TestTool#getMaxMessageLength()} or a lower max message length when the
+	 *         capture mode of this report has been reduced by the {@link LatencyBudget}
+	 */
+	protected int getMaxMessageLength() {
+		int maxMessageLength = testTool.getMaxMessageLength();
+		if (captureMode != CaptureMode.FULL) {
+			int truncatedMessageLength = testTool.getLatencyBudget().getTruncatedMessageLength();
+			if (maxMessageLength < 0 || truncatedMessageLength < maxMessageLength) {
+				maxMessageLength = truncatedMessageLength;
+			}
+		}
+		return maxMessageLength;
+	}
+
+	/**
+	 * First phase of adding a checkpoint to the report (to be called while holding the lock on the report). Update the
+	 * thread administration and decide whether the checkpoint will be added to the report and whether it needs to be
+	 * stubbed. The stubable code (when not stubbed) should be executed by the caller after releasing the lock on the
+	 * report, after which {@link #publishCheckpoint(CheckpointReservation, Object)} should be called (again while
+	 * holding the lock on the report). This way a slow call to an external system in one thread will not block other
+	 * threads writing to the same report.
+	 */
+	protected <T> CheckpointReservation reserveCheckpoint(String childThreadId, String sourceClassName, String name,
+			T message, Set<String> matchingStubStrategies, int checkpointType, int levelChangeNextCheckpoint) {
 		String parentThreadName = Thread.currentThread().getName();
 		if (checkpointType == Checkpoint.TYPE_THREADCREATEPOINT) {
-			if (!threads.contains(parentThreadName)) {
+			if (!threadSegments.containsKey(parentThreadName)) {
 				log.warn("Unknown parent thread '" + parentThreadName + "' for child thread '" + childThreadId
 						+ "' , ignored checkpoint " + getCheckpointLogDescription(name, checkpointType, null));
 			} else {
@@ -329,25 +486,25 @@ public class Report implements Serializable {
 				threadsWithThreadCreatepoint.add(childThreadId);
 			}
 		} else {
-			if (checkpointType == Checkpoint.TYPE_THREADSTARTPOINT && !threads.contains(childThreadId)) {
+			if (checkpointType == Checkpoint.TYPE_THREADSTARTPOINT && !threadSegments.containsKey(childThreadId)) {
 				if (threads.size() == 0) {
 					// This can happen when a report is still open because not all message capturers are closed while
 					// all threads are finished
 					warnNewChildThreadDetected(childThreadId, null, false, name, checkpointType, true);
-					return message;
+					return new CheckpointReservation();
 				} else {
 					parentThreadName = threads.get(threads.size() - 1);
 					threadCreatepoint(parentThreadName, childThreadId);
 					warnNewChildThreadDetected(childThreadId, parentThreadName, false, name, checkpointType, false);
 				}
-			} else if (checkpointType == Checkpoint.TYPE_STARTPOINT && !threads.contains(parentThreadName)) {
+			} else if (checkpointType == Checkpoint.TYPE_STARTPOINT && !threadSegments.containsKey(parentThreadName)) {
 				checkpointType = Checkpoint.TYPE_THREADSTARTPOINT;
 				childThreadId = parentThreadName;
 				if (threads.size() == 0) {
 					// This can happen when a report is still open because not all message capturers are closed while
 					// all threads are finished
 					warnNewChildThreadDetected(childThreadId, null, true, name, checkpointType, true);
-					return message;
+					return new CheckpointReservation();
 				} else {
 					parentThreadName = threads.get(threads.size() - 1);
 					threadCreatepoint(parentThreadName, childThreadId);
@@ -355,9 +512,8 @@ public class Report implements Serializable {
 				}
 			}
 		}
-		message = addCheckpoint(childThreadId, sourceClassName, name, message, stubableCode, stubableCodeThrowsException,
-				matchingStubStrategies, checkpointType, levelChangeNextCheckpoint);
-		return message;
+		return reserveThreadCheckpoint(childThreadId, sourceClassName, name, message, matchingStubStrategies,
+				checkpointType, levelChangeNextCheckpoint);
 	}
 
 	private void warnNewChildThreadDetected(String childThreadId, String parentThreadName,
@@ -381,7 +537,10 @@ public class Report implements Serializable {
 
 	private void threadCreatepoint(String parentThreadName, String childThreadId) {
 		threads.add(threads.indexOf(parentThreadName), childThreadId);
-		threadCheckpointIndex.put(childThreadId, threadCheckpointIndex.get(parentThreadName));
+		ThreadSegment childThreadSegment = new ThreadSegment(threadSegments.get(parentThreadName));
+		// Checkpoints of the child thread will be shown after the checkpoints added by the parent thread so far
+		appendToSegment(childThreadSegment.parent, childThreadSegment);
+		threadSegments.put(childThreadId, childThreadSegment);
 		threadFirstLevel.put(childThreadId, threadLevel.get(parentThreadName));
 		threadLevel.put(childThreadId, threadLevel.get(parentThreadName));
 		threadParent.put(childThreadId, parentThreadName);
@@ -393,46 +552,103 @@ public class Report implements Serializable {
 	 * visualize the status of waiting for a thread to start. A threadCreatepoint should be visualized as an error as a
 	 * thread was expected to start but didn't start.
 	 * 
-	 * @param index
-	 * @param threadName
+	 * @param childThreadId
 	 */
-	private void removeThreadCreatepoint(int index, String childThreadId) {
+	private void removeThreadCreatepoint(String childThreadId) {
 		if (threadsWithThreadCreatepoint.remove(childThreadId)) {
+			ThreadSegment segment = threadSegments.get(childThreadId);
+			segment.threadCreatepointRemoved = true;
 			// When testTool.getMaxCheckpoints() or testTool.getMaxMemoryUsage() is reached method threadCreatepoint()
-			// will still be called but no checkpoint is added, hence check index < checkpoints.size()
-			if (index < checkpoints.size()) {
-				checkpoints.remove(index);
-				for (int i = threads.indexOf(childThreadId) + 1; i < threads.size(); i++) {
-					String key = threads.get(i);
-					Integer value = threadCheckpointIndex.get(key);
-					threadCheckpointIndex.put(key, value - 1);
+			// will still be called but no checkpoint is added, hence check threadCreatepoint != null
+			Checkpoint checkpoint = segment.threadCreatepoint;
+			if (checkpoint != null) {
+				segment.threadCreatepoint = null;
+				// The threadCreatepoint is the first checkpoint in the segment of the child thread
+				segment.items.remove(checkpoint);
+				numberOfCheckpointsInSegments--;
+				if (!checkpointsOutdated && checkpoints.size() > 0
+						&& checkpoints.get(checkpoints.size() - 1) == checkpoint) {
+					// Child thread started before other checkpoints were added to the report
+					checkpoints.remove(checkpoints.size() - 1);
+				} else {
+					checkpointsOutdated = true;
 				}
+				invalidatePaths();
+				updateEstimatedMemoryUsageInProgress(-checkpoint.getEstimatedMemoryUsage());
+			}
+		}
+	}
+
+	/**
+	 * Append a checkpoint or the segment of a child thread to a segment. When the segment is on the tail chain (the
+	 * segments of which the end is the end of the report) the checkpoint is also added to the list of checkpoints,
+	 * otherwise the list of checkpoints is marked outdated.
+	 */
+	private void appendToSegment(ThreadSegment segment, Object item) {
+		boolean appendToEndOfReport = isOnTailChain(segment);
+		segment.items.add(item);
+		if (item instanceof Checkpoint) {
+			Checkpoint checkpoint = (Checkpoint)item;
+			numberOfCheckpointsInSegments++;
+			if (appendToEndOfReport && !checkpointsOutdated) {
+				addPath(checkpoints.size(), checkpoint);
+				checkpoint.setStoredIndex(checkpoints.size());
+				checkpoints.add(checkpoint);
+			} else {
+				checkpointsOutdated = true;
+				invalidatePaths();
+			}
+		}
+		if (appendToEndOfReport) {
+			tailSegment = item instanceof ThreadSegment ? (ThreadSegment)item : segment;
+		}
+	}
+
+	/**
+	 * Insert a checkpoint before the items that have been appended to a segment after the position was reserved (see
+	 * {@link #reserveCheckpoint(String, String, String, Object, Set, int, int)}).
+	 */
+	private void insertIntoSegment(ThreadSegment segment, int position, Checkpoint checkpoint) {
+		segment.items.add(position, checkpoint);
+		numberOfCheckpointsInSegments++;
+		checkpointsOutdated = true;
+		invalidatePaths();
+	}
+
+	private boolean isOnTailChain(ThreadSegment segment) {
+		ThreadSegment current = tailSegment;
+		while (current != segment) {
+			ThreadSegment parent = current.parent;
+			if (parent == null || parent.items.get(parent.items.size() - 1) != current) {
+				return false;
 			}
+			current = parent;
 		}
+		return true;
 	}
 
-	private  <T> T addCheckpoint(String childThreadId, String sourceClassName, String name, T message,
-			StubableCode stubableCode, StubableCodeThrowsException stubableCodeThrowsException,
-			Set<String> matchingStubStrategies, int checkpointType, int levelChangeNextCheckpoint) {
+	private <T> CheckpointReservation reserveThreadCheckpoint(String childThreadId, String sourceClassName,
+			String name, T message, Set<String> matchingStubStrategies, int checkpointType,
+			int levelChangeNextCheckpoint) {
+		CheckpointReservation checkpointReservation = new CheckpointReservation();
 		String threadName = Thread.currentThread().getName();
-		Integer index = threadCheckpointIndex.get(threadName);
+		ThreadSegment segment = threadSegments.get(threadName);
 		Integer level = threadLevel.get(threadName);
 		if (checkpointType == Checkpoint.TYPE_THREADSTARTPOINT) {
-			// At this point index will already be != null when name of the child thread was used as childThreadId
+			// At this point segment will already be != null when name of the child thread was used as childThreadId
 			// when calling threadCreatepoint() (no rename of child thread id in the relevant maps needed in that case)
-			if (index == null) {
-				index = threadCheckpointIndex.remove(childThreadId);
-				if (index != null) {
+			if (segment == null) {
+				segment = threadSegments.remove(childThreadId);
+				if (segment != null) {
 					// Rename child thread id in the relevant lists and maps to the actual thread name of the child
 					// thread (which at this point is the current thread (calling it's first checkpoint with
-					// threadStartpoint()) for as far as they are not already the same (in which case index will be
+					// threadStartpoint()) for as far as they are not already the same (in which case segment will be
 					// initialized with a non null value at the beginning of this method)
-					threads.add(threads.indexOf(childThreadId), threadName);
-					threads.remove(childThreadId);
+					threads.set(threads.indexOf(childThreadId), threadName);
 					if (threadsWithThreadCreatepoint.remove(childThreadId)) {
 						threadsWithThreadCreatepoint.add(threadName);
 					}
-					threadCheckpointIndex.put(threadName, index);
+					threadSegments.put(threadName, segment);
 					level = threadFirstLevel.remove(childThreadId);
 					threadFirstLevel.put(threadName, level);
 					level = threadLevel.remove(childThreadId);
@@ -444,24 +660,33 @@ public class Report implements Serializable {
 							+ "', use the same childThreadId when calling threadCreatepoint() and threadStartpoint()");
 				}
 			}
-			if (index != null) {
-				removeThreadCreatepoint(index, threadName);
+			if (segment != null) {
+				removeThreadCreatepoint(threadName);
 			}
 		}
-		if (index == null) {
+		if (segment == null) {
 			log.warn("Unknown thread '" + threadName + "', ignored checkpoint "
 			 		+ getCheckpointLogDescription(name, checkpointType, level));
 		} else {
+			checkpointReservation.threadName = threadName;
+			checkpointReservation.name = name;
+			checkpointReservation.checkpointType = checkpointType;
+			checkpointReservation.level = level;
+			checkpointReservation.levelChangeNextCheckpoint = levelChangeNextCheckpoint;
+			checkpointReservation.executeStubableCode = true;
+			checkpointReservation.segment = segment;
+			checkpointReservation.segmentPosition = segment.items.size();
+			if (checkpointType == Checkpoint.TYPE_THREADCREATEPOINT) {
+				checkpointReservation.childThreadSegment = threadSegments.get(childThreadId);
+			}
 			if (!isReportFilterMatching()) {
-				message = TestTool.execute(stubableCode, stubableCodeThrowsException, message);
 				if (logReportFilterMatching) {
 					log.debug("Report name doesn't match report filter regex, ignored checkpoint "
 							+ getCheckpointLogDescription(name, checkpointType, level) + " "
 							+ getOtherCheckpointsLogDescription());
 					logReportFilterMatching = false;
 				}
-			} else if (checkpoints.size() >= testTool.getMaxCheckpoints()) {
-				message = TestTool.execute(stubableCode, stubableCodeThrowsException, message);
+			} else if (numberOfCheckpointsInSegments >= testTool.getMaxCheckpoints()) {
 				if (logMaxCheckpoints) {
 					log.warn("Maximum number of checkpoints (" + testTool.getMaxCheckpoints()
 							+ ") exceeded, ignored checkpoint "
@@ -469,8 +694,10 @@ public class Report implements Serializable {
 							+ getOtherCheckpointsLogDescription());
 					logMaxCheckpoints = false;
 				}
-			} else if (getEstimatedMemoryUsage() >= testTool.getMaxMemoryUsage()) {
-				message = TestTool.execute(stubableCode, stubableCodeThrowsException, message);
+			} else if (checkpointType == Checkpoint.TYPE_INFOPOINT
+					&& captureMode.compareTo(CaptureMode.SKIP_INFOPOINTS) >= 0) {
+				// Infopoints are skipped to stay within the latency budget (decision has been logged by LatencyBudget)
+			} else if (estimatedMemoryUsageInProgress.get() >= testTool.getMaxMemoryUsage()) {
 				if (logMaxMemoryUsage) {
 					log.warn("Maximum memory usage reached for this report, ignored checkpoint "
 							+ getCheckpointLogDescription(name, checkpointType, level) + " "
@@ -478,28 +705,20 @@ public class Report implements Serializable {
 					logMaxMemoryUsage = false;
 				}
 			} else {
-				message = addCheckpoint(threadName, sourceClassName, name, message, stubableCode,
-						stubableCodeThrowsException, matchingStubStrategies, checkpointType, index, level);
-			}
-			Integer newLevel = level + levelChangeNextCheckpoint;
-			threadLevel.put(threadName, newLevel);
-			if (newLevel.equals(threadFirstLevel.get(threadName))) {
-				// threadCreatepoint has already been removed on first checkpoint for thread, hence use false
-				// for removeThreadCreatepoint
-				closeThread(threadName, false);
+				prepareCheckpoint(checkpointReservation, threadName, sourceClassName, name, message,
+						matchingStubStrategies, checkpointType, level);
 			}
 		}
-		return message;
+		return checkpointReservation;
 	}
 
-	@SneakyThrows
-	private  <T> T addCheckpoint(String threadName, String sourceClassName, String name, T message,
-			StubableCode stubableCode, StubableCodeThrowsException stubableCodeThrowsException,
-			Set<String> matchingStubStrategies, int checkpointType, Integer index, Integer level) {
+	private <T> void prepareCheckpoint(CheckpointReservation checkpointReservation, String threadName,
+			String sourceClassName, String name, T message, Set<String> matchingStubStrategies, int checkpointType,
+			Integer level) {
 		Checkpoint checkpoint = new Checkpoint(this, threadName, sourceClassName, name, checkpointType, level);
 		boolean stub = false;
 		if (originalReport != null) {
-			Path path = checkpoint.getPath(true);
+			Path path = getRerunPath(checkpoint);
 			Checkpoint originalCheckpoint = originalReport.getCheckpoint(path);
 			if (originalCheckpoint == null || originalCheckpoint.getType() != checkpoint.getType()) {
 				String stubNotFoundMessage = path.toString() + " of type " + checkpoint.getTypeAsString();
@@ -536,44 +755,103 @@ public class Report implements Serializable {
 			if (stub) {
 				checkpoint.setStubbed(true);
 				message = getMessageEncoder().toObject(originalCheckpoint, message);
-				message = checkpoint.setMessage(message);
+				checkpointReservation.message = checkpoint.setMessage(message);
 			}
 		}
-		if (!stub) {
-			try {
-				message = TestTool.execute(stubableCode, stubableCodeThrowsException, message);
-			} catch(Throwable t) {
-				testTool.abortpoint(correlationId, sourceClassName, name, t.getMessage());
-				throw t;
+		checkpointReservation.checkpoint = checkpoint;
+		checkpointReservation.executeStubableCode = !stub;
+		checkpointReservation.abortpointOnException = !stub;
+	}
+
+	/**
+	 * Get the path of a checkpoint of a rerun in O(depth of the checkpoint). For a single thread the result is the
+	 * same as {@link #getPath(Checkpoint, boolean)} would give once the checkpoint has been added to the report (a
+	 * checkpoint is reserved before the checkpoints of it's stubable code). For multiple threads the paths depend on
+	 * the order in which the threads reserve their checkpoints (as they did when peeking at the end of the list of
+	 * checkpoints).
+	 */
+	private Path getRerunPath(Checkpoint checkpoint) {
+		if (rerunPathBuilder == null) {
+			rerunPathBuilder = new PathBuilder();
+		}
+		if (checkpoint.getType() == Checkpoint.TYPE_THREADCREATEPOINT) {
+			// Will be removed from the report again when the child thread starts
+			return rerunPathBuilder.peek(checkpoint.getLevel(), checkpoint.getName());
+		}
+		return rerunPathBuilder.append(checkpoint.getLevel(), checkpoint.getName());
+	}
+
+	/**
+	 * Second phase of adding a checkpoint to the report (to be called while holding the lock on the report), see
+	 * {@link #reserveCheckpoint(String, String, String, Object, Set, int, int)}.
+	 * 
+	 * @param checkpointReservation  the result of {@link #reserveCheckpoint(String, String, String, Object, Set, int, int)}
+	 * @param message                the result of the stubable code (when executed)
+	 * @return                       the message to return to the caller of the checkpoint
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> T publishCheckpoint(CheckpointReservation checkpointReservation, T message) {
+		String threadName = checkpointReservation.threadName;
+		if (threadName == null) {
+			// Checkpoint ignored
+			return message;
+		}
+		Checkpoint checkpoint = checkpointReservation.checkpoint;
+		if (checkpoint != null) {
+			if (checkpoint.isStubbed()) {
+				message = (T)checkpointReservation.message;
+			} else if (testTool.isMetadataOnly()) {
+				if (message != null) {
+					checkpoint.setMessageClassName(message.getClass().getName());
+				}
+			} else {
+				message = checkpoint.setMessage(message);
 			}
-			message = checkpoint.setMessage(message);
 		}
-		if (index > checkpoints.size()) {
-			// This code should not be necessary anymore (see testRemoveThreadCreatepoint() for the issue that has been
-			// fixed). Keep the following code for now and remove it somewhere in the future
-			String warning = "Ladybug adjustment of checkpoint index to prevent IndexOutOfBoundsException."
-					+ " For unknown reason index is " + index + " while checkpoints size is " + checkpoints.size() + "."
-					+ " Please create an issue at https://github.com/ibissource/ibis-ladybug/issues/new\n"
-					+ getThreadInfo();
-			log.warn(warning);
-			Checkpoint warningCheckpoint = new Checkpoint(this, threadName, this.getClass().getCanonicalName(),
-					"WARNING", Checkpoint.TYPE_INFOPOINT, level);
-			warningCheckpoint.setMessage(warning);
-			threadCheckpointIndex.put(threadName, checkpoints.size());
-			index = checkpoints.size() - 1;
-			checkpoints.add(index, warningCheckpoint);
-			index++;
+		// Get the segment again as the thread could have been closed while the stubable code was being executed
+		ThreadSegment segment = threadSegments.get(threadName);
+		if (closed || segment == null) {
+			// The stubable code is executed without holding the lock on the report, hence the thread (or the report)
+			// could have been closed in the meantime (e.g. by CloseReportsTask)
+			log.warn("Thread '" + threadName + "' closed while executing stubable code, ignored checkpoint "
+					+ getCheckpointLogDescription(checkpointReservation.name, checkpointReservation.checkpointType,
+							checkpointReservation.level));
+			return message;
 		}
-		// Add checkpoint to the list after stubable code has been executed. Otherwise when a report in progress is
-		// opened it might give the impression that the stubable code is already executed
-		checkpoints.add(index, checkpoint);
-		for (int i = threads.indexOf(threadName); i < threads.size(); i++) {
-			String key = threads.get(i);
-			Integer value = threadCheckpointIndex.get(key);
-			threadCheckpointIndex.put(key, value + 1);
+		Integer level = checkpointReservation.level;
+		if (checkpoint != null && checkpointReservation.childThreadSegment != null) {
+			if (checkpointReservation.childThreadSegment.threadCreatepointRemoved) {
+				// Child thread already started (or closed) in the meantime
+				checkpoint = null;
+			} else {
+				// Add the checkpoint that shows that the child thread hasn't started yet to the segment of the child
+				// thread so it will be at the right position and can be removed when the child thread starts
+				segment = checkpointReservation.childThreadSegment;
+				segment.threadCreatepoint = checkpoint;
+			}
 		}
-		if (log.isDebugEnabled()) {
-			log.debug("Added checkpoint " + getCheckpointLogDescription(name, checkpointType, level));
+		if (checkpoint != null) {
+			// Add checkpoint to the report after stubable code has been executed. Otherwise when a report in progress
+			// is opened it might give the impression that the stubable code is already executed
+			if (segment == checkpointReservation.segment
+					&& checkpointReservation.segmentPosition < segment.items.size()) {
+				// Checkpoints (or child threads) added by the stubable code are shown after this checkpoint
+				insertIntoSegment(segment, checkpointReservation.segmentPosition, checkpoint);
+			} else {
+				appendToSegment(segment, checkpoint);
+			}
+			updateEstimatedMemoryUsageInProgress(checkpoint.getEstimatedMemoryUsage());
+			if (log.isDebugEnabled()) {
+				log.debug("Added checkpoint " + getCheckpointLogDescription(checkpointReservation.name,
+						checkpointReservation.checkpointType, level));
+			}
+		}
+		Integer newLevel = level + checkpointReservation.levelChangeNextCheckpoint;
+		threadLevel.put(threadName, newLevel);
+		if (newLevel.equals(threadFirstLevel.get(threadName))) {
+			// threadCreatepoint has already been removed on first checkpoint for thread, hence use false
+			// for removeThreadCreatepoint
+			closeThread(threadName, false);
 		}
 		return message;
 	}
@@ -582,7 +860,7 @@ public class Report implements Serializable {
 		return "\nmainThread: " + mainThread
 				+ "\nmainThreadFinishedTime: " + mainThreadFinishedTime
 				+ "\nthreads: " + threads
-				+ "\nthreadCheckpointIndex: " + threadCheckpointIndex
+				+ "\nthreadSegments: " + threadSegments
 				+ "\nthreadFirstLevel: " + threadFirstLevel
 				+ "\nthreadLevel: " + threadLevel
 				+ "\nthreadParent: " + threadParent
@@ -594,8 +872,8 @@ public class Report implements Serializable {
 	}
 
 	protected String truncateMessage(Checkpoint checkpoint, String message) {
-		if (testTool.getMaxMessageLength() > -1 && message != null
-				&& message.toString().length() > testTool.getMaxMessageLength()) {
+		int maxMessageLength = getMaxMessageLength();
+		if (maxMessageLength > -1 && message != null && message.length() > maxMessageLength) {
 			// For a message that is referenced by multiple checkpoints, have one truncated message that is
 			// referenced by those checkpoints, to prevent creating multiple String objects representing the
 			// same string and occupying unnecessary memory.
@@ -603,7 +881,7 @@ public class Report implements Serializable {
 			if(truncatedMessageMap.containsKey(message)) {
 				return truncatedMessageMap.get(message);
 			} else {
-				String truncatedMessage = message.substring(0, testTool.getMaxMessageLength());
+				String truncatedMessage = message.substring(0, maxMessageLength);
 				truncatedMessageMap.put(message, truncatedMessage);
 				return truncatedMessage;
 			}
@@ -611,17 +889,33 @@ public class Report implements Serializable {
 		return message;
 	}
 
+	/**
+	 * @param message ...
+	 * @return a String object with the same content as message that is already referenced by another checkpoint of
+	 *         this report or message itself
+	 */
+	protected String deduplicateMessage(String message) {
+		Map<String, String> messages = this.messages;
+		if (messages == null || message == null || message.length() < MIN_DEDUPLICATE_MESSAGE_LENGTH) {
+			return message;
+		}
+		String existingMessage = messages.putIfAbsent(message, message);
+		return existingMessage == null ? message : existingMessage;
+	}
+
 	public Checkpoint getOriginalEndpointOrAbortpointForCurrentLevel() {
 		Checkpoint result = null;
 		if (originalReport != null) {
+			List<Checkpoint> checkpoints = getCheckpoints();
+			List<Checkpoint> originalCheckpoints = originalReport.getCheckpoints();
 			Checkpoint lastCheckpoint = (Checkpoint)checkpoints.get(checkpoints.size() - 1);
 			Checkpoint checkpoint = originalReport.getCheckpoint(lastCheckpoint.getPath());
 			if (checkpoint != null) {
-				int i = originalReport.checkpoints.indexOf(checkpoint) + 1;
+				int i = originalReport.getIndex(checkpoint) + 1;
 				while (checkpoint.getType() != Checkpoint.TYPE_ENDPOINT
 						&& checkpoint.getType() != Checkpoint.TYPE_ABORTPOINT
-						&& i < originalReport.checkpoints.size()) {
-					checkpoint = (Checkpoint)originalReport.checkpoints.get(i);
+						&& i < originalCheckpoints.size()) {
+					checkpoint = (Checkpoint)originalCheckpoints.get(i);
 					i++;
 				}
 				if (checkpoint.getType() == Checkpoint.TYPE_ENDPOINT
@@ -651,13 +945,12 @@ public class Report implements Serializable {
 	}
 
 	protected void closeThread(String threadName, boolean removeThreadCreatepoint) {
-		Integer index = threadCheckpointIndex.get(threadName);
-		if (index != null) {
+		if (threadSegments.containsKey(threadName)) {
 			if (removeThreadCreatepoint) {
-				removeThreadCreatepoint(index, threadName);
+				removeThreadCreatepoint(threadName);
 			}
 			threads.remove(threadName);
-			threadCheckpointIndex.remove(threadName);
+			threadSegments.remove(threadName);
 			threadFirstLevel.remove(threadName);
 			threadLevel.remove(threadName);
 			threadParent.remove(threadName);
@@ -672,7 +965,7 @@ public class Report implements Serializable {
 	}
 
 	protected boolean mainThreadFinished() {
-		return !threads.contains(mainThread);
+		return !threadSegments.containsKey(mainThread);
 	}
 
 	protected boolean streamingMessageListenersFinished() {
@@ -703,7 +996,7 @@ public class Report implements Serializable {
 	}
 
 	protected void closeMessageCapturers() {
-		for (Checkpoint checkpoint : checkpoints) {
+		for (Checkpoint checkpoint : getCheckpoints()) {
 			checkpoint.closeMessageCapturer();
 		}
 	}
@@ -744,6 +1037,7 @@ public class Report implements Serializable {
 				if (streamingMessageResult != null) {
 					finishedStreamingMessage.add(streamingMessage);
 					for (Checkpoint checkpoint : streamingMessageListeners.get(streamingMessage)) {
+						long estimatedMemoryUsage = checkpoint.getEstimatedMemoryUsage();
 						checkpoint.setWaitingForStream(false);
 						checkpoint.setStreaming(streamingMessageResult.getStreamingType());
 						if (streamingMessageResult.getException() != null) {
@@ -752,11 +1046,11 @@ public class Report implements Serializable {
 							Object message = streamingMessageResult.getMessage();
 							String charset = streamingMessageResult.getCharset();
 							ToStringResult toStringResult = getMessageEncoder().toString(message, charset);
-							checkpoint.setMessage(toStringResult.getString());
-							checkpoint.setEncoding(toStringResult.getEncoding());
+							checkpoint.setEncodedMessage(toStringResult);
 							checkpoint.setMessageClassName(streamingMessageResult.getMessageClassName());
 							checkpoint.setPreTruncatedMessageLength(streamingMessageResult.getPreTruncatedMessageLength());
 						}
+						updateEstimatedMemoryUsageInProgress(checkpoint.getEstimatedMemoryUsage() - estimatedMemoryUsage);
 					}
 				}
 			}
@@ -766,9 +1060,26 @@ public class Report implements Serializable {
 		}
 	}
 
+	/**
+	 * Build an index used by {@link #getCheckpoint(Path)} to find a checkpoint in constant time. Should only be used
+	 * when the checkpoints of this report will not change anymore (e.g. for the original report of a rerun).
+	 */
+	protected void buildCheckpointsByPathIndex() {
+		Map<Path, Checkpoint> checkpointsByPath = new HashMap<Path, Checkpoint>();
+		for (Checkpoint checkpoint : getCheckpoints()) {
+			// Same result as getCheckpoint(Path) without index which returns the first matching checkpoint
+			checkpointsByPath.putIfAbsent(checkpoint.getPath(), checkpoint);
+		}
+		this.checkpointsByPath = checkpointsByPath;
+	}
+
 	public Checkpoint getCheckpoint(Path path) {
+		Map<Path, Checkpoint> checkpointsByPath = this.checkpointsByPath;
+		if (checkpointsByPath != null) {
+			return checkpointsByPath.get(path);
+		}
 		Checkpoint result = null;
-		Iterator<Checkpoint> iterator = checkpoints.iterator();
+		Iterator<Checkpoint> iterator = getCheckpoints().iterator();
 		while (result == null && iterator.hasNext()) {
 			Checkpoint checkpoint = (Checkpoint)iterator.next();
 			if (path.equals(checkpoint.getPath())) {
@@ -780,23 +1091,121 @@ public class Report implements Serializable {
 
 	public void setCheckpoints(List<Checkpoint> checkpoints) {
 		this.checkpoints = checkpoints;
+		checkpointsOutdated = false;
+		invalidatePaths();
+	}
+
+	/**
+	 * Get the index of a checkpoint in O(1). Every checkpoint stores it's index which is verified against the list of
+	 * checkpoints. When a checkpoint has been inserted or removed before it (or the report has been cloned or
+	 * deserialized) all checkpoints are numbered again.
+	 *
+	 * @param checkpoint ...
+	 * @return the index of the checkpoint or -1 when it isn't a checkpoint of this report
+	 */
+	protected int getIndex(Checkpoint checkpoint) {
+		List<Checkpoint> checkpoints = getCheckpoints();
+		int index = checkpoint.getStoredIndex();
+		if (index < 0 || index >= checkpoints.size() || checkpoints.get(index) != checkpoint) {
+			for (int i = 0; i < checkpoints.size(); i++) {
+				checkpoints.get(i).setStoredIndex(i);
+			}
+			index = checkpoint.getStoredIndex();
+			if (index < 0 || index >= checkpoints.size() || checkpoints.get(index) != checkpoint) {
+				index = -1;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Get the path of a checkpoint. Paths are stored on the checkpoints and computed incrementally as checkpoints are
+	 * appended to the report. When a checkpoint is inserted before the last checkpoint (e.g. by a child thread),
+	 * removed or changed the paths are computed again (in one linear pass) on the next call to this method.
+	 *
+	 * @param checkpoint           ...
+	 * @param checkpointInProgress when true and the checkpoint isn't part of this report (yet), return the path the
+	 *                             checkpoint would get when added as last checkpoint
+	 * @return ...
+	 */
+	protected synchronized Path getPath(Checkpoint checkpoint, boolean checkpointInProgress) {
+		List<Checkpoint> checkpoints = getCheckpoints();
+		PathBuilder pathBuilder = this.pathBuilder;
+		if (pathBuilder == null || pathBuilderSize != checkpoints.size()) {
+			pathBuilder = new PathBuilder();
+			for (Checkpoint currentCheckpoint : checkpoints) {
+				currentCheckpoint.setPath(pathBuilder.append(currentCheckpoint.getLevel(), currentCheckpoint.getName()),
+						pathBuilder);
+			}
+			pathBuilderSize = checkpoints.size();
+			this.pathBuilder = pathBuilder;
+		}
+		Path path = checkpoint.getPath(pathBuilder);
+		if (path == null) {
+			if (!checkpointInProgress) {
+				// Not a checkpoint of this report
+				pathBuilder = new PathBuilder();
+			}
+			path = pathBuilder.peek(checkpoint.getLevel(), checkpoint.getName());
+		}
+		return path;
+	}
+
+	/**
+	 * Compute the path of a checkpoint that will be inserted at index when paths are being computed incrementally
+	 */
+	private void addPath(int index, Checkpoint checkpoint) {
+		if (pathBuilder != null) {
+			if (index == checkpoints.size() && pathBuilderSize == checkpoints.size()) {
+				checkpoint.setPath(pathBuilder.append(checkpoint.getLevel(), checkpoint.getName()), pathBuilder);
+				pathBuilderSize++;
+			} else {
+				invalidatePaths();
+			}
+		}
+	}
+
+	protected void invalidatePaths() {
+		pathBuilder = null;
 	}
 
 	public List<Checkpoint> getCheckpoints() {
+		if (checkpointsOutdated) {
+			synchronized(this) {
+				if (checkpointsOutdated) {
+					List<Checkpoint> checkpoints = new ArrayList<Checkpoint>(numberOfCheckpointsInSegments);
+					mainThreadSegment.addCheckpoints(checkpoints);
+					this.checkpoints = checkpoints;
+					checkpointsOutdated = false;
+				}
+			}
+		}
 		return checkpoints;
 	}
 	
 	public Checkpoint getInputCheckpoint() {
-		return checkpoints.get(0);
+		return getCheckpoints().get(0);
 	}
 
 	public int getNumberOfCheckpoints() {
-		return checkpoints.size();
+		return getCheckpoints().size();
+	}
+
+	/**
+	 * Remove the temporary files of messages spilled to disk.
+	 *
+	 * @param keepMessages when true the messages will be read back onto the heap first
+	 * @see TestTool#setSpillThreshold(int)
+	 */
+	public void removeSpillFiles(boolean keepMessages) {
+		for (Checkpoint checkpoint : getCheckpoints()) {
+			checkpoint.removeSpillFile(keepMessages);
+		}
 	}
 
 	public long getEstimatedMemoryUsage() {
 		long estimatedMemoryUsage = 0L;
-		for (Checkpoint checkpoint : checkpoints) {
+		for (Checkpoint checkpoint : getCheckpoints()) {
 			estimatedMemoryUsage += checkpoint.getEstimatedMemoryUsage();
 		}
 		return estimatedMemoryUsage;
@@ -844,6 +1253,12 @@ public class Report implements Serializable {
 		return testTool.getMessageCapturer();
 	}
 
+	private void writeObject(ObjectOutputStream objectOutputStream) throws IOException {
+		// Make sure the list of checkpoints of a report in progress is up to date
+		getCheckpoints();
+		objectOutputStream.defaultWriteObject();
+	}
+
 	@Override
 	public Report clone() throws CloneNotSupportedException {
 		Report report = new Report();
@@ -858,7 +1273,7 @@ public class Report implements Serializable {
 		report.setTransformation(transformation);
 		report.setVariableCsv(variableCsv);
 		List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
-		for (Checkpoint checkpoint : this.checkpoints) {
+		for (Checkpoint checkpoint : getCheckpoints()) {
 			checkpoint = checkpoint.clone();
 			checkpoint.setReport(report);
 			checkpoints.add(checkpoint);
@@ -878,81 +1293,15 @@ public class Report implements Serializable {
 
 	public String toXml(ReportRunner reportRunner) {
 		if (xml == null) {
-			StringBuffer stringBuffer = new StringBuffer();
-			stringBuffer.append("<Report");
-			stringBuffer.append(" Name=\"" + EscapeUtil.escapeXml(name) + "\"");
-			stringBuffer.append(" Description=\"" + EscapeUtil.escapeXml(description) + "\"");
-			stringBuffer.append(" Path=\"" + EscapeUtil.escapeXml(path) + "\"");
-			stringBuffer.append(" CorrelationId=\"" + EscapeUtil.escapeXml(correlationId) + "\"");
-			stringBuffer.append(" StartTime=\"" + startTime + "\"");
-			stringBuffer.append(" EndTime=\"" + endTime + "\"");
-			stringBuffer.append(" NumberOfCheckpoints=\"" + getNumberOfCheckpoints() + "\"");
-			stringBuffer.append(" EstimatedMemoryUsage=\"" + getEstimatedMemoryUsage() + "\"");
-			stringBuffer.append(">");
-			for (Checkpoint checkpoint : checkpoints) {
-				String message;
-				if(reportRunner != null && checkpoint.containsVariables()) {
-					message = checkpoint.getMessageWithResolvedVariables(reportRunner);
-				} else {
-					message = checkpoint.getMessage();
-				}
-				stringBuffer.append("<Checkpoint");
-				stringBuffer.append(" Name=\"" + EscapeUtil.escapeXml(checkpoint.getName()) + "\"");
-				stringBuffer.append(" Type=\"" + EscapeUtil.escapeXml(checkpoint.getTypeAsString()) + "\"");
-				stringBuffer.append(" Level=\"" + checkpoint.getLevel() + "\"");
-				if (checkpoint.getSourceClassName() != null) {
-					stringBuffer.append(" SourceClassName=\"" + EscapeUtil.escapeXml(checkpoint.getSourceClassName()) + "\"");
-				}
-				if (checkpoint.getMessageClassName() != null) {
-					stringBuffer.append(" MessageClassName=\"" + EscapeUtil.escapeXml(checkpoint.getMessageClassName()) + "\"");
-				}
-				if (checkpoint.getPreTruncatedMessageLength() != -1) {
-					stringBuffer.append(" PreTruncatedMessageLength=\"" + checkpoint.getPreTruncatedMessageLength() + "\"");
-				}
-				if (checkpoint.getEncoding() != null) {
-					stringBuffer.append(" Encoding=\"" + EscapeUtil.escapeXml(checkpoint.getEncoding()) + "\"");
-				}
-				if (checkpoint.getStreaming() != null) {
-					stringBuffer.append(" Streaming=\"" + EscapeUtil.escapeXml(checkpoint.getStreaming()) + "\"");
-				}
-				if (checkpoint.isWaitingForStream()) {
-					stringBuffer.append(" WaitingForStream=\"" + checkpoint.isWaitingForStream() + "\"");
-				}
-				if (checkpoint.getStub() != Checkpoint.STUB_FOLLOW_REPORT_STRATEGY) {
-					stringBuffer.append(" Stub=\"" + checkpoint.getStub() + "\"");
-				}
-				if (checkpoint.isStubbed()) {
-					stringBuffer.append(" Stubbed=\"" + checkpoint.isStubbed() + "\"");
-				}
-				if (checkpoint.getStubNotFound() != null) {
-					stringBuffer.append(" StubNotFound=\"" + checkpoint.getStubNotFound() + "\"");
-				}
-				if (message == null) {
-					stringBuffer.append(" Null=\"true\"/>");
-				} else {
-					if (XmlUtil.isXml(message)) {
-						String textDecl = null;
-						if (message.startsWith("<?")) {
-							int i = message.indexOf("?>") + 2;
-							textDecl = message.substring(0, i);
-							stringBuffer.append(" TextDecl=\"");
-							stringBuffer.append(EscapeUtil.escapeXml(textDecl));
-							stringBuffer.append("\">");
-							message = message.substring(i);
-						} else {
-							stringBuffer.append(">");
-						}
-						stringBuffer.append(message);
-					} else {
-						stringBuffer.append(">");
-						stringBuffer.append(EscapeUtil.escapeXml(message));
-					}
-					stringBuffer.append("</Checkpoint>");
-				}
+			StringBuilderWriter writer = new StringBuilderWriter();
+			try {
+				writeXml(writer, reportRunner);
+			} catch (IOException e) {
+				// Not thrown by StringBuilderWriter
+				throw new IllegalStateException(e);
 			}
-			stringBuffer.append("</Report>");
-			xml = stringBuffer.toString();
-			if (reportXmlTransformer != null || (transformation != null && transformation.trim().length() > 0)) {
+			xml = writer.toString();
+			if (isXmlTransformed()) {
 				if (reportXmlTransformer == null) {
 					reportXmlTransformer = new ReportXmlTransformer();
 					reportXmlTransformer.setXslt(transformation);
@@ -962,10 +1311,118 @@ public class Report implements Serializable {
 				xml = globalReportXmlTransformer.transform(xml);
 			}
 		}
-		xml += "wut";
 		return xml;
 	}
 
+	/**
+	 * Write the same xml as {@link #toXml(ReportRunner)} returns to the writer. When the xml doesn't need to be
+	 * transformed and hasn't been cached yet it is written while reading the checkpoints (without building and
+	 * caching the complete xml as a string first).
+	 * 
+	 * @param writer       ...
+	 * @param reportRunner ...
+	 * @throws IOException when writing to the writer fails
+	 */
+	public void toXml(Writer writer, ReportRunner reportRunner) throws IOException {
+		if (xml != null || isXmlTransformed() || globalReportXmlTransformer != null) {
+			writer.write(toXml(reportRunner));
+		} else {
+			writeXml(writer, reportRunner);
+		}
+	}
+
+	private boolean isXmlTransformed() {
+		return reportXmlTransformer != null || (transformation != null && transformation.trim().length() > 0);
+	}
+
+	private void writeXml(Writer writer, ReportRunner reportRunner) throws IOException {
+		writer.write("<Report");
+		writeXmlAttribute(writer, "Name", name);
+		writeXmlAttribute(writer, "Description", description);
+		writeXmlAttribute(writer, "Path", path);
+		writeXmlAttribute(writer, "CorrelationId", correlationId);
+		writeXmlAttribute(writer, "StartTime", String.valueOf(startTime));
+		writeXmlAttribute(writer, "EndTime", String.valueOf(endTime));
+		writeXmlAttribute(writer, "NumberOfCheckpoints", String.valueOf(getNumberOfCheckpoints()));
+		writeXmlAttribute(writer, "EstimatedMemoryUsage", String.valueOf(getEstimatedMemoryUsage()));
+		writer.write(">");
+		for (Checkpoint checkpoint : getCheckpoints()) {
+			String message;
+			boolean messageXml;
+			if(reportRunner != null && checkpoint.containsVariables()) {
+				message = checkpoint.getMessageWithResolvedVariables(reportRunner);
+				messageXml = XmlUtil.isXml(message);
+			} else {
+				message = checkpoint.getMessage();
+				messageXml = checkpoint.isMessageXml(message);
+			}
+			writer.write("<Checkpoint");
+			writeXmlAttribute(writer, "Name", checkpoint.getName());
+			writeXmlAttribute(writer, "Type", checkpoint.getTypeAsString());
+			writeXmlAttribute(writer, "Level", String.valueOf(checkpoint.getLevel()));
+			if (checkpoint.getSourceClassName() != null) {
+				writeXmlAttribute(writer, "SourceClassName", checkpoint.getSourceClassName());
+			}
+			if (checkpoint.getMessageClassName() != null) {
+				writeXmlAttribute(writer, "MessageClassName", checkpoint.getMessageClassName());
+			}
+			if (checkpoint.getPreTruncatedMessageLength() != -1) {
+				writeXmlAttribute(writer, "PreTruncatedMessageLength",
+						String.valueOf(checkpoint.getPreTruncatedMessageLength()));
+			}
+			if (checkpoint.getEncoding() != null) {
+				writeXmlAttribute(writer, "Encoding", checkpoint.getEncoding());
+			}
+			if (checkpoint.getStreaming() != null) {
+				writeXmlAttribute(writer, "Streaming", checkpoint.getStreaming());
+			}
+			if (checkpoint.isWaitingForStream()) {
+				writeXmlAttribute(writer, "WaitingForStream", String.valueOf(checkpoint.isWaitingForStream()));
+			}
+			if (checkpoint.getStub() != Checkpoint.STUB_FOLLOW_REPORT_STRATEGY) {
+				writeXmlAttribute(writer, "Stub", String.valueOf(checkpoint.getStub()));
+			}
+			if (checkpoint.isStubbed()) {
+				writeXmlAttribute(writer, "Stubbed", String.valueOf(checkpoint.isStubbed()));
+			}
+			if (checkpoint.getStubNotFound() != null) {
+				// Not escaped for backwards compatibility
+				writer.write(" StubNotFound=\"");
+				writer.write(checkpoint.getStubNotFound());
+				writer.write("\"");
+			}
+			if (message == null) {
+				writer.write(" Null=\"true\"/>");
+			} else {
+				if (messageXml) {
+					int start = 0;
+					if (message.startsWith("<?")) {
+						start = message.indexOf("?>") + 2;
+						writer.write(" TextDecl=\"");
+						EscapeUtil.escapeXml(message.substring(0, start), writer);
+						writer.write("\">");
+					} else {
+						writer.write(">");
+					}
+					writer.write(message, start, message.length() - start);
+				} else {
+					writer.write(">");
+					EscapeUtil.escapeXml(message, writer);
+				}
+				writer.write("</Checkpoint>");
+			}
+		}
+		writer.write("</Report>");
+	}
+
+	private static void writeXmlAttribute(Writer writer, String name, String value) throws IOException {
+		writer.write(' ');
+		writer.write(name);
+		writer.write("=\"");
+		EscapeUtil.escapeXml(value, writer);
+		writer.write('"');
+	}
+
 	public void flushCachedXml() {
 		reportXmlTransformer = null;
 		xml = null;
@@ -1130,3 +1587,62 @@ class StreamingMessageResult {
 	int preTruncatedMessageLength;
 	Throwable exception;
 }
+
+/**
+ * Result of {@link Report#reserveCheckpoint(String, String, String, Object, Set, int, int)} to be passed to
+ * {@link Report#publishCheckpoint(CheckpointReservation, Object)} after the stubable code has been executed
+ */
+class CheckpointReservation {
+	// Null when checkpoint is ignored (in which case the stubable code is not executed and the thread administration
+	// is not updated)
+	String threadName;
+	String name;
+	int checkpointType;
+	Integer level;
+	int levelChangeNextCheckpoint;
+	// Null when checkpoint will not be added to the report (e.g. max checkpoints reached)
+	Checkpoint checkpoint;
+	// Message of stubbed checkpoint
+	Object message;
+	boolean executeStubableCode;
+	boolean abortpointOnException;
+	// Segment of the child thread in case of a threadCreatepoint
+	ThreadSegment childThreadSegment;
+	// Segment of the thread and position in the segment at which the checkpoint is to be added (checkpoints added by
+	// the stubable code are appended to the segment before this checkpoint is added)
+	ThreadSegment segment;
+	int segmentPosition;
+}
+
+/**
+ * Checkpoints of a thread in the order they were added, with the segments of child threads at the position of the
+ * threadCreatepoint (the checkpoints of a child thread are shown after the checkpoints added by the parent thread
+ * before the child thread was created and before the checkpoints added by the parent thread after that).
+ */
+class ThreadSegment {
+	ThreadSegment parent;
+	// Checkpoint or ThreadSegment
+	List<Object> items = new ArrayList<Object>();
+	// Checkpoint that shows that the child thread hasn't started yet
+	Checkpoint threadCreatepoint;
+	boolean threadCreatepointRemoved;
+
+	ThreadSegment(ThreadSegment parent) {
+		this.parent = parent;
+	}
+
+	void addCheckpoints(List<Checkpoint> checkpoints) {
+		for (Object item : items) {
+			if (item instanceof Checkpoint) {
+				checkpoints.add((Checkpoint)item);
+			} else {
+				((ThreadSegment)item).addCheckpoints(checkpoints);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return items.size() + " item(s)";
+	}
+}
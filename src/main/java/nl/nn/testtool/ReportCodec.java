@@ -0,0 +1,905 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import nl.nn.testtool.storage.DictionaryStore;
+import nl.nn.testtool.storage.MessageReference;
+import nl.nn.testtool.storage.MessageStore;
+import nl.nn.testtool.storage.StorageException;
+import nl.nn.testtool.util.CountingOutputStream;
+import nl.nn.testtool.util.StreamUtil;
+
+/**
+ * Compact binary format in which the file and database storage store reports (instead of Java serialization which is
+ * relatively slow, writes the class descriptors for every report and depends on the serialVersionUID of the classes).
+ * Layout (varint is an unsigned LEB128 encoded int or long, zigzag a signed varint):
+ * <pre>
+ * report      : header blocks skeleton footer
+ * header      : 'L' 'B' 'R' version(byte) flags(varint, bit 0 = deflated, bit 1 = dictionary) [dictionaryId(varint)]
+ * blocks      : {(deflated) message bytes}
+ * skeleton    : strings fields checkpoints (skeletonSize bytes, skeletonLength bytes when inflated)
+ * footer      : skeletonLength skeletonSize (4 byte big-endian int)
+ * strings     : count(varint) {length(varint, bit 0 set for UTF-16) UTF-8 or UTF-16 bytes}
+ * fields      : startTime endTime (zigzag) correlationId name description path stubStrategy transformation
+ *               variableCsv (string refs)
+ * checkpoints : count(varint) {threadName sourceClassName messageClassName name encoding streaming stubNotFound
+ *               (string refs) type level (varint) stub preTruncatedMessageLength (zigzag) flags(varint, bit 0 =
+ *               waiting for stream, bit 1 = no close received for stream, bit 2 = stubbed, bit 3 = message is xml,
+ *               bit 4 = message is not xml) message}
+ * message     : kind(byte) [length(varint) bytes | offset length size (varint) | hash]
+ * </pre>
+ * A string ref is the index in the string table plus one (0 for null), hence metadata strings (e.g. names of
+ * checkpoints and threads) are written once per report. Small messages are part of the skeleton (length-prefixed),
+ * larger messages are written in a block per message which is compressed independently of the other blocks (at an
+ * offset relative to the first block). Hence the checkpoint tree of a report ({@link #decodeSkeleton(Source)}) and the
+ * message of one checkpoint ({@link #decodeMessage(Source, int, MessageStore)}) can be read without reading the other
+ * large messages (deflating every small message separately would make the report larger and encoding slower). A
+ * message contains UTF-8, UTF-16 (for strings with unpaired surrogates which cannot be represented in UTF-8) or raw
+ * bytes (for binary messages, see {@link Checkpoint#getBinaryMessage()}). A message can also be a reference to a
+ * message in a {@link MessageStore}. The skeleton is written after the message blocks so a report can be streamed
+ * to a file or blob ({@link #encode(Report, int, Map, OutputStream)}) without keeping large messages in memory to
+ * determine their offset and size first. The skeleton and blocks are deflated with the configured compression level
+ * (not at all for level 0) and the preset dictionary of a {@link DictionaryStore} when available (the id of the
+ * dictionary is written in the header). When fields are added in a next version they should be appended to the
+ * report or checkpoint and the version should be incremented so data written by older versions can be read with
+ * default values.
+ */
+public class ReportCodec {
+	public static final int VERSION = 1;
+	public static final int DEFAULT_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+	private static final byte[] MAGIC = {'L', 'B', 'R'};
+	private static final int HEADER_LENGTH = MAGIC.length + 2;
+	private static final int MAX_HEADER_LENGTH = MAGIC.length + 1 + 5 + 5 + 5;
+	private static final int FOOTER_LENGTH = 8;
+	private static final int FLAG_DEFLATED = 1;
+	private static final int FLAG_DICTIONARY = 2;
+	private static final int CHECKPOINT_WAITING_FOR_STREAM = 1;
+	private static final int CHECKPOINT_NO_CLOSE_RECEIVED_FOR_STREAM = 2;
+	private static final int CHECKPOINT_STUBBED = 4;
+	// When neither is set it hasn't been determined whether the message is xml (see Checkpoint.isMessageXml())
+	private static final int CHECKPOINT_MESSAGE_XML = 8;
+	private static final int CHECKPOINT_MESSAGE_NOT_XML = 16;
+	private static final byte MESSAGE_NULL = 0;
+	private static final byte MESSAGE_UTF8 = 1;
+	private static final byte MESSAGE_UTF16 = 2;
+	private static final byte MESSAGE_BINARY = 3;
+	private static final byte MESSAGE_REFERENCE = 4;
+	// Or-ed with the kind of message for messages written in a message block
+	private static final byte MESSAGE_IN_BLOCK = 0x10;
+	private static final int MIN_MESSAGE_BLOCK_LENGTH = 4096;
+
+	/**
+	 * Random access to the bytes of an encoded report (e.g. part of a file or a database blob).
+	 */
+	public interface Source {
+
+		public int getLength() throws IOException;
+
+		public byte[] read(int position, int length) throws IOException;
+
+		public static Source of(byte[] bytes) {
+			return new Source() {
+
+				@Override
+				public int getLength() {
+					return bytes.length;
+				}
+
+				@Override
+				public byte[] read(int position, int length) {
+					return Arrays.copyOfRange(bytes, position, position + length);
+				}
+			};
+		}
+	}
+
+	/**
+	 * @param bytes ...
+	 * @return true when bytes start with the header written by this codec (otherwise bytes probably contain a report
+	 *         serialized with an ObjectOutputStream)
+	 */
+	public static boolean isEncoded(byte[] bytes) {
+		return bytes.length > MAGIC.length && bytes[0] == MAGIC[0] && bytes[1] == MAGIC[1] && bytes[2] == MAGIC[2];
+	}
+
+	public static boolean isEncoded(Source source) throws IOException {
+		return source.getLength() > MAGIC.length && isEncoded(source.read(0, MAGIC.length + 1));
+	}
+
+	public static byte[] encode(Report report) {
+		return encode(report, -1, null);
+	}
+
+	/**
+	 * @param report           ...
+	 * @param messageThreshold minimum length of messages to write as a reference to a {@link MessageStore} instead of
+	 *                         as part of the report or -1 to write all messages as part of the report
+	 * @param messages         map to add the referenced messages to (with the hash as key) to be stored by the caller
+	 * @return ...
+	 */
+	public static byte[] encode(Report report, int messageThreshold, Map<String, String> messages) {
+		ByteWriter byteWriter = new ByteWriter(4096);
+		try {
+			encode(report, messageThreshold, messages, byteWriter);
+		} catch (IOException e) {
+			// Not thrown by ByteWriter
+			throw new UncheckedIOException(e);
+		}
+		return byteWriter.toByteArray();
+	}
+
+	/**
+	 * Encode a report straight into an output stream (e.g. a file or database blob). Large messages are written in
+	 * chunks, hence the memory needed doesn't depend on the size of the messages (only the skeleton, which contains the
+	 * metadata and the small messages, is kept in memory to be written after the message blocks).
+	 *
+	 * @param report           ...
+	 * @param messageThreshold see {@link #encode(Report, int, Map)}
+	 * @param messages         see {@link #encode(Report, int, Map)}
+	 * @param outputStream     stream to write the report to (it will not be closed)
+	 * @return the number of bytes written
+	 * @throws IOException ...
+	 */
+	public static long encode(Report report, int messageThreshold, Map<String, String> messages,
+			OutputStream outputStream) throws IOException {
+		return encode(report, messageThreshold, messages, outputStream, DEFAULT_COMPRESSION_LEVEL, null);
+	}
+
+	/**
+	 * @param report           ...
+	 * @param messageThreshold see {@link #encode(Report, int, Map)}
+	 * @param messages         see {@link #encode(Report, int, Map)}
+	 * @param outputStream     see {@link #encode(Report, int, Map, OutputStream)}
+	 * @param compressionLevel 0 (no compression) to 9 (best compression), see {@link Deflater}
+	 * @param dictionaryStore  store of which the current dictionary is used to compress the report (the report is
+	 *                         added to the sample to train the next dictionary with) or null to compress without
+	 *                         dictionary
+	 * @return the number of bytes written
+	 * @throws IOException ...
+	 */
+	public static long encode(Report report, int messageThreshold, Map<String, String> messages,
+			OutputStream outputStream, int compressionLevel, DictionaryStore dictionaryStore) throws IOException {
+		CountingOutputStream countingOutputStream = new CountingOutputStream(outputStream);
+		Deflater deflater = null;
+		DictionaryStore.Dictionary dictionary = null;
+		int headerFlags = 0;
+		if (compressionLevel != Deflater.NO_COMPRESSION) {
+			deflater = new Deflater(compressionLevel);
+			headerFlags |= FLAG_DEFLATED;
+			if (dictionaryStore != null) {
+				dictionary = dictionaryStore.getCurrentDictionary();
+				if (dictionary != null) {
+					headerFlags |= FLAG_DICTIONARY;
+				}
+			}
+		}
+		ByteWriter header = new ByteWriter(HEADER_LENGTH);
+		header.write(MAGIC, 0, MAGIC.length);
+		header.write(VERSION);
+		header.writeVarint(headerFlags);
+		if (dictionary != null) {
+			header.writeVarint(dictionary.getId());
+		}
+		countingOutputStream.write(header.bytes(), 0, header.size());
+		byte[] dictionaryBytes = dictionary == null ? null : dictionary.getBytes();
+		Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		ByteWriter data = new ByteWriter(1024);
+		try {
+			data.writeZigzag(report.getStartTime());
+			data.writeZigzag(report.getEndTime());
+			writeStringRef(report.getCorrelationId(), data, strings);
+			writeStringRef(report.getName(), data, strings);
+			writeStringRef(report.getDescription(), data, strings);
+			writeStringRef(report.getPath(), data, strings);
+			writeStringRef(report.getStubStrategy(), data, strings);
+			writeStringRef(report.getTransformation(), data, strings);
+			writeStringRef(report.getVariableCsv(), data, strings);
+			List<Checkpoint> checkpoints = report.getCheckpoints();
+			data.writeVarint(checkpoints.size());
+			for (Checkpoint checkpoint : checkpoints) {
+				writeStringRef(checkpoint.getThreadName(), data, strings);
+				writeStringRef(checkpoint.getSourceClassName(), data, strings);
+				writeStringRef(checkpoint.getMessageClassName(), data, strings);
+				writeStringRef(checkpoint.getName(), data, strings);
+				writeStringRef(checkpoint.getEncoding(), data, strings);
+				writeStringRef(checkpoint.getStreaming(), data, strings);
+				writeStringRef(checkpoint.getStubNotFound(), data, strings);
+				data.writeVarint(checkpoint.getType());
+				data.writeVarint(checkpoint.getLevel());
+				data.writeZigzag(checkpoint.getStub());
+				data.writeZigzag(checkpoint.getPreTruncatedMessageLength());
+				int flags = 0;
+				if (checkpoint.isWaitingForStream()) {
+					flags |= CHECKPOINT_WAITING_FOR_STREAM;
+				}
+				if (checkpoint.isNoCloseReceivedForStream()) {
+					flags |= CHECKPOINT_NO_CLOSE_RECEIVED_FOR_STREAM;
+				}
+				if (checkpoint.isStubbed()) {
+					flags |= CHECKPOINT_STUBBED;
+				}
+				Boolean messageXml = checkpoint.getMessageXml();
+				if (messageXml != null) {
+					flags |= messageXml ? CHECKPOINT_MESSAGE_XML : CHECKPOINT_MESSAGE_NOT_XML;
+				}
+				data.writeVarint(flags);
+				writeMessage(checkpoint, data, countingOutputStream, header.size(), deflater, dictionaryBytes,
+						messageThreshold, messages);
+			}
+			ByteWriter skeleton = new ByteWriter(data.size() + strings.size() * 16 + 16);
+			skeleton.writeVarint(strings.size());
+			for (String string : strings.keySet()) {
+				writeString(string, skeleton);
+			}
+			skeleton.write(data.bytes(), 0, data.size());
+			ByteWriter deflatedSkeleton;
+			if (deflater != null) {
+				deflatedSkeleton = new ByteWriter(skeleton.size() / 4 + FOOTER_LENGTH);
+				try (DeflaterOutputStream deflaterOutputStream = deflate(deflatedSkeleton, deflater, dictionaryBytes,
+						512)) {
+					deflaterOutputStream.write(skeleton.bytes(), 0, skeleton.size());
+				}
+			} else {
+				deflatedSkeleton = new ByteWriter(skeleton.size() + FOOTER_LENGTH);
+				deflatedSkeleton.write(skeleton.bytes(), 0, skeleton.size());
+			}
+			int deflatedSkeletonSize = deflatedSkeleton.size();
+			deflatedSkeleton.writeInt(skeleton.size());
+			deflatedSkeleton.writeInt(deflatedSkeletonSize);
+			countingOutputStream.write(deflatedSkeleton.bytes(), 0, deflatedSkeleton.size());
+			if (deflater != null && dictionaryStore != null) {
+				dictionaryStore.addSample(skeleton.bytes(), 0, skeleton.size());
+			}
+		} finally {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+		countingOutputStream.flush();
+		return countingOutputStream.getCount();
+	}
+
+	private static void writeStringRef(String string, ByteWriter data, Map<String, Integer> strings) {
+		if (string == null) {
+			data.writeVarint(0);
+		} else {
+			Integer index = strings.get(string);
+			if (index == null) {
+				index = strings.size();
+				strings.put(string, index);
+			}
+			data.writeVarint(index + 1);
+		}
+	}
+
+	private static void writeMessage(Checkpoint checkpoint, ByteWriter data, CountingOutputStream outputStream,
+			int blocksPosition, Deflater deflater, byte[] dictionary, int messageThreshold,
+			Map<String, String> messages) throws IOException {
+		byte kind;
+		byte[] bytes = checkpoint.getBinaryMessage();
+		String message = null;
+		if (bytes != null) {
+			kind = MESSAGE_BINARY;
+		} else {
+			message = checkpoint.getMessage();
+			if (message == null) {
+				data.write(MESSAGE_NULL);
+				return;
+			} else if (isWellFormed(message)) {
+				if (messageThreshold > -1 && message.length() >= messageThreshold) {
+					String hash = MessageReference.getHash(message);
+					messages.put(hash, message);
+					data.write(MESSAGE_REFERENCE);
+					writeString(hash, data);
+					return;
+				}
+				kind = MESSAGE_UTF8;
+			} else {
+				// Not referenced as message stores store messages as UTF-8 (which cannot represent unpaired surrogates)
+				kind = MESSAGE_UTF16;
+			}
+		}
+		if ((bytes != null ? bytes.length : message.length()) < MIN_MESSAGE_BLOCK_LENGTH) {
+			if (bytes == null) {
+				bytes = kind == MESSAGE_UTF8 ? message.getBytes(StandardCharsets.UTF_8) : toUtf16(message);
+			}
+			data.write(kind);
+			data.writeVarint(bytes.length);
+			data.write(bytes, 0, bytes.length);
+		} else {
+			long position = outputStream.getCount();
+			DeflaterOutputStream deflaterOutputStream = null;
+			CountingOutputStream uncompressed;
+			if (deflater != null) {
+				deflaterOutputStream = deflate(outputStream, deflater, dictionary, 8192);
+				uncompressed = new CountingOutputStream(deflaterOutputStream);
+			} else {
+				uncompressed = new CountingOutputStream(outputStream);
+			}
+			if (bytes != null) {
+				uncompressed.write(bytes);
+			} else if (kind == MESSAGE_UTF8) {
+				StreamUtil.writeUtf8(message, uncompressed);
+			} else {
+				for (int i = 0; i < message.length(); i += 4096) {
+					uncompressed.write(toUtf16(message.substring(i, Math.min(i + 4096, message.length()))));
+				}
+			}
+			if (deflaterOutputStream != null) {
+				// Don't close the output stream
+				deflaterOutputStream.finish();
+			}
+			data.write(kind | MESSAGE_IN_BLOCK);
+			data.writeVarint(position - blocksPosition);
+			data.writeVarint(uncompressed.getCount());
+			data.writeVarint(outputStream.getCount() - position);
+		}
+	}
+
+	private static DeflaterOutputStream deflate(OutputStream outputStream, Deflater deflater, byte[] dictionary,
+			int bufferSize) {
+		deflater.reset();
+		if (dictionary != null) {
+			deflater.setDictionary(dictionary);
+		}
+		return new DeflaterOutputStream(outputStream, deflater, bufferSize);
+	}
+
+	private static void writeString(String string, ByteWriter data) {
+		if (isWellFormed(string)) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			data.writeVarint(bytes.length << 1);
+			data.write(bytes, 0, bytes.length);
+		} else {
+			byte[] bytes = toUtf16(string);
+			data.writeVarint(string.length() << 1 | 1);
+			data.write(bytes, 0, bytes.length);
+		}
+	}
+
+	private static byte[] toUtf16(String string) {
+		byte[] bytes = new byte[string.length() * 2];
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			bytes[i * 2] = (byte)(c >> 8);
+			bytes[i * 2 + 1] = (byte)c;
+		}
+		return bytes;
+	}
+
+	private static String fromUtf16(byte[] bytes, int offset, int length) {
+		char[] chars = new char[length / 2];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char)((bytes[offset + i * 2] & 0xFF) << 8 | (bytes[offset + i * 2 + 1] & 0xFF));
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @return false when string contains unpaired surrogates (which would be replaced with a question mark when
+	 *         encoded to UTF-8)
+	 */
+	private static boolean isWellFormed(String string) {
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < string.length()
+						&& Character.isLowSurrogate(string.charAt(i + 1))) {
+					i++;
+				} else {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param bytes           report written by {@link #encode(Report, int, Map)}
+	 * @param messageStore    store to read referenced messages from or null when the report doesn't contain
+	 *                        references
+	 * @param dictionaryStore store to read the dictionary from with which the report has been compressed or null when
+	 *                        the report has been compressed without dictionary
+	 * @return ...
+	 * @throws IOException when bytes cannot be decoded or a referenced message or dictionary cannot be found
+	 */
+	public static Report decode(byte[] bytes, MessageStore messageStore, DictionaryStore dictionaryStore)
+			throws IOException {
+		Source source = Source.of(bytes);
+		Skeleton skeleton = readSkeleton(source, dictionaryStore);
+		List<Checkpoint> checkpoints = skeleton.report.getCheckpoints();
+		for (int i = 0; i < checkpoints.size(); i++) {
+			MessageBlock messageBlock = skeleton.messageBlocks[i];
+			if (messageBlock != null) {
+				Checkpoint checkpoint = checkpoints.get(i);
+				// Set the report after the message to prevent setMessage() from truncating, transforming,
+				// compressing, ... the message again
+				checkpoint.setReport(null);
+				Boolean messageXml = checkpoint.getMessageXml();
+				if (messageBlock.kind == MESSAGE_BINARY) {
+					checkpoint.setBinaryMessage(readMessageBlock(source, skeleton, messageBlock));
+				} else {
+					checkpoint.setMessage(readMessage(source, skeleton, messageBlock, messageStore));
+				}
+				checkpoint.setMessageXml(messageXml);
+				checkpoint.setReport(skeleton.report);
+			}
+		}
+		return skeleton.report;
+	}
+
+	/**
+	 * @param source          report written by {@link #encode(Report, int, Map)}
+	 * @param dictionaryStore see {@link #decode(byte[], MessageStore, DictionaryStore)}
+	 * @return the report without the messages that are not part of the skeleton (checkpoints of which the message
+	 *         isn't available return null for {@link Checkpoint#getMessage()} and true for
+	 *         {@link Checkpoint#isMessageNotLoaded()}), use
+	 *         {@link #decodeMessage(Source, int, MessageStore, DictionaryStore)} to read the message of a specific
+	 *         checkpoint
+	 * @throws IOException ...
+	 */
+	public static Report decodeSkeleton(Source source, DictionaryStore dictionaryStore) throws IOException {
+		Skeleton skeleton = readSkeleton(source, dictionaryStore);
+		List<Checkpoint> checkpoints = skeleton.report.getCheckpoints();
+		for (int i = 0; i < checkpoints.size(); i++) {
+			if (skeleton.messageBlocks[i] != null) {
+				checkpoints.get(i).setMessageNotLoaded(true);
+			}
+		}
+		return skeleton.report;
+	}
+
+	/**
+	 * @param source          report written by {@link #encode(Report, int, Map)}
+	 * @param index           index of the checkpoint in {@link Report#getCheckpoints()}
+	 * @param messageStore    see {@link #decode(byte[], MessageStore, DictionaryStore)}
+	 * @param dictionaryStore see {@link #decode(byte[], MessageStore, DictionaryStore)}
+	 * @return the message of the checkpoint (the same as {@link Checkpoint#getMessage()} would return)
+	 * @throws IOException ...
+	 * @throws IndexOutOfBoundsException when the report doesn't have a checkpoint with the specified index
+	 */
+	public static String decodeMessage(Source source, int index, MessageStore messageStore,
+			DictionaryStore dictionaryStore) throws IOException {
+		Skeleton skeleton = readSkeleton(source, dictionaryStore);
+		MessageBlock messageBlock = skeleton.messageBlocks[index];
+		if (messageBlock == null) {
+			return skeleton.report.getCheckpoints().get(index).getMessage();
+		} else if (messageBlock.kind == MESSAGE_BINARY) {
+			return Base64.getEncoder().encodeToString(readMessageBlock(source, skeleton, messageBlock));
+		} else {
+			return readMessage(source, skeleton, messageBlock, messageStore);
+		}
+	}
+
+	/**
+	 * @param bytes           report written by {@link #encode(Report, int, Map)}
+	 * @param dictionaryStore see {@link #decode(byte[], MessageStore, DictionaryStore)}
+	 * @return hashes of the messages referenced by the report
+	 * @throws IOException ...
+	 */
+	public static Set<String> getMessageReferences(byte[] bytes, DictionaryStore dictionaryStore)
+			throws IOException {
+		Set<String> hashes = new HashSet<String>();
+		for (MessageBlock messageBlock : readSkeleton(Source.of(bytes), dictionaryStore).messageBlocks) {
+			if (messageBlock != null && messageBlock.hash != null) {
+				hashes.add(messageBlock.hash);
+			}
+		}
+		return hashes;
+	}
+
+	/**
+	 * @param source report written by {@link #encode(Report, int, Map, OutputStream, int, DictionaryStore)}
+	 * @return id of the dictionary the report has been compressed with or 0 when the report has been compressed
+	 *         without dictionary (or hasn't been encoded by this codec)
+	 * @throws IOException ...
+	 */
+	public static int getDictionaryId(Source source) throws IOException {
+		byte[] headerBytes = source.read(0, Math.min(MAX_HEADER_LENGTH, source.getLength()));
+		if (isEncoded(headerBytes)) {
+			try {
+				// Skip the version
+				ByteReader header = new ByteReader(headerBytes, MAGIC.length + 1, headerBytes.length);
+				if ((header.readVarint() & FLAG_DICTIONARY) != 0) {
+					return header.readVarint();
+				}
+			} catch (ArrayIndexOutOfBoundsException e) {
+				throw new IOException("Report is corrupt", e);
+			}
+		}
+		return 0;
+	}
+
+	private static Skeleton readSkeleton(Source source, DictionaryStore dictionaryStore) throws IOException {
+		int totalLength = source.getLength();
+		byte[] headerBytes = source.read(0, Math.min(MAX_HEADER_LENGTH, totalLength));
+		if (!isEncoded(headerBytes)) {
+			throw new IOException("Not a report encoded by " + ReportCodec.class.getSimpleName());
+		}
+		try {
+			ByteReader header = new ByteReader(headerBytes, MAGIC.length, headerBytes.length);
+			int version = header.read();
+			if (version != VERSION) {
+				throw new IOException("Report encoded with version " + version
+						+ " which is not supported (supported version is " + VERSION + ")");
+			}
+			int flags = header.readVarint();
+			Skeleton skeleton = new Skeleton();
+			skeleton.flags = flags;
+			if ((flags & FLAG_DICTIONARY) != 0) {
+				skeleton.dictionary = getDictionary(header.readVarint(), dictionaryStore);
+			}
+			// The skeleton is written after the message blocks
+			if (totalLength < header.position + FOOTER_LENGTH) {
+				throw new IOException("Report is corrupt, footer missing");
+			}
+			ByteReader footer = new ByteReader(source.read(totalLength - FOOTER_LENGTH, FOOTER_LENGTH), 0,
+					FOOTER_LENGTH);
+			int skeletonLength = footer.readInt();
+			int skeletonSize = footer.readInt();
+			int skeletonPosition = totalLength - FOOTER_LENGTH - skeletonSize;
+			skeleton.blocksPosition = header.position;
+			if (skeletonSize < 0 || skeletonPosition < header.position
+					|| skeletonPosition + skeletonSize > totalLength) {
+				throw new IOException("Report is corrupt, skeleton outside report");
+			}
+			byte[] bytes = source.read(skeletonPosition, skeletonSize);
+			if ((flags & FLAG_DEFLATED) != 0) {
+				bytes = inflate(bytes, 0, skeletonSize, skeletonLength, skeleton.dictionary);
+			}
+			readSkeleton(new ByteReader(bytes, 0, skeletonLength), skeleton);
+			return skeleton;
+		} catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+			throw new IOException("Report is corrupt", e);
+		}
+	}
+
+	private static void readSkeleton(ByteReader data, Skeleton skeleton) throws IOException {
+		String[] strings = new String[data.readVarint()];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = data.readString();
+		}
+		Report report = new Report();
+		report.setStartTime(data.readZigzagLong());
+		report.setEndTime(data.readZigzagLong());
+		report.setCorrelationId(readStringRef(data, strings));
+		report.setName(readStringRef(data, strings));
+		report.setDescription(readStringRef(data, strings));
+		report.setPath(readStringRef(data, strings));
+		report.setStubStrategy(readStringRef(data, strings));
+		report.setTransformation(readStringRef(data, strings));
+		report.setVariableCsv(readStringRef(data, strings));
+		int numberOfCheckpoints = data.readVarint();
+		List<Checkpoint> checkpoints = new ArrayList<Checkpoint>(numberOfCheckpoints);
+		skeleton.messageBlocks = new MessageBlock[numberOfCheckpoints];
+		for (int i = 0; i < numberOfCheckpoints; i++) {
+			// The report is set after all fields have been set to prevent setMessage() from truncating, transforming,
+			// compressing, ... the message again
+			Checkpoint checkpoint = new Checkpoint();
+			checkpoint.setThreadName(readStringRef(data, strings));
+			checkpoint.setSourceClassName(readStringRef(data, strings));
+			checkpoint.setMessageClassName(readStringRef(data, strings));
+			checkpoint.setName(readStringRef(data, strings));
+			checkpoint.setEncoding(readStringRef(data, strings));
+			checkpoint.setStreaming(readStringRef(data, strings));
+			checkpoint.setStubNotFound(readStringRef(data, strings));
+			checkpoint.setType(data.readVarint());
+			checkpoint.setLevel(data.readVarint());
+			checkpoint.setStub((int)data.readZigzagLong());
+			checkpoint.setPreTruncatedMessageLength((int)data.readZigzagLong());
+			int flags = data.readVarint();
+			checkpoint.setWaitingForStream((flags & CHECKPOINT_WAITING_FOR_STREAM) != 0);
+			checkpoint.setNoCloseReceivedForStream((flags & CHECKPOINT_NO_CLOSE_RECEIVED_FOR_STREAM) != 0);
+			checkpoint.setStubbed((flags & CHECKPOINT_STUBBED) != 0);
+			byte kind = (byte)data.read();
+			boolean inBlock = (kind & MESSAGE_IN_BLOCK) != 0;
+			kind &= ~MESSAGE_IN_BLOCK;
+			MessageBlock messageBlock = null;
+			if (kind == MESSAGE_REFERENCE) {
+				messageBlock = new MessageBlock();
+				messageBlock.hash = data.readString();
+			} else if (inBlock && (kind == MESSAGE_UTF8 || kind == MESSAGE_UTF16 || kind == MESSAGE_BINARY)) {
+				messageBlock = new MessageBlock();
+				messageBlock.offset = data.readVarint();
+				messageBlock.length = data.readVarint();
+				messageBlock.size = data.readVarint();
+			} else if (kind == MESSAGE_UTF8 || kind == MESSAGE_UTF16) {
+				checkpoint.setMessage(readMessage(data, kind));
+			} else if (kind == MESSAGE_BINARY) {
+				checkpoint.setBinaryMessage(data.readBytes(data.readVarint()));
+			} else if (kind != MESSAGE_NULL) {
+				throw new IOException("Unknown message kind " + kind);
+			}
+			if ((flags & CHECKPOINT_MESSAGE_XML) != 0) {
+				checkpoint.setMessageXml(true);
+			} else if ((flags & CHECKPOINT_MESSAGE_NOT_XML) != 0) {
+				checkpoint.setMessageXml(false);
+			}
+			if (messageBlock != null) {
+				messageBlock.kind = kind;
+				skeleton.messageBlocks[i] = messageBlock;
+			}
+			checkpoint.setReport(report);
+			checkpoints.add(checkpoint);
+		}
+		report.setCheckpoints(checkpoints);
+		skeleton.report = report;
+	}
+
+	private static String readStringRef(ByteReader data, String[] strings) {
+		int index = data.readVarint();
+		return index == 0 ? null : strings[index - 1];
+	}
+
+	private static String readMessage(ByteReader data, byte kind) {
+		byte[] bytes = data.readBytes(data.readVarint());
+		if (kind == MESSAGE_UTF16) {
+			return fromUtf16(bytes, 0, bytes.length);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String readMessage(Source source, Skeleton skeleton, MessageBlock messageBlock,
+			MessageStore messageStore) throws IOException {
+		if (messageBlock.hash != null) {
+			String message = null;
+			if (messageStore != null) {
+				try {
+					message = messageStore.getMessage(messageBlock.hash);
+				} catch (StorageException e) {
+					throw new IOException("Could not read message " + messageBlock.hash, e);
+				}
+			}
+			if (message == null) {
+				throw new IOException("Message " + messageBlock.hash + " not found");
+			}
+			return message;
+		}
+		byte[] bytes = readMessageBlock(source, skeleton, messageBlock);
+		if (messageBlock.kind == MESSAGE_UTF16) {
+			return fromUtf16(bytes, 0, bytes.length);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] readMessageBlock(Source source, Skeleton skeleton, MessageBlock messageBlock)
+			throws IOException {
+		if (messageBlock.offset < 0 || messageBlock.size < 0
+				|| skeleton.blocksPosition + messageBlock.offset + messageBlock.size > source.getLength()) {
+			throw new IOException("Report is corrupt, message block outside report");
+		}
+		byte[] bytes = source.read(skeleton.blocksPosition + messageBlock.offset, messageBlock.size);
+		if ((skeleton.flags & FLAG_DEFLATED) != 0) {
+			bytes = inflate(bytes, 0, messageBlock.size, messageBlock.length, skeleton.dictionary);
+		}
+		return bytes;
+	}
+
+	private static byte[] getDictionary(int id, DictionaryStore dictionaryStore) throws IOException {
+		byte[] dictionary = null;
+		if (dictionaryStore != null) {
+			try {
+				dictionary = dictionaryStore.getDictionary(id);
+			} catch (StorageException e) {
+				throw new IOException("Could not read dictionary " + id, e);
+			}
+		}
+		if (dictionary == null) {
+			throw new IOException("Dictionary " + id + " not found");
+		}
+		return dictionary;
+	}
+
+	private static byte[] inflate(byte[] bytes, int offset, int size, int length, byte[] dictionary)
+			throws IOException {
+		byte[] result = new byte[length];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(bytes, offset, size);
+			int inflatedLength = 0;
+			while (inflatedLength < length) {
+				int inflated = inflater.inflate(result, inflatedLength, length - inflatedLength);
+				if (inflated == 0 && inflater.needsDictionary() && dictionary != null) {
+					inflater.setDictionary(dictionary);
+					// Only needed once
+					dictionary = null;
+				} else if (inflated == 0
+						&& (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Report is corrupt, deflated data is incomplete");
+				}
+				inflatedLength += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Report is corrupt, could not inflate data", e);
+		} finally {
+			inflater.end();
+		}
+		return result;
+	}
+
+}
+
+class Skeleton {
+	int flags;
+	// Dictionary the skeleton and message blocks have been compressed with
+	byte[] dictionary;
+	int blocksPosition;
+	Report report;
+	// Messages (per checkpoint) not (yet) set on the checkpoints of the report
+	MessageBlock[] messageBlocks;
+}
+
+class MessageBlock {
+	byte kind;
+	int offset;
+	int length;
+	int size;
+	String hash;
+}
+
+class ByteWriter extends OutputStream {
+	byte[] bytes;
+	int size;
+
+	ByteWriter(int capacity) {
+		bytes = new byte[Math.max(16, capacity)];
+	}
+
+	void ensureCapacity(int capacity) {
+		if (capacity > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+		}
+	}
+
+	@Override
+	public void write(int b) {
+		ensureCapacity(size + 1);
+		bytes[size++] = (byte)b;
+	}
+
+	@Override
+	public void write(byte[] b, int offset, int length) {
+		ensureCapacity(size + length);
+		System.arraycopy(b, offset, bytes, size, length);
+		size += length;
+	}
+
+	void writeVarint(long value) {
+		ensureCapacity(size + 10);
+		while ((value & ~0x7FL) != 0) {
+			bytes[size++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[size++] = (byte)value;
+	}
+
+	void writeZigzag(long value) {
+		writeVarint((value << 1) ^ (value >> 63));
+	}
+
+	void writeInt(int value) {
+		ensureCapacity(size + 4);
+		bytes[size++] = (byte)(value >>> 24);
+		bytes[size++] = (byte)(value >>> 16);
+		bytes[size++] = (byte)(value >>> 8);
+		bytes[size++] = (byte)value;
+	}
+
+	byte[] bytes() {
+		return bytes;
+	}
+
+	int size() {
+		return size;
+	}
+
+	byte[] toByteArray() {
+		return Arrays.copyOf(bytes, size);
+	}
+}
+
+class ByteReader {
+	byte[] bytes;
+	int position;
+	int end;
+
+	ByteReader(byte[] bytes, int position, int end) {
+		this.bytes = bytes;
+		this.position = position;
+		this.end = end;
+	}
+
+	int read() {
+		if (position >= end) {
+			throw new ArrayIndexOutOfBoundsException(position);
+		}
+		return bytes[position++] & 0xFF;
+	}
+
+	long readVarlong() {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = read();
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new ArrayIndexOutOfBoundsException("Varint too long");
+	}
+
+	int readInt() {
+		return read() << 24 | read() << 16 | read() << 8 | read();
+	}
+
+	int readVarint() {
+		return (int)readVarlong();
+	}
+
+	long readZigzagLong() {
+		long value = readVarlong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	byte[] readBytes(int length) {
+		if (length < 0 || position + length > end) {
+			throw new ArrayIndexOutOfBoundsException(position + length);
+		}
+		byte[] result = Arrays.copyOfRange(bytes, position, position + length);
+		position += length;
+		return result;
+	}
+
+	String readString() {
+		int header = readVarint();
+		int length = header >>> 1;
+		if ((header & 1) == 0) {
+			if (length < 0 || position + length > end) {
+				throw new ArrayIndexOutOfBoundsException(position + length);
+			}
+			String string = new String(bytes, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return string;
+		} else {
+			if (length < 0 || position + length * 2 > end) {
+				throw new ArrayIndexOutOfBoundsException(position + length * 2);
+			}
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++) {
+				chars[i] = (char)((bytes[position] & 0xFF) << 8 | (bytes[position + 1] & 0xFF));
+				position += 2;
+			}
+			return new String(chars);
+		}
+	}
+}
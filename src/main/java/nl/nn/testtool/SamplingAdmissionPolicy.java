@@ -0,0 +1,43 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.Getter;
+
+/**
+ * Admit a fraction of the reports, e.g. a sample rate of 0.01 will capture on average one in a hundred reports.
+ */
+public class SamplingAdmissionPolicy implements AdmissionPolicy {
+	private @Getter double sampleRate = 1;
+
+	/**
+	 * @param sampleRate value between 0 (admit no reports) and 1 (admit all reports)
+	 */
+	public void setSampleRate(double sampleRate) {
+		if (sampleRate < 0 || sampleRate > 1) {
+			throw new IllegalArgumentException("Sample rate should be between 0 and 1 (was " + sampleRate + ")");
+		}
+		this.sampleRate = sampleRate;
+	}
+
+	@Override
+	public boolean admit(String correlationId, String name) {
+		return sampleRate >= 1 || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+	}
+
+}
@@ -0,0 +1,232 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+import lombok.Setter;
+import nl.nn.testtool.storage.LogStorage;
+
+/**
+ * Store reports asynchronously so the thread calling the last checkpoint of a report (which is usually a thread of
+ * the application being debugged) doesn't need to wait for the report to be serialized and written to the storage.
+ * Reports are put on a bounded queue that is read by one or more writer threads. When the queue is full the
+ * {@link OverflowPolicy} decides whether the calling thread needs to wait or a report is dropped. On shutdown the
+ * queue is drained (for at most {@link #setShutdownTimeout(long)} milliseconds). Use
+ * {@link TestTool#setStorePipeline(StorePipeline)} to enable it (when not set reports are stored synchronously).
+ * Reports of a rerun are always stored synchronously as the caller of the rerun looks them up in the storage.
+ */
+public class StorePipeline {
+	private static Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+	private @Setter @Getter int capacity = 1000;
+	private @Setter @Getter int writerThreads = 1;
+	private @Setter @Getter OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	private @Setter @Getter long shutdownTimeout = 30 * 1000;
+	private @Setter @Getter long blockTimeout = 1000;
+	private BlockingQueue<StoreRequest> queue;
+	private List<Thread> threads = new ArrayList<Thread>();
+	private volatile boolean closed = false;
+	private volatile boolean logDropped = true;
+	private volatile boolean logBlockTimeout = true;
+	private AtomicLong stored = new AtomicLong();
+	private AtomicLong dropped = new AtomicLong();
+	private AtomicLong storeTimeTotal = new AtomicLong();
+	private AtomicLong storeTimeMax = new AtomicLong();
+
+	public enum OverflowPolicy {
+		/**
+		 * Let the calling thread wait until there's room in the queue. When still no room after
+		 * {@link StorePipeline#setBlockTimeout(long)} milliseconds the report is stored by the calling thread. The
+		 * calling thread holds the lock on the report, hence it should not wait indefinitely
+		 */
+		BLOCK,
+		/** Drop the report to store */
+		DROP_NEWEST,
+		/** Drop the oldest report in the queue to make room for the report to store */
+		DROP_OLDEST
+	}
+
+	@PostConstruct
+	public synchronized void init() {
+		if (queue == null) {
+			queue = new ArrayBlockingQueue<StoreRequest>(capacity);
+			for (int i = 0; i < writerThreads; i++) {
+				Thread thread = new Thread(this::write, "Ladybug-StorePipeline-" + i);
+				thread.setDaemon(true);
+				threads.add(thread);
+				thread.start();
+			}
+		}
+	}
+
+	/**
+	 * Drain the queue and stop the writer threads. Reports offered after this method has been called will be stored
+	 * synchronously.
+	 */
+	@PreDestroy
+	public void close() {
+		closed = true;
+		long end = System.currentTimeMillis() + shutdownTimeout;
+		for (Thread thread : threads) {
+			try {
+				thread.join(Math.max(1, end - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if (queue != null && queue.size() > 0) {
+			log.warn("Store pipeline not drained within " + shutdownTimeout + " ms, " + queue.size()
+					+ " report(s) not stored");
+		}
+	}
+
+	protected void store(LogStorage storage, Report report) {
+		if (queue == null) {
+			init();
+		}
+		if (closed) {
+			store(new StoreRequest(storage, report));
+			return;
+		}
+		StoreRequest storeRequest = new StoreRequest(storage, report);
+		switch (overflowPolicy) {
+			case DROP_NEWEST:
+				if (!queue.offer(storeRequest)) {
+					dropped(storeRequest);
+				}
+				break;
+			case DROP_OLDEST:
+				while (!queue.offer(storeRequest)) {
+					StoreRequest oldest = queue.poll();
+					if (oldest != null) {
+						dropped(oldest);
+					}
+				}
+				break;
+			default:
+				try {
+					if (!queue.offer(storeRequest, blockTimeout, TimeUnit.MILLISECONDS)) {
+						if (logBlockTimeout) {
+							log.warn("Store pipeline queue full (capacity " + capacity + ") for " + blockTimeout
+									+ " ms, report stored by calling thread (next occurrences will not be logged)");
+							logBlockTimeout = false;
+						}
+						store(storeRequest);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					store(storeRequest);
+				}
+		}
+		if (closed) {
+			// The writer threads might already have stopped
+			while ((storeRequest = queue.poll()) != null) {
+				store(storeRequest);
+			}
+		}
+	}
+
+	private void dropped(StoreRequest storeRequest) {
+		storeRequest.report.removeSpillFiles(false);
+		dropped.incrementAndGet();
+		if (logDropped) {
+			log.warn("Store pipeline queue full (capacity " + capacity + "), dropped report with correlationId '"
+					+ storeRequest.report.getCorrelationId() + "' (next dropped reports will not be logged)");
+			logDropped = false;
+		}
+	}
+
+	private void write() {
+		while (true) {
+			StoreRequest storeRequest;
+			try {
+				storeRequest = queue.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				// Stop writing (e.g. on shutdown of the application), preserve the interrupt status for the caller of
+				// this method
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (storeRequest != null) {
+				store(storeRequest);
+			} else if (closed) {
+				return;
+			}
+		}
+	}
+
+	private void store(StoreRequest storeRequest) {
+		long start = System.nanoTime();
+		storeRequest.storage.storeWithoutException(storeRequest.report);
+		storeRequest.report.removeSpillFiles(false);
+		long storeTime = System.nanoTime() - start;
+		stored.incrementAndGet();
+		storeTimeTotal.addAndGet(storeTime);
+		storeTimeMax.accumulateAndGet(storeTime, Math::max);
+	}
+
+	public int getQueueDepth() {
+		return queue == null ? 0 : queue.size();
+	}
+
+	public long getStored() {
+		return stored.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		long stored = this.stored.get();
+		statistics.put("queueDepth", getQueueDepth());
+		statistics.put("capacity", capacity);
+		statistics.put("overflowPolicy", overflowPolicy.toString());
+		statistics.put("stored", stored);
+		statistics.put("dropped", dropped.get());
+		statistics.put("storeTimeAverageMs", stored == 0 ? 0 : storeTimeTotal.get() / stored / 1000000);
+		statistics.put("storeTimeMaxMs", storeTimeMax.get() / 1000000);
+		return statistics;
+	}
+
+}
+
+class StoreRequest {
+	LogStorage storage;
+	Report report;
+
+	StoreRequest(LogStorage storage, Report report) {
+		this.storage = storage;
+		this.report = report;
+	}
+}
@@ -18,11 +18,16 @@ package nl.nn.testtool;
 import java.lang.invoke.MethodHandles;
 import java.rmi.server.UID;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
@@ -43,6 +48,8 @@ import nl.nn.testtool.storage.CrudStorage;
 import nl.nn.testtool.storage.LogStorage;
 import nl.nn.testtool.storage.Storage;
 import nl.nn.testtool.transform.MessageTransformer;
+import nl.nn.testtool.util.MessageCompressor;
+import nl.nn.testtool.util.SymbolTable;
 
 /**
  * @author Jaco de Groot
@@ -55,22 +62,46 @@ public class TestTool {
 	private String configVersion;
 	private int maxCheckpoints = 2500;
 	private int maxMessageLength = 10000000;
+	// Messages longer than spillThreshold (when >= 0) are kept in a temporary memory-mapped file in spillDirectory
+	// (when null the default temporary-file directory) until the report is stored
+	private @Setter @Getter int spillThreshold = -1;
+	private @Setter @Getter String spillDirectory;
+	// Messages not spilled and longer than the threshold of messageCompressor (when not null) are kept in memory
+	// compressed
+	private @Setter @Getter MessageCompressor messageCompressor;
 	private long maxMemoryUsage = 100000000L;
 	private Debugger debugger;
 	private Rerunner rerunner;
 	private boolean reportGeneratorEnabled = true;
 	private boolean defaultReportGeneratorEnabled = true;
-	private List<Report> reportsInProgress = new ArrayList<Report>();
-	private Map<String, Report> reportsInProgressByCorrelationId = new HashMap<String, Report>();
-	private long numberOfReportsInProgress = 0;
-	private Map<String, Report> originalReports = new HashMap<String, Report>();
+	// Reports in progress are looked up by correlationId on every checkpoint, hence use a concurrent map instead of a
+	// global lock. The skip list (with the negated sequence number of the report as key) keeps the reports in
+	// progress ordered from newest to oldest for the GUI and API which access them by index. For a correlationId of
+	// which the report has not been admitted the value is a NotAdmittedReport (which is not part of reportsInProgress)
+	private ConcurrentMap<String, Object> reportsInProgressByCorrelationId = new ConcurrentHashMap<String, Object>();
+	private ConcurrentSkipListMap<Long, Report> reportsInProgress = new ConcurrentSkipListMap<Long, Report>();
+	private AtomicLong reportsInProgressSequence = new AtomicLong();
+	private AtomicLong numberOfReportsInProgress = new AtomicLong();
+	// Sum of the estimated memory usage of the reports in progress, updated by the reports in progress on every change
+	private AtomicLong reportsInProgressEstimatedMemoryUsage = new AtomicLong();
+	private Map<String, Report> originalReports = new ConcurrentHashMap<String, Report>();
 	private @Setter @Getter @Inject @Autowired LogStorage debugStorage;
 	private @Setter @Getter @Inject @Autowired CrudStorage testStorage;
+	private @Setter @Getter StorePipeline storePipeline;
+	private @Setter @Getter MemoryGovernor memoryGovernor;
+	private @Setter @Getter LatencyBudget latencyBudget;
+	private volatile @Getter CloseReportsTask closeReportsTask;
+	// Set to null to disable interning of checkpoint metadata
+	private @Setter @Getter SymbolTable symbolTable = new SymbolTable();
 	private MessageEncoder messageEncoder = new MessageEncoderImpl();
 	private MessageCapturer messageCapturer = new MessageCapturerImpl();
 	private MessageTransformer messageTransformer;
 	private String regexFilter;
+	private volatile Pattern regexFilterPattern;
 	private String defaultRegexFilter;
+	private @Setter @Getter List<AdmissionPolicy> admissionPolicies = new ArrayList<AdmissionPolicy>();
+	private AtomicLong reportsAdmitted = new AtomicLong();
+	private Map<String, AtomicLong> reportsNotAdmitted = new ConcurrentHashMap<String, AtomicLong>();
 	public static final String STUB_STRATEGY_STUB_ALL_EXTERNAL_CONNECTION_CODE = "Stub all external connection code";
 	public static final String STUB_STRATEGY_NEVER = "Never";
 	public static final String STUB_STRATEGY_ALWAYS = "Always";
@@ -100,7 +131,7 @@ public class TestTool {
 	}
 
 	public void reset() {
-		regexFilter = defaultRegexFilter;
+		setRegexFilter(defaultRegexFilter);
 		reportGeneratorEnabled = defaultReportGeneratorEnabled;
 	}
 
@@ -211,6 +242,8 @@ public class TestTool {
 	}
 
 	public void setRegexFilter(String regexFilter) {
+		// Compile once instead of on every startpoint (throws PatternSyntaxException for an invalid regex)
+		regexFilterPattern = StringUtils.isNotEmpty(regexFilter) ? Pattern.compile(regexFilter) : null;
 		this.regexFilter = regexFilter;
 	}
 
@@ -291,39 +324,88 @@ public class TestTool {
 		this.closeMessageCapturers = closeMessageCapturers;
 	}
 
+	/**
+	 * Let the {@link CloseReportsTask} close reports that stay in progress after their main thread has finished at
+	 * the time they are due instead of scheduling {@link CloseReportsTask#closeReports()} externally
+	 * 
+	 * @param closeReportsTask ...
+	 */
+	public void setCloseReportsTask(CloseReportsTask closeReportsTask) {
+		if (closeReportsTask != null) {
+			closeReportsTask.setTestTool(this);
+		}
+		this.closeReportsTask = closeReportsTask;
+	}
+
 	private <T> T checkpoint(String correlationId, String childThreadId, String sourceClassName, String name,
 			T message, StubableCode stubableCode, StubableCodeThrowsException stubableCodeThrowsException,
 			Set<String> matchingStubStrategies, int checkpointType, int levelChangeNextCheckpoint) {
 		boolean executeStubableCode = true;
 		if (reportGeneratorEnabled) {
-			// Method getReportInProgress() will synchronize on reportsInProgress which is blocking for all threads for
-			// all reports
-			Report report = getReportInProgress(correlationId, name, checkpointType);
-			while (report != null) {
+			LatencyBudget latencyBudget = this.latencyBudget;
+			long start = latencyBudget == null ? 0L : System.nanoTime();
+			long stubableCodeTime = 0L;
+			// Method getReportInProgress() doesn't use a global lock, it will only block other threads in the rare case
+			// that they create a report for the same correlationId at the same time
+			Object reportInProgress = getReportInProgress(correlationId, name, checkpointType);
+			while (reportInProgress != null) {
+				if (reportInProgress instanceof NotAdmittedReport) {
+					// Ignore the checkpoint without taking the lock on a report
+					if (((NotAdmittedReport)reportInProgress).checkpoint(correlationId, checkpointType,
+							levelChangeNextCheckpoint)) {
+						break;
+					}
+					// Removed in the meantime by another thread using the same correlationId
+					reportInProgress = getReportInProgress(correlationId, name, checkpointType);
+					continue;
+				}
+				Report report = (Report)reportInProgress;
+				CheckpointReservation checkpointReservation;
 				// "synchronized(report)" is only blocking for threads writing to the same report (which is only the
 				// case when multiple threads use the same correlationId)
 				synchronized(report) {
-					// "synchronized(report)" is used instead of "synchronized(reportsInProgress)" and separate from the
-					// "synchronized(reportsInProgress)" in getReportInProgress() to prevent threads from being blocked
-					// as much as possible. But in the very rare/unusual case that one thread calls the last endpoint of
-					// a report (which will close the report) and another thread in parallel calls a startpoint for the
-					// same correlationId this last thread can receive the report object from getReportInProgress() and
-					// start waiting for a lock on the report object while the first thread is executing
-					// report.checkpoint() below and closing the report. Hence double check that the report isn't
-					// closed.
+					// "synchronized(report)" is used instead of a global lock for all reports to prevent threads from
+					// being blocked as much as possible. But in the very rare/unusual case that one thread calls the
+					// last endpoint of a report (which will close the report) and another thread in parallel calls a
+					// startpoint for the same correlationId this last thread can receive the report object from
+					// getReportInProgress() and start waiting for a lock on the report object while the first thread is
+					// adding a checkpoint and closing the report. Hence double check that the report isn't closed.
 					if (report.isClosed()) {
 						// Create a new report
-						report = getReportInProgress(correlationId, name, checkpointType);
+						reportInProgress = getReportInProgress(correlationId, name, checkpointType);
 						// Synchronize and check isClosed() on report again as it will now point to a different report
 						continue;
 					}
 					executeStubableCode = false;
-					message = report.checkpoint(childThreadId, sourceClassName, name, message, stubableCode,
-							stubableCodeThrowsException, matchingStubStrategies, checkpointType,
-							levelChangeNextCheckpoint);
+					checkpointReservation = report.reserveCheckpoint(childThreadId, sourceClassName, name, message,
+							matchingStubStrategies, checkpointType, levelChangeNextCheckpoint);
+				}
+				// Execute the stubable code without holding the lock on the report. Otherwise a slow call to an
+				// external system (database, http, queue, ...) would block other threads writing to the same report
+				if (checkpointReservation.executeStubableCode) {
+					long stubableCodeStart = latencyBudget == null ? 0L : System.nanoTime();
+					try {
+						message = execute(stubableCode, stubableCodeThrowsException, message);
+					} catch(Throwable t) {
+						if (checkpointReservation.abortpointOnException) {
+							abortpoint(correlationId, sourceClassName, name, t.getMessage());
+						}
+						throw t;
+					}
+					if (latencyBudget != null) {
+						stubableCodeTime = System.nanoTime() - stubableCodeStart;
+					}
+				}
+				synchronized(report) {
+					message = report.publishCheckpoint(checkpointReservation, message);
 					closeReportIfFinished(report);
+					if (latencyBudget != null) {
+						// Time spent by Ladybug for this checkpoint, including the hand over to the storage when the
+						// report has been closed
+						latencyBudget.checkpointFinished(report, start, System.nanoTime() - start - stubableCodeTime);
+					}
 				}
-				report = null;
+				reportInProgress = null;
 			}
 		}
 		if (executeStubableCode) {
@@ -332,49 +414,135 @@ public class TestTool {
 		return message;
 	}
 
-	private Report getReportInProgress(String correlationId, String name, int checkpointType) {
-		Report report;
-		synchronized(reportsInProgress) {
-			report = (Report)reportsInProgressByCorrelationId.get(correlationId);
-			if (report == null) {
-				if (checkpointType == Checkpoint.TYPE_STARTPOINT) {
-					log.debug("Create new report for '" + correlationId + "'");
-					report = new Report();
-					report.setStartTime(System.currentTimeMillis());
-					report.setTestTool(this);
-					report.setCorrelationId(correlationId);
-					report.setName(name);
-					if (StringUtils.isNotEmpty(regexFilter)) {
-						String nameToMatch = name;
-						if (nameToMatch == null) {
-							nameToMatch = ""; // Same behavior as SearchUtil.matches()
-						}
-						if (!nameToMatch.matches(regexFilter)) {
-							report.setReportFilterMatching(false);
-						}
-					}
-					Report originalReport;
-					synchronized(originalReports) {
-						originalReport = (Report)originalReports.remove(correlationId);
-					}
-					if (originalReport == null) {
-						report.setStubStrategy(getDefaultStubStrategy());
-					} else {
-						report.setStubStrategy(originalReport.getStubStrategy());
-						report.setOriginalReport(originalReport);
-					}
-					reportsInProgress.add(0, report);
-					reportsInProgressByCorrelationId.put(correlationId, report);
-					numberOfReportsInProgress++;
-				} else {
-					log.warn("No report in progress for correlationId and checkpoint not a startpoint, ignored checkpoint "
-							+ Report.getCheckpointLogDescription(name, checkpointType, null, correlationId));
-				}
+	/**
+	 * @return the report in progress for the correlationId, a NotAdmittedReport when the report has not been admitted
+	 *         or null when there's no report in progress and the checkpoint is not a startpoint
+	 */
+	private Object getReportInProgress(String correlationId, String name, int checkpointType) {
+		Object report = reportsInProgressByCorrelationId.get(correlationId);
+		if (report == null) {
+			if (checkpointType == Checkpoint.TYPE_STARTPOINT) {
+				// The mapping function is executed atomically for this correlationId only (threads calling checkpoints
+				// for other correlationIds are not blocked)
+				report = reportsInProgressByCorrelationId.computeIfAbsent(correlationId,
+						key -> createReport(correlationId, name));
+			} else {
+				log.warn("No report in progress for correlationId and checkpoint not a startpoint, ignored checkpoint "
+						+ Report.getCheckpointLogDescription(name, checkpointType, null, correlationId));
 			}
 		}
 		return report;
 	}
 
+	private Object createReport(String correlationId, String name) {
+		Report originalReport = originalReports.remove(correlationId);
+		String notAdmittedBy = getNotAdmittedBy(correlationId, name, originalReport != null);
+		if (notAdmittedBy != null) {
+			log.debug("Report for '" + correlationId + "' not admitted by " + notAdmittedBy);
+			reportsNotAdmitted.computeIfAbsent(notAdmittedBy, key -> new AtomicLong()).incrementAndGet();
+			// Later checkpoints for this correlationId will find this marker and ignore the checkpoint
+			return new NotAdmittedReport();
+		}
+		reportsAdmitted.incrementAndGet();
+		log.debug("Create new report for '" + correlationId + "'");
+		Report report = new Report();
+		report.setStartTime(System.currentTimeMillis());
+		report.setTestTool(this);
+		report.setInProgress(true);
+		report.setCorrelationId(correlationId);
+		report.setName(name);
+		if (originalReport == null) {
+			report.setStubStrategy(getDefaultStubStrategy());
+		} else {
+			report.setStubStrategy(originalReport.getStubStrategy());
+			// Every checkpoint of the rerun will look up it's counterpart in the original report
+			originalReport.buildCheckpointsByPathIndex();
+			report.setOriginalReport(originalReport);
+		}
+		LatencyBudget latencyBudget = this.latencyBudget;
+		if (latencyBudget != null && originalReport == null) {
+			report.setCaptureMode(latencyBudget.getCaptureMode(name));
+		}
+		CloseReportsTask closeReportsTask = this.closeReportsTask;
+		if (closeReportsTask != null && !closeReportsTask.isWaitForMainThreadToFinish()) {
+			closeReportsTask.schedule(report);
+		}
+		report.setReportInProgressSequence(reportsInProgressSequence.incrementAndGet());
+		reportsInProgress.put(-report.getReportInProgressSequence(), report);
+		numberOfReportsInProgress.incrementAndGet();
+		return report;
+	}
+
+	/**
+	 * @return null when the report is admitted, otherwise the name of the filter or admission policy that didn't admit
+	 *         the report
+	 */
+	private String getNotAdmittedBy(String correlationId, String name, boolean rerun) {
+		Pattern regexFilterPattern = this.regexFilterPattern;
+		if (regexFilterPattern != null) {
+			String nameToMatch = name;
+			if (nameToMatch == null) {
+				nameToMatch = ""; // Same behavior as SearchUtil.matches()
+			}
+			if (!regexFilterPattern.matcher(nameToMatch).matches()) {
+				return "regexFilter";
+			}
+		}
+		if (!rerun) {
+			MemoryGovernor memoryGovernor = this.memoryGovernor;
+			if (memoryGovernor != null && memoryGovernor.getLevel(reportsInProgressEstimatedMemoryUsage.get())
+					== MemoryGovernor.Level.NO_NEW_REPORTS) {
+				return "memoryGovernor";
+			}
+			LatencyBudget latencyBudget = this.latencyBudget;
+			if (latencyBudget != null && !latencyBudget.admit(name)) {
+				return "latencyBudget";
+			}
+			for (AdmissionPolicy admissionPolicy : admissionPolicies) {
+				if (!admissionPolicy.admit(correlationId, name)) {
+					return admissionPolicy.getName();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return number of reports admitted and not admitted (per filter or admission policy) since startup
+	 */
+	public Map<String, Object> getAdmissionStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		Map<String, Long> notAdmitted = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : reportsNotAdmitted.entrySet()) {
+			notAdmitted.put(entry.getKey(), entry.getValue().get());
+		}
+		statistics.put("admitted", reportsAdmitted.get());
+		statistics.put("notAdmitted", notAdmitted);
+		return statistics;
+	}
+
+	private void removeReportInProgress(Report report) {
+		report.setInProgress(false);
+		reportsInProgressByCorrelationId.remove(report.getCorrelationId(), report);
+		if (reportsInProgress.remove(-report.getReportInProgressSequence(), report)) {
+			numberOfReportsInProgress.decrementAndGet();
+			reportsInProgressEstimatedMemoryUsage.addAndGet(-report.releaseEstimatedMemoryUsageInProgress());
+		}
+	}
+
+	/**
+	 * @return true when the memory governor doesn't allow messages to be captured
+	 */
+	protected boolean isMetadataOnly() {
+		MemoryGovernor memoryGovernor = this.memoryGovernor;
+		return memoryGovernor != null && memoryGovernor.getLevel(reportsInProgressEstimatedMemoryUsage.get())
+				!= MemoryGovernor.Level.NORMAL;
+	}
+
+	protected void updateReportsInProgressEstimatedMemoryUsage(long delta) {
+		reportsInProgressEstimatedMemoryUsage.addAndGet(delta);
+	}
+
 	@SuppressWarnings("unchecked")
 	@SneakyThrows
 	protected static <T> T execute(StubableCode stubableCode, StubableCodeThrowsException stubableCodeThrowsException,
@@ -389,6 +557,7 @@ public class TestTool {
 	}
 
 	protected void closeReportIfFinished(Report report) {
+		CloseReportsTask closeReportsTask = this.closeReportsTask;
 		synchronized(report) {
 			if (!report.isClosed()) {
 				if (report.mainThreadFinished()) {
@@ -410,48 +579,58 @@ public class TestTool {
 					if (!report.isClosed() && report.streamingMessageListenersFinished()) {
 						report.setClosed(true);
 						log.debug("Report is finished for '" + report.getCorrelationId() + "'");
-						synchronized(reportsInProgress) {
-							reportsInProgress.remove(report);
-							reportsInProgressByCorrelationId.remove(report.getCorrelationId());
-							numberOfReportsInProgress--;
+						// Remove while still holding the lock on the report so a thread waiting for this lock will
+						// see that the report is closed and get (or create) the next report for the correlationId
+						removeReportInProgress(report);
+						if (closeReportsTask != null) {
+							closeReportsTask.cancel(report);
 						}
 						if (report.isReportFilterMatching()) {
-							debugStorage.storeWithoutException(report);
+							// A rerun is looked up in the storage by the caller of the rerun method as soon as the rerun has
+							// finished, hence store it synchronously (and never drop it)
+							if (storePipeline != null && report.getOriginalReport() == null) {
+								storePipeline.store(debugStorage, report);
+							} else {
+								debugStorage.storeWithoutException(report);
+								report.removeSpillFiles(false);
+							}
+						} else {
+							report.removeSpillFiles(false);
 						}
 					}
 				}
+				if (!report.isClosed() && report.mainThreadFinished() && report.getScheduledClose() == null
+						&& closeReportsTask != null) {
+					// Report stays in progress after the main thread has finished (waiting for threads and/or message
+					// capturers)
+					closeReportsTask.schedule(report);
+				}
 			}
 		}
 	}
 
 	public boolean warnReportsInProgress() {
-		synchronized(reportsInProgress) {
-			for (Report report : reportsInProgress) {
-				if (!messageCapturerWaitingForClose(report)
-						&& report.getStartTime() + (5 * 60 * 1000) < System.currentTimeMillis()) {
-					return true;
-				}
+		for (Report report : reportsInProgress.values()) {
+			if (!messageCapturerWaitingForClose(report)
+					&& report.getStartTime() + (5 * 60 * 1000) < System.currentTimeMillis()) {
+				return true;
 			}
 		}
 		return false;
 	}
 
 	public boolean warnMessageCapturerWaitingForClose() {
-		synchronized(reportsInProgress) {
-			for (Report report : reportsInProgress) {
-				if (messageCapturerWaitingForClose(report)
-						&& report.getEndTime() + (30 * 1000) < System.currentTimeMillis()) {
-					return true;
-				}
+		for (Report report : reportsInProgress.values()) {
+			if (messageCapturerWaitingForClose(report)
+					&& report.getEndTime() + (30 * 1000) < System.currentTimeMillis()) {
+				return true;
 			}
 		}
 		return false;
 	}
 
 	private boolean messageCapturerWaitingForClose(Report report) {
-		synchronized(reportsInProgress) {
-			return report.threadsFinished() && !report.streamingMessageListenersFinished();
-		}
+		return report.threadsFinished() && !report.streamingMessageListenersFinished();
 	}
 
 	public <T> T startpoint(String correlationId, String sourceClassName, String name, T message) {
@@ -807,10 +986,7 @@ public class TestTool {
 			close(correlationId, null);
 		}
 		if (closeMessageCapturers) {
-			Report report;
-			synchronized(reportsInProgress) {
-				report = (Report)reportsInProgressByCorrelationId.get(correlationId);
-			}
+			Report report = getReportInProgress(correlationId);
 			if (report != null) {
 				synchronized(report) {
 					report.closeMessageCapturers();
@@ -820,6 +996,22 @@ public class TestTool {
 		}
 	}
 
+	/**
+	 * Close threads and/or message capturers of a specific report (instead of the report in progress for a
+	 * correlationId), used by {@link CloseReportsTask} for scheduled closes
+	 */
+	protected void close(Report report, boolean closeThreads, boolean closeMessageCapturers) {
+		synchronized(report) {
+			if (closeThreads) {
+				report.closeThreads(false);
+			}
+			if (closeMessageCapturers) {
+				report.closeMessageCapturers();
+			}
+			closeReportIfFinished(report);
+		}
+	}
+
 	/**
 	 * Mark a thread as finished. When a threadCreatepoint is called but it is not certain whether this thread will
 	 * execute this method can be used to mark this thread as finished / cancel it when it is certain that this thread
@@ -836,10 +1028,11 @@ public class TestTool {
 	 *                      thread name)
 	 */
 	public void close(String correlationId, String threadName) {
-		Report report;
-		synchronized(reportsInProgress) {
-			report = (Report)reportsInProgressByCorrelationId.get(correlationId);
+		Object reportInProgress = reportsInProgressByCorrelationId.get(correlationId);
+		if (reportInProgress instanceof NotAdmittedReport) {
+			((NotAdmittedReport)reportInProgress).close(correlationId, threadName);
 		}
+		Report report = reportInProgress instanceof Report ? (Report)reportInProgress : null;
 		if (report != null) {
 			synchronized(report) {
 				if (threadName == null) {
@@ -875,14 +1068,9 @@ public class TestTool {
 	 */
 	public final void close(long threadsTime, long messageCapturersTime, boolean waitForMainThreadToFinish,
 			boolean logThreadInfoBeforeClose, long logThreadInfoMinReportAge, long logThreadInfoMaxReportAge) {
-		// Lock reportsInProgress as less as possible, synchronize on each report individually
-		Set<Report> reports = new HashSet<Report>();
-		synchronized(reportsInProgress) {
-			for (Report report : reportsInProgress) {
-				reports.add(report);
-			}
-		}
-		for (Report report : reports) {
+		// Synchronize on each report individually (the iterator of reportsInProgress doesn't need a lock and doesn't
+		// throw a ConcurrentModificationException when reports are added or removed while iterating)
+		for (Report report : reportsInProgress.values()) {
 			synchronized (report) {
 				boolean closeThreads = false;
 				boolean closeMessageCapturers = false;
@@ -970,9 +1158,7 @@ public class TestTool {
 		} else {
 			boolean reportGeneratorEnabled = isReportGeneratorEnabled();
 			if (reportGeneratorEnabled) {
-				synchronized(originalReports) {
-					originalReports.put(correlationId, report);
-				}
+				originalReports.put(correlationId, report);
 			}
 			try {
 				if (rerunner != null) {
@@ -983,10 +1169,7 @@ public class TestTool {
 			} finally {
 				if (reportGeneratorEnabled) {
 					// Verify that originalReport has been removed from originalReports by checkpoint()
-					Report originalReport;
-					synchronized(originalReports) {
-						originalReport = (Report)originalReports.remove(correlationId);
-					}
+					Report originalReport = originalReports.remove(correlationId);
 					if (errorMessage == null && originalReport != null) {
 						errorMessage = "Rerun didn't trigger any checkpoint or new report didn't get correlationId '"
 								+ correlationId + "'";
@@ -1009,9 +1192,9 @@ public class TestTool {
      */
 	public Checkpoint getOriginalEndpointOrAbortpointForCurrentLevel(String correlationId) {
 		Checkpoint result = null;
-		synchronized(reportsInProgress) {
-			Report report = (Report)reportsInProgressByCorrelationId.get(correlationId);
-			if (report != null) {
+		Report report = getReportInProgress(correlationId);
+		if (report != null) {
+			synchronized(report) {
 				result = report.getOriginalEndpointOrAbortpointForCurrentLevel();
 			}
 		}
@@ -1019,9 +1202,8 @@ public class TestTool {
 	}
 	// TODO vorige methode niet meer nodig?! hier nog documentern dat je met geturnde report voorzicht moet zijn omdat het nog in progress is? 
 	public Report getReportInProgress(String correlationId) {
-		synchronized(reportsInProgress) {
-			return (Report)reportsInProgressByCorrelationId.get(correlationId);
-		}
+		Object reportInProgress = reportsInProgressByCorrelationId.get(correlationId);
+		return reportInProgress instanceof Report ? (Report)reportInProgress : null;
 	}
 
 	/**
@@ -1046,9 +1228,9 @@ public class TestTool {
 
 	public Report getReportInProgress(int index) {
 		Report reportClone = null;
-		synchronized(reportsInProgress) {
-			if (index > -1 && index < reportsInProgress.size()) {
-				Report report = reportsInProgress.get(index);
+		Report report = getReportInProgressByIndex(index);
+		if (report != null) {
+			synchronized(report) {
 				try {
 					reportClone = report.clone();
 				} catch (CloneNotSupportedException e) {
@@ -1060,28 +1242,40 @@ public class TestTool {
 	}
 
 	public Report removeReportInProgress(int index) {
-		Report report = null;
-		synchronized(reportsInProgress) {
-			if (index > -1 && index < reportsInProgress.size()) {
-				report = reportsInProgress.remove(index);
-				numberOfReportsInProgress--;
+		Report report = getReportInProgressByIndex(index);
+		if (report != null) {
+			synchronized(report) {
+				removeReportInProgress(report);
+				// The report is discarded without being stored
+				report.removeSpillFiles(false);
 			}
 		}
 		return report;
 	}
 
+	/**
+	 * Get report in progress by index (the newest report has index 0). As the GUI and API are the only users of this
+	 * method iterating the reports in progress is preferred over maintaining an index on every checkpoint
+	 */
+	private Report getReportInProgressByIndex(int index) {
+		if (index > -1) {
+			int i = 0;
+			for (Report report : reportsInProgress.values()) {
+				if (i == index) {
+					return report;
+				}
+				i++;
+			}
+		}
+		return null;
+	}
+
 	public long getNumberOfReportsInProgress() {
-		return numberOfReportsInProgress;
+		return numberOfReportsInProgress.get();
 	}
 
 	public long getReportsInProgressEstimatedMemoryUsage() {
-		long reportsInProgressEstimatedMemoryUsage = 0;
-		synchronized(reportsInProgress) {
-			for (Report report : reportsInProgress) {
-				reportsInProgressEstimatedMemoryUsage += report.getEstimatedMemoryUsage();
-			}
-		}
-		return reportsInProgressEstimatedMemoryUsage;
+		return reportsInProgressEstimatedMemoryUsage.get();
 	}
 
 	public Storage getStorage(String name) {
@@ -1114,4 +1308,51 @@ public class TestTool {
 	public static String getImplementationVersion() {
 		return Package.getPackage("nl.nn.testtool").getImplementationVersion();
 	}
-}
\ No newline at end of file
+	/**
+	 * Marker for a correlationId of which the report has not been admitted. Only the levels and the threads that have
+	 * been created but not started yet are counted to know when to remove the marker (like a report in progress is
+	 * closed when its threads have finished), hence a checkpoint for this correlationId costs a map lookup and an
+	 * update of these counters. A marker is not counted as a report in progress.
+	 */
+	private class NotAdmittedReport {
+		private int level;
+		private int threadsNotStarted;
+		private boolean removed;
+
+		/**
+		 * @return false when the marker has already been removed (the checkpoint should look up the report in progress
+		 *         again)
+		 */
+		private synchronized boolean checkpoint(String correlationId, int checkpointType,
+				int levelChangeNextCheckpoint) {
+			if (removed) {
+				return false;
+			}
+			if (checkpointType == Checkpoint.TYPE_THREADCREATEPOINT) {
+				threadsNotStarted++;
+			} else if (checkpointType == Checkpoint.TYPE_THREADSTARTPOINT && threadsNotStarted > 0) {
+				threadsNotStarted--;
+			}
+			level = level + levelChangeNextCheckpoint;
+			if (level < 1 && (threadsNotStarted < 1 || closeThreads)) {
+				remove(correlationId);
+			}
+			return true;
+		}
+
+		private synchronized void close(String correlationId, String threadName) {
+			if (threadName != null && threadsNotStarted > 0) {
+				threadsNotStarted--;
+			}
+			if (threadName == null || (level < 1 && threadsNotStarted < 1)) {
+				remove(correlationId);
+			}
+		}
+
+		private void remove(String correlationId) {
+			removed = true;
+			reportsInProgressByCorrelationId.remove(correlationId, this);
+		}
+	}
+
+}
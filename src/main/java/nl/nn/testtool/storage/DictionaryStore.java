@@ -0,0 +1,377 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Preset dictionaries with which a storage compresses its reports (see {@link Deflater#setDictionary(byte[])}).
+ * Reports are compressed one by one, hence without a dictionary the compressor cannot benefit from the content that
+ * reports have in common (e.g. the same xml envelopes, checkpoint names and class names). A dictionary with the content
+ * that occurs in most reports is trained from a sample of recently stored reports and retrained after every
+ * {@link #setTrainingInterval(int)} reports (on a background thread as training takes some time and memory, in the
+ * meantime reports are compressed with the current dictionary). Every dictionary gets a new id and is stored before it
+ * is used. Reports refer to the dictionary they have been compressed with by its id. The storage keeps track of the
+ * dictionaries referenced by its reports and deletes the dictionaries that aren't referenced anymore (except for the
+ * current dictionary). No new dictionaries are trained while {@link #setMaxDictionaries(int)} dictionaries are stored.
+ */
+public abstract class DictionaryStore {
+	private static Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+	public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+	private static final int MAX_SAMPLE_LENGTH = 16 * 1024;
+	private @Setter @Getter int dictionarySize = MAX_DICTIONARY_SIZE;
+	private @Setter @Getter int sampleCount = 100;
+	private @Setter @Getter int trainingInterval = 1000;
+	private @Setter @Getter int maxDictionaries = 10;
+	private Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<Integer, byte[]>();
+	private volatile Dictionary currentDictionary;
+	private volatile boolean latestDictionaryRead;
+	private Deque<byte[]> samples = new ArrayDeque<byte[]>();
+	private int samplesSinceTraining;
+	private AtomicBoolean training = new AtomicBoolean();
+	private volatile boolean logReadLatestDictionaryFailed = true;
+	private volatile boolean logTrainingFailed = true;
+
+	/**
+	 * @return the dictionary to compress new reports with or null when no dictionary has been trained yet
+	 */
+	public Dictionary getCurrentDictionary() {
+		if (!latestDictionaryRead) {
+			readLatestDictionary();
+		}
+		return currentDictionary;
+	}
+
+	/**
+	 * Continue with the latest stored dictionary (e.g. after a restart). Done on first use instead of on
+	 * initialization of the storage as the table or directory might not have been created yet at that time.
+	 */
+	private synchronized void readLatestDictionary() {
+		if (!latestDictionaryRead) {
+			try {
+				int id = readLatestDictionaryId();
+				if (id > 0) {
+					byte[] dictionary = getDictionary(id);
+					if (dictionary != null) {
+						currentDictionary = new Dictionary(id, dictionary);
+					}
+				}
+				latestDictionaryRead = true;
+			} catch (StorageException e) {
+				// Try again for the next report, in the meantime reports are compressed without dictionary
+				if (logReadLatestDictionaryFailed) {
+					log.warn("Could not read latest compression dictionary (next failures will not be logged)", e);
+					logReadLatestDictionaryFailed = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param id ...
+	 * @return the dictionary with the specified id or null when not found
+	 * @throws StorageException ...
+	 */
+	public byte[] getDictionary(int id) throws StorageException {
+		byte[] dictionary = dictionaries.get(id);
+		if (dictionary == null) {
+			dictionary = readDictionary(id);
+			if (dictionary != null) {
+				dictionaries.put(id, dictionary);
+			}
+		}
+		return dictionary;
+	}
+
+	/**
+	 * @param id ...
+	 * @return true when the dictionary with the specified id is the dictionary new reports are compressed with or has
+	 *         been stored after it (e.g. by another instance using the same database)
+	 */
+	protected boolean isCurrentDictionary(int id) {
+		Dictionary current = getCurrentDictionary();
+		return current != null && id >= current.getId();
+	}
+
+	/**
+	 * Remove a dictionary that has been deleted from the cache. When it is the current dictionary (e.g. deleted by
+	 * another instance using the same database) continue with the latest stored dictionary for the next reports
+	 *
+	 * @param id ...
+	 */
+	protected void evictDictionary(int id) {
+		dictionaries.remove(id);
+		Dictionary current = currentDictionary;
+		if (current != null && current.getId() == id) {
+			currentDictionary = null;
+			latestDictionaryRead = false;
+		}
+	}
+
+	/**
+	 * Add a (part of a) report to the sample to train the next dictionary with. A new dictionary is trained on a
+	 * background thread when {@link #setTrainingInterval(int)} samples have been added since the last training.
+	 *
+	 * @param bytes  ...
+	 * @param offset ...
+	 * @param length ...
+	 */
+	public void addSample(byte[] bytes, int offset, int length) {
+		byte[] sample = Arrays.copyOfRange(bytes, offset, offset + Math.min(length, MAX_SAMPLE_LENGTH));
+		synchronized(samples) {
+			samples.addLast(sample);
+			while (samples.size() > sampleCount) {
+				samples.removeFirst();
+			}
+			samplesSinceTraining++;
+			if (samplesSinceTraining < trainingInterval) {
+				return;
+			}
+			samplesSinceTraining = 0;
+		}
+		// The caller is storing a report (possibly while holding a lock of the storage), hence don't let it wait for
+		// the training. When the previous training is still running this training is skipped
+		if (training.compareAndSet(false, true)) {
+			Thread thread = new Thread(this::trainInBackground, "Ladybug-DictionaryTrainer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void trainInBackground() {
+		try {
+			train();
+		} catch (Throwable throwable) {
+			// The reports will be compressed with the current dictionary until the next training
+			if (logTrainingFailed) {
+				log.warn("Could not train compression dictionary (next failures will not be logged)", throwable);
+				logTrainingFailed = false;
+			}
+		} finally {
+			training.set(false);
+		}
+	}
+
+	/**
+	 * @return true while a dictionary is being trained on the background thread
+	 */
+	public boolean isTraining() {
+		return training.get();
+	}
+
+	/**
+	 * Train a new dictionary from the current sample, store it and use it for the next reports. Skipped when
+	 * {@link #setMaxDictionaries(int)} dictionaries are stored.
+	 *
+	 * @throws StorageException ...
+	 */
+	public void train() throws StorageException {
+		if (isMaxDictionariesReached()) {
+			return;
+		}
+		List<byte[]> sample;
+		synchronized(samples) {
+			sample = new ArrayList<byte[]>(samples);
+		}
+		byte[] dictionary = DictionaryTrainer.train(sample, Math.min(dictionarySize, MAX_DICTIONARY_SIZE));
+		if (dictionary.length > 0) {
+			synchronized(this) {
+				// Check again as the dictionary might have been trained by another thread in the meantime
+				if (isMaxDictionariesReached()) {
+					return;
+				}
+				Dictionary current = getCurrentDictionary();
+				int id = writeDictionary(current == null ? 1 : current.getId() + 1, dictionary);
+				dictionaries.put(id, dictionary);
+				currentDictionary = new Dictionary(id, dictionary);
+				latestDictionaryRead = true;
+				log.debug("Trained compression dictionary " + id + " of " + dictionary.length + " bytes from "
+						+ sample.size() + " reports");
+			}
+		}
+	}
+
+	private boolean isMaxDictionariesReached() throws StorageException {
+		if (countDictionaries() >= maxDictionaries) {
+			log.debug("Maximum number of compression dictionaries (" + maxDictionaries + ") reached, no new"
+					+ " dictionary will be trained until dictionaries are deleted together with the reports referring"
+					+ " to them");
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return id of the latest stored dictionary or 0 when no dictionary has been stored yet
+	 * @throws StorageException ...
+	 */
+	protected abstract int readLatestDictionaryId() throws StorageException;
+
+	/**
+	 * @param id ...
+	 * @return the dictionary or null when not found
+	 * @throws StorageException ...
+	 */
+	protected abstract byte[] readDictionary(int id) throws StorageException;
+
+	/**
+	 * @return number of stored dictionaries
+	 * @throws StorageException ...
+	 */
+	protected abstract int countDictionaries() throws StorageException;
+
+	/**
+	 * @param id         the id to store the dictionary with
+	 * @param dictionary ...
+	 * @return the id with which the dictionary has been stored (a store may use a higher id when the specified id is
+	 *         already in use, e.g. by another instance using the same database)
+	 * @throws StorageException ...
+	 */
+	protected abstract int writeDictionary(int id, byte[] dictionary) throws StorageException;
+
+	public static class Dictionary {
+		private @Getter int id;
+		private @Getter byte[] bytes;
+
+		public Dictionary(int id, byte[] bytes) {
+			this.id = id;
+			this.bytes = bytes;
+		}
+	}
+
+}
+
+/**
+ * Select the parts of the samples that contain the byte sequences that occur in most samples. Byte sequences of
+ * GRAM_LENGTH bytes are counted (once per sample) in a hash table. Segments of the samples are scored by the counts of
+ * their byte sequences and selected greedily, best first, not counting the sequences already covered by the segments
+ * selected before. The best segments are put at the end of the dictionary as deflate encodes shorter distances with
+ * fewer bits.
+ */
+class DictionaryTrainer {
+	private static final int GRAM_LENGTH = 8;
+	private static final int SEGMENT_LENGTH = 64;
+	private static final int SEGMENT_STEP = 16;
+	private static final int TABLE_BITS = 20;
+
+	static byte[] train(List<byte[]> samples, int dictionarySize) {
+		int[] counts = new int[1 << TABLE_BITS];
+		int[] lastSample = new int[1 << TABLE_BITS];
+		for (int i = 0; i < samples.size(); i++) {
+			byte[] sample = samples.get(i);
+			for (int j = 0; j + GRAM_LENGTH <= sample.length; j++) {
+				int slot = slot(sample, j);
+				if (lastSample[slot] != i + 1) {
+					lastSample[slot] = i + 1;
+					counts[slot]++;
+				}
+			}
+		}
+		boolean[] covered = new boolean[1 << TABLE_BITS];
+		PriorityQueue<Segment> segments = new PriorityQueue<Segment>((a, b) -> Integer.compare(b.score, a.score));
+		for (int i = 0; i < samples.size(); i++) {
+			byte[] sample = samples.get(i);
+			for (int start = 0; start + GRAM_LENGTH <= sample.length; start += SEGMENT_STEP) {
+				Segment segment = new Segment(i, start, Math.min(start + SEGMENT_LENGTH, sample.length));
+				segment.score = score(sample, segment, counts, covered);
+				if (segment.score > 0) {
+					segments.add(segment);
+				}
+			}
+		}
+		List<Segment> selected = new ArrayList<Segment>();
+		int size = 0;
+		while (!segments.isEmpty() && size < dictionarySize) {
+			Segment segment = segments.poll();
+			byte[] sample = samples.get(segment.sample);
+			int score = score(sample, segment, counts, covered);
+			if (score <= 0) {
+				continue;
+			}
+			if (score < segment.score && !segments.isEmpty() && score < segments.peek().score) {
+				// Partly covered by the segments selected before, try again at its new position in the queue
+				segment.score = score;
+				segments.add(segment);
+				continue;
+			}
+			for (int i = segment.start; i + GRAM_LENGTH <= segment.end; i++) {
+				covered[slot(sample, i)] = true;
+			}
+			selected.add(segment);
+			size += segment.end - segment.start;
+		}
+		ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+		for (int i = selected.size() - 1; i >= 0; i--) {
+			Segment segment = selected.get(i);
+			dictionary.write(samples.get(segment.sample), segment.start, segment.end - segment.start);
+		}
+		byte[] bytes = dictionary.toByteArray();
+		if (bytes.length > dictionarySize) {
+			bytes = Arrays.copyOfRange(bytes, bytes.length - dictionarySize, bytes.length);
+		}
+		return bytes;
+	}
+
+	private static int score(byte[] sample, Segment segment, int[] counts, boolean[] covered) {
+		int score = 0;
+		for (int i = segment.start; i + GRAM_LENGTH <= segment.end; i++) {
+			int slot = slot(sample, i);
+			// Sequences occurring in only one sample are not worth adding
+			if (!covered[slot] && counts[slot] > 1) {
+				score += counts[slot] - 1;
+			}
+		}
+		return score;
+	}
+
+	private static int slot(byte[] bytes, int offset) {
+		long gram = 0;
+		for (int i = 0; i < GRAM_LENGTH; i++) {
+			gram = gram << 8 | (bytes[offset + i] & 0xFF);
+		}
+		return (int)((gram * 0x9E3779B97F4A7C15L) >>> (64 - TABLE_BITS));
+	}
+
+	private static class Segment {
+		int sample;
+		int start;
+		int end;
+		int score;
+
+		Segment(int sample, int start, int end) {
+			this.sample = sample;
+			this.start = start;
+			this.end = end;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import nl.nn.testtool.util.StreamUtil;
+
+/**
+ * Reference to a (large) message that is stored once in a content-addressed {@link MessageStore} by a storage. The
+ * hash is the hex encoded SHA-256 of the UTF-8 encoded message. Reports encoded by {@link nl.nn.testtool.ReportCodec}
+ * contain the hash, reports stored by older versions (serialized with an ObjectOutputStream) contain instances of
+ * this class instead of the message.
+ *
+ * @see nl.nn.testtool.util.Export#getReportBytes(nl.nn.testtool.Report, int, java.util.Map)
+ * @see nl.nn.testtool.util.Import#getReport(java.io.InputStream, Integer, Long, MessageStore, org.slf4j.Logger)
+ */
+public class MessageReference implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private String hash;
+
+	public MessageReference(String hash) {
+		this.hash = hash;
+	}
+
+	public String getHash() {
+		return hash;
+	}
+
+	public static String getHash(String message) {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every implementation of the Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		try {
+			// Digest the UTF-8 bytes in chunks instead of creating a copy of a (large) message
+			StreamUtil.writeUtf8(message, new OutputStream() {
+
+				@Override
+				public void write(int b) {
+					messageDigest.update((byte)b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					messageDigest.update(b, off, len);
+				}
+			});
+		} catch (IOException e) {
+			// Not thrown by the output stream
+			throw new UncheckedIOException(e);
+		}
+		byte[] digest = messageDigest.digest();
+		char[] hash = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			hash[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+			hash[i * 2 + 1] = HEX[digest[i] & 0xf];
+		}
+		return new String(hash);
+	}
+
+}
@@ -0,0 +1,33 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.storage;
+
+/**
+ * Content-addressed store in which a storage can keep (large) messages once instead of as part of every report that
+ * contains them (e.g. the same payload passed to multiple checkpoints or the same stub response in thousands of
+ * reports). Reports refer to the messages with a {@link MessageReference}. The storage is responsible for keeping
+ * track of the references (e.g. reference counting) and removing messages that are not referenced anymore.
+ */
+public interface MessageStore {
+
+	/**
+	 * @param hash the hash of the message, see {@link MessageReference#getHash(String)}
+	 * @return the message or null when not found
+	 * @throws StorageException ...
+	 */
+	public String getMessage(String hash) throws StorageException;
+
+}
@@ -60,6 +60,35 @@ public interface Storage {
 	 */
 	public Report getReport(Integer storageId) throws StorageException;
 
+	/**
+	 * Get a report of which the checkpoints don't need to contain their message (e.g. to show the checkpoint tree of a
+	 * report without reading all (possibly large) messages). Use {@link #getCheckpointMessage(Integer, int)} to get the
+	 * message of a checkpoint. Returns null when the report could not be found. The default implementation returns the
+	 * complete report.
+	 * 
+	 * @param storageId ...
+	 * @throws StorageException ...
+	 * @return ...
+	 */
+	public default Report getReportSkeleton(Integer storageId) throws StorageException {
+		return getReport(storageId);
+	}
+
+	/**
+	 * Get the message of a checkpoint without reading the messages of the other checkpoints of the report (when
+	 * supported by the storage). Returns null when the report could not be found.
+	 * 
+	 * @param storageId ...
+	 * @param index     index of the checkpoint in {@link Report#getCheckpoints()}
+	 * @throws StorageException ...
+	 * @throws IndexOutOfBoundsException when the report doesn't have a checkpoint with the specified index
+	 * @return the same as {@link nl.nn.testtool.Checkpoint#getMessage()} of the checkpoint of the complete report
+	 */
+	public default String getCheckpointMessage(Integer storageId, int index) throws StorageException {
+		Report report = getReport(storageId);
+		return report == null ? null : report.getCheckpoints().get(index).getMessage();
+	}
+
 	public void clear() throws StorageException;
 
 	public void close();
@@ -0,0 +1,146 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.storage.database;
+
+import java.util.List;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import nl.nn.testtool.storage.DictionaryStore;
+import nl.nn.testtool.storage.StorageException;
+
+/**
+ * Compression dictionaries of the reports in a database storage, stored in a table with columns ID, DICTIONARY and
+ * REFERENCECOUNT. The reference count is updated in the transaction in which a report is inserted or deleted. A
+ * dictionary is deleted when it isn't referenced anymore, unless it is the latest dictionary (which new reports are or
+ * will be compressed with).
+ */
+public class DatabaseDictionaryStore extends DictionaryStore {
+	private JdbcTemplate jdbcTemplate;
+	private String table;
+
+	protected DatabaseDictionaryStore(JdbcTemplate jdbcTemplate, String table) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.table = table;
+	}
+
+	@Override
+	protected int readLatestDictionaryId() throws StorageException {
+		try {
+			Integer latestId = jdbcTemplate.queryForObject("select max(ID) from " + table, Integer.class);
+			return latestId == null ? 0 : latestId;
+		} catch (DataAccessException e) {
+			throw new StorageException("Could not read latest dictionary id", e);
+		}
+	}
+
+	@Override
+	protected int countDictionaries() throws StorageException {
+		try {
+			return jdbcTemplate.queryForObject("select count(*) from " + table, Integer.class);
+		} catch (DataAccessException e) {
+			throw new StorageException("Could not count dictionaries", e);
+		}
+	}
+
+	/**
+	 * Increment the reference count of a dictionary referenced by a report that is about to be inserted
+	 * 
+	 * @param jdbcTemplate template executing the statements in the transaction inserting the report
+	 * @param id           ...
+	 * @throws StorageException ...
+	 */
+	protected void retain(JdbcTemplate jdbcTemplate, int id) throws StorageException {
+		try {
+			if (jdbcTemplate.update("update " + table + " set REFERENCECOUNT = REFERENCECOUNT + 1 where ID = ?", id)
+					== 0) {
+				// Deleted by another instance using the same table after the report has been compressed with it
+				evictDictionary(id);
+				throw new StorageException("Dictionary " + id + " not found");
+			}
+		} catch (DataAccessException e) {
+			throw new StorageException("Could not update reference count of dictionary " + id, e);
+		}
+	}
+
+	/**
+	 * Decrement the reference count of the dictionaries referenced by the reports that are about to be deleted and
+	 * delete the dictionaries that aren't referenced anymore
+	 * 
+	 * @param jdbcTemplate template executing the statements in the transaction deleting the reports
+	 * @param ids          ids of the dictionaries (an id per report)
+	 * @throws StorageException ...
+	 */
+	protected void release(JdbcTemplate jdbcTemplate, List<Integer> ids) throws StorageException {
+		try {
+			for (Integer id : ids) {
+				jdbcTemplate.update("update " + table + " set REFERENCECOUNT = REFERENCECOUNT - 1 where ID = ?", id);
+			}
+			// Read the latest id first instead of using a subquery as MySQL doesn't allow a subquery on the table of a
+			// delete statement
+			Integer keepFromId = jdbcTemplate.queryForObject("select max(ID) from " + table, Integer.class);
+			if (keepFromId == null) {
+				return;
+			}
+			// Keep the dictionary new reports are compressed with
+			Dictionary current = getCurrentDictionary();
+			if (current != null) {
+				keepFromId = Math.min(keepFromId, current.getId());
+			}
+			List<Integer> unreferencedIds = jdbcTemplate.queryForList("select ID from " + table
+					+ " where REFERENCECOUNT <= 0 and ID < ?", Integer.class, keepFromId);
+			for (Integer id : unreferencedIds) {
+				if (jdbcTemplate.update("delete from " + table + " where ID = ? and REFERENCECOUNT <= 0", id) > 0) {
+					evictDictionary(id);
+				}
+			}
+		} catch (DataAccessException e) {
+			throw new StorageException("Could not release dictionaries", e);
+		}
+	}
+
+	@Override
+	protected byte[] readDictionary(int id) throws StorageException {
+		try {
+			List<byte[]> result = jdbcTemplate.query("select DICTIONARY from " + table + " where ID = ?",
+					(resultSet, rowNum) -> resultSet.getBytes(1), id);
+			return result.isEmpty() ? null : result.get(0);
+		} catch (DataAccessException e) {
+			throw new StorageException("Could not read dictionary " + id, e);
+		}
+	}
+
+	@Override
+	protected int writeDictionary(int id, byte[] dictionary) throws StorageException {
+		try {
+			while (true) {
+				try {
+					jdbcTemplate.update("insert into " + table + " (ID, DICTIONARY, REFERENCECOUNT) values (?, ?, 0)",
+							id, dictionary);
+					return id;
+				} catch (DuplicateKeyException e) {
+					// Inserted by another instance using the same table in the meantime
+					id = readLatestDictionaryId() + 1;
+				}
+			}
+		} catch (DataAccessException e) {
+			throw new StorageException("Could not write dictionary " + id, e);
+		}
+	}
+
+}
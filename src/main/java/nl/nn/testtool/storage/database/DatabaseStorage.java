@@ -15,19 +15,30 @@
 */
 package nl.nn.testtool.storage.database;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.sql.Blob;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.PostConstruct;
 
@@ -38,18 +49,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 
 import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
 import nl.nn.testtool.MetadataExtractor;
 import nl.nn.testtool.Report;
+import nl.nn.testtool.ReportCodec;
 import nl.nn.testtool.storage.CrudStorage;
 import nl.nn.testtool.storage.LogStorage;
 import nl.nn.testtool.storage.StorageException;
-import nl.nn.testtool.util.Export;
 import nl.nn.testtool.util.Import;
 import nl.nn.testtool.util.SearchUtil;
 
@@ -69,10 +83,27 @@ public class DatabaseStorage implements LogStorage, CrudStorage {
 	protected @Setter List<String> timestampColumns;
 	protected @Setter List<String> bigValueColumns; // Columns for which to limit the number of retrieved characters to 100
 	protected @Setter long maxStorageSize = -1;
+	// Table (with columns HASH, MESSAGE and REFERENCECOUNT) in which to store Strings (messages) with a length of at
+	// least messageThreshold once instead of as part of every report containing them. When null (default) messages are
+	// stored as part of the report
+	protected @Setter @Getter String messageTable;
+	protected @Setter @Getter int messageThreshold = 1024;
+	// Level from 0 (no compression) to 9 (best compression) with which reports are compressed
+	protected @Setter @Getter int compressionLevel = ReportCodec.DEFAULT_COMPRESSION_LEVEL;
+	// Table (with columns ID, DICTIONARY and REFERENCECOUNT) in which to store the dictionaries trained from a sample
+	// of recently stored reports to compress the next reports with. When null (default) reports are compressed without
+	// dictionary
+	protected @Setter @Getter String dictionaryTable;
+	protected @Setter @Getter int dictionaryTrainingInterval = 1000;
+	// No new dictionaries are trained while this number of dictionaries is stored (dictionaries are deleted when the
+	// last report referring to them is deleted)
+	protected @Setter @Getter int maxDictionaries = 10;
 	protected @Setter @Getter @Inject @Autowired JdbcTemplate jdbcTemplate;
 	protected @Setter @Getter @Inject @Autowired DbmsSupport dbmsSupport;
 	protected @Setter @Getter @Inject @Autowired MetadataExtractor metadataExtractor;
 	protected String lastExceptionMessage;
+	private boolean createBlobSupported = true;
+	private DatabaseDictionaryStore dictionaryStore;
 
 	public String getTable() {
 		if (table == null) {
@@ -128,12 +159,22 @@ public class DatabaseStorage implements LogStorage, CrudStorage {
 			throw new StorageException("List metadataNames " + metadataNames
 					+ " should at least contain storageId column name '" + getStorageIdColumn() + "'");
 		}
+		if (dictionaryTable != null) {
+			dictionaryStore = new DatabaseDictionaryStore(jdbcTemplate, dictionaryTable);
+			dictionaryStore.setTrainingInterval(dictionaryTrainingInterval);
+			dictionaryStore.setMaxDictionaries(maxDictionaries);
+		}
+	}
+
+	/**
+	 * @return the store with the dictionaries the reports are compressed with or null when dictionaryTable is not set
+	 */
+	public DatabaseDictionaryStore getDictionaryStore() {
+		return dictionaryStore;
 	}
 
 	@Override
 	public void store(Report report) throws StorageException {
-		byte[] reportBytes = Export.getReportBytes(report);
-		report.setStorageSize(new Long(reportBytes.length));
 		StringBuilder query = new StringBuilder("insert into " + getTable() + " (");
 		for (String column : getMetadataNames()) {
 			// Column storageId is expected to be an auto increment column
@@ -155,37 +196,138 @@ public class DatabaseStorage implements LogStorage, CrudStorage {
 		}
 		query.append(", ?)");
 		log.debug("Store report query: " + query.toString());
-		jdbcTemplate.update(query.toString(),
-				new PreparedStatementSetter() {
-					@Override
-					public void setValues(PreparedStatement ps) throws SQLException {
-						int i = 1;
-						for (String column : getMetadataNames()) {
-							if (!column.equals(getStorageIdColumn())) {
-								if (getIntegerColumns().contains(column)) {
-									ps.setInt(i, (Integer)metadataExtractor.getMetadata(report, column, MetadataExtractor.VALUE_TYPE_OBJECT));
-								} else if (getLongColumns().contains(column)) {
-									ps.setLong(i, (Long)metadataExtractor.getMetadata(report, column, MetadataExtractor.VALUE_TYPE_OBJECT));
-								} else if (getTimestampColumns().contains(column)) {
-									ps.setTimestamp(i, new Timestamp((Long)metadataExtractor.getMetadata(report, column, MetadataExtractor.VALUE_TYPE_OBJECT)));
-								} else {
-									ps.setString(i, (String)metadataExtractor.getMetadata(report, column, MetadataExtractor.VALUE_TYPE_OBJECT));
-								}
-								i++;
-							}
-						}
-						ps.setBlob(i, new ByteArrayInputStream(reportBytes));
-					}
-				});
+		executeInTransaction(connection -> store(report, query.toString(), connection));
 		if (maxStorageSize > -1) {
 			String averageQuery = "select avg(storageSize) from " + getTable();
 			int averageStorageSize = jdbcTemplate.queryForObject(averageQuery, Integer.class);
 			log.debug("Get average storage size query (returned " + averageStorageSize + "): " + averageQuery);
 			int maxNrOfReports = (int)(maxStorageSize / averageStorageSize);
-			String deleteQuery = "delete from " + getTable() + " where " + getStorageIdColumn()
-					+ " <= ((select max(" + getStorageIdColumn() + ") from " + getTable() + ") - ?)";
-			delete(deleteQuery, maxNrOfReports);
+			String maxQuery = "select max(" + getStorageIdColumn() + ") from " + getTable();
+			Integer maxStorageId = jdbcTemplate.queryForObject(maxQuery, Integer.class);
+			if (maxStorageId != null) {
+				// Use the same storage id for selecting the reports to release the messages for and deleting them
+				// (reports stored by other threads in the meantime would otherwise change the outcome of the max)
+				delete(getStorageIdColumn() + " <= ?", maxStorageId - maxNrOfReports);
+			}
+		}
+	}
+
+	/**
+	 * Execute the statements of the callback in one transaction on the same connection (e.g. to insert or delete a
+	 * report and update the reference counts of its messages together). When auto-commit is already disabled on the
+	 * connection (e.g. because it is part of a transaction managed by the caller) the commit is left to the owner of
+	 * the transaction.
+	 */
+	private <T> T executeInTransaction(ConnectionCallback<T> connectionCallback) {
+		return jdbcTemplate.execute((ConnectionCallback<T>)connection -> {
+			boolean autoCommit = connection.getAutoCommit();
+			if (autoCommit) {
+				connection.setAutoCommit(false);
+			}
+			try {
+				T result = connectionCallback.doInConnection(connection);
+				if (autoCommit) {
+					connection.commit();
+				}
+				return result;
+			} catch (Throwable throwable) {
+				if (autoCommit) {
+					connection.rollback();
+				}
+				throw throwable;
+			} finally {
+				if (autoCommit) {
+					connection.setAutoCommit(true);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return template executing all statements on the connection (a blob created on a connection cannot be used with
+	 *         another connection and the statements need to be part of the transaction on the connection)
+	 */
+	private JdbcTemplate getConnectionJdbcTemplate(Connection connection) {
+		JdbcTemplate connectionJdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+		connectionJdbcTemplate.setExceptionTranslator(jdbcTemplate.getExceptionTranslator());
+		return connectionJdbcTemplate;
+	}
+
+	// StorageException is allowed by Storage.store(), hence no need to handle it in the lambda expression that will call
+	// this method
+	@SneakyThrows
+	private Void store(Report report, String query, Connection connection) {
+		Map<String, String> messages = messageTable == null ? null : new LinkedHashMap<String, String>();
+		JdbcTemplate connectionJdbcTemplate = getConnectionJdbcTemplate(connection);
+		Blob blob = createBlob(connection);
+		try {
+			ByteArrayOutputStream reportBytes = blob == null ? new ByteArrayOutputStream() : null;
+			// Serialize the report directly into the blob instead of creating a byte array first (when supported)
+			try (OutputStream outputStream = blob != null ? new BufferedOutputStream(blob.setBinaryStream(1))
+					: reportBytes) {
+				report.setStorageSize(ReportCodec.encode(report, messages == null ? -1 : messageThreshold, messages,
+						outputStream, compressionLevel, dictionaryStore));
+			} catch (IOException e) {
+				throw new StorageException("Could not write report to blob", e);
+			}
+			if (messages != null) {
+				// Before inserting the report so a reader will always find the messages referenced by the report
+				storeMessages(connectionJdbcTemplate, connection, messages);
+			}
+			byte[] finalReportBytes = reportBytes == null ? null : reportBytes.toByteArray();
+			if (dictionaryStore != null) {
+				int dictionaryId = blob != null ? getDictionaryId(blob)
+						: ReportCodec.getDictionaryId(ReportCodec.Source.of(finalReportBytes));
+				if (dictionaryId > 0) {
+					// Before inserting the report so the dictionary cannot be deleted in the meantime
+					dictionaryStore.retain(connectionJdbcTemplate, dictionaryId);
+				}
+			}
+			connectionJdbcTemplate.update(query,
+					new PreparedStatementSetter() {
+						@Override
+						public void setValues(PreparedStatement ps) throws SQLException {
+							int i = 1;
+							for (String column : getMetadataNames()) {
+								if (!column.equals(getStorageIdColumn())) {
+									if (getIntegerColumns().contains(column)) {
+										ps.setInt(i, (Integer)metadataExtractor.getMetadata(report, column, MetadataExtractor.VALUE_TYPE_OBJECT));
+									} else if (getLongColumns().contains(column)) {
+										ps.setLong(i, (Long)metadataExtractor.getMetadata(report, column, MetadataExtractor.VALUE_TYPE_OBJECT));
+									} else if (getTimestampColumns().contains(column)) {
+										ps.setTimestamp(i, new Timestamp((Long)metadataExtractor.getMetadata(report, column, MetadataExtractor.VALUE_TYPE_OBJECT)));
+									} else {
+										ps.setString(i, (String)metadataExtractor.getMetadata(report, column, MetadataExtractor.VALUE_TYPE_OBJECT));
+									}
+									i++;
+								}
+							}
+							if (blob != null) {
+								ps.setBlob(i, blob);
+							} else {
+								ps.setBlob(i, new ByteArrayInputStream(finalReportBytes));
+							}
+						}
+					});
+		} finally {
+			if (blob != null) {
+				blob.free();
+			}
+		}
+		return null;
+	}
+
+	private Blob createBlob(Connection connection) throws SQLException {
+		if (createBlobSupported) {
+			try {
+				return connection.createBlob();
+			} catch (SQLFeatureNotSupportedException e) {
+				log.warn("Creating a blob is not supported by the JDBC driver, reports will be serialized in memory"
+						+ " before they are stored");
+				createBlobSupported = false;
+			}
 		}
+		return null;
 	}
 
 	@Override
@@ -217,8 +359,171 @@ public class DatabaseStorage implements LogStorage, CrudStorage {
 	// StorageException is allowed by Storage.getReport(), hence no need to handle it in the lambda expression that will
 	// call this method
 	@SneakyThrows
-	private static Report getReport(Integer storageId, Blob blob, long storageSize) {
-		return Import.getReport(blob.getBinaryStream(), storageId, blob.length(), log);
+	private Report getReport(Integer storageId, Blob blob, long storageSize) {
+		return Import.getReport(blob.getBinaryStream(), storageId, blob.length(),
+				messageTable == null ? null : this::getMessage, dictionaryStore, log);
+	}
+
+	@Override
+	public Report getReportSkeleton(Integer storageId) throws StorageException {
+		Report report = readReport(storageId, source -> Import.getReportSkeleton(source, storageId,
+				messageTable == null ? null : this::getMessage, dictionaryStore, log));
+		if (report != null) {
+			report.setStorage(this);
+		}
+		return report;
+	}
+
+	@Override
+	public String getCheckpointMessage(Integer storageId, int index) throws StorageException {
+		return readReport(storageId, source -> Import.getCheckpointMessage(source, storageId, index,
+				messageTable == null ? null : this::getMessage, dictionaryStore, log));
+	}
+
+	/**
+	 * Let sourceReader read (part of) the report blob (only the bytes actually read by sourceReader are fetched from
+	 * the database when supported by the JDBC driver).
+	 */
+	private <T> T readReport(Integer storageId, SourceReader<T> sourceReader) throws StorageException {
+		String query = "select report from " + getTable() + " where " + getStorageIdColumn() + " = ?";
+		log.debug("Read report query: " + query);
+		try {
+			List<T> result = jdbcTemplate.query(query, new Object[]{storageId}, new int[] {Types.INTEGER},
+					(resultSet, rowNum) -> readReport(resultSet.getBlob(1), sourceReader));
+			return result.size() == 0 ? null : result.get(0);
+		} catch (DataAccessException e) {
+			throw new StorageException("Could not read report " + storageId, e);
+		}
+	}
+
+	// StorageException is allowed by the methods calling this method, hence no need to handle it in the lambda
+	// expression that will call this method
+	@SneakyThrows
+	private static <T> T readReport(Blob blob, SourceReader<T> sourceReader) {
+		return sourceReader.read(new ReportCodec.Source() {
+
+			@Override
+			public int getLength() throws IOException {
+				try {
+					return (int)blob.length();
+				} catch (SQLException e) {
+					throw new IOException(e);
+				}
+			}
+
+			@Override
+			public byte[] read(int position, int length) throws IOException {
+				try {
+					return length == 0 ? new byte[0] : blob.getBytes(position + 1, length);
+				} catch (SQLException e) {
+					throw new IOException(e);
+				}
+			}
+		});
+	}
+
+	private void storeMessages(JdbcTemplate jdbcTemplate, Connection connection, Map<String, String> messages)
+			throws StorageException, SQLException {
+		String updateQuery = "update " + messageTable + " set REFERENCECOUNT = REFERENCECOUNT + 1 where HASH = ?";
+		String insertQuery = "insert into " + messageTable + " (HASH, MESSAGE, REFERENCECOUNT) values (?, ?, 1)";
+		try {
+			for (Map.Entry<String, String> entry : messages.entrySet()) {
+				if (jdbcTemplate.update(updateQuery, entry.getKey()) == 0) {
+					// Some databases (e.g. PostgreSQL) don't allow other statements in a transaction after a statement
+					// has failed, unless the transaction is rolled back to a savepoint before the failed statement
+					Savepoint savepoint = connection.setSavepoint();
+					try {
+						jdbcTemplate.update(insertQuery, ps -> {
+							ps.setString(1, entry.getKey());
+							ps.setBlob(2, new ByteArrayInputStream(entry.getValue().getBytes(StandardCharsets.UTF_8)));
+						});
+						connection.releaseSavepoint(savepoint);
+					} catch (DuplicateKeyException e) {
+						// Inserted by another thread in the meantime
+						connection.rollback(savepoint);
+						jdbcTemplate.update(updateQuery, entry.getKey());
+					}
+				}
+			}
+		} catch (DataAccessException e) {
+			throw new StorageException("Could not store messages", e);
+		}
+	}
+
+	/**
+	 * Decrement the reference count of the messages referenced by the reports that are about to be deleted and delete
+	 * messages that are not referenced anymore.
+	 */
+	private void releaseMessages(JdbcTemplate jdbcTemplate, String selectReportsQuery, int i)
+			throws StorageException {
+		log.debug("Select reports to release messages for query (with param value " + i + "): " + selectReportsQuery);
+		List<Set<String>> hashesPerReport;
+		try {
+			hashesPerReport = jdbcTemplate.query(selectReportsQuery, new Object[] {i}, new int[] {Types.INTEGER},
+					(resultSet, rowNum) -> getMessageReferences(resultSet.getBlob(1)));
+			for (Set<String> hashes : hashesPerReport) {
+				for (String hash : hashes) {
+					jdbcTemplate.update("update " + messageTable
+							+ " set REFERENCECOUNT = REFERENCECOUNT - 1 where HASH = ?", hash);
+					jdbcTemplate.update("delete from " + messageTable + " where HASH = ? and REFERENCECOUNT <= 0", hash);
+				}
+			}
+		} catch (DataAccessException e) {
+			throw new StorageException("Could not release messages", e);
+		}
+	}
+
+	/**
+	 * Decrement the reference count of the dictionaries referenced by the reports that are about to be deleted and
+	 * delete dictionaries that are not referenced anymore.
+	 */
+	private void releaseDictionaries(JdbcTemplate jdbcTemplate, String selectReportsQuery, int i)
+			throws StorageException {
+		log.debug("Select reports to release dictionaries for query (with param value " + i + "): "
+				+ selectReportsQuery);
+		List<Integer> dictionaryIds;
+		try {
+			dictionaryIds = jdbcTemplate.query(selectReportsQuery, new Object[] {i}, new int[] {Types.INTEGER},
+					(resultSet, rowNum) -> getDictionaryId(resultSet.getBlob(1)));
+		} catch (DataAccessException e) {
+			throw new StorageException("Could not release dictionaries", e);
+		}
+		dictionaryIds.removeIf(id -> id == 0);
+		dictionaryStore.release(jdbcTemplate, dictionaryIds);
+	}
+
+	// StorageException is allowed by the methods calling this method, hence no need to handle it in the lambda
+	// expression that will call this method
+	@SneakyThrows
+	private static int getDictionaryId(Blob blob) {
+		return readReport(blob, source -> {
+			try {
+				return ReportCodec.getDictionaryId(source);
+			} catch (IOException e) {
+				throw new StorageException("Could not read dictionary id of report", e);
+			}
+		});
+	}
+
+	@SneakyThrows
+	private Set<String> getMessageReferences(Blob blob) {
+		return Import.getMessageReferences(blob.getBinaryStream(), dictionaryStore);
+	}
+
+	private String getMessage(String hash) throws StorageException {
+		String query = "select MESSAGE from " + messageTable + " where HASH = ?";
+		try {
+			List<String> result = jdbcTemplate.query(query, new Object[] {hash}, new int[] {Types.VARCHAR},
+					(resultSet, rowNum) -> getString(resultSet.getBlob(1)));
+			return result.isEmpty() ? null : result.get(0);
+		} catch (DataAccessException e) {
+			throw new StorageException("Could not read message " + hash, e);
+		}
+	}
+
+	@SneakyThrows
+	private static String getString(Blob blob) {
+		return new String(blob.getBytes(1, (int)blob.length()), StandardCharsets.UTF_8);
 	}
 
 // TODO: Implement for CrudStorage
@@ -231,19 +536,37 @@ public class DatabaseStorage implements LogStorage, CrudStorage {
 // TODO: Write JUnit test or test with ibis-ladybug-test-webapp
 	@Override
 	public void delete(Report report) throws StorageException {
-		String query = "delete from " + getTable() + " where " + getStorageIdColumn() + " = ?";
-		delete(query, report.getStorageId());
+		delete(getStorageIdColumn() + " = ?", report.getStorageId());
+	}
+
+	/**
+	 * Delete the reports matching the condition and release the messages referenced by them in one transaction
+	 */
+	private void delete(String condition, int i) throws StorageException {
+		executeInTransaction(connection -> delete(condition, i, connection));
 	}
 
-	private void delete(String query, int i) throws StorageException {
+	// StorageException is allowed by the methods calling this method, hence no need to handle it in the lambda
+	// expression that will call this method
+	@SneakyThrows
+	private Void delete(String condition, int i, Connection connection) {
+		JdbcTemplate connectionJdbcTemplate = getConnectionJdbcTemplate(connection);
+		if (messageTable != null) {
+			releaseMessages(connectionJdbcTemplate, "select report from " + getTable() + " where " + condition, i);
+		}
+		if (dictionaryStore != null) {
+			releaseDictionaries(connectionJdbcTemplate, "select report from " + getTable() + " where " + condition, i);
+		}
+		String query = "delete from " + getTable() + " where " + condition;
 		log.debug("Delete report query (with param value " + i + "): " + query);
-		jdbcTemplate.update(query,
+		connectionJdbcTemplate.update(query,
 				new PreparedStatementSetter() {
 					@Override
 					public void setValues(PreparedStatement ps) throws SQLException {
 						ps.setInt(1, i);
 					}
 				});
+		return null;
 	}
 // TODO: Write JUnit test or test with ibis-ladybug-test-webapp
 	@Override
@@ -580,4 +903,8 @@ public class DatabaseStorage implements LogStorage, CrudStorage {
 		return userHelpBase + SearchUtil.getUserHelpRegex() + SearchUtil.getUserHelpNullAndEmpty();
 	}
 
+	private interface SourceReader<T> {
+		T read(ReportCodec.Source source) throws StorageException;
+	}
+
 }
@@ -0,0 +1,210 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.nn.testtool.storage.DictionaryStore;
+import nl.nn.testtool.storage.StorageException;
+
+/**
+ * Compression dictionaries of the reports in a file storage, stored in a directory next to the reports file with a
+ * file per dictionary (named after the id of the dictionary). For every reports file a references file is written (and
+ * rotated together with the reports file) with a line per dictionary referenced by the reports in the reports file. A
+ * dictionary is deleted when the last references file referring to it has been deleted on rotation or clear (unless
+ * it is the current dictionary).
+ */
+public class FileDictionaryStore extends DictionaryStore {
+	private static Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+	private File directory;
+	private String referencesFilename;
+	private int maximumBackupIndex;
+	private Set<Integer> references = new HashSet<Integer>();
+
+	protected FileDictionaryStore(String reportsFilename, int maximumBackupIndex) {
+		directory = new File(reportsFilename + ".dictionaries");
+		referencesFilename = reportsFilename + ".dictionaryreferences";
+		this.maximumBackupIndex = maximumBackupIndex;
+	}
+
+	protected String getReferencesFilename() {
+		return referencesFilename;
+	}
+
+	protected void init() throws StorageException {
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new StorageException("Could not create directory '" + directory.getAbsolutePath() + "'");
+		}
+		synchronized(references) {
+			references.clear();
+			references.addAll(readReferences(0));
+		}
+		deleteUnreferencedDictionaries();
+	}
+
+	/**
+	 * Add a reference to the dictionary to the references file (when not already present)
+	 * 
+	 * @param id id of the dictionary referenced by the report that has just been written
+	 * @throws StorageException ...
+	 */
+	protected void store(int id) throws StorageException {
+		synchronized(references) {
+			if (!references.contains(id)) {
+				File referencesFile = getReferencesFile(0);
+				try {
+					Files.write(referencesFile.toPath(), (id + "\n").getBytes(StandardCharsets.UTF_8),
+							StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+				} catch (IOException e) {
+					throw new StorageException("Could not write references to file '"
+							+ referencesFile.getAbsolutePath() + "'", e);
+				}
+				references.add(id);
+			}
+		}
+	}
+
+	/**
+	 * Delete the dictionaries that aren't referenced anymore after the references files have been rotated or the
+	 * current references file has been deleted (on clear)
+	 * 
+	 * @throws StorageException ...
+	 */
+	protected void release() throws StorageException {
+		synchronized(references) {
+			references.clear();
+		}
+		deleteUnreferencedDictionaries();
+	}
+
+	@Override
+	protected int countDictionaries() {
+		int count = 0;
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.matches("[0-9]{1,9}")) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private synchronized void deleteUnreferencedDictionaries() throws StorageException {
+		Set<Integer> referencedIds = new HashSet<Integer>();
+		for (int i = 0; i <= maximumBackupIndex; i++) {
+			referencedIds.addAll(readReferences(i));
+		}
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.matches("[0-9]{1,9}")) {
+					int id = Integer.parseInt(name);
+					if (!referencedIds.contains(id) && !isCurrentDictionary(id)) {
+						File file = new File(directory, name);
+						if (!file.delete() && file.exists()) {
+							log.warn("Could not delete dictionary file '" + file.getAbsolutePath() + "'");
+						}
+						evictDictionary(id);
+					}
+				}
+			}
+		}
+	}
+
+	private File getReferencesFile(int index) {
+		if (index == 0) {
+			return new File(referencesFilename);
+		} else {
+			return new File(referencesFilename + "." + index);
+		}
+	}
+
+	private Set<Integer> readReferences(int index) throws StorageException {
+		Set<Integer> ids = new HashSet<Integer>();
+		File file = getReferencesFile(index);
+		if (file.exists()) {
+			try {
+				for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+					if (line.matches("[0-9]{1,9}")) {
+						ids.add(Integer.parseInt(line));
+					}
+				}
+			} catch (IOException e) {
+				throw new StorageException("Could not read references from file '" + file.getAbsolutePath() + "'", e);
+			}
+		}
+		return ids;
+	}
+
+	@Override
+	protected int readLatestDictionaryId() {
+		int latestId = 0;
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.matches("[0-9]{1,9}")) {
+					latestId = Math.max(latestId, Integer.parseInt(name));
+				}
+			}
+		}
+		return latestId;
+	}
+
+	@Override
+	protected byte[] readDictionary(int id) throws StorageException {
+		File file = new File(directory, String.valueOf(id));
+		try {
+			return Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			if (!file.exists()) {
+				return null;
+			}
+			throw new StorageException("Could not read dictionary from file '" + file.getAbsolutePath() + "'", e);
+		}
+	}
+
+	@Override
+	protected int writeDictionary(int id, byte[] dictionary) throws StorageException {
+		File file = new File(directory, String.valueOf(id));
+		while (file.exists()) {
+			file = new File(directory, String.valueOf(++id));
+		}
+		File tempFile = new File(directory, id + ".tmp");
+		try {
+			// Write to a temporary file first to never let a reader see a partially written dictionary
+			Files.write(tempFile.toPath(), dictionary);
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			tempFile.delete();
+			throw new StorageException("Could not write dictionary to file '" + file.getAbsolutePath() + "'", e);
+		}
+		return id;
+	}
+
+}
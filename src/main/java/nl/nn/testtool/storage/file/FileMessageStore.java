@@ -0,0 +1,250 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.nn.testtool.storage.MessageStore;
+import nl.nn.testtool.storage.StorageException;
+import nl.nn.testtool.util.StreamUtil;
+
+/**
+ * Messages of the reports in a file storage that are stored once in a directory with a file per message (named after
+ * the hash of the message). For every reports file a references file is written (and rotated together with the reports
+ * file) with a line per report containing the hashes of the messages referenced by the report. A message is deleted
+ * when the last references file referring to it is deleted on rotation. Reference counts are kept in memory and
+ * rebuilt from the references files on startup, at which time messages that aren't referenced anymore (e.g. because the
+ * report could not be written) are deleted too.
+ */
+public class FileMessageStore implements MessageStore {
+	private static Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+	private File directory;
+	private String referencesFilename;
+	private int maximumBackupIndex;
+	private Map<String, Integer> referenceCounts = new HashMap<String, Integer>();
+
+	protected FileMessageStore(String reportsFilename, int maximumBackupIndex) {
+		directory = new File(reportsFilename + ".messages");
+		referencesFilename = reportsFilename + ".references";
+		this.maximumBackupIndex = maximumBackupIndex;
+	}
+
+	protected String getReferencesFilename() {
+		return referencesFilename;
+	}
+
+	protected synchronized void init() throws StorageException {
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new StorageException("Could not create directory '" + directory.getAbsolutePath() + "'");
+		}
+		referenceCounts.clear();
+		for (int i = 0; i <= maximumBackupIndex; i++) {
+			for (String hash : readReferences(i)) {
+				referenceCounts.merge(hash, 1, Integer::sum);
+			}
+		}
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (!referenceCounts.containsKey(file.getName())) {
+					delete(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the messages not already present and add a line with references to the messages to the references file
+	 * 
+	 * @param messages messages (with the hash as key) referenced by the report that is about to be written
+	 * @return the length of the references file before the line was added (to pass to {@link #unstore(Map, long)}
+	 *         when the report could not be written after all) or -1 when no line was added
+	 * @throws StorageException ...
+	 */
+	protected synchronized long store(Map<String, String> messages) throws StorageException {
+		if (messages.isEmpty()) {
+			return -1;
+		}
+		List<String> hashes = new ArrayList<String>(messages.size());
+		try {
+			for (Map.Entry<String, String> entry : messages.entrySet()) {
+				Integer referenceCount = referenceCounts.get(entry.getKey());
+				if (referenceCount == null) {
+					File file = new File(directory, entry.getKey());
+					File tempFile = new File(directory, entry.getKey() + ".tmp");
+					try {
+						// Write to a temporary file first to never let a reader see a partially written message
+						try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+							StreamUtil.writeUtf8(entry.getValue(), outputStream);
+						}
+						Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					} catch (IOException e) {
+						tempFile.delete();
+						throw new StorageException("Could not write message to file '" + file.getAbsolutePath()
+								+ "'", e);
+					}
+				}
+				referenceCounts.put(entry.getKey(), referenceCount == null ? 1 : referenceCount + 1);
+				hashes.add(entry.getKey());
+			}
+			File referencesFile = getReferencesFile(0);
+			long referencesFileLength = referencesFile.length();
+			try {
+				Files.write(referencesFile.toPath(),
+						(String.join(" ", messages.keySet()) + "\n").getBytes(StandardCharsets.UTF_8),
+						StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			} catch (IOException e) {
+				truncateReferences(referencesFileLength);
+				throw new StorageException("Could not write references to file '"
+						+ referencesFile.getAbsolutePath() + "'", e);
+			}
+			return referencesFileLength;
+		} catch (StorageException e) {
+			// Messages are only kept as long as a references file refers to them
+			release(hashes);
+			throw e;
+		}
+	}
+
+	/**
+	 * Remove the line with references added by {@link #store(Map)} for a report that could not be written after all
+	 * (e.g. because the metadata could not be written) and delete the messages that aren't referenced anymore
+	 * 
+	 * @param messages             the messages passed to {@link #store(Map)}
+	 * @param referencesFileLength the result of {@link #store(Map)}
+	 * @throws StorageException ...
+	 */
+	protected synchronized void unstore(Map<String, String> messages, long referencesFileLength)
+			throws StorageException {
+		if (referencesFileLength < 0) {
+			return;
+		}
+		try {
+			truncateReferences(referencesFileLength);
+		} finally {
+			release(messages.keySet());
+		}
+	}
+
+	/**
+	 * Release the references in a references file that is about to be deleted (on rotation or clear)
+	 * 
+	 * @param index index of the references file (0 for the current file)
+	 * @throws StorageException ...
+	 */
+	protected synchronized void release(int index) throws StorageException {
+		release(readReferences(index));
+	}
+
+	private void release(Collection<String> hashes) {
+		for (String hash : hashes) {
+			Integer referenceCount = referenceCounts.get(hash);
+			if (referenceCount != null) {
+				if (referenceCount > 1) {
+					referenceCounts.put(hash, referenceCount - 1);
+				} else {
+					referenceCounts.remove(hash);
+					delete(new File(directory, hash));
+				}
+			}
+		}
+	}
+
+	@Override
+	public String getMessage(String hash) throws StorageException {
+		if (!hash.matches("[0-9a-f]{64}")) {
+			throw new StorageException("Invalid message hash: " + hash);
+		}
+		File file = new File(directory, hash);
+		try {
+			return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			if (!file.exists()) {
+				return null;
+			}
+			throw new StorageException("Could not read message from file '" + file.getAbsolutePath() + "'", e);
+		}
+	}
+
+	/**
+	 * @return number of messages in this store
+	 */
+	public synchronized int getSize() {
+		return referenceCounts.size();
+	}
+
+	private File getReferencesFile(int index) {
+		if (index == 0) {
+			return new File(referencesFilename);
+		} else {
+			return new File(referencesFilename + "." + index);
+		}
+	}
+
+	private void truncateReferences(long length) throws StorageException {
+		File referencesFile = getReferencesFile(0);
+		try (FileChannel fileChannel = FileChannel.open(referencesFile.toPath(), StandardOpenOption.WRITE)) {
+			fileChannel.truncate(length);
+		} catch (IOException e) {
+			throw new StorageException("Could not truncate references file '" + referencesFile.getAbsolutePath()
+					+ "'", e);
+		}
+	}
+
+	private List<String> readReferences(int index) throws StorageException {
+		List<String> hashes = new ArrayList<String>();
+		File file = getReferencesFile(index);
+		if (file.exists()) {
+			try {
+				for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+					for (String hash : line.split(" ")) {
+						if (hash.length() > 0) {
+							hashes.add(hash);
+						}
+					}
+				}
+			} catch (IOException e) {
+				throw new StorageException("Could not read references from file '" + file.getAbsolutePath() + "'", e);
+			}
+		}
+		return hashes;
+	}
+
+	private static void delete(File file) {
+		if (!file.delete() && file.exists()) {
+			log.warn("Could not delete message file '" + file.getAbsolutePath() + "'");
+		}
+	}
+
+}
@@ -15,12 +15,12 @@
 */
 package nl.nn.testtool.storage.file;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.io.RandomAccessFile;
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -33,6 +33,9 @@ import org.slf4j.LoggerFactory;
 
 import nl.nn.testtool.MetadataExtractor;
 import nl.nn.testtool.Report;
+import nl.nn.testtool.ReportCodec;
+import nl.nn.testtool.storage.DictionaryStore;
+import nl.nn.testtool.storage.MessageStore;
 import nl.nn.testtool.storage.StorageException;
 import nl.nn.testtool.util.CSVReader;
 import nl.nn.testtool.util.Import;
@@ -53,6 +56,8 @@ public class Reader {
 	private List metadataCacheReadOnly = new ArrayList();
 	private List metadataCacheReadOnlyPerFile = new ArrayList();
 	private MetadataExtractor metadataExtractor;
+	private MessageStore messageStore;
+	private DictionaryStore dictionaryStore;
 	private static final List METADATA_NAMES_STORAGE_ID = new ArrayList();
 	static {
 		METADATA_NAMES_STORAGE_ID.add("storageId");
@@ -74,6 +79,14 @@ public class Reader {
 		this.metadataExtractor = metadataExtractor;
 	}
 
+	protected void setMessageStore(MessageStore messageStore) {
+		this.messageStore = messageStore;
+	}
+
+	protected void setDictionaryStore(DictionaryStore dictionaryStore) {
+		this.dictionaryStore = dictionaryStore;
+	}
+
 	protected void init() {
 		reportsFile = new File(reportsFilename);
 		metadataFile = new File(metadataFilename);
@@ -227,10 +240,21 @@ public class Reader {
 	}
 
 	protected byte[] getReportBytes(Integer storageId, String synchronizeRotate) throws StorageException {
-		byte[] reportBytes = null;
-		ReportLocation reportLocation = null;
-		int foundInIndex = -1;
+		return readReport(storageId, synchronizeRotate, source -> source.read(0, source.getLength()));
+	}
+
+	/**
+	 * Find the location of the report and let sourceReader read (part of) the report's bytes from the reports file
+	 * (only the bytes actually read by sourceReader are read from disk).
+	 *
+	 * @return the result of sourceReader or null when the report could not be found
+	 */
+	private <T> T readReport(Integer storageId, String synchronizeRotate, SourceReader<T> sourceReader)
+			throws StorageException {
+		T result = null;
 		synchronized(synchronizeRotate) {
+			ReportLocation reportLocation = null;
+			int foundInIndex = -1;
 			for (int i = maximumBackupIndex; i >= 0 && foundInIndex == -1; i--) {
 				File file;
 				if (i == 0) {
@@ -253,35 +277,58 @@ public class Reader {
 				} else {
 					file = new File(reportsFilename + "." + foundInIndex);
 				}
-				FileInputStream fileInputStream = null;
-				try {
-					fileInputStream = new FileInputStream(file);
-					fileInputStream.skip(reportLocation.offset);
-					reportBytes = new byte[reportLocation.size.intValue()];
-					fileInputStream.read(reportBytes, 0, reportBytes.length);
+				long offset = reportLocation.offset;
+				int size = reportLocation.size.intValue();
+				try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+					result = sourceReader.read(new ReportCodec.Source() {
+
+						@Override
+						public int getLength() {
+							return size;
+						}
+
+						@Override
+						public byte[] read(int position, int length) throws IOException {
+							byte[] bytes = new byte[length];
+							randomAccessFile.seek(offset + position);
+							randomAccessFile.readFully(bytes);
+							return bytes;
+						}
+					});
 				} catch(IOException e) {
 					Import.logAndThrow(log, e, "IOException reading report " + storageId + " from file " + file.getAbsolutePath());
-				} finally {
-					if (fileInputStream != null) {
-						Import.closeInputStream(fileInputStream, "closing file input stream after reading report " + storageId + " from file " + file.getAbsolutePath(), log);
-					}
 				}
 			}
 		}
-		return reportBytes;	
+		return result;
 	}
 
 	protected Report getReport(Integer storageId, String synchronizeRotate) throws StorageException {
 		byte[] reportBytes = getReportBytes(storageId, synchronizeRotate);
-		return getReport(storageId, reportBytes);
+		return getReport(storageId, reportBytes, messageStore, dictionaryStore);
+	}
+
+	protected Report getReportSkeleton(Integer storageId, String synchronizeRotate) throws StorageException {
+		return readReport(storageId, synchronizeRotate,
+				source -> Import.getReportSkeleton(source, storageId, messageStore, dictionaryStore, log));
+	}
+
+	protected String getCheckpointMessage(Integer storageId, int index, String synchronizeRotate)
+			throws StorageException {
+		return readReport(storageId, synchronizeRotate,
+				source -> Import.getCheckpointMessage(source, storageId, index, messageStore, dictionaryStore, log));
 	}
 
 	public static Report getReport(Integer storageId, byte[] reportBytes) throws StorageException {
+		return getReport(storageId, reportBytes, null, null);
+	}
+
+	public static Report getReport(Integer storageId, byte[] reportBytes, MessageStore messageStore,
+			DictionaryStore dictionaryStore) throws StorageException {
 		Report report = null;
 		if (reportBytes != null) {
-			ByteArrayInputStream byteArrayInputStream = null;
-			byteArrayInputStream = new ByteArrayInputStream(reportBytes);
-			report = Import.getReport(byteArrayInputStream, storageId, new Long(reportBytes.length), log);
+			report = Import.getReport(reportBytes, storageId, new Long(reportBytes.length), messageStore,
+					dictionaryStore, log);
 		}
 		return report;
 	}
@@ -417,4 +464,8 @@ public class Reader {
 		protected Integer size;
 	}
 
+	private interface SourceReader<T> {
+		T read(ReportCodec.Source source) throws IOException, StorageException;
+	}
+
 }
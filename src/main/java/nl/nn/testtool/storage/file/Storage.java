@@ -36,6 +36,8 @@ public class Storage implements nl.nn.testtool.storage.LogStorage {
 	private String name;
 	private Reader reader = new Reader();
 	private Writer writer = new Writer();
+	private FileMessageStore messageStore;
+	private FileDictionaryStore dictionaryStore;
 
 
 //	TODO als je public weg laat, krijg je deze bij Download all bij Reports pane (zie ook constructor bij TestStorage) (vreemd dat je deze melding zo vaak krijgt als het aantal reports dat je download):
@@ -77,6 +79,54 @@ public class Storage implements nl.nn.testtool.storage.LogStorage {
 		writer.setMaximumBackupIndex(maximumBackupIndex);
 	}
 
+	/**
+	 * Store Strings (messages) with a length of at least messageThreshold once in a content-addressed directory next
+	 * to the reports file instead of as part of every report containing them, see {@link FileMessageStore}. Default
+	 * -1 (disabled).
+	 * 
+	 * @param messageThreshold ...
+	 */
+	public void setMessageThreshold(int messageThreshold) {
+		writer.setMessageThreshold(messageThreshold);
+	}
+
+	/**
+	 * Level with which reports are compressed, from 0 (no compression, e.g. for fast disks on which the compression
+	 * takes more time than writing the extra bytes) to 9 (best compression). Default 1 (best speed).
+	 * 
+	 * @param compressionLevel ...
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		writer.setCompressionLevel(compressionLevel);
+	}
+
+	/**
+	 * Compress reports with a preset dictionary trained from a sample of recently stored reports (stored in a
+	 * directory next to the reports file), see {@link FileDictionaryStore}. Default false.
+	 * 
+	 * @param dictionaryCompression ...
+	 */
+	public void setDictionaryCompression(boolean dictionaryCompression) {
+		writer.setDictionaryCompression(dictionaryCompression);
+	}
+
+	/**
+	 * @param dictionaryTrainingInterval number of reports after which a new dictionary is trained, see
+	 *                                   {@link #setDictionaryCompression(boolean)}
+	 */
+	public void setDictionaryTrainingInterval(int dictionaryTrainingInterval) {
+		writer.setDictionaryTrainingInterval(dictionaryTrainingInterval);
+	}
+
+	/**
+	 * @param maxDictionaries maximum number of dictionaries to store, no new dictionaries are trained until
+	 *                        dictionaries that aren't referenced anymore have been deleted on rotation of the reports
+	 *                        file, see {@link #setDictionaryCompression(boolean)}
+	 */
+	public void setMaxDictionaries(int maxDictionaries) {
+		writer.setMaxDictionaries(maxDictionaries);
+	}
+
 	public void setFreeSpaceMinimum(long freeSpaceMinimum) {
 		writer.setFreeSpaceMinimum(freeSpaceMinimum);
 	}
@@ -120,9 +170,29 @@ public class Storage implements nl.nn.testtool.storage.LogStorage {
 	@PostConstruct
 	public void init() throws StorageException {
 		reader.init();
+		messageStore = writer.initMessageStore();
+		reader.setMessageStore(messageStore);
+		dictionaryStore = writer.initDictionaryStore();
+		reader.setDictionaryStore(dictionaryStore);
 		writer.init(reader.getStorageIds(writer.getMetadataFileLastModified(), writer.getSynchronizeRotate()));
 	}
 
+	/**
+	 * @return the store with messages referenced by the reports or null when not enabled, see
+	 *         {@link #setMessageThreshold(int)}
+	 */
+	public FileMessageStore getMessageStore() {
+		return messageStore;
+	}
+
+	/**
+	 * @return the store with the dictionaries the reports are compressed with or null when not enabled, see
+	 *         {@link #setDictionaryCompression(boolean)}
+	 */
+	public FileDictionaryStore getDictionaryStore() {
+		return dictionaryStore;
+	}
+
 	@Override
 	public void storeWithoutException(Report report) {
 		writer.storeWithoutException(report, false);
@@ -158,6 +228,20 @@ public class Storage implements nl.nn.testtool.storage.LogStorage {
 		return report;
 	}
 
+	@Override
+	public Report getReportSkeleton(Integer storageId) throws StorageException {
+		Report report = reader.getReportSkeleton(storageId, writer.getSynchronizeRotate());
+		if (report != null) {
+			report.setStorage(this);
+		}
+		return report;
+	}
+
+	@Override
+	public String getCheckpointMessage(Integer storageId, int index) throws StorageException {
+		return reader.getCheckpointMessage(storageId, index, writer.getSynchronizeRotate());
+	}
+
 	@Override
 	public void clear() throws StorageException {
 		writer.clear();
@@ -15,27 +15,35 @@
 */
 package nl.nn.testtool.storage.file;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.lang.invoke.MethodHandles;
 import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import nl.nn.testtool.MetadataExtractor;
 import nl.nn.testtool.Report;
+import nl.nn.testtool.ReportCodec;
 import nl.nn.testtool.storage.StorageException;
+import nl.nn.testtool.util.CountingOutputStream;
 import nl.nn.testtool.util.EscapeUtil;
 import nl.nn.testtool.util.Export;
 import nl.nn.testtool.util.Import;
@@ -66,6 +74,13 @@ public class Writer {
 	private long metadataFileLastModified;
 	private SimpleDateFormat freeSpaceDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
 	private String lastExceptionMessage;
+	private int messageThreshold = -1;
+	private FileMessageStore messageStore;
+	private int compressionLevel = ReportCodec.DEFAULT_COMPRESSION_LEVEL;
+	private boolean dictionaryCompression = false;
+	private int dictionaryTrainingInterval = -1;
+	private int maxDictionaries = -1;
+	private FileDictionaryStore dictionaryStore;
 
 	protected void setReportsFilename(String reportsFilename) {
 		this.reportsFilename = reportsFilename;
@@ -104,6 +119,48 @@ public class Writer {
 		this.metadataExtractor = metadataExtractor;
 	}
 
+	protected void setMessageThreshold(int messageThreshold) {
+		this.messageThreshold = messageThreshold;
+	}
+
+	protected FileMessageStore initMessageStore() throws StorageException {
+		if (messageThreshold > -1) {
+			messageStore = new FileMessageStore(reportsFilename, maximumBackupIndex);
+			messageStore.init();
+		}
+		return messageStore;
+	}
+
+	protected void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	protected void setDictionaryCompression(boolean dictionaryCompression) {
+		this.dictionaryCompression = dictionaryCompression;
+	}
+
+	protected void setDictionaryTrainingInterval(int dictionaryTrainingInterval) {
+		this.dictionaryTrainingInterval = dictionaryTrainingInterval;
+	}
+
+	protected void setMaxDictionaries(int maxDictionaries) {
+		this.maxDictionaries = maxDictionaries;
+	}
+
+	protected FileDictionaryStore initDictionaryStore() throws StorageException {
+		if (dictionaryCompression) {
+			dictionaryStore = new FileDictionaryStore(reportsFilename, maximumBackupIndex);
+			if (dictionaryTrainingInterval > -1) {
+				dictionaryStore.setTrainingInterval(dictionaryTrainingInterval);
+			}
+			if (maxDictionaries > -1) {
+				dictionaryStore.setMaxDictionaries(maxDictionaries);
+			}
+			dictionaryStore.init();
+		}
+		return dictionaryStore;
+	}
+
 	protected void init(List storageIds) {
 		reportsFile = new File(reportsFilename);
 		metadataFile = new File(metadataFilename);
@@ -119,38 +176,53 @@ public class Writer {
 	}
 
 	protected void store(Report report, boolean preserveStorageId) throws StorageException {
-		byte[] reportBytes = Export.getReportBytes(report);
+		Map<String, String> messages = messageStore == null ? null : new LinkedHashMap<String, String>();
 		// Synchronize to keep order of storage id's in storage in incremental order
 		synchronized(synchronizeStore) {
 			if (!preserveStorageId) {
 				Integer storageId = latestStorageId++;
 				report.setStorageId(storageId);
 			}
-			report.setStorageSize(new Long(reportBytes.length));
-			List metadataValues = new ArrayList();
-			for (int i = 0; i < persistentMetadata.size(); i++) {
-				String metadataName = (String)persistentMetadata.get(i);
-				metadataValues.add(metadataExtractor.getMetadata(report,
-						metadataName, MetadataExtractor.VALUE_TYPE_STRING));
-			}
-			store(report.getName(), reportBytes, metadataValues);
+			// Serialize the report directly into the reports file instead of creating a byte array first
+			store(report.getName(), report.getEstimatedMemoryUsage(), outputStream -> {
+				long storageSize = ReportCodec.encode(report, messageStore == null ? -1 : messageThreshold, messages,
+						outputStream, compressionLevel, dictionaryStore);
+				report.setStorageSize(storageSize);
+			}, () -> {
+				// Extracted after the report has been written as metadata storageSize is only known at that time
+				List metadataValues = new ArrayList();
+				for (int i = 0; i < persistentMetadata.size(); i++) {
+					String metadataName = (String)persistentMetadata.get(i);
+					metadataValues.add(metadataExtractor.getMetadata(report,
+							metadataName, MetadataExtractor.VALUE_TYPE_STRING));
+				}
+				return metadataValues;
+			}, messages);
 		}
 	}
 
 	protected void store(String reportName, byte[] reportBytes, List metadataValues) throws StorageException {
+		store(reportName, reportBytes.length, outputStream -> outputStream.write(reportBytes), () -> metadataValues,
+				null);
+	}
+
+	private void store(String reportName, long reportSize, ReportWriter reportWriter,
+			Supplier<List> metadataValuesSupplier, Map<String, String> messages) throws StorageException {
 		synchronized(synchronizeStore) {
+			long reportStart = -1;
+			long referencesFileLength = -1;
 			try {
 				if (reportsFileOutputStream == null) {
 					if (!metadataFile.exists()) {
 						openFiles(false);
-						checkFreeSpace(reportName, reportBytes.length);
+						checkFreeSpace(reportName, reportSize);
 						writeMetadataHeader();
 					} else if (validHeader()) {
 						openFiles(true);
 					} else {
 						rotateFiles();
 						openFiles(false);
-						checkFreeSpace(reportName, reportBytes.length);
+						checkFreeSpace(reportName, reportSize);
 						writeMetadataHeader();
 					}
 				}
@@ -163,7 +235,7 @@ public class Writer {
 					closeFiles();
 					rotateFiles();
 					openFiles(false);
-					checkFreeSpace(reportName, reportBytes.length);
+					checkFreeSpace(reportName, reportSize);
 					writeMetadataHeader();
 					reportsFileLength = 0;
 				}
@@ -183,8 +255,21 @@ public class Writer {
 //					metadataValues.add(metadataExtractor.getMetadata(report,
 //							metadataName, MetadataExtractor.VALUE_TYPE_STRING));
 //				}
-				checkFreeSpace(reportName, reportBytes.length);
-				writeReportAndMetadata(reportBytes, EscapeUtil.escapeCsv(metadataValues));
+				checkFreeSpace(reportName, reportSize);
+				reportStart = reportsFileLength;
+				writeReport(reportWriter);
+				List metadataValues = metadataValuesSupplier.get();
+				if (messages != null) {
+					// Before writing the metadata so a reader will always find the messages referenced by the report
+					referencesFileLength = messageStore.store(messages);
+				}
+				if (dictionaryStore != null) {
+					int dictionaryId = readDictionaryId(reportStart, reportsFileLength - reportStart);
+					if (dictionaryId > 0) {
+						dictionaryStore.store(dictionaryId);
+					}
+				}
+				writeMetadata(EscapeUtil.escapeCsv(metadataValues));
 			} catch(Throwable throwable) {
 				StorageException storageException;
 				if (throwable instanceof StorageException) {
@@ -196,6 +281,25 @@ public class Writer {
 					log.error(message, throwable);
 					storageException = new StorageException(message, throwable);
 				}
+				if (reportStart != -1) {
+					// Remove the part of the report that has already been written (a report without metadata would
+					// make the storage id's of the reports after it point to the wrong report)
+					try {
+						reportsFileOutputStream.getChannel().truncate(reportStart);
+						reportsFileLength = reportStart;
+					} catch(IOException e) {
+						log.warn("IOException truncating reports file '" + reportsFile.getAbsolutePath() + "'", e);
+					}
+				}
+				if (referencesFileLength != -1) {
+					// Release the messages referenced by the removed report (a reference to a dictionary is kept as
+					// the same reference is written only once per references file and might be used by other reports)
+					try {
+						messageStore.unstore(messages, referencesFileLength);
+					} catch(StorageException e) {
+						log.warn("Could not remove references of report that could not be stored", e);
+					}
+				}
 				closeFiles();
 				throw storageException;
 			}
@@ -223,6 +327,20 @@ public class Writer {
 
 	protected void clear() throws StorageException {
 		closeFiles();
+		if (messageStore != null) {
+			messageStore.release(0);
+			File referencesFile = new File(messageStore.getReferencesFilename());
+			if (referencesFile.exists()) {
+				deleteFile(referencesFile);
+			}
+		}
+		if (dictionaryStore != null) {
+			File referencesFile = new File(dictionaryStore.getReferencesFilename());
+			if (referencesFile.exists()) {
+				deleteFile(referencesFile);
+			}
+			dictionaryStore.release();
+		}
 		
 		openFiles(false);
 		writeMetadataHeader();
@@ -292,14 +410,42 @@ public class Writer {
 		metadataFileLastModified = System.currentTimeMillis();
 	}
 
-	private void writeReportAndMetadata(byte[] reportBytes, String metadataCsvRecord) throws StorageException {
+	private void writeReport(ReportWriter reportWriter) throws StorageException {
+		CountingOutputStream countingOutputStream = new CountingOutputStream(
+				new BufferedOutputStream(reportsFileOutputStream));
 		try {
-			reportsFileOutputStream.write(reportBytes);
-			reportsFileOutputStream.flush();
-			reportsFileLength = reportsFileLength + reportBytes.length;
+			reportWriter.write(countingOutputStream);
+			countingOutputStream.flush();
+			reportsFileLength = reportsFileLength + countingOutputStream.getCount();
 		} catch(IOException e) {
 			Export.logAndThrow(log, e, "IOException writing report to file '" + reportsFile.getAbsolutePath() + "'");
 		}
+	}
+
+	private int readDictionaryId(long reportStart, long reportLength) throws StorageException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(reportsFile, "r")) {
+			return ReportCodec.getDictionaryId(new ReportCodec.Source() {
+
+				@Override
+				public int getLength() {
+					return (int)reportLength;
+				}
+
+				@Override
+				public byte[] read(int position, int length) throws IOException {
+					byte[] bytes = new byte[length];
+					randomAccessFile.seek(reportStart + position);
+					randomAccessFile.readFully(bytes);
+					return bytes;
+				}
+			});
+		} catch(IOException e) {
+			throw new StorageException("IOException reading dictionary id from file '" + reportsFile.getAbsolutePath()
+					+ "'", e);
+		}
+	}
+
+	private void writeMetadata(String metadataCsvRecord) throws StorageException {
 		try {
 			metadataOutputStreamWriter.write("\n");
 			metadataOutputStreamWriter.write(metadataCsvRecord);
@@ -330,6 +476,18 @@ public class Writer {
 			for (int i = maximumBackupIndex; i >= 0; i--) {
 				rotateFile(reportsFilename, i);
 				rotateFile(metadataFilename, i);
+				if (messageStore != null) {
+					if (i == maximumBackupIndex) {
+						messageStore.release(i);
+					}
+					rotateFile(messageStore.getReferencesFilename(), i);
+				}
+				if (dictionaryStore != null) {
+					rotateFile(dictionaryStore.getReferencesFilename(), i);
+				}
+			}
+			if (dictionaryStore != null) {
+				dictionaryStore.release();
 			}
 		}
 	}
@@ -397,7 +555,7 @@ public class Writer {
 		return null;
 	}
 
-	private String checkFreeSpace(String reportName, int reportSize) throws StorageException {
+	private String checkFreeSpace(String reportName, long reportSize) throws StorageException {
 		String freeSpaceError = null;
 		long freeSpace = getFreeSpace();
 		long minimum = getFreeSpaceMinimum();
@@ -420,4 +578,12 @@ public class Writer {
 		return reportsFile.getFreeSpace();
 	}
 
+	/**
+	 * Write a report to the reports file (the metadata values are supplied separately as they can depend on the result
+	 * of writing the report, e.g. the storage size).
+	 */
+	private interface ReportWriter {
+		void write(OutputStream outputStream) throws IOException;
+	}
+
 }
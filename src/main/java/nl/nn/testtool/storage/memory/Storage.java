@@ -79,6 +79,8 @@ public class Storage implements CrudStorage, LogStorage {
 
 	@Override
 	public synchronized void store(Report report) {
+		// Reports are kept in memory so spilled messages need to be read back before the spill files are removed
+		report.removeSpillFiles(true);
 		report.setStorage(this);
 		report.setStorageId(storageId++);
 		reports.put(report.getStorageId(), report);
@@ -129,6 +129,16 @@ public class ProxyStorage implements CrudStorage, LogStorage {
 		return destination.getReport(storageId);
 	}
 
+	@Override
+	public synchronized Report getReportSkeleton(Integer storageId) throws StorageException {
+		return destination.getReportSkeleton(storageId);
+	}
+
+	@Override
+	public synchronized String getCheckpointMessage(Integer storageId, int index) throws StorageException {
+		return destination.getCheckpointMessage(storageId, index);
+	}
+
 	@Override
 	public void clear() throws StorageException {
 		destination.clear();
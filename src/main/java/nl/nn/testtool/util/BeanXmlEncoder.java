@@ -0,0 +1,289 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.util;
+
+import java.beans.BeanInfo;
+import java.beans.ConstructorProperties;
+import java.beans.IndexedPropertyDescriptor;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.beans.XMLEncoder;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Fast alternative for {@link XMLEncoder} for simple beans. The output is the same as the output of {@link XMLEncoder}
+ * (and can be read with {@link java.beans.XMLDecoder} and {@link nl.nn.xmldecoder.XMLDecoder}). Supported are public
+ * classes with a public no-arg constructor (outside the java and javax packages) of which the properties (with a get
+ * and set method) are a String, a primitive (wrapper) or again such a bean. For every other object (e.g. collections,
+ * arrays, enums, objects referenced more than once, properties with a non-null default value that isn't a String or
+ * primitive (wrapper)) {@link #toXml(Object)} will return null in which case {@link XMLEncoder} should be used.
+ * Property accessors are looked up once per class.
+ */
+public class BeanXmlEncoder {
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<java version=\""
+			+ System.getProperty("java.version") + "\" class=\"java.beans.XMLDecoder\">\n";
+	private static final String FOOTER = "</java>\n";
+	private static final int MAX_BUFFER_SIZE_TO_REUSE = 1024 * 1024;
+	private static final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+	private static final ClassValue<BeanClass> beanClasses = new ClassValue<BeanClass>() {
+		@Override
+		protected BeanClass computeValue(Class<?> type) {
+			return BeanClass.create(type);
+		}
+	};
+
+	/**
+	 * @param object ...
+	 * @return the same xml as {@link XMLEncoder} would produce or null when object is not supported
+	 */
+	public static String toXml(Object object) {
+		if (object == null) {
+			return null;
+		}
+		StringBuilder builder = buffers.get();
+		builder.setLength(0);
+		try {
+			builder.append(HEADER);
+			if (!writeValue(object, builder, 1, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()))) {
+				return null;
+			}
+			builder.append(FOOTER);
+			return builder.toString();
+		} finally {
+			if (builder.capacity() > MAX_BUFFER_SIZE_TO_REUSE) {
+				buffers.remove();
+			}
+		}
+	}
+
+	private static boolean writeValue(Object value, StringBuilder builder, int indent, Set<Object> beans) {
+		if (value == null) {
+			indent(builder, indent).append("<null/>\n");
+			return true;
+		}
+		String primitiveTag = getPrimitiveTag(value.getClass());
+		if (primitiveTag != null) {
+			indent(builder, indent).append('<').append(primitiveTag).append('>');
+			if (value instanceof String || value instanceof Character) {
+				if (!appendQuoted(value.toString(), builder, value instanceof Character)) {
+					return false;
+				}
+			} else {
+				builder.append(value.toString());
+			}
+			builder.append("</").append(primitiveTag).append(">\n");
+			return true;
+		}
+		BeanClass beanClass = beanClasses.get(value.getClass());
+		if (!beanClass.supported || !beans.add(value)) {
+			// Objects referenced more than once are written by XMLEncoder with an id and idref
+			return false;
+		}
+		indent(builder, indent).append("<object class=\"").append(beanClass.className).append('"');
+		boolean empty = true;
+		for (BeanProperty beanProperty : beanClass.properties) {
+			Object propertyValue;
+			try {
+				propertyValue = beanProperty.getter.invoke(value);
+			} catch (Throwable t) {
+				return false;
+			}
+			if (!Objects.equals(propertyValue, beanProperty.defaultValue)) {
+				if (empty) {
+					builder.append(">\n");
+					empty = false;
+				}
+				indent(builder, indent + 1).append("<void property=\"").append(beanProperty.name).append("\">\n");
+				if (!writeValue(propertyValue, builder, indent + 2, beans)) {
+					return false;
+				}
+				indent(builder, indent + 1).append("</void>\n");
+			}
+		}
+		if (empty) {
+			builder.append("/>\n");
+		} else {
+			indent(builder, indent).append("</object>\n");
+		}
+		return true;
+	}
+
+	private static String getPrimitiveTag(Class<?> type) {
+		if (type == String.class) {
+			return "string";
+		} else if (type == Integer.class) {
+			return "int";
+		} else if (type == Long.class) {
+			return "long";
+		} else if (type == Boolean.class) {
+			return "boolean";
+		} else if (type == Double.class) {
+			return "double";
+		} else if (type == Float.class) {
+			return "float";
+		} else if (type == Short.class) {
+			return "short";
+		} else if (type == Byte.class) {
+			return "byte";
+		} else if (type == Character.class) {
+			return "char";
+		}
+		return null;
+	}
+
+	private static StringBuilder indent(StringBuilder builder, int indent) {
+		for (int i = 0; i < indent; i++) {
+			builder.append(' ');
+		}
+		return builder;
+	}
+
+	/**
+	 * Quote the same way as XMLEncoder does. Characters for which XMLEncoder would write a char element with a code
+	 * attribute are not supported.
+	 */
+	private static boolean appendQuoted(String string, StringBuilder builder, boolean character) {
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			switch (c) {
+				case '&':
+					builder.append("&amp;");
+					break;
+				case '<':
+					builder.append("&lt;");
+					break;
+				case '>':
+					builder.append("&gt;");
+					break;
+				case '"':
+					builder.append("&quot;");
+					break;
+				case '\'':
+					builder.append("&apos;");
+					break;
+				case '\r':
+					if (character) {
+						return false;
+					}
+					builder.append("&#13;");
+					break;
+				case '\n':
+				case '\t':
+					if (character) {
+						return false;
+					}
+					builder.append(c);
+					break;
+				default:
+					if (c < 0x20 || c == 0xFFFE || c == 0xFFFF) {
+						return false;
+					} else if (Character.isHighSurrogate(c)) {
+						if (character || i + 1 == string.length() || !Character.isLowSurrogate(string.charAt(i + 1))) {
+							return false;
+						}
+						builder.append(c);
+						builder.append(string.charAt(++i));
+					} else if (Character.isLowSurrogate(c)) {
+						return false;
+					} else {
+						builder.append(c);
+					}
+			}
+		}
+		return true;
+	}
+
+	private static class BeanClass {
+		boolean supported;
+		String className;
+		List<BeanProperty> properties = new ArrayList<BeanProperty>();
+
+		static BeanClass create(Class<?> type) {
+			BeanClass beanClass = new BeanClass();
+			try {
+				beanClass.supported = init(beanClass, type);
+			} catch (Throwable t) {
+				beanClass.supported = false;
+			}
+			return beanClass;
+		}
+
+		private static boolean init(BeanClass beanClass, Class<?> type) throws Throwable {
+			if (type.isArray() || type.isEnum() || type.isInterface() || type.isPrimitive()
+					|| Modifier.isAbstract(type.getModifiers()) || type.getName().startsWith("java.")
+					|| type.getName().startsWith("javax.")) {
+				return false;
+			}
+			for (Class<?> c = type; c != null; c = c.getEnclosingClass()) {
+				if (!Modifier.isPublic(c.getModifiers())) {
+					return false;
+				}
+			}
+			for (Constructor<?> constructor : type.getConstructors()) {
+				if (constructor.getAnnotation(ConstructorProperties.class) != null) {
+					// XMLEncoder will use this constructor
+					return false;
+				}
+			}
+			Constructor<?> constructor = type.getConstructor();
+			BeanInfo beanInfo = Introspector.getBeanInfo(type);
+			if (beanInfo.getBeanDescriptor().getValue("persistenceDelegate") != null) {
+				return false;
+			}
+			Object defaultBean = constructor.newInstance();
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			// Property descriptors are sorted by name which is the same order as used by XMLEncoder
+			for (PropertyDescriptor propertyDescriptor : beanInfo.getPropertyDescriptors()) {
+				if (propertyDescriptor.getReadMethod() == null || propertyDescriptor.getWriteMethod() == null
+						|| Boolean.TRUE.equals(propertyDescriptor.getValue("transient"))) {
+					// Property is ignored by XMLEncoder
+					continue;
+				}
+				if (propertyDescriptor instanceof IndexedPropertyDescriptor) {
+					return false;
+				}
+				BeanProperty beanProperty = new BeanProperty();
+				beanProperty.name = propertyDescriptor.getName();
+				beanProperty.getter = lookup.unreflect(propertyDescriptor.getReadMethod())
+						.asType(MethodType.methodType(Object.class, Object.class));
+				beanProperty.defaultValue = beanProperty.getter.invoke(defaultBean);
+				if (beanProperty.defaultValue != null && getPrimitiveTag(beanProperty.defaultValue.getClass()) == null) {
+					// XMLEncoder would compare the properties of the default value
+					return false;
+				}
+				beanClass.properties.add(beanProperty);
+			}
+			beanClass.className = type.getName();
+			return true;
+		}
+	}
+
+	private static class BeanProperty {
+		String name;
+		MethodHandle getter;
+		Object defaultValue;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Output stream that captures the bytes written to it in fixed-size segments taken from a pool (instead of an array
+ * that is copied every time it needs to grow). Bytes beyond maxLength are counted but not captured. On (the first call
+ * to) {@link #close()} the captured bytes are copied to a byte array once, the segments are returned to the pool and
+ * {@link #closed(byte[], int)} is called. Bytes written after close are ignored.
+ *
+ * @see CaptureWriter
+ */
+public abstract class CaptureOutputStream extends OutputStream {
+	public static final int SEGMENT_SIZE = 8192;
+	private static final SegmentPool<byte[]> pool = new SegmentPool<byte[]>(() -> new byte[SEGMENT_SIZE], 256);
+	private int maxLength;
+	private List<byte[]> segments = new ArrayList<byte[]>();
+	private byte[] segment;
+	private int position = SEGMENT_SIZE;
+	private int captured = 0;
+	private int length = 0;
+	private boolean closed = false;
+
+	public CaptureOutputStream(int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Called on close with the captured bytes
+	 *
+	 * @param message                    the captured bytes
+	 * @param preTruncatedMessageLength  the number of bytes written when truncated, otherwise -1
+	 */
+	protected abstract void closed(byte[] message, int preTruncatedMessageLength) throws IOException;
+
+	@Override
+	public synchronized void write(int b) {
+		if (closed) {
+			return;
+		}
+		length++;
+		if (captured < maxLength) {
+			nextSegmentIfFull();
+			segment[position++] = (byte)b;
+			captured++;
+		}
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) {
+		if (closed) {
+			return;
+		}
+		length += len;
+		int remaining = Math.min(len, maxLength - captured);
+		while (remaining > 0) {
+			nextSegmentIfFull();
+			int n = Math.min(remaining, SEGMENT_SIZE - position);
+			System.arraycopy(b, off, segment, position, n);
+			position += n;
+			captured += n;
+			off += n;
+			remaining -= n;
+		}
+	}
+
+	private void nextSegmentIfFull() {
+		if (position == SEGMENT_SIZE) {
+			segment = pool.take();
+			segments.add(segment);
+			position = 0;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		byte[] message;
+		int preTruncatedMessageLength = -1;
+		synchronized(this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			message = new byte[captured];
+			int offset = 0;
+			for (byte[] segment : segments) {
+				int n = Math.min(captured - offset, SEGMENT_SIZE);
+				System.arraycopy(segment, 0, message, offset, n);
+				offset += n;
+				pool.release(segment);
+			}
+			segments = null;
+			segment = null;
+			if (length > captured) {
+				preTruncatedMessageLength = length;
+			}
+		}
+		closed(message, preTruncatedMessageLength);
+	}
+
+}
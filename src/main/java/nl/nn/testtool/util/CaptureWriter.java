@@ -0,0 +1,139 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writer that captures the characters written to it in fixed-size segments taken from a pool (instead of an array that
+ * is copied every time it needs to grow). Characters beyond maxLength are counted but not captured. On (the first call
+ * to) {@link #close()} the captured characters are converted to a String once, the segments are returned to the pool
+ * and {@link #closed(String, int)} is called. Characters written after close are ignored.
+ */
+public abstract class CaptureWriter extends Writer {
+	public static final int SEGMENT_SIZE = 8192;
+	private static final SegmentPool<char[]> pool = new SegmentPool<char[]>(() -> new char[SEGMENT_SIZE], 256);
+	private int maxLength;
+	private List<char[]> segments = new ArrayList<char[]>();
+	private char[] segment;
+	private int position = SEGMENT_SIZE;
+	private int captured = 0;
+	private int length = 0;
+	private boolean closed = false;
+
+	public CaptureWriter(int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Called on close with the captured characters
+	 *
+	 * @param message                    the captured characters
+	 * @param preTruncatedMessageLength  the number of characters written when truncated, otherwise -1
+	 */
+	protected abstract void closed(String message, int preTruncatedMessageLength) throws IOException;
+
+	@Override
+	public synchronized void write(int c) {
+		if (closed) {
+			return;
+		}
+		length++;
+		if (captured < maxLength) {
+			nextSegmentIfFull();
+			segment[position++] = (char)c;
+			captured++;
+		}
+	}
+
+	@Override
+	public synchronized void write(char[] cbuf, int off, int len) {
+		if (closed) {
+			return;
+		}
+		length += len;
+		int remaining = Math.min(len, maxLength - captured);
+		while (remaining > 0) {
+			nextSegmentIfFull();
+			int n = Math.min(remaining, SEGMENT_SIZE - position);
+			System.arraycopy(cbuf, off, segment, position, n);
+			position += n;
+			captured += n;
+			off += n;
+			remaining -= n;
+		}
+	}
+
+	@Override
+	public synchronized void write(String str, int off, int len) {
+		if (closed) {
+			return;
+		}
+		length += len;
+		int remaining = Math.min(len, maxLength - captured);
+		while (remaining > 0) {
+			nextSegmentIfFull();
+			int n = Math.min(remaining, SEGMENT_SIZE - position);
+			str.getChars(off, off + n, segment, position);
+			position += n;
+			captured += n;
+			off += n;
+			remaining -= n;
+		}
+	}
+
+	private void nextSegmentIfFull() {
+		if (position == SEGMENT_SIZE) {
+			segment = pool.take();
+			segments.add(segment);
+			position = 0;
+		}
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() throws IOException {
+		String message;
+		int preTruncatedMessageLength = -1;
+		synchronized(this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			StringBuilder builder = new StringBuilder(captured);
+			int remaining = captured;
+			for (char[] segment : segments) {
+				builder.append(segment, 0, Math.min(remaining, SEGMENT_SIZE));
+				remaining -= SEGMENT_SIZE;
+				pool.release(segment);
+			}
+			segments = null;
+			segment = null;
+			message = builder.toString();
+			if (length > captured) {
+				preTruncatedMessageLength = length;
+			}
+		}
+		closed(message, preTruncatedMessageLength);
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.util;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * Message compressed by {@link MessageCompressor}. Instances are immutable and compared by identity (which is used by
+ * the cache of recently decompressed messages of {@link MessageCompressor}).
+ */
+public final class CompressedMessage {
+	private MessageCompressor messageCompressor;
+	private byte[] bytes;
+	private byte[] dictionary;
+	private int uncompressedLength;
+	private int length;
+
+	CompressedMessage(MessageCompressor messageCompressor, byte[] bytes, byte[] dictionary, int uncompressedLength,
+			int length) {
+		this.messageCompressor = messageCompressor;
+		this.bytes = bytes;
+		this.dictionary = dictionary;
+		this.uncompressedLength = uncompressedLength;
+		this.length = length;
+	}
+
+	public String decompress() throws DataFormatException {
+		return messageCompressor.decompress(this);
+	}
+
+	byte[] getBytes() {
+		return bytes;
+	}
+
+	byte[] getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * @return length in bytes of the UTF-8 encoded message
+	 */
+	int getUncompressedLength() {
+		return uncompressedLength;
+	}
+
+	/**
+	 * @return length in bytes of the compressed message (not including the dictionary shared with other messages)
+	 */
+	public int getCompressedLength() {
+		return bytes.length;
+	}
+
+	/**
+	 * @return length in characters of the message
+	 */
+	public int getLength() {
+		return length;
+	}
+
+}
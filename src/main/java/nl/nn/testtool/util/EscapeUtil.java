@@ -15,6 +15,8 @@
 */
 package nl.nn.testtool.util;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 
 /**
@@ -44,6 +46,43 @@ public class EscapeUtil {
 		}
 	}
 
+	/**
+	 * Escape the same way as {@link #escapeXml(String)} without creating an intermediate string (unescaped parts are
+	 * written to the writer as a whole).
+	 *
+	 * @param value  ...
+	 * @param writer ...
+	 * @throws IOException ...
+	 */
+	public static void escapeXml(String value, Writer writer) throws IOException {
+		if (value != null) {
+			int start = 0;
+			for (int i = 0; i < value.length(); i++) {
+				String replacement;
+				switch (value.charAt(i)) {
+					case '<':
+						replacement = "&lt;";
+						break;
+					case '>':
+						replacement = "&gt;";
+						break;
+					case '"':
+						replacement = "&quot;";
+						break;
+					case '&':
+						replacement = "&amp;";
+						break;
+					default:
+						continue;
+				}
+				writer.write(value, start, i - start);
+				writer.write(replacement);
+				start = i + 1;
+			}
+			writer.write(value, start, value.length() - start);
+		}
+	}
+
 	public static String escapeCsv(String value) {
 		if (value == null) {
 			value = "";
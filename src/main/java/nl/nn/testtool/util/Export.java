@@ -20,7 +20,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
@@ -30,6 +29,7 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
@@ -40,7 +40,9 @@ import org.slf4j.LoggerFactory;
 
 import nl.nn.testtool.Checkpoint;
 import nl.nn.testtool.Report;
+import nl.nn.testtool.ReportCodec;
 import nl.nn.testtool.TestTool;
+import nl.nn.testtool.storage.MessageStore;
 import nl.nn.testtool.storage.Storage;
 import nl.nn.testtool.storage.StorageException;
 
@@ -303,25 +305,25 @@ public class Export {
 	}
 
 	public static byte[] getReportBytes(Report report) throws StorageException {
-		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		GZIPOutputStream gzipOutputStream = null;
-		ObjectOutputStream objectOutputStream = null;
-		try {
-			gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream);
-			objectOutputStream = new ObjectOutputStream(gzipOutputStream);
-			objectOutputStream.writeObject(report);
-		} catch(IOException e) {
-			logAndThrow(log, e, "IOException storing report");
-		} finally {
-			if (objectOutputStream != null) {
-				closeOutputStream(objectOutputStream, "closing object output stream after getting report bytes", log);
-			}
-			if (gzipOutputStream != null) {
-				closeOutputStream(gzipOutputStream, "closing gzip output stream after getting report bytes", log);
-			}
-			closeOutputStream(byteArrayOutputStream, "closing byte array output stream after getting report bytes", log);
-		}
-		return byteArrayOutputStream.toByteArray();
+		return getReportBytes(report, -1, null);
+	}
+
+	/**
+	 * Same as {@link #getReportBytes(Report)} but messages with a length of at least threshold are written as a
+	 * reference and added to messages (with the hash as key) so the caller can store them once in a
+	 * {@link MessageStore}. Read the report with
+	 * {@link Import#getReport(java.io.InputStream, Integer, Long, MessageStore, Logger)}.
+	 *
+	 * @param report    ...
+	 * @param threshold minimum length of the messages to write as a reference or -1 to write all messages as is
+	 * @param messages  map to add the referenced messages to
+	 * @return ...
+	 * @throws StorageException ...
+	 * @see ReportCodec
+	 */
+	public static byte[] getReportBytes(Report report, int threshold, Map<String, String> messages)
+			throws StorageException {
+		return ReportCodec.encode(report, threshold, messages);
 	}
 
 	public static void closeXMLEncoder(XMLEncoder xmlEncoder) {
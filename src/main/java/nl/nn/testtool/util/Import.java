@@ -16,11 +16,15 @@
 package nl.nn.testtool.util;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -28,7 +32,11 @@ import java.util.zip.ZipInputStream;
 import org.slf4j.Logger;
 
 import nl.nn.testtool.Report;
+import nl.nn.testtool.ReportCodec;
 import nl.nn.testtool.storage.CrudStorage;
+import nl.nn.testtool.storage.DictionaryStore;
+import nl.nn.testtool.storage.MessageReference;
+import nl.nn.testtool.storage.MessageStore;
 import nl.nn.testtool.storage.StorageException;
 import nl.nn.xmldecoder.XMLDecoder;
 
@@ -143,13 +151,55 @@ public class Import {
 	}
 
 	public static Report getReport(InputStream inputStream, Integer storageId, Long storageSize, Logger log) throws StorageException {
+		return getReport(inputStream, storageId, storageSize, null, null, log);
+	}
+
+	/**
+	 * Read a report written by {@link Export#getReportBytes(Report, int, java.util.Map)}. Reports stored by older
+	 * versions (gzipped and serialized with an {@link ObjectOutputStream}) are read too.
+	 *
+	 * @param inputStream     ...
+	 * @param storageId       ...
+	 * @param storageSize     ...
+	 * @param messageStore    store to read the messages from that are referenced by the report or null when the
+	 *                        report doesn't contain references
+	 * @param dictionaryStore store to read the dictionary from with which the report has been compressed or null when
+	 *                        the report has been compressed without dictionary
+	 * @param log             ...
+	 * @return ...
+	 * @throws StorageException ...
+	 */
+	public static Report getReport(InputStream inputStream, Integer storageId, Long storageSize,
+			MessageStore messageStore, DictionaryStore dictionaryStore, Logger log) throws StorageException {
+		byte[] bytes = null;
+		try {
+			bytes = getBytes(inputStream);
+		} catch(IOException e) {
+			logAndThrow(log, e, "IOException reading report " + storageId);
+		}
+		return getReport(bytes, storageId, storageSize, messageStore, dictionaryStore, log);
+	}
+
+	/**
+	 * @see #getReport(InputStream, Integer, Long, MessageStore, DictionaryStore, Logger)
+	 */
+	public static Report getReport(byte[] bytes, Integer storageId, Long storageSize, MessageStore messageStore,
+			DictionaryStore dictionaryStore, Logger log) throws StorageException {
 		Report report = null;
 		GZIPInputStream gzipInputStream = null;
 		ObjectInputStream objectInputStream = null;
 		try {
-			gzipInputStream = new GZIPInputStream(inputStream);
-			objectInputStream = new ObjectInputStream(gzipInputStream);
-			report = (Report)objectInputStream.readObject();
+			if (ReportCodec.isEncoded(bytes)) {
+				report = ReportCodec.decode(bytes, messageStore, dictionaryStore);
+			} else {
+				gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(bytes));
+				if (messageStore != null) {
+					objectInputStream = new MessageReferenceObjectInputStream(gzipInputStream, messageStore);
+				} else {
+					objectInputStream = new ObjectInputStream(gzipInputStream);
+				}
+				report = (Report)objectInputStream.readObject();
+			}
 			report.setStorageId(storageId);
 			report.setStorageSize(storageSize);
 		} catch(IOException e) {
@@ -167,6 +217,102 @@ public class Import {
 		return report;
 	}
 
+	/**
+	 * Read a report written by {@link Export#getReportBytes(Report, int, java.util.Map)} without reading the messages
+	 * of the checkpoints (for reports stored by older versions the complete report is read).
+	 *
+	 * @param source          ...
+	 * @param storageId       ...
+	 * @param messageStore    store to read the messages from that are referenced by a report stored by an older
+	 *                        version
+	 * @param dictionaryStore see {@link #getReport(InputStream, Integer, Long, MessageStore, DictionaryStore, Logger)}
+	 * @param log             ...
+	 * @return ...
+	 * @throws StorageException ...
+	 * @see nl.nn.testtool.storage.Storage#getReportSkeleton(Integer)
+	 */
+	public static Report getReportSkeleton(ReportCodec.Source source, Integer storageId, MessageStore messageStore,
+			DictionaryStore dictionaryStore, Logger log) throws StorageException {
+		Report report = null;
+		try {
+			if (ReportCodec.isEncoded(source)) {
+				report = ReportCodec.decodeSkeleton(source, dictionaryStore);
+				report.setStorageId(storageId);
+				report.setStorageSize((long)source.getLength());
+			} else {
+				report = getReport(source.read(0, source.getLength()), storageId, (long)source.getLength(),
+						messageStore, dictionaryStore, log);
+			}
+		} catch(IOException e) {
+			logAndThrow(log, e, "IOException reading skeleton of report " + storageId);
+		}
+		return report;
+	}
+
+	/**
+	 * Read the message of a checkpoint of a report written by {@link Export#getReportBytes(Report, int, java.util.Map)}
+	 * without reading the other messages (for reports stored by older versions the complete report is read).
+	 *
+	 * @param source          ...
+	 * @param storageId       ...
+	 * @param index           index of the checkpoint
+	 * @param messageStore    store to read the message from when it is referenced by the report
+	 * @param dictionaryStore see {@link #getReport(InputStream, Integer, Long, MessageStore, DictionaryStore, Logger)}
+	 * @param log             ...
+	 * @return ...
+	 * @throws StorageException ...
+	 * @see nl.nn.testtool.storage.Storage#getCheckpointMessage(Integer, int)
+	 */
+	public static String getCheckpointMessage(ReportCodec.Source source, Integer storageId, int index,
+			MessageStore messageStore, DictionaryStore dictionaryStore, Logger log) throws StorageException {
+		String message = null;
+		try {
+			if (ReportCodec.isEncoded(source)) {
+				message = ReportCodec.decodeMessage(source, index, messageStore, dictionaryStore);
+			} else {
+				message = getReport(source.read(0, source.getLength()), storageId, (long)source.getLength(),
+						messageStore, dictionaryStore, log).getCheckpoints().get(index).getMessage();
+			}
+		} catch(IOException e) {
+			logAndThrow(log, e, "IOException reading message of checkpoint " + index + " of report " + storageId);
+		}
+		return message;
+	}
+
+	/**
+	 * @param inputStream     report written by {@link Export#getReportBytes(Report, int, java.util.Map)}
+	 * @param dictionaryStore see {@link #getReport(InputStream, Integer, Long, MessageStore, DictionaryStore, Logger)}
+	 * @return hashes of the messages referenced by the report
+	 * @throws StorageException ...
+	 */
+	public static Set<String> getMessageReferences(InputStream inputStream, DictionaryStore dictionaryStore)
+			throws StorageException {
+		try {
+			byte[] bytes = getBytes(inputStream);
+			if (ReportCodec.isEncoded(bytes)) {
+				return ReportCodec.getMessageReferences(bytes, dictionaryStore);
+			}
+			Set<String> hashes = new HashSet<String>();
+			try (ObjectInputStream objectInputStream = new MessageReferenceObjectInputStream(
+					new GZIPInputStream(new ByteArrayInputStream(bytes)), hash -> {hashes.add(hash); return "";})) {
+				objectInputStream.readObject();
+			}
+			return hashes;
+		} catch(IOException | ClassNotFoundException e) {
+			throw new StorageException("Could not read message references from report", e);
+		}
+	}
+
+	private static byte[] getBytes(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int length;
+		while ((length = inputStream.read(buffer)) != -1) {
+			byteArrayOutputStream.write(buffer, 0, length);
+		}
+		return byteArrayOutputStream.toByteArray();
+	}
+
 	public static void closeInputStream(InputStream inputStream, String action, Logger log) {
 		try {
 			inputStream.close();
@@ -202,4 +348,33 @@ public class Import {
 		throw new StorageException(message, e);
 	}
 
-}
\ No newline at end of file
+}
+
+class MessageReferenceObjectInputStream extends ObjectInputStream {
+	private MessageStore messageStore;
+
+	MessageReferenceObjectInputStream(InputStream inputStream, MessageStore messageStore) throws IOException {
+		super(inputStream);
+		this.messageStore = messageStore;
+		enableResolveObject(true);
+	}
+
+	@Override
+	protected Object resolveObject(Object object) throws IOException {
+		if (object instanceof MessageReference) {
+			String hash = ((MessageReference)object).getHash();
+			String message;
+			try {
+				message = messageStore.getMessage(hash);
+			} catch (StorageException e) {
+				throw new IOException("Could not read message " + hash, e);
+			}
+			if (message == null) {
+				throw new IOException("Message " + hash + " not found");
+			}
+			return message;
+		}
+		return object;
+	}
+
+}
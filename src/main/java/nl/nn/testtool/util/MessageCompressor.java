@@ -0,0 +1,184 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Keep (large) messages of checkpoints in memory as deflated UTF-8 instead of UTF-16 Strings. Optionally a dictionary
+ * shared by all messages is used which is built from samples of recently compressed messages (messages captured by
+ * Ladybug tend to have a lot in common, e.g. the same XML or JSON structure and namespaces, which improves compression
+ * of small messages considerably). A compressed message keeps a reference to the dictionary it was compressed with so
+ * the dictionary can be refreshed at any time. Recently decompressed messages are kept in a small LRU cache so the
+ * GUI and stub/compare code reading the same message a number of times don't need to inflate it every time.
+ */
+public class MessageCompressor {
+	private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+	// Messages shorter than threshold (in characters) are kept as String
+	private @Setter @Getter int threshold = 1024;
+	private @Setter @Getter int level = Deflater.BEST_SPEED;
+	// Size of the shared dictionary in bytes, 0 to not use a dictionary (deflate will only use the last 32 KB)
+	private @Getter int dictionarySize = 0;
+	// Number of compressions after which the dictionary is rebuilt from the samples of recent messages
+	private @Setter @Getter int dictionaryRefreshInterval = 100;
+	private @Setter @Getter int cacheSize = 16;
+	private ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater());
+	private ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater());
+	private byte[] samples = new byte[0];
+	private int samplesLength;
+	private byte[] dictionary;
+	private int compressionsSinceDictionaryRefresh;
+	private Map<CompressedMessage, String> cache = new LinkedHashMap<CompressedMessage, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<CompressedMessage, String> eldest) {
+			return size() > cacheSize;
+		}
+	};
+	private AtomicLong compressed = new AtomicLong();
+	private AtomicLong notCompressed = new AtomicLong();
+	private AtomicLong uncompressedBytes = new AtomicLong();
+	private AtomicLong compressedBytes = new AtomicLong();
+	private AtomicLong cacheHits = new AtomicLong();
+	private AtomicLong cacheMisses = new AtomicLong();
+
+	public synchronized void setDictionarySize(int dictionarySize) {
+		this.dictionarySize = Math.max(0, Math.min(dictionarySize, MAX_DICTIONARY_SIZE));
+		samples = new byte[this.dictionarySize];
+		samplesLength = 0;
+		dictionary = null;
+	}
+
+	/**
+	 * @param message ...
+	 * @return the compressed message or null when message is shorter than {@link #getThreshold()} or compressing
+	 *         doesn't make it smaller
+	 */
+	public CompressedMessage compress(String message) {
+		if (message == null || message.length() < threshold) {
+			return null;
+		}
+		byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+		byte[] dictionary = getDictionaryAndAddSample(bytes);
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setLevel(level);
+		if (dictionary != null) {
+			deflater.setDictionary(dictionary);
+		}
+		deflater.setInput(bytes);
+		deflater.finish();
+		// Not worth it when the result isn't smaller than the String
+		int maxLength = message.length() * 2;
+		byte[] buffer = new byte[Math.min(maxLength, Math.max(64, bytes.length / 4))];
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == buffer.length) {
+				if (buffer.length == maxLength) {
+					notCompressed.incrementAndGet();
+					return null;
+				}
+				buffer = Arrays.copyOf(buffer, Math.min(maxLength, buffer.length * 2));
+			}
+			length += deflater.deflate(buffer, length, buffer.length - length);
+		}
+		compressed.incrementAndGet();
+		uncompressedBytes.addAndGet(maxLength);
+		compressedBytes.addAndGet(length);
+		return new CompressedMessage(this, Arrays.copyOf(buffer, length), dictionary, bytes.length, message.length());
+	}
+
+	private synchronized byte[] getDictionaryAndAddSample(byte[] bytes) {
+		if (dictionarySize == 0) {
+			return null;
+		}
+		// The start of a message (XML declaration, root element, namespaces, ...) is most likely to be repeated in
+		// other messages
+		int sampleLength = Math.min(bytes.length, dictionarySize / 4);
+		if (samplesLength + sampleLength > dictionarySize) {
+			int keep = dictionarySize - sampleLength;
+			System.arraycopy(samples, samplesLength - keep, samples, 0, keep);
+			samplesLength = keep;
+		}
+		System.arraycopy(bytes, 0, samples, samplesLength, sampleLength);
+		samplesLength += sampleLength;
+		byte[] current = dictionary;
+		compressionsSinceDictionaryRefresh++;
+		if (dictionary == null || compressionsSinceDictionaryRefresh >= dictionaryRefreshInterval) {
+			dictionary = Arrays.copyOf(samples, samplesLength);
+			compressionsSinceDictionaryRefresh = 0;
+		}
+		return current;
+	}
+
+	public String decompress(CompressedMessage compressedMessage) throws DataFormatException {
+		synchronized(cache) {
+			String message = cache.get(compressedMessage);
+			if (message != null) {
+				cacheHits.incrementAndGet();
+				return message;
+			}
+		}
+		cacheMisses.incrementAndGet();
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(compressedMessage.getBytes());
+		byte[] bytes = new byte[compressedMessage.getUncompressedLength()];
+		int length = 0;
+		while (length < bytes.length) {
+			int inflated = inflater.inflate(bytes, length, bytes.length - length);
+			if (inflated == 0) {
+				if (inflater.needsDictionary() && compressedMessage.getDictionary() != null) {
+					inflater.setDictionary(compressedMessage.getDictionary());
+				} else if (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()) {
+					throw new DataFormatException("Compressed message is incomplete");
+				}
+			}
+			length += inflated;
+		}
+		String message = new String(bytes, StandardCharsets.UTF_8);
+		synchronized(cache) {
+			cache.put(compressedMessage, message);
+		}
+		return message;
+	}
+
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		long uncompressedBytes = this.uncompressedBytes.get();
+		statistics.put("threshold", threshold);
+		statistics.put("dictionarySize", dictionarySize);
+		statistics.put("compressed", compressed.get());
+		statistics.put("notCompressed", notCompressed.get());
+		statistics.put("compressionRatioPercentage",
+				uncompressedBytes == 0 ? 0 : compressedBytes.get() * 100 / uncompressedBytes);
+		statistics.put("cacheHits", cacheHits.get());
+		statistics.put("cacheMisses", cacheMisses.get());
+		return statistics;
+	}
+
+}
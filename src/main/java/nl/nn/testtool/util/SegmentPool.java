@@ -0,0 +1,52 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Pool of fixed-size segments (e.g. char or byte arrays) used by {@link CaptureWriter} and
+ * {@link CaptureOutputStream}. At most maxPooledSegments segments are kept, segments released when the pool is full
+ * are left to the garbage collector.
+ */
+public class SegmentPool<T> {
+	private Supplier<T> factory;
+	private BlockingQueue<T> pool;
+
+	public SegmentPool(Supplier<T> factory, int maxPooledSegments) {
+		this.factory = factory;
+		pool = new ArrayBlockingQueue<T>(maxPooledSegments);
+	}
+
+	public T take() {
+		T segment = pool.poll();
+		if (segment == null) {
+			segment = factory.get();
+		}
+		return segment;
+	}
+
+	public void release(T segment) {
+		pool.offer(segment);
+	}
+
+	public int getPooledSegments() {
+		return pool.size();
+	}
+
+}
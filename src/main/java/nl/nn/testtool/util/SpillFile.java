@@ -0,0 +1,88 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Temporary memory-mapped file holding a (large) message so it doesn't need to be kept on the heap. The characters
+ * are stored as UTF-16 so the file can be mapped as a char buffer without decoding. The file should be deleted with
+ * {@link #delete()} when the message is no longer needed.
+ */
+public class SpillFile {
+	private static Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+	public static final int MAX_LENGTH = Integer.MAX_VALUE / 2;
+	private File file;
+	private int length;
+
+	private SpillFile(File file, int length) {
+		this.file = file;
+		this.length = length;
+	}
+
+	/**
+	 * @param directory directory to create the file in or null for the default temporary-file directory
+	 * @param message   message with a length of at most {@link #MAX_LENGTH}
+	 * @return ...
+	 * @throws IOException ...
+	 */
+	public static SpillFile create(File directory, String message) throws IOException {
+		if (message.length() > MAX_LENGTH) {
+			throw new IOException("Message too large to spill (length " + message.length() + ")");
+		}
+		File file = File.createTempFile("ladybug-", ".spill", directory);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, message.length() * 2L);
+			buffer.asCharBuffer().put(message);
+		} catch (IOException | RuntimeException e) {
+			file.delete();
+			throw e;
+		}
+		return new SpillFile(file, message.length());
+	}
+
+	public String read() throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return channel.map(MapMode.READ_ONLY, 0, length * 2L).asCharBuffer().toString();
+		}
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public void delete() {
+		if (!file.delete() && file.exists()) {
+			// E.g. on Windows a file cannot be deleted while it is still mapped
+			log.debug("Could not delete spill file " + file + ", will try again on exit");
+			file.deleteOnExit();
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+public class StreamUtil {
+	private static final int CHUNK_SIZE = 8192;
+
+	/**
+	 * Write a string as UTF-8 in chunks so no copy of the complete string is created on the heap (like
+	 * String.getBytes() and Writer.write(String) would do). The output stream is flushed but not closed.
+	 *
+	 * @param string       ...
+	 * @param outputStream ...
+	 * @throws IOException ...
+	 */
+	public static void writeUtf8(String string, OutputStream outputStream) throws IOException {
+		Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+		int length = string.length();
+		boolean trailingHighSurrogate = length > 0 && Character.isHighSurrogate(string.charAt(length - 1));
+		if (trailingHighSurrogate) {
+			// Would otherwise be kept by the writer waiting for a low surrogate
+			length--;
+		}
+		// A surrogate pair split over two chunks is handled by the writer
+		for (int i = 0; i < length; i += CHUNK_SIZE) {
+			writer.write(string, i, Math.min(CHUNK_SIZE, length - i));
+		}
+		writer.flush();
+		if (trailingHighSurrogate) {
+			// Same replacement as String.getBytes()
+			outputStream.write('?');
+			outputStream.flush();
+		}
+	}
+
+}
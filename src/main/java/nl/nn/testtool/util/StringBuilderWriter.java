@@ -0,0 +1,86 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.util;
+
+import java.io.Writer;
+
+/**
+ * Unsynchronized alternative for {@link java.io.StringWriter} (which is backed by a synchronized StringBuffer) for
+ * writing to a string from a single thread (e.g. when building the xml of a report).
+ */
+public class StringBuilderWriter extends Writer {
+	private final StringBuilder builder;
+
+	public StringBuilderWriter() {
+		builder = new StringBuilder();
+	}
+
+	public StringBuilderWriter(int capacity) {
+		builder = new StringBuilder(capacity);
+	}
+
+	@Override
+	public void write(int c) {
+		builder.append((char)c);
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		builder.append(cbuf, off, len);
+	}
+
+	@Override
+	public void write(String str) {
+		builder.append(str);
+	}
+
+	@Override
+	public void write(String str, int off, int len) {
+		builder.append(str, off, off + len);
+	}
+
+	@Override
+	public Writer append(CharSequence csq) {
+		builder.append(csq);
+		return this;
+	}
+
+	@Override
+	public Writer append(CharSequence csq, int start, int end) {
+		builder.append(csq, start, end);
+		return this;
+	}
+
+	@Override
+	public Writer append(char c) {
+		builder.append(c);
+		return this;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public String toString() {
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Bounded, weak-valued symbol table to share one String object between all checkpoints (of reports in progress and
+ * reports in memory) with the same metadata value (thread name, source class name, checkpoint name, ...). Values are
+ * removed by the garbage collector when no checkpoint references them anymore. When {@link #getMaxSize()} is reached
+ * new values are not interned (the given String is returned). Long values (probably not metadata that repeats) are not
+ * interned either. The table is split in a number of stripes with a lock per stripe to prevent threads adding
+ * checkpoints from blocking each other.
+ */
+public class SymbolTable {
+	private static final int STRIPES = 16;
+	private int maxSize;
+	private int maxLength;
+	@SuppressWarnings("unchecked")
+	private Map<String, WeakReference<String>>[] stripes = new Map[STRIPES];
+
+	public SymbolTable() {
+		this(100000, 256);
+	}
+
+	public SymbolTable(int maxSize, int maxLength) {
+		this.maxSize = maxSize;
+		this.maxLength = maxLength;
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new WeakHashMap<String, WeakReference<String>>();
+		}
+	}
+
+	public String intern(String string) {
+		if (string == null || string.length() > maxLength) {
+			return string;
+		}
+		Map<String, WeakReference<String>> stripe = stripes[(string.hashCode() & 0x7fffffff) % STRIPES];
+		synchronized(stripe) {
+			WeakReference<String> reference = stripe.get(string);
+			if (reference != null) {
+				String interned = reference.get();
+				if (interned != null) {
+					return interned;
+				}
+			}
+			if (stripe.size() < maxSize / STRIPES) {
+				stripe.put(string, new WeakReference<String>(string));
+			}
+			return string;
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * @return number of values in the table (including values that are not referenced anymore but not yet removed)
+	 */
+	public int size() {
+		int size = 0;
+		for (Map<String, WeakReference<String>> stripe : stripes) {
+			synchronized(stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+}
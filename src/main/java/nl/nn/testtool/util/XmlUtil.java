@@ -22,8 +22,11 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Source;
@@ -49,6 +52,11 @@ import net.sf.saxon.xpath.XPathEvaluator;
 
 public class XmlUtil {
 	private static final XPathEvaluator xpathEvaluator = new XPathEvaluator();
+	private static final int MAX_POOLED_SAX_PARSERS = 16;
+	private static final SAXParserFactory saxParserFactory = new org.apache.xerces.jaxp.SAXParserFactoryImpl();
+	private static final BlockingQueue<SAXParser> saxParsers =
+			new ArrayBlockingQueue<SAXParser>(MAX_POOLED_SAX_PARSERS);
+	private static final DefaultHandler defaultHandler = new DefaultHandler();
 	static {
 		// Prevent error messages being printed to system err (for example when source xml is invalid).
 		Configuration configuration = xpathEvaluator.getConfiguration();
@@ -65,15 +73,55 @@ public class XmlUtil {
 		return new StreamSource(stringReader);
 	}
 
+	/**
+	 * Check whether a string is well-formed xml. Parsers are taken from a pool (and reset after use) instead of
+	 * creating a parser factory and parser for every call, strings that cannot be xml because they don't start with a
+	 * '&lt;' (after optional whitespace) are not parsed at all.
+	 *
+	 * @param xml ...
+	 * @return true when the string is well-formed xml
+	 */
 	public static boolean isXml(String xml) {
-		InputSource inputSource = new InputSource(new StringReader(xml));
-		SAXParserFactory factory = new org.apache.xerces.jaxp.SAXParserFactoryImpl();
+		if (!startsLikeXml(xml)) {
+			return false;
+		}
+		SAXParser saxParser = saxParsers.poll();
 		try {
-			factory.newSAXParser().parse(inputSource, new DefaultHandler());
+			if (saxParser == null) {
+				synchronized (saxParserFactory) {
+					saxParser = saxParserFactory.newSAXParser();
+				}
+			}
+			saxParser.parse(new InputSource(new StringReader(xml)), defaultHandler);
 		} catch (SAXException | IOException | ParserConfigurationException e) {
 			return false;
+		} finally {
+			if (saxParser != null) {
+				saxParser.reset();
+				saxParsers.offer(saxParser);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param string ...
+	 * @return false when the string cannot be well-formed xml because it is empty or the first character that isn't
+	 *         whitespace (or a byte order mark) isn't a '&lt;'
+	 */
+	public static boolean startsLikeXml(String string) {
+		if (string == null) {
+			return false;
+		}
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c == '<') {
+				return true;
+			} else if (c != ' ' && c != '\t' && c != '\r' && c != '\n' && !(c == '\uFEFF' && i == 0)) {
+				return false;
+			}
 		}
-        return true;
+		return false;
 	}
 
 	public static TransformerFactory getTransformerFactory() {
@@ -158,6 +158,65 @@ public class ReportApi extends ApiBase {
 		}
 	}
 
+	/**
+	 * Returns a report of which the checkpoints don't need to contain their message, use
+	 * {@link #getCheckpointMessage(String, int, int)} to get the message of a checkpoint.
+	 *
+	 * @param storageName Name of the storage.
+	 * @param storageId Storage id of the report.
+	 * @return A response containing the serialized Report object.
+	 * @see Storage#getReportSkeleton(Integer)
+	 */
+	@GET
+	@Path("/{storage}/{storageId}/skeleton")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getReportSkeleton(@PathParam("storage") String storageName, @PathParam("storageId") int storageId) {
+		try {
+			Storage storage = testTool.getStorage(storageName);
+			Report report = storage.getReportSkeleton(storageId);
+			if (report == null)
+				return Response.status(Response.Status.NOT_FOUND).entity("Could not find report with id [" + storageId + "]").build();
+			report.setTestTool(testTool);
+			Map<String, Object> map = new HashMap<>(1);
+			map.put("report", report);
+			return Response.ok(map).build();
+		} catch (Exception e) {
+			return Response.status(Response.Status.NOT_FOUND).entity("Exception while getting skeleton of report [" + storageId + "] from storage [" + storageName + "] - detailed error message - " + e + Arrays.toString(e.getStackTrace())).build();
+		}
+	}
+
+	/**
+	 * Returns the message of a checkpoint without reading the messages of the other checkpoints of the report (when
+	 * supported by the storage).
+	 *
+	 * @param storageName Name of the storage.
+	 * @param storageId Storage id of the report.
+	 * @param index Index of the checkpoint in the report.
+	 * @return Response containing a map containing the message (not found when the report or checkpoint doesn't
+	 *         exist).
+	 * @see Storage#getCheckpointMessage(Integer, int)
+	 */
+	@GET
+	@Path("/{storage}/{storageId}/checkpoints/{index}/message")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getCheckpointMessage(@PathParam("storage") String storageName,
+			@PathParam("storageId") int storageId, @PathParam("index") int index) {
+		try {
+			Storage storage = testTool.getStorage(storageName);
+			String message = storage.getCheckpointMessage(storageId, index);
+			// Null is also returned when the report could not be found
+			if (message == null && storage.getReportSkeleton(storageId) == null)
+				return Response.status(Response.Status.NOT_FOUND).entity("Could not find report with id [" + storageId + "]").build();
+			Map<String, String> map = new HashMap<>(1);
+			map.put("message", message);
+			return Response.ok(map).build();
+		} catch (IndexOutOfBoundsException e) {
+			return Response.status(Response.Status.NOT_FOUND).entity("Could not find checkpoint [" + index + "] of report with id [" + storageId + "]").build();
+		} catch (Exception e) {
+			return Response.status(Response.Status.NOT_FOUND).entity("Exception while getting message of checkpoint [" + index + "] of report [" + storageId + "] from storage [" + storageName + "] - detailed error message - " + e + Arrays.toString(e.getStackTrace())).build();
+		}
+	}
+
 	/**
 	 * Returns the reports for the given storage and ids.
 	 *
@@ -93,6 +93,19 @@ public class TestToolApi extends ApiBase {
 		map.put("regexFilter", testTool.getRegexFilter());
 		map.put("reportsInProgress", testTool.getNumberOfReportsInProgress());
 		map.put("stubStrategies", testTool.getStubStrategies());
+		map.put("admission", testTool.getAdmissionStatistics());
+		if (testTool.getStorePipeline() != null) {
+			map.put("storePipeline", testTool.getStorePipeline().getStatistics());
+		}
+		if (testTool.getMemoryGovernor() != null) {
+			map.put("memoryGovernor", testTool.getMemoryGovernor().getStatistics());
+		}
+		if (testTool.getLatencyBudget() != null) {
+			map.put("latencyBudget", testTool.getLatencyBudget().getStatistics());
+		}
+		if (testTool.getMessageCompressor() != null) {
+			map.put("messageCompressor", testTool.getMessageCompressor().getStatistics());
+		}
 		return map;
 	}
 
@@ -0,0 +1,72 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.test;
+
+import java.beans.XMLEncoder;
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+
+import nl.nn.testtool.test.junit.TestMessageEncoder.Address;
+import nl.nn.testtool.test.junit.TestMessageEncoder.Person;
+import nl.nn.testtool.util.BeanXmlEncoder;
+
+/**
+ * Compare the speed of {@link XMLEncoder} and {@link BeanXmlEncoder} for encoding a typical DTO (a bean with a nested
+ * bean). Run the main method (this class isn't picked up by Surefire).
+ */
+public class BeanXmlEncoderSpeedTester {
+	public final static int NR_OF_ENCODINGS = 20000;
+	public final static int NR_TEST_REPEATS = 5;
+
+	public static void main(String[] args) throws UnsupportedEncodingException {
+		Person person = new Person();
+		person.setName("John Doe");
+		person.setAge(42);
+		person.setHeight(1.85);
+		person.setEmployed(true);
+		person.setInitial('J');
+		Address address = new Address();
+		address.setStreet("Main street");
+		address.setNumber(10L);
+		person.setAddress(address);
+		if (!toXmlWithXmlEncoder(person).equals(BeanXmlEncoder.toXml(person))) {
+			throw new IllegalStateException("Output of XMLEncoder and BeanXmlEncoder differ");
+		}
+		for (int i = 0; i < NR_TEST_REPEATS; i++) {
+			long start = System.nanoTime();
+			for (int j = 0; j < NR_OF_ENCODINGS; j++) {
+				toXmlWithXmlEncoder(person);
+			}
+			long xmlEncoder = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int j = 0; j < NR_OF_ENCODINGS; j++) {
+				BeanXmlEncoder.toXml(person);
+			}
+			long beanXmlEncoder = System.nanoTime() - start;
+			System.out.println("XMLEncoder: " + (NR_OF_ENCODINGS * 1000000000L / xmlEncoder) + " ops/s, "
+					+ "BeanXmlEncoder: " + (NR_OF_ENCODINGS * 1000000000L / beanXmlEncoder) + " ops/s");
+		}
+		System.out.println("Done.");
+	}
+
+	private static String toXmlWithXmlEncoder(Object object) throws UnsupportedEncodingException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		XMLEncoder xmlEncoder = new XMLEncoder(byteArrayOutputStream);
+		xmlEncoder.writeObject(object);
+		xmlEncoder.close();
+		return byteArrayOutputStream.toString("UTF-8");
+	}
+}
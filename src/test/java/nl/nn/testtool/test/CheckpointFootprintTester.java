@@ -0,0 +1,87 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.nn.testtool.Checkpoint;
+import nl.nn.testtool.Report;
+import nl.nn.testtool.TestTool;
+import nl.nn.testtool.util.SymbolTable;
+
+/**
+ * Measure the heap footprint per checkpoint (without message) with and without interning the metadata strings of the
+ * checkpoints with the {@link SymbolTable} of the {@link TestTool}. The metadata strings are created for every
+ * checkpoint (like an application would do when it uses a name composed at runtime for a checkpoint). Run the main
+ * method (this class isn't picked up by Surefire).
+ */
+public class CheckpointFootprintTester {
+	public final static int NR_OF_REPORTS = 1000;
+	public final static int NR_OF_CHECKPOINTS = 200;
+
+	public static void main(String[] args) {
+		// Warm up
+		measure(null);
+		measure(new SymbolTable());
+		System.out.println("Without symbol table: " + measure(null) + " bytes per checkpoint");
+		System.out.println("With symbol table: " + measure(new SymbolTable()) + " bytes per checkpoint");
+		System.out.println("Done.");
+	}
+
+	private static long measure(SymbolTable symbolTable) {
+		TestTool testTool = new TestTool();
+		testTool.setSymbolTable(symbolTable);
+		long before = usedMemory();
+		List<Report> reports = new ArrayList<Report>();
+		for (int i = 0; i < NR_OF_REPORTS; i++) {
+			reports.add(createReport(testTool, i));
+		}
+		long after = usedMemory();
+		if (reports.size() != NR_OF_REPORTS) {
+			throw new IllegalStateException("Reports garbage collected");
+		}
+		return (after - before) / (NR_OF_REPORTS * NR_OF_CHECKPOINTS);
+	}
+
+	private static Report createReport(TestTool testTool, int reportNr) {
+		Report report = new Report();
+		report.setTestTool(testTool);
+		List<Checkpoint> checkpoints = new ArrayList<Checkpoint>(NR_OF_CHECKPOINTS);
+		for (int i = 0; i < NR_OF_CHECKPOINTS; i++) {
+			Checkpoint checkpoint = new Checkpoint(report, "thread-" + (reportNr % 10),
+					"org.example.pipes.Pipe" + (i % 20), "Pipe " + (i % 20), Checkpoint.TYPE_INFOPOINT, 1);
+			checkpoint.setMessageClassName("java.lang." + "String");
+			checkpoint.setEncoding("UTF" + "-8");
+			checkpoints.add(checkpoint);
+		}
+		report.setCheckpoints(checkpoints);
+		return report;
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,91 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import nl.nn.testtool.Checkpoint;
+import nl.nn.testtool.Report;
+import nl.nn.testtool.TestTool;
+import nl.nn.testtool.web.api.ReportApi;
+
+/**
+ * Measure the time needed for the work done by {@link ReportApi#getCheckpointUids(String, int, String, boolean)}
+ * (get the uid of every checkpoint) and for serializing a report to JSON with Jackson (which also gets the uid and
+ * index of every checkpoint) for reports with an increasing number of checkpoints. As a baseline the uids are also
+ * calculated with indexOf() on the list of checkpoints. Run the main method (this class isn't picked up by Surefire).
+ */
+public class CheckpointUidsSpeedTester {
+	public final static int[] NR_OF_CHECKPOINTS = {100, 500, 2500, 10000};
+	public final static int NR_TEST_REPEATS = 5;
+
+	public static void main(String[] args) throws JsonProcessingException {
+		ObjectMapper objectMapper = new ObjectMapper();
+		for (int nrOfCheckpoints : NR_OF_CHECKPOINTS) {
+			Report report = createReport(nrOfCheckpoints);
+			long fastestIndexOf = -1L;
+			long fastestUids = -1L;
+			long fastestJson = -1L;
+			for (int i = 0; i < NR_TEST_REPEATS; i++) {
+				long start = System.nanoTime();
+				List<String> uids = new ArrayList<String>();
+				for (Checkpoint checkpoint : report.getCheckpoints()) {
+					uids.add(report.getStorageId() + "#" + report.getCheckpoints().indexOf(checkpoint));
+				}
+				fastestIndexOf = fastest(fastestIndexOf, System.nanoTime() - start);
+				start = System.nanoTime();
+				uids = new ArrayList<String>();
+				for (Checkpoint checkpoint : report.getCheckpoints()) {
+					uids.add(checkpoint.getUid());
+				}
+				fastestUids = fastest(fastestUids, System.nanoTime() - start);
+				start = System.nanoTime();
+				objectMapper.writeValueAsString(report);
+				fastestJson = fastest(fastestJson, System.nanoTime() - start);
+			}
+			System.out.println("Checkpoints: " + nrOfCheckpoints
+					+ ", uids with indexOf(): " + (fastestIndexOf / 1000) + "us"
+					+ ", uids: " + (fastestUids / 1000) + "us"
+					+ ", json: " + (fastestJson / 1000) + "us");
+		}
+		System.out.println("Done.");
+	}
+
+	private static Report createReport(int nrOfCheckpoints) {
+		Report report = new Report();
+		report.setTestTool(new TestTool());
+		report.setStorageId(1);
+		report.setName("Report");
+		List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		checkpoints.add(new Checkpoint(report, "main", null, "Report", Checkpoint.TYPE_STARTPOINT, 0));
+		for (int i = 2; i < nrOfCheckpoints; i++) {
+			Checkpoint checkpoint = new Checkpoint(report, "main", null, "Info", Checkpoint.TYPE_INFOPOINT, 1);
+			checkpoint.setMessage("Message " + i);
+			checkpoints.add(checkpoint);
+		}
+		checkpoints.add(new Checkpoint(report, "main", null, "Report", Checkpoint.TYPE_ENDPOINT, 0));
+		report.setCheckpoints(checkpoints);
+		return report;
+	}
+
+	private static long fastest(long fastest, long duration) {
+		return fastest == -1L || duration < fastest ? duration : fastest;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import nl.nn.testtool.Checkpoint;
+import nl.nn.testtool.Report;
+import nl.nn.testtool.ReportCodec;
+
+/**
+ * Compare the speed and size of a report serialized with an {@link ObjectOutputStream} (gzipped, the format used by
+ * the file and database storage before {@link ReportCodec}) and a report encoded with {@link ReportCodec}. Run the
+ * main method (this class isn't picked up by Surefire).
+ */
+public class ReportCodecSpeedTester {
+	public final static int NR_OF_CHECKPOINTS = 50;
+	public final static int NR_OF_OPERATIONS = 2000;
+	public final static int NR_TEST_REPEATS = 5;
+
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		Report report = createReport();
+		byte[] serialized = serialize(report);
+		byte[] encoded = ReportCodec.encode(report);
+		System.out.println("Serialized: " + serialized.length + " bytes, encoded: " + encoded.length + " bytes");
+		for (int i = 0; i < NR_TEST_REPEATS; i++) {
+			long start = System.nanoTime();
+			for (int j = 0; j < NR_OF_OPERATIONS; j++) {
+				serialize(report);
+			}
+			long serialize = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int j = 0; j < NR_OF_OPERATIONS; j++) {
+				ReportCodec.encode(report);
+			}
+			long encode = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int j = 0; j < NR_OF_OPERATIONS; j++) {
+				deserialize(serialized);
+			}
+			long deserialize = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int j = 0; j < NR_OF_OPERATIONS; j++) {
+				ReportCodec.decode(encoded, null, null);
+			}
+			long decode = System.nanoTime() - start;
+			System.out.println("Serialize: " + opsPerSecond(serialize) + " ops/s, "
+					+ "encode: " + opsPerSecond(encode) + " ops/s, "
+					+ "deserialize: " + opsPerSecond(deserialize) + " ops/s, "
+					+ "decode: " + opsPerSecond(decode) + " ops/s");
+		}
+		System.out.println("Done.");
+	}
+
+	private static Report createReport() {
+		Report report = new Report();
+		report.setStartTime(System.currentTimeMillis());
+		report.setEndTime(report.getStartTime() + 1000);
+		report.setCorrelationId("7a1b2c3d-4e5f-6789-abcd-ef0123456789");
+		report.setName("Pipeline ProcessOrder");
+		List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		for (int i = 0; i < NR_OF_CHECKPOINTS; i++) {
+			Checkpoint checkpoint = new Checkpoint();
+			checkpoint.setThreadName("http-nio-8080-exec-" + (i % 3));
+			checkpoint.setSourceClassName("org.frankframework.pipes.XsltPipe");
+			checkpoint.setMessageClassName("java.lang.String");
+			checkpoint.setName("Pipe " + (i % 10));
+			checkpoint.setType(i % 2 == 0 ? Checkpoint.TYPE_STARTPOINT : Checkpoint.TYPE_ENDPOINT);
+			checkpoint.setLevel(i % 5);
+			StringBuilder message = new StringBuilder("<order id=\"" + i + "\">");
+			for (int j = 0; j < 20; j++) {
+				message.append("<line number=\"" + j + "\"><product>Product " + (i * j) + "</product></line>");
+			}
+			message.append("</order>");
+			checkpoint.setMessage(message.toString());
+			checkpoint.setReport(report);
+			checkpoints.add(checkpoint);
+		}
+		report.setCheckpoints(checkpoints);
+		return report;
+	}
+
+	private static byte[] serialize(Report report) throws IOException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(
+				new GZIPOutputStream(byteArrayOutputStream))) {
+			objectOutputStream.writeObject(report);
+		}
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	private static Report deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream objectInputStream = new ObjectInputStream(
+				new GZIPInputStream(new ByteArrayInputStream(bytes)))) {
+			return (Report)objectInputStream.readObject();
+		}
+	}
+
+	private static long opsPerSecond(long nanos) {
+		return NR_OF_OPERATIONS * 1000000000L / nanos;
+	}
+}
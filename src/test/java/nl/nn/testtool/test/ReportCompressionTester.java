@@ -0,0 +1,143 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import nl.nn.testtool.Checkpoint;
+import nl.nn.testtool.Report;
+import nl.nn.testtool.ReportCodec;
+import nl.nn.testtool.storage.DictionaryStore;
+import nl.nn.testtool.storage.StorageException;
+
+/**
+ * Compare the size and speed of (small) reports encoded by {@link ReportCodec} with different compression levels,
+ * with and without a dictionary trained by {@link DictionaryStore}. Run the main method (this class isn't picked up by
+ * Surefire).
+ */
+public class ReportCompressionTester {
+	public final static int NR_OF_REPORTS = 1000;
+	public final static int NR_TEST_REPEATS = 5;
+
+	public static void main(String[] args) throws IOException, StorageException {
+		List<Report> reports = new ArrayList<Report>();
+		for (int i = 0; i < NR_OF_REPORTS; i++) {
+			reports.add(createReport(i));
+		}
+		MemoryDictionaryStore dictionaryStore = new MemoryDictionaryStore();
+		dictionaryStore.setTrainingInterval(Integer.MAX_VALUE);
+		for (int i = 0; i < dictionaryStore.getSampleCount(); i++) {
+			encode(reports.get(i), Deflater.BEST_SPEED, dictionaryStore);
+		}
+		dictionaryStore.train();
+		for (int i = 0; i < NR_TEST_REPEATS; i++) {
+			for (int level : new int[] {Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION}) {
+				test("Level " + level + ": ", reports, level, null);
+				if (level != Deflater.NO_COMPRESSION) {
+					test("Level " + level + " with dictionary: ", reports, level, dictionaryStore);
+				}
+			}
+		}
+		System.out.println("Done.");
+	}
+
+	private static void test(String description, List<Report> reports, int level, DictionaryStore dictionaryStore)
+			throws IOException {
+		long size = 0;
+		List<byte[]> encoded = new ArrayList<byte[]>();
+		long start = System.nanoTime();
+		for (Report report : reports) {
+			byte[] bytes = encode(report, level, dictionaryStore);
+			size += bytes.length;
+			encoded.add(bytes);
+		}
+		long encode = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (byte[] bytes : encoded) {
+			ReportCodec.decode(bytes, null, dictionaryStore);
+		}
+		long decode = System.nanoTime() - start;
+		System.out.println(description + (size / reports.size()) + " bytes per report, "
+				+ "encode: " + (reports.size() * 1000000000L / encode) + " ops/s, "
+				+ "decode: " + (reports.size() * 1000000000L / decode) + " ops/s");
+	}
+
+	private static byte[] encode(Report report, int level, DictionaryStore dictionaryStore) throws IOException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		ReportCodec.encode(report, -1, null, byteArrayOutputStream, level, dictionaryStore);
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	private static Report createReport(int i) {
+		Report report = new Report();
+		report.setStartTime(System.currentTimeMillis());
+		report.setEndTime(report.getStartTime() + i % 100);
+		report.setCorrelationId("7a1b2c3d-4e5f-6789-abcd-" + String.format("%012d", i));
+		report.setName("Pipeline ProcessOrder");
+		List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		for (int j = 0; j < 10; j++) {
+			Checkpoint checkpoint = new Checkpoint();
+			checkpoint.setThreadName("http-nio-8080-exec-" + (i % 3));
+			checkpoint.setSourceClassName("org.frankframework.pipes.XsltPipe");
+			checkpoint.setMessageClassName("java.lang.String");
+			checkpoint.setName("Pipe " + j);
+			checkpoint.setType(j % 2 == 0 ? Checkpoint.TYPE_STARTPOINT : Checkpoint.TYPE_ENDPOINT);
+			checkpoint.setLevel(j / 2);
+			checkpoint.setMessage("<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+					+ "<soap:Header><MessageHeader xmlns=\"http://www.example.com/header\"><From>OrderService</From>"
+					+ "<To>Warehouse</To><ConversationId>" + i + "</ConversationId></MessageHeader></soap:Header>"
+					+ "<soap:Body><ProcessOrderRequest xmlns=\"http://www.example.com/order\"><OrderId>" + (i * 10 + j)
+					+ "</OrderId><Product>Product " + (i % 50) + "</Product><Quantity>" + (j + 1) + "</Quantity>"
+					+ "</ProcessOrderRequest></soap:Body></soap:Envelope>");
+			checkpoint.setReport(report);
+			checkpoints.add(checkpoint);
+		}
+		report.setCheckpoints(checkpoints);
+		return report;
+	}
+
+	private static class MemoryDictionaryStore extends DictionaryStore {
+		private Map<Integer, byte[]> dictionaries = new HashMap<Integer, byte[]>();
+
+		@Override
+		protected int readLatestDictionaryId() {
+			return dictionaries.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+		}
+
+		@Override
+		protected byte[] readDictionary(int id) {
+			return dictionaries.get(id);
+		}
+
+		@Override
+		protected int countDictionaries() {
+			return dictionaries.size();
+		}
+
+		@Override
+		protected int writeDictionary(int id, byte[] dictionary) {
+			dictionaries.put(id, dictionary);
+			return id;
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import nl.nn.testtool.Checkpoint;
+import nl.nn.testtool.Report;
+import nl.nn.testtool.util.XmlUtil;
+
+/**
+ * Compare the speed of {@link XmlUtil#isXml(String)} with creating a parser factory and parser for every message (as
+ * done before parsers were pooled) and of {@link Report#toXml()} for a report of which it hasn't been determined yet
+ * whether the messages are xml with a report of which it has. Run the main method (this class isn't picked up by
+ * Surefire).
+ */
+public class ReportXmlSpeedTester {
+	public final static int NR_OF_RENDERS = 2000;
+	public final static int NR_TEST_REPEATS = 5;
+
+	public static void main(String[] args) throws IOException {
+		String message = createMessage();
+		for (int i = 0; i < NR_TEST_REPEATS; i++) {
+			long start = System.nanoTime();
+			for (int j = 0; j < NR_OF_RENDERS; j++) {
+				isXmlWithNewParser(message);
+			}
+			long newParser = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int j = 0; j < NR_OF_RENDERS; j++) {
+				XmlUtil.isXml(message);
+			}
+			long pooledParser = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int j = 0; j < NR_OF_RENDERS; j++) {
+				createReport(message).toXml();
+			}
+			long firstRender = System.nanoTime() - start;
+			Report report = createReport(message);
+			start = System.nanoTime();
+			for (int j = 0; j < NR_OF_RENDERS; j++) {
+				report.flushCachedXml();
+				report.toXml(new NullWriter(), null);
+			}
+			long nextRender = System.nanoTime() - start;
+			System.out.println("isXml new parser: " + (NR_OF_RENDERS * 1000000000L / newParser) + " ops/s, "
+					+ "pooled parser: " + (NR_OF_RENDERS * 1000000000L / pooledParser) + " ops/s, "
+					+ "toXml first render: " + (NR_OF_RENDERS * 1000000000L / firstRender) + " ops/s, "
+					+ "next render (streamed): " + (NR_OF_RENDERS * 1000000000L / nextRender) + " ops/s");
+		}
+		System.out.println("Done.");
+	}
+
+	private static String createMessage() {
+		StringBuilder builder = new StringBuilder("<envelope><body>");
+		for (int i = 0; i < 200; i++) {
+			builder.append("<line number=\"" + i + "\"><product>Product " + i + "</product></line>");
+		}
+		return builder.append("</body></envelope>").toString();
+	}
+
+	private static Report createReport(String message) {
+		Report report = new Report();
+		report.setName("Pipeline OrderService");
+		List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		for (int i = 0; i < 4; i++) {
+			Checkpoint checkpoint = new Checkpoint();
+			checkpoint.setName("Checkpoint " + i);
+			checkpoint.setType(Checkpoint.TYPE_INFOPOINT);
+			checkpoint.setMessage(i % 2 == 0 ? message : "Text message " + i);
+			checkpoint.setReport(report);
+			checkpoints.add(checkpoint);
+		}
+		report.setCheckpoints(checkpoints);
+		return report;
+	}
+
+	private static boolean isXmlWithNewParser(String xml) {
+		try {
+			new org.apache.xerces.jaxp.SAXParserFactoryImpl().newSAXParser()
+					.parse(new InputSource(new StringReader(xml)), new DefaultHandler());
+		} catch (SAXException | IOException | ParserConfigurationException e) {
+			return false;
+		}
+		return true;
+	}
+
+	private static class NullWriter extends Writer {
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
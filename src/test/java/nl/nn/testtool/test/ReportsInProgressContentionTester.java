@@ -0,0 +1,98 @@
+/*
+   Copyright 2026 WeAreFrank!
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.testtool.test;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import nl.nn.testtool.Report;
+import nl.nn.testtool.TestTool;
+import nl.nn.testtool.storage.memory.Storage;
+
+/**
+ * Measure the throughput of checkpoints for an increasing number of threads that each create reports with their own
+ * correlationId. With a global lock on the reports in progress the throughput doesn't scale with the number of threads.
+ * Run the main method (this class isn't picked up by Surefire) and compare the checkpoints per second per thread count.
+ */
+public class ReportsInProgressContentionTester {
+	public final static int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+	public final static int REPORTS_PER_THREAD = 2000;
+	public final static int INFOPOINTS_PER_REPORT = 10;
+	public final static int NR_TEST_REPEATS = 5;
+
+	public static void main(String[] args) throws InterruptedException {
+		// Warm up
+		run(4, REPORTS_PER_THREAD);
+		for (int threadCount : THREAD_COUNTS) {
+			long fastest = -1L;
+			for (int i = 0; i < NR_TEST_REPEATS; i++) {
+				long duration = run(threadCount, REPORTS_PER_THREAD);
+				if (fastest == -1L || duration < fastest) {
+					fastest = duration;
+				}
+			}
+			long checkpoints = (long)threadCount * REPORTS_PER_THREAD * (INFOPOINTS_PER_REPORT + 2);
+			System.out.println("Threads: " + threadCount + ", fastest: " + (fastest / 1000000) + "ms, checkpoints/s: "
+					+ (checkpoints * 1000000000L / fastest));
+		}
+		System.out.println("Done.");
+	}
+
+	private static long run(int threadCount, int reportsPerThread) throws InterruptedException {
+		TestTool testTool = new TestTool();
+		testTool.setDebugStorage(new NoOpStorage());
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+			new Thread(() -> {
+				try {
+					start.await();
+					for (int j = 0; j < reportsPerThread; j++) {
+						String correlationId = UUID.randomUUID().toString();
+						testTool.startpoint(correlationId, null, "Contention", "start");
+						for (int k = 0; k < INFOPOINTS_PER_REPORT; k++) {
+							testTool.infopoint(correlationId, null, "Info", "info");
+						}
+						testTool.endpoint(correlationId, null, "Contention", "end");
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					finished.countDown();
+				}
+			}, "ContentionTester-" + i).start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		finished.await();
+		long duration = System.nanoTime() - begin;
+		if (testTool.getNumberOfReportsInProgress() != 0) {
+			throw new IllegalStateException("Reports in progress: " + testTool.getNumberOfReportsInProgress());
+		}
+		return duration;
+	}
+
+	/**
+	 * Measure the reports in progress administration only, not the storage
+	 */
+	private static class NoOpStorage extends Storage {
+
+		@Override
+		public void storeWithoutException(Report report) {
+		}
+
+	}
+}
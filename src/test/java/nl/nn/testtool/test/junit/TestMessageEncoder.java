@@ -16,10 +16,16 @@
 package nl.nn.testtool.test.junit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.beans.XMLEncoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -31,11 +37,15 @@ import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
 import nl.nn.testtool.Checkpoint;
+import nl.nn.testtool.CustomMessageEncoder;
+import nl.nn.testtool.MessageEncoder.ToStringResult;
 import nl.nn.testtool.MessageEncoderImpl;
 import nl.nn.testtool.Report;
 import nl.nn.testtool.TestTool;
 import nl.nn.testtool.storage.StorageException;
+import nl.nn.testtool.util.BeanXmlEncoder;
 import nl.nn.testtool.util.XmlUtil;
+import nl.nn.xmldecoder.XMLDecoder;
 
 /**
  * @author Jaco de Groot
@@ -90,4 +100,215 @@ public class TestMessageEncoder {
 		assertEquals("test", node.getNodeName());
 	}
 
+	@Test
+	public void testToStringForObjectThatIsNotABean() {
+		TestTool testTool = new TestTool();
+		for (int i = 0; i < 2; i++) {
+			ToStringResult toStringResult = testTool.getMessageEncoder().toString(new NotABean("test" + i), null);
+			assertEquals("NotABean test" + i, toStringResult.getString());
+			assertEquals(MessageEncoderImpl.TO_STRING_ENCODER, toStringResult.getEncoding());
+			assertEquals(NotABean.class.getTypeName(), toStringResult.getMessageClassName());
+		}
+	}
+
+	@Test
+	public void testCustomMessageEncoder() {
+		TestTool testTool = new TestTool();
+		MessageEncoderImpl messageEncoder = (MessageEncoderImpl)testTool.getMessageEncoder();
+		messageEncoder.addCustomMessageEncoder(new CustomMessageEncoder() {
+
+			@Override
+			public Class<?> getMessageClass() {
+				return NotABean.class;
+			}
+
+			@Override
+			public String getEncoding() {
+				return "NotABeanEncoder";
+			}
+
+			@Override
+			public String toString(Object message) {
+				return ((NotABean)message).value;
+			}
+
+			@Override
+			public Object toObject(String message) {
+				return new NotABean(message);
+			}
+
+		});
+		ToStringResult toStringResult = messageEncoder.toString(new NotABean("test"), null);
+		assertEquals("test", toStringResult.getString());
+		assertEquals("NotABeanEncoder", toStringResult.getEncoding());
+		Report report = new Report();
+		report.setTestTool(testTool);
+		Checkpoint checkpoint = new Checkpoint();
+		checkpoint.setReport(report);
+		checkpoint.setMessage(toStringResult.getString());
+		checkpoint.setEncoding(toStringResult.getEncoding());
+		NotABean notABean = (NotABean)checkpoint.getMessageAsObject();
+		assertEquals("test", notABean.value);
+	}
+
+	public static class NotABean {
+		String value;
+
+		public NotABean(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public String toString() {
+			return "NotABean " + value;
+		}
+	}
+
+	@Test
+	public void testBeanXmlEncoder() throws UnsupportedEncodingException {
+		Person person = new Person();
+		person.setName("Name with special characters <&>\"'\r\n\t\u00e9\ud83d\ude00");
+		person.setAge(42);
+		person.setHeight(1.85);
+		person.setEmployed(true);
+		person.setInitial('N');
+		Address address = new Address();
+		address.setStreet("Street");
+		address.setNumber(1L);
+		person.setAddress(address);
+		String xml = BeanXmlEncoder.toXml(person);
+		assertEquals(toXmlWithXmlEncoder(person), xml);
+		XMLDecoder xmlDecoder = new XMLDecoder(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		Person decoded = (Person)xmlDecoder.readObject();
+		xmlDecoder.close();
+		assertEquals(person.getName(), decoded.getName());
+		assertEquals(person.getAge(), decoded.getAge());
+		assertEquals(person.getHeight(), decoded.getHeight(), 0);
+		assertEquals(person.isEmployed(), decoded.isEmployed());
+		assertEquals(person.getInitial(), decoded.getInitial());
+		assertEquals("Street", decoded.getAddress().getStreet());
+		assertEquals(Long.valueOf(1L), decoded.getAddress().getNumber());
+		assertEquals("default", decoded.getNickname());
+
+		// Default values and null for a property with a non-null default value
+		person = new Person();
+		person.setNickname(null);
+		assertEquals(toXmlWithXmlEncoder(person), BeanXmlEncoder.toXml(person));
+		assertEquals(toXmlWithXmlEncoder(10), BeanXmlEncoder.toXml(10));
+
+		// Not supported (XMLEncoder needs to be used)
+		person.setAddress(address);
+		person.setPreviousAddress(address);
+		assertNull(BeanXmlEncoder.toXml(person));
+		assertNull(BeanXmlEncoder.toXml(new ArrayList<String>()));
+		assertNull(BeanXmlEncoder.toXml(new NotABean("test")));
+		person.setPreviousAddress(null);
+		person.setName("Control character \u0001");
+		assertNull(BeanXmlEncoder.toXml(person));
+	}
+
+	private static String toXmlWithXmlEncoder(Object object) throws UnsupportedEncodingException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		XMLEncoder xmlEncoder = new XMLEncoder(byteArrayOutputStream);
+		xmlEncoder.writeObject(object);
+		xmlEncoder.close();
+		return byteArrayOutputStream.toString("UTF-8");
+	}
+
+	public static class Person {
+		private String name;
+		private String nickname = "default";
+		private int age;
+		private double height;
+		private boolean employed;
+		private char initial;
+		private Address address;
+		private Address previousAddress;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public String getNickname() {
+			return nickname;
+		}
+
+		public void setNickname(String nickname) {
+			this.nickname = nickname;
+		}
+
+		public int getAge() {
+			return age;
+		}
+
+		public void setAge(int age) {
+			this.age = age;
+		}
+
+		public double getHeight() {
+			return height;
+		}
+
+		public void setHeight(double height) {
+			this.height = height;
+		}
+
+		public boolean isEmployed() {
+			return employed;
+		}
+
+		public void setEmployed(boolean employed) {
+			this.employed = employed;
+		}
+
+		public char getInitial() {
+			return initial;
+		}
+
+		public void setInitial(char initial) {
+			this.initial = initial;
+		}
+
+		public Address getAddress() {
+			return address;
+		}
+
+		public void setAddress(Address address) {
+			this.address = address;
+		}
+
+		public Address getPreviousAddress() {
+			return previousAddress;
+		}
+
+		public void setPreviousAddress(Address previousAddress) {
+			this.previousAddress = previousAddress;
+		}
+	}
+
+	public static class Address {
+		private String street;
+		private Long number;
+
+		public String getStreet() {
+			return street;
+		}
+
+		public void setStreet(String street) {
+			this.street = street;
+		}
+
+		public Long getNumber() {
+			return number;
+		}
+
+		public void setNumber(Long number) {
+			this.number = number;
+		}
+	}
+
 }
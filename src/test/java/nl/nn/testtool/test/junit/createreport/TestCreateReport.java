@@ -15,15 +15,21 @@
 */
 package nl.nn.testtool.test.junit.createreport;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -32,11 +38,18 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 import org.apache.xerces.dom.DocumentImpl;
@@ -51,13 +64,26 @@ import ch.qos.logback.core.read.ListAppender;
 import lombok.SneakyThrows;
 import nl.nn.testtool.Checkpoint;
 import nl.nn.testtool.CloseReportsTask;
+import nl.nn.testtool.LatencyBudget;
+import nl.nn.testtool.MemoryGovernor;
+import nl.nn.testtool.MetadataExtractor;
 import nl.nn.testtool.MessageCapturerImpl;
 import nl.nn.testtool.MessageEncoder;
 import nl.nn.testtool.MessageEncoderImpl;
+import nl.nn.testtool.RateLimitAdmissionPolicy;
 import nl.nn.testtool.Report;
+import nl.nn.testtool.ReportCodec;
+import nl.nn.testtool.SamplingAdmissionPolicy;
+import nl.nn.testtool.StorePipeline;
+import nl.nn.testtool.StorePipeline.OverflowPolicy;
+import nl.nn.testtool.storage.MessageReference;
 import nl.nn.testtool.storage.Storage;
 import nl.nn.testtool.storage.StorageException;
+import nl.nn.testtool.storage.database.DatabaseDictionaryStore;
+import nl.nn.testtool.storage.database.DatabaseStorage;
 import nl.nn.testtool.test.junit.ReportRelatedTestCase;
+import nl.nn.testtool.util.CaptureWriter;
+import nl.nn.testtool.util.MessageCompressor;
 
 /**
  * @author Jaco de Groot
@@ -236,6 +262,37 @@ public class TestCreateReport extends ReportRelatedTestCase {
 		}
 	}
 
+	@Test
+	public void testCloseReportsTaskScheduledClose() throws StorageException, InterruptedException {
+		CloseReportsTask task = new CloseReportsTask();
+		task.setThreadsTime(100);
+		testTool.setCloseReportsTask(task);
+		try {
+			int size = testTool.getDebugStorage().getSize();
+			String correlationId = getCorrelationId();
+			testTool.startpoint(correlationId, null, reportName, "startmessage");
+			testTool.threadCreatepoint(correlationId, "child-1");
+			testTool.endpoint(correlationId, null, reportName, "endmessage");
+			assertEquals("Report should be in progress (waiting for threadStartpoint)", 1, testTool.getNumberOfReportsInProgress());
+			long end = System.currentTimeMillis() + 10000;
+			// The report is removed from the reports in progress before it is stored by the thread of the task
+			while ((testTool.getNumberOfReportsInProgress() > 0 || testTool.getDebugStorage().getSize() == size)
+					&& System.currentTimeMillis() < end) {
+				Thread.sleep(10);
+			}
+			assertEquals("Report should have been closed by scheduled close", 0, testTool.getNumberOfReportsInProgress());
+			Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+			assertEquals(3, report.getNumberOfCheckpoints());
+			// Report closed without needing the scheduled close
+			correlationId = getCorrelationId();
+			testTool.startpoint(correlationId, null, reportName, "startmessage");
+			testTool.endpoint(correlationId, null, reportName, "endmessage");
+			assertEquals(0, testTool.getNumberOfReportsInProgress());
+		} finally {
+			task.close();
+		}
+	}
+
 	private static void assertWarningsUseThreadCreatepointBeforeThreadStartpoint(
 			ListAppender<ILoggingEvent> listAppender, String correlationId, String parentThreadName) {
 		List<String> names = new ArrayList<String>();
@@ -566,6 +623,46 @@ public class TestCreateReport extends ReportRelatedTestCase {
 		assertReport(correlationId);
 	}
 
+	/**
+	 * Test that stubable code is executed without holding the lock on the report (otherwise a slow call to an external
+	 * system in one thread would block other threads writing to the same report)
+	 * 
+	 * @throws Throwable ...
+	 */
+	@Test
+	public void testStubableCodeNotBlockingOtherThreads() throws Throwable {
+		String correlationId = getCorrelationId();
+		String parentThreadName = Thread.currentThread().getName();
+		String childThreadName = parentThreadName + "-ChildThreadName";
+		CountDownLatch stubableCodeStarted = new CountDownLatch(1);
+		CountDownLatch infopointAdded = new CountDownLatch(1);
+		AtomicBoolean infopointAddedDuringStubableCode = new AtomicBoolean();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		testTool.threadCreatepoint(correlationId, childThreadName);
+		Thread childThread = new Thread(() -> {
+			testTool.threadStartpoint(correlationId, null, "name2", "startmessage2");
+			testTool.startpoint(correlationId, null, "name3", () -> {
+				stubableCodeStarted.countDown();
+				try {
+					infopointAddedDuringStubableCode.set(infopointAdded.await(10, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return "startmessage3";
+			}, new HashSet<String>());
+			testTool.endpoint(correlationId, null, "name3", "endmessage3");
+			testTool.threadEndpoint(correlationId, null, "name2", "endmessage2");
+		}, childThreadName);
+		childThread.start();
+		assertTrue("Stubable code not started", stubableCodeStarted.await(10, TimeUnit.SECONDS));
+		testTool.infopoint(correlationId, null, "name4", "infomessage4");
+		infopointAdded.countDown();
+		childThread.join();
+		assertTrue("Infopoint blocked by stubable code of other thread", infopointAddedDuringStubableCode.get());
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		assertReport(correlationId);
+	}
+
 	@Test
 	public void testCloseReport() throws StorageException, IOException {
 		String correlationId = getCorrelationId();
@@ -575,6 +672,26 @@ public class TestCreateReport extends ReportRelatedTestCase {
 		assertReport(correlationId);
 	}
 
+	@Test
+	public void testReportsInProgress() throws StorageException, IOException {
+		String correlationId1 = getCorrelationId();
+		String correlationId2 = getCorrelationId();
+		testTool.startpoint(correlationId1, null, reportName, "startmessage1");
+		testTool.startpoint(correlationId2, null, "name2", "startmessage2");
+		assertEquals(2, testTool.getNumberOfReportsInProgress());
+		// Newest report in progress first
+		assertEquals("name2", testTool.getReportInProgress(0).getName());
+		assertEquals(reportName, testTool.getReportInProgress(1).getName());
+		assertNull(testTool.getReportInProgress(2));
+		assertEquals("name2", testTool.getReportInProgress(correlationId2).getName());
+		testTool.endpoint(correlationId2, null, "name2", "endmessage2");
+		assertEquals(1, testTool.getNumberOfReportsInProgress());
+		assertEquals(reportName, testTool.getReportInProgress(0).getName());
+		assertNull(testTool.getReportInProgress(correlationId2));
+		testTool.endpoint(correlationId1, null, reportName, "endmessage1");
+		assertReport(correlationId1, reportName, false, false, false, false, false);
+	}
+
 	@Test
 	public void testCloseReportWithThreads() throws StorageException, IOException {
 		String correlationId = getCorrelationId();
@@ -659,6 +776,57 @@ public class TestCreateReport extends ReportRelatedTestCase {
 		// assertEquals("class java.lang.IndexOutOfBoundsException: Index: 5, Size: 4", secondException);
 	}
 
+	@Test
+	public void testCheckpointInStubableCode() throws StorageException {
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage");
+		testTool.outputpoint(correlationId, null, "output", () -> {
+			testTool.infopoint(correlationId, null, "nested-info", "nestedinfo");
+			return "outputmessage";
+		}, new HashSet<String>());
+		testTool.endpoint(correlationId, null, reportName, "endmessage");
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		String[] expectedNames = new String[] {reportName, "output", "nested-info", reportName};
+		int[] expectedLevels = new int[] {0, 1, 1, 1};
+		assertEquals(expectedNames.length, report.getCheckpoints().size());
+		for (int i = 0; i < expectedNames.length; i++) {
+			assertEquals(expectedNames[i], report.getCheckpoints().get(i).getName());
+			assertEquals(i, report.getCheckpoints().get(i).getIndex());
+			assertEquals(expectedLevels[i], report.getCheckpoints().get(i).getLevel());
+		}
+	}
+
+	@Test
+	public void testInterleavedThreads() throws StorageException {
+		String correlationId = getCorrelationId();
+		String parentThreadName = Thread.currentThread().getName();
+		testTool.startpoint(correlationId, null, reportName, "startmessage");
+		testTool.threadCreatepoint(correlationId, "child-1");
+		testTool.threadCreatepoint(correlationId, "child-2");
+		Thread.currentThread().setName("child-2");
+		testTool.threadStartpoint(correlationId, null, "child-2", "threadstartmessage2");
+		testTool.infopoint(correlationId, null, "info-2", "info2");
+		Thread.currentThread().setName(parentThreadName);
+		testTool.infopoint(correlationId, null, "info-parent", "info");
+		Thread.currentThread().setName("child-1");
+		testTool.threadStartpoint(correlationId, null, "child-1", "threadstartmessage1");
+		testTool.infopoint(correlationId, null, "info-1", "info1");
+		Thread.currentThread().setName("child-2");
+		testTool.threadEndpoint(correlationId, null, "child-2", "threadendmessage2");
+		Thread.currentThread().setName("child-1");
+		testTool.threadEndpoint(correlationId, null, "child-1", "threadendmessage1");
+		Thread.currentThread().setName(parentThreadName);
+		testTool.endpoint(correlationId, null, reportName, "endmessage");
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		String[] expectedNames = new String[] {reportName, "child-1", "info-1", "child-1", "child-2", "info-2", "child-2",
+				"info-parent", reportName};
+		assertEquals(expectedNames.length, report.getCheckpoints().size());
+		for (int i = 0; i < expectedNames.length; i++) {
+			assertEquals(expectedNames[i], report.getCheckpoints().get(i).getName());
+			assertEquals(i, report.getCheckpoints().get(i).getIndex());
+		}
+	}
+
 	@Test
 	public void testCloseMessageCapturers() throws IOException, StorageException {
 		testCloseMessageCapturers(true, false, false);
@@ -790,6 +958,301 @@ public class TestCreateReport extends ReportRelatedTestCase {
 		assertEquals("endmessage2", endmessage2);
 	}
 
+	@Test
+	public void testMaxMemoryUsage() throws StorageException, IOException {
+		testTool.setMaxMemoryUsage(50);
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		assertEquals(26, testTool.getReportsInProgressEstimatedMemoryUsage());
+		String startmessage2 = testTool.startpoint(correlationId, null, "name2", () -> {return "startmessage2";}, new HashSet<String>());
+		assertEquals(52, testTool.getReportsInProgressEstimatedMemoryUsage());
+		String endmessage2 = testTool.endpoint(correlationId, null, "name2", () -> {return "endmessage2";}, new HashSet<String>());
+		assertEquals(52, testTool.getReportsInProgressEstimatedMemoryUsage());
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		assertEquals(0, testTool.getReportsInProgressEstimatedMemoryUsage());
+		assertReport(correlationId);
+		assertWarningInLog(listAppender,
+				"Maximum memory usage reached for this report, ignored checkpoint (name: name2, type: Endpoint, level: 2, correlationId: "
+				+ correlationId + ") (next checkpoints for this report will be ignored without any logging)");
+		assertEquals(0, testTool.getNumberOfReportsInProgress());
+		assertEquals("startmessage2", startmessage2);
+		assertEquals("endmessage2", endmessage2);
+	}
+
+	@Test
+	public void testStorePipeline() throws StorageException, IOException {
+		StorePipeline storePipeline = new StorePipeline();
+		testTool.setStorePipeline(storePipeline);
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		storePipeline.close();
+		assertEquals(1, storePipeline.getStored());
+		assertEquals(0, storePipeline.getDropped());
+		assertEquals(0, storePipeline.getQueueDepth());
+		assertReport(correlationId);
+	}
+
+	@Test
+	public void testStorePipelineDropNewest() throws InterruptedException, IOException {
+		testStorePipelineOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+	}
+
+	@Test
+	public void testStorePipelineDropOldest() throws InterruptedException, IOException {
+		testStorePipelineOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+	}
+
+	@Test
+	public void testStorePipelineBlockTimeout() throws InterruptedException {
+		CountDownLatch storeStarted = new CountDownLatch(1);
+		CountDownLatch storeContinue = new CountDownLatch(1);
+		List<String> storedCorrelationIds = new ArrayList<String>();
+		testTool.setDebugStorage(new nl.nn.testtool.storage.memory.Storage() {
+			@Override
+			@SneakyThrows
+			public void storeWithoutException(Report report) {
+				if (Thread.currentThread().getName().startsWith("Ladybug-StorePipeline-")) {
+					storeStarted.countDown();
+					storeContinue.await(10, TimeUnit.SECONDS);
+				}
+				synchronized(storedCorrelationIds) {
+					storedCorrelationIds.add(report.getCorrelationId());
+				}
+			}
+		});
+		StorePipeline storePipeline = new StorePipeline();
+		storePipeline.setCapacity(1);
+		storePipeline.setBlockTimeout(100);
+		testTool.setStorePipeline(storePipeline);
+		String[] correlationIds = new String[3];
+		for (int i = 0; i < correlationIds.length; i++) {
+			correlationIds[i] = getCorrelationId();
+			testTool.startpoint(correlationIds[i], null, reportName, "startmessage1");
+			testTool.endpoint(correlationIds[i], null, reportName, "endmessage1");
+			if (i == 0) {
+				// Make sure the writer thread is busy storing the first report
+				assertTrue("Store not started", storeStarted.await(10, TimeUnit.SECONDS));
+			}
+		}
+		// The third report didn't fit in the queue and has been stored by the calling thread
+		assertEquals(1, storePipeline.getQueueDepth());
+		assertEquals(Arrays.asList(correlationIds[2]), storedCorrelationIds);
+		storeContinue.countDown();
+		storePipeline.close();
+		assertEquals(3, storePipeline.getStored());
+		assertEquals(0, storePipeline.getDropped());
+		assertEquals(Arrays.asList(correlationIds[2], correlationIds[0], correlationIds[1]), storedCorrelationIds);
+		ignoreWarningsInLog(listAppender, "Store pipeline queue full (capacity 1) for 100 ms");
+	}
+
+	private void testStorePipelineOverflowPolicy(OverflowPolicy overflowPolicy)
+			throws InterruptedException, IOException {
+		File spillDirectory = Files.createTempDirectory("ladybug-junit-spill").toFile();
+		testTool.setSpillThreshold(5);
+		testTool.setSpillDirectory(spillDirectory.getAbsolutePath());
+		CountDownLatch storeStarted = new CountDownLatch(1);
+		CountDownLatch storeContinue = new CountDownLatch(1);
+		List<String> storedCorrelationIds = new ArrayList<String>();
+		testTool.setDebugStorage(new nl.nn.testtool.storage.memory.Storage() {
+			@Override
+			@SneakyThrows
+			public void storeWithoutException(Report report) {
+				storeStarted.countDown();
+				storeContinue.await(10, TimeUnit.SECONDS);
+				synchronized(storedCorrelationIds) {
+					storedCorrelationIds.add(report.getCorrelationId());
+				}
+			}
+		});
+		StorePipeline storePipeline = new StorePipeline();
+		storePipeline.setCapacity(1);
+		storePipeline.setOverflowPolicy(overflowPolicy);
+		testTool.setStorePipeline(storePipeline);
+		String[] correlationIds = new String[3];
+		for (int i = 0; i < correlationIds.length; i++) {
+			correlationIds[i] = getCorrelationId();
+			testTool.startpoint(correlationIds[i], null, reportName, "startmessage1");
+			testTool.endpoint(correlationIds[i], null, reportName, "endmessage1");
+			if (i == 0) {
+				// Make sure the writer thread is busy storing the first report
+				assertTrue("Store not started", storeStarted.await(10, TimeUnit.SECONDS));
+			}
+		}
+		assertEquals(1, storePipeline.getQueueDepth());
+		assertEquals(1, storePipeline.getDropped());
+		storeContinue.countDown();
+		storePipeline.close();
+		assertEquals(2, storePipeline.getStored());
+		assertEquals(correlationIds[0], storedCorrelationIds.get(0));
+		if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+			assertEquals(correlationIds[1], storedCorrelationIds.get(1));
+		} else {
+			assertEquals(correlationIds[2], storedCorrelationIds.get(1));
+		}
+		// Spill files of stored and dropped reports are removed
+		assertEquals(0, spillDirectory.list().length);
+		spillDirectory.delete();
+		ignoreWarningsInLog(listAppender, "Store pipeline queue full (capacity 1), dropped report with correlationId");
+	}
+
+	@Test
+	public void testSamplingAdmissionPolicy() throws StorageException {
+		SamplingAdmissionPolicy samplingAdmissionPolicy = new SamplingAdmissionPolicy();
+		samplingAdmissionPolicy.setSampleRate(0);
+		testTool.getAdmissionPolicies().add(samplingAdmissionPolicy);
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		testTool.startpoint(correlationId, null, "level2", "startmessage2");
+		String endmessage2 = testTool.endpoint(correlationId, null, "level2", () -> {return "endmessage2";}, new HashSet<String>());
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		assertNull("Report should not have been admitted", findAndGetReport(testTool, testTool.getDebugStorage(), correlationId, false));
+		assertEquals("endmessage2", endmessage2);
+		assertEquals(0, testTool.getNumberOfReportsInProgress());
+		samplingAdmissionPolicy.setSampleRate(1);
+		correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		assertNotNull("Report should have been admitted", findAndGetReport(testTool, testTool.getDebugStorage(), correlationId));
+		Map<String, Object> admissionStatistics = testTool.getAdmissionStatistics();
+		assertEquals(1L, admissionStatistics.get("admitted"));
+		assertEquals("{SamplingAdmissionPolicy=1}", admissionStatistics.get("notAdmitted").toString());
+	}
+
+	@Test
+	public void testNotAdmittedReportWithThreads() throws StorageException {
+		SamplingAdmissionPolicy samplingAdmissionPolicy = new SamplingAdmissionPolicy();
+		samplingAdmissionPolicy.setSampleRate(0);
+		testTool.getAdmissionPolicies().add(samplingAdmissionPolicy);
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		// Not counted and not visible as a report in progress
+		assertEquals(0, testTool.getNumberOfReportsInProgress());
+		assertNull(testTool.getReportInProgress(correlationId));
+		testTool.threadCreatepoint(correlationId, "child");
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		// Checkpoints of the child thread are ignored too (instead of logging that no report is in progress)
+		testTool.threadStartpoint(correlationId, "child", null, "child", "threadstartmessage");
+		testTool.infopoint(correlationId, null, "info", "infomessage");
+		testTool.threadEndpoint(correlationId, null, "child", "threadendmessage");
+		assertNull(findAndGetReport(testTool, testTool.getDebugStorage(), correlationId, false));
+		// Removed when the child thread has finished, hence the next startpoint creates a new report
+		samplingAdmissionPolicy.setSampleRate(1);
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		assertNotNull(findAndGetReport(testTool, testTool.getDebugStorage(), correlationId));
+	}
+
+	@Test
+	public void testRateLimitAdmissionPolicy() throws StorageException {
+		RateLimitAdmissionPolicy rateLimitAdmissionPolicy = new RateLimitAdmissionPolicy();
+		rateLimitAdmissionPolicy.setBurst(1);
+		rateLimitAdmissionPolicy.setReportsPerSecond(0.001);
+		testTool.getAdmissionPolicies().add(rateLimitAdmissionPolicy);
+		String[] correlationIds = new String[3];
+		for (int i = 0; i < correlationIds.length; i++) {
+			correlationIds[i] = getCorrelationId();
+			String name = i < 2 ? reportName : reportName + "-other";
+			testTool.startpoint(correlationIds[i], null, name, "startmessage1");
+			testTool.endpoint(correlationIds[i], null, name, "endmessage1");
+		}
+		Storage storage = testTool.getDebugStorage();
+		assertNotNull("Report should have been admitted", findAndGetReport(testTool, storage, correlationIds[0]));
+		assertNull("Report should not have been admitted", findAndGetReport(testTool, storage, correlationIds[1], false));
+		assertNotNull("Report with other name should have been admitted", findAndGetReport(testTool, storage, correlationIds[2]));
+		Map<String, Object> admissionStatistics = testTool.getAdmissionStatistics();
+		assertEquals(2L, admissionStatistics.get("admitted"));
+		assertEquals("{RateLimitAdmissionPolicy=1}", admissionStatistics.get("notAdmitted").toString());
+	}
+
+	@Test
+	public void testRegexFilterAdmissionStatistics() throws StorageException {
+		testTool.setRegexFilter("^(?!" + reportName + ").*");
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		assertNull("Report should have been ignored", findAndGetReport(testTool, testTool.getDebugStorage(), correlationId, false));
+		assertEquals("{regexFilter=1}", testTool.getAdmissionStatistics().get("notAdmitted").toString());
+		assertThrows(java.util.regex.PatternSyntaxException.class, () -> testTool.setRegexFilter("("));
+	}
+
+	@Test
+	public void testMemoryGovernor() throws StorageException {
+		MemoryGovernor memoryGovernor = new MemoryGovernor();
+		memoryGovernor.setMetadataOnlyHeapUsage(-1);
+		memoryGovernor.setNoNewReportsHeapUsage(-1);
+		memoryGovernor.setMetadataOnlyMemoryUsage(0);
+		testTool.setMemoryGovernor(memoryGovernor);
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		assertEquals(MemoryGovernor.Level.METADATA_ONLY, memoryGovernor.getLevel());
+		assertNull(report.getCheckpoints().get(0).getMessage());
+		assertEquals(String.class.getName(), report.getCheckpoints().get(0).getMessageClassName());
+		memoryGovernor.setNoNewReportsMemoryUsage(0);
+		correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		assertNull("Report should not have been admitted", findAndGetReport(testTool, testTool.getDebugStorage(), correlationId, false));
+		assertEquals("{memoryGovernor=1}", testTool.getAdmissionStatistics().get("notAdmitted").toString());
+		memoryGovernor.setMetadataOnlyMemoryUsage(-1);
+		memoryGovernor.setNoNewReportsMemoryUsage(-1);
+		correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		assertEquals(MemoryGovernor.Level.NORMAL, memoryGovernor.getLevel());
+		assertEquals("startmessage1", report.getCheckpoints().get(0).getMessage());
+		assertEquals("{NORMAL=1, METADATA_ONLY=1, NO_NEW_REPORTS=1}",
+				memoryGovernor.getStatistics().get("transitions").toString());
+		assertWarningInLog(listAppender, "Memory governor level changed from NORMAL to METADATA_ONLY (heap usage 0%, "
+				+ "reports in progress estimated memory usage 0)");
+		ignoreWarningsInLog(listAppender, "Memory governor level changed");
+	}
+
+	@Test
+	public void testLatencyBudget() throws StorageException {
+		LatencyBudget latencyBudget = new LatencyBudget();
+		// Every report will exceed the budget
+		latencyBudget.setMaxOverheadPercentage(-1);
+		latencyBudget.setMinReports(1);
+		latencyBudget.setTruncatedMessageLength(5);
+		latencyBudget.setSampleRate(0);
+		testTool.setLatencyBudget(latencyBudget);
+		Report[] reports = new Report[3];
+		for (int i = 0; i < reports.length; i++) {
+			String correlationId = getCorrelationId();
+			testTool.startpoint(correlationId, null, reportName, "startmessage1");
+			testTool.infopoint(correlationId, null, "info", "infomessage1");
+			testTool.endpoint(correlationId, null, reportName, "endmessage1");
+			reports[i] = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		}
+		assertEquals(3, reports[0].getNumberOfCheckpoints());
+		assertEquals("startmessage1", reports[0].getCheckpoints().get(0).getMessage());
+		assertEquals(3, reports[1].getNumberOfCheckpoints());
+		assertEquals("start", reports[1].getCheckpoints().get(0).getMessage());
+		assertEquals(2, reports[2].getNumberOfCheckpoints());
+		assertEquals(LatencyBudget.CaptureMode.SAMPLE, latencyBudget.getCaptureMode(reportName));
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		assertNull("Report should not have been admitted", findAndGetReport(testTool, testTool.getDebugStorage(), correlationId, false));
+		assertEquals("{latencyBudget=1}", testTool.getAdmissionStatistics().get("notAdmitted").toString());
+		// Recover (measured on the sampled reports, reports not admitted are ignored without measuring overhead)
+		latencyBudget.setMaxOverheadPercentage(Double.MAX_VALUE);
+		latencyBudget.setSampleRate(1);
+		correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		assertEquals(LatencyBudget.CaptureMode.SKIP_INFOPOINTS, latencyBudget.getCaptureMode(reportName));
+		assertEquals(4, latencyBudget.getDecisions().size());
+		assertTrue(latencyBudget.getDecisions().get(0).contains("Capture mode for report name '" + reportName
+				+ "' changed from FULL to TRUNCATE (p95.0 of overhead is "));
+		assertTrue(latencyBudget.getDecisions().get(3).contains("changed from SAMPLE to SKIP_INFOPOINTS"));
+		ignoreWarningsInLog(listAppender, "Capture mode for report name '" + reportName + "' changed from ");
+	}
+
 	@Test
 	public void testMaxCheckpointsWithCloseThread() {
 		testTool.setMaxCheckpoints(1);
@@ -852,6 +1315,501 @@ public class TestCreateReport extends ReportRelatedTestCase {
 				testTool.getMessageEncoder().toObject(report.getCheckpoints().get(4)).getClass().getTypeName());
 	}
 
+	@Test
+	public void testFileStorageExceptionExtractingMetadata() throws IOException, StorageException {
+		if (!(testTool.getDebugStorage() instanceof nl.nn.testtool.storage.file.Storage)) {
+			return;
+		}
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage");
+		testTool.endpoint(correlationId, null, reportName, "endmessage");
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		File directory = Files.createTempDirectory("ladybug-junit-file-storage").toFile();
+		nl.nn.testtool.storage.file.Storage storage = new nl.nn.testtool.storage.file.Storage();
+		storage.setReportsFilename(new File(directory, "ladybug.tts").getAbsolutePath());
+		storage.setMetadataFilename(new File(directory, "ladybug.ttm").getAbsolutePath());
+		storage.setPersistentMetadata(Arrays.asList("storageId", "storageSize", "name"));
+		storage.setMetadataExtractor(new MetadataExtractor() {
+			@Override
+			public Object getMetadata(Report report, String metadataName, int metadataValueType) {
+				if ("fail".equals(report.getName())) {
+					throw new IllegalStateException("Metadata not available");
+				}
+				return super.getMetadata(report, metadataName, metadataValueType);
+			}
+		});
+		storage.init();
+		String[] names = new String[] {"first", "fail", "last"};
+		for (String name : names) {
+			report.setName(name);
+			storage.storeWithoutException(report);
+		}
+		ignoreWarningsInLog(listAppender, "Caught unexpected throwable storing report");
+		// The bytes written for the report that failed are removed, otherwise the last report cannot be read
+		List storageIds = storage.getStorageIds();
+		assertEquals(2, storageIds.size());
+		assertEquals("last", storage.getReport((Integer)storageIds.get(0)).getName());
+		assertEquals("first", storage.getReport((Integer)storageIds.get(1)).getName());
+		storage.close();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testFileStorageDeleteUnreferencedDictionaries() throws IOException, StorageException {
+		if (!(testTool.getDebugStorage() instanceof nl.nn.testtool.storage.file.Storage)) {
+			return;
+		}
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage");
+		testTool.endpoint(correlationId, null, reportName, "endmessage");
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		File directory = Files.createTempDirectory("ladybug-junit-file-storage").toFile();
+		nl.nn.testtool.storage.file.Storage storage = new nl.nn.testtool.storage.file.Storage();
+		storage.setReportsFilename(new File(directory, "ladybug.tts").getAbsolutePath());
+		storage.setMetadataFilename(new File(directory, "ladybug.ttm").getAbsolutePath());
+		storage.setPersistentMetadata(Arrays.asList("storageId", "storageSize", "name"));
+		storage.setMetadataExtractor(new MetadataExtractor());
+		// A reports file per report of which the current file and one backup are kept
+		storage.setMaximumFileSize(1);
+		storage.setMaximumBackupIndex(1);
+		storage.setDictionaryCompression(true);
+		storage.setDictionaryTrainingInterval(Integer.MAX_VALUE);
+		storage.init();
+		File dictionariesDirectory = new File(directory, "ladybug.tts.dictionaries");
+		for (int i = 0; i < 6; i++) {
+			storage.storeWithoutException(report);
+			// Needs a sample of at least two reports
+			if (i > 0) {
+				storage.getDictionaryStore().train();
+			}
+		}
+		// Dictionaries 3 and 4 are referenced by the last two reports and 5 is the current dictionary
+		assertEquals(new HashSet<String>(Arrays.asList("3", "4", "5")),
+				new HashSet<String>(Arrays.asList(dictionariesDirectory.list())));
+		List storageIds = storage.getStorageIds();
+		assertEquals(2, storageIds.size());
+		for (Object storageId : storageIds) {
+			assertEquals(reportName, storage.getReport((Integer)storageId).getName());
+		}
+		// Clear empties the current reports file only, dictionary 3 is still referenced by the backup
+		storage.clear();
+		assertEquals(new HashSet<String>(Arrays.asList("3", "5")),
+				new HashSet<String>(Arrays.asList(dictionariesDirectory.list())));
+		storage.close();
+		for (File file : dictionariesDirectory.listFiles()) {
+			file.delete();
+		}
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testDatabaseStorageDictionaryReferences() throws IOException, StorageException {
+		if (!(testTool.getDebugStorage() instanceof DatabaseStorage)) {
+			return;
+		}
+		DatabaseStorage databaseStorage = (DatabaseStorage)testTool.getDebugStorage();
+		DatabaseDictionaryStore dictionaryStore = databaseStorage.getDictionaryStore();
+		int maxDictionaries = dictionaryStore.getMaxDictionaries();
+		dictionaryStore.setMaxDictionaries(Integer.MAX_VALUE);
+		try {
+			for (int i = 0; i < 2; i++) {
+				String correlationId = getCorrelationId();
+				testTool.startpoint(correlationId, null, reportName, "startmessage");
+				testTool.endpoint(correlationId, null, reportName, "endmessage");
+			}
+			dictionaryStore.train();
+			String correlationId = getCorrelationId();
+			testTool.startpoint(correlationId, null, reportName, "startmessage");
+			testTool.endpoint(correlationId, null, reportName, "endmessage");
+			Report report = findAndGetReport(testTool, databaseStorage, correlationId);
+			byte[] reportBytes = databaseStorage.getJdbcTemplate().queryForObject("select report from "
+					+ databaseStorage.getTable() + " where " + databaseStorage.getStorageIdColumn() + " = ?",
+					byte[].class, report.getStorageId());
+			int dictionaryId = ReportCodec.getDictionaryId(ReportCodec.Source.of(reportBytes));
+			assertTrue(dictionaryId > 0);
+			// Referenced by the new report only
+			assertEquals(1, getDictionaryReferenceCount(databaseStorage, dictionaryId));
+			dictionaryStore.train();
+			assertNotEquals(dictionaryId, dictionaryStore.getCurrentDictionary().getId());
+			// Deleted together with the last report referring to it
+			databaseStorage.delete(report);
+			assertEquals(0, (int)databaseStorage.getJdbcTemplate().queryForObject("select count(*) from "
+					+ databaseStorage.getDictionaryTable() + " where ID = ?", Integer.class, dictionaryId));
+		} finally {
+			dictionaryStore.setMaxDictionaries(maxDictionaries);
+		}
+	}
+
+	private int getDictionaryReferenceCount(DatabaseStorage databaseStorage, int dictionaryId) {
+		return databaseStorage.getJdbcTemplate().queryForObject("select REFERENCECOUNT from "
+				+ databaseStorage.getDictionaryTable() + " where ID = ?", Integer.class, dictionaryId);
+	}
+
+	@Test
+	public void testStreamsLargerThanCaptureSegment() throws IOException, StorageException {
+		String correlationId = getCorrelationId();
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; builder.length() < 3 * CaptureWriter.SEGMENT_SIZE; i++) {
+			builder.append("Line " + i + "\n");
+		}
+		String string = builder.toString();
+		int maxMessageLength = 2 * CaptureWriter.SEGMENT_SIZE + 10;
+		testTool.setMaxMessageLength(maxMessageLength);
+		testTool.startpoint(correlationId, null, reportName, "startmessage");
+		Reader readerMessage = testTool.inputpoint(correlationId, null, "reader", new StringReader(string));
+		// Read per character
+		StringBuilder read = new StringBuilder();
+		int c;
+		while ((c = readerMessage.read()) != -1) {
+			read.append((char)c);
+		}
+		readerMessage.close();
+		assertEquals(string, read.toString());
+		InputStream inputStreamMessage = testTool.inputpoint(correlationId, null, "inputstream",
+				new ByteArrayInputStream(string.getBytes("UTF-8")));
+		// Read per block
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int length;
+		while ((length = inputStreamMessage.read(buffer)) != -1) {
+			byteArrayOutputStream.write(buffer, 0, length);
+		}
+		inputStreamMessage.close();
+		assertEquals(string, byteArrayOutputStream.toString("UTF-8"));
+		testTool.endpoint(correlationId, null, reportName, "endmessage");
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		for (int i = 1; i < 3; i++) {
+			Checkpoint checkpoint = report.getCheckpoints().get(i);
+			assertEquals(string.substring(0, maxMessageLength), checkpoint.getMessage());
+			assertEquals(string.length(), checkpoint.getPreTruncatedMessageLength());
+		}
+	}
+
+	@Test
+	public void testSpillMessages() throws IOException, StorageException {
+		File spillDirectory = Files.createTempDirectory("ladybug-junit-spill").toFile();
+		testTool.setSpillThreshold(20);
+		testTool.setSpillDirectory(spillDirectory.getAbsolutePath());
+		String correlationId = getCorrelationId();
+		String largeMessage = "Message larger than the spill threshold";
+		testTool.startpoint(correlationId, null, reportName, largeMessage);
+		testTool.infopoint(correlationId, null, "small", "Small message");
+		Reader readerMessage = testTool.inputpoint(correlationId, null, "reader", new StringReader(largeMessage + " (stream)"));
+		while (readerMessage.read() != -1);
+		readerMessage.close();
+		assertEquals(2, spillDirectory.list().length);
+		testTool.endpoint(correlationId, null, reportName, largeMessage);
+		assertEquals(0, spillDirectory.list().length);
+		spillDirectory.delete();
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		assertEquals(largeMessage, report.getCheckpoints().get(0).getMessage());
+		assertEquals("Small message", report.getCheckpoints().get(1).getMessage());
+		assertEquals(largeMessage + " (stream)", report.getCheckpoints().get(2).getMessage());
+		assertEquals(largeMessage, report.getCheckpoints().get(3).getMessage());
+	}
+
+	@Test
+	public void testSpillMessagesOfRemovedReportInProgress() throws IOException {
+		File spillDirectory = Files.createTempDirectory("ladybug-junit-spill").toFile();
+		testTool.setSpillThreshold(20);
+		testTool.setSpillDirectory(spillDirectory.getAbsolutePath());
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "Message larger than the spill threshold");
+		assertEquals(1, spillDirectory.list().length);
+		assertNotNull(testTool.removeReportInProgress(0));
+		assertEquals(0, testTool.getNumberOfReportsInProgress());
+		assertEquals(0, spillDirectory.list().length);
+		spillDirectory.delete();
+	}
+
+	@Test
+	public void testSpillMessagesOfLoadedReport() throws IOException, StorageException {
+		File spillDirectory = Files.createTempDirectory("ladybug-junit-spill").toFile();
+		testTool.setSpillThreshold(20);
+		testTool.setSpillDirectory(spillDirectory.getAbsolutePath());
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage");
+		testTool.endpoint(correlationId, null, reportName, "endmessage");
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		// Like a report opened in the GUI or retrieved with the API
+		report.setTestTool(testTool);
+		String largeMessage = "Edited message larger than the spill threshold";
+		report.getCheckpoints().get(0).setMessage(largeMessage);
+		assertEquals(largeMessage, report.getCheckpoints().get(0).getMessage());
+		// Nothing would remove the spill file
+		assertEquals(0, spillDirectory.list().length);
+		spillDirectory.delete();
+	}
+
+	@Test
+	public void testCompressedMessages() throws StorageException {
+		MessageCompressor messageCompressor = new MessageCompressor();
+		messageCompressor.setThreshold(100);
+		messageCompressor.setDictionarySize(4096);
+		messageCompressor.setDictionaryRefreshInterval(1);
+		testTool.setMessageCompressor(messageCompressor);
+		StringBuilder builder = new StringBuilder("<root xmlns=\"urn:ladybug:junit\">");
+		for (int i = 0; i < 100; i++) {
+			builder.append("<item id=\"" + i + "\">value " + i + "</item>");
+		}
+		String largeMessage = builder.append("</root>").toString();
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, largeMessage);
+		testTool.infopoint(correlationId, null, "small", "Small message");
+		testTool.infopoint(correlationId, null, "large", largeMessage.replace("value", "other value"));
+		Report reportInProgress = testTool.getReportInProgress(0);
+		Checkpoint checkpoint = reportInProgress.getCheckpoints().get(0);
+		assertTrue(checkpoint.isMessageCompressed());
+		assertTrue(checkpoint.getEstimatedMemoryUsage() < largeMessage.length() / 2);
+		assertEquals(largeMessage, checkpoint.getMessage());
+		assertFalse(reportInProgress.getCheckpoints().get(1).isMessageCompressed());
+		assertTrue(reportInProgress.getCheckpoints().get(2).isMessageCompressed());
+		testTool.endpoint(correlationId, null, reportName, largeMessage);
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		assertEquals(largeMessage, report.getCheckpoints().get(0).getMessage());
+		assertEquals("Small message", report.getCheckpoints().get(1).getMessage());
+		assertEquals(largeMessage.replace("value", "other value"), report.getCheckpoints().get(2).getMessage());
+		assertEquals(largeMessage, report.getCheckpoints().get(3).getMessage());
+		assertEquals(3L, messageCompressor.getStatistics().get("compressed"));
+	}
+
+	@Test
+	public void testDeduplicatedMessages() throws StorageException {
+		String message = "Message long enough to be deduplicated. ";
+		message = message + message + message;
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, message);
+		testTool.infopoint(correlationId, null, "copy", new String(message));
+		Report reportInProgress = testTool.getReportInProgress(0);
+		assertSame(reportInProgress.getCheckpoints().get(0).getMessage(),
+				reportInProgress.getCheckpoints().get(1).getMessage());
+		testTool.endpoint(correlationId, null, reportName, new String(message));
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		for (Checkpoint checkpoint : report.getCheckpoints()) {
+			assertEquals(message, checkpoint.getMessage());
+		}
+		int numberOfMessages = getNumberOfMessages(testTool.getDebugStorage(), message);
+		correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, new String(message));
+		testTool.endpoint(correlationId, null, reportName, "endmessage");
+		report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		assertEquals(message, report.getCheckpoints().get(0).getMessage());
+		// Stored once in the content-addressed message store of the file and database storage
+		assertEquals(numberOfMessages, getNumberOfMessages(testTool.getDebugStorage(), message));
+		if (testTool.getDebugStorage() instanceof DatabaseStorage) {
+			DatabaseStorage databaseStorage = (DatabaseStorage)testTool.getDebugStorage();
+			int referenceCount = getReferenceCount(databaseStorage, message);
+			// Reference counts are updated in the same transaction as the insert of the report
+			MetadataExtractor metadataExtractor = databaseStorage.getMetadataExtractor();
+			databaseStorage.setMetadataExtractor(new MetadataExtractor() {
+				@Override
+				public Object getMetadata(Report report, String metadataName, int metadataValueType) {
+					throw new IllegalStateException("Metadata not available");
+				}
+			});
+			try {
+				databaseStorage.store(report);
+				fail("Report stored without metadata");
+			} catch (IllegalStateException e) {
+				assertEquals(referenceCount, getReferenceCount(databaseStorage, message));
+			} finally {
+				databaseStorage.setMetadataExtractor(metadataExtractor);
+			}
+			databaseStorage.delete(report);
+			assertEquals(referenceCount - 1, getReferenceCount(databaseStorage, message));
+		}
+		if (testTool.getDebugStorage() instanceof nl.nn.testtool.storage.file.Storage) {
+			nl.nn.testtool.storage.file.Storage fileStorage = (nl.nn.testtool.storage.file.Storage)testTool
+					.getDebugStorage();
+			// Messages of a report of which the metadata could not be written are released again
+			report.setTestTool(testTool);
+			report.getCheckpoints().get(1).setMessage(message + getCorrelationId());
+			numberOfMessages = fileStorage.getMessageStore().getSize();
+			fileStorage.setMetadataExtractor(new MetadataExtractor() {
+				@Override
+				public Object getMetadata(Report report, String metadataName, int metadataValueType) {
+					// Not a String as expected for the metadata file
+					return 1;
+				}
+			});
+			int size = fileStorage.getSize();
+			try {
+				fileStorage.storeWithoutException(report);
+			} finally {
+				fileStorage.setMetadataExtractor(new MetadataExtractor());
+			}
+			ignoreWarningsInLog(listAppender, "Caught unexpected throwable storing report");
+			assertEquals(size, fileStorage.getSize());
+			assertEquals(numberOfMessages, fileStorage.getMessageStore().getSize());
+		}
+	}
+
+	@Test
+	public void testDatabaseStorageMaxStorageSize() throws StorageException {
+		if (!(testTool.getDebugStorage() instanceof DatabaseStorage)) {
+			return;
+		}
+		DatabaseStorage databaseStorage = (DatabaseStorage)testTool.getDebugStorage();
+		String message = "Message long enough to be stored in the message table. ";
+		message = message + message + message;
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, message);
+		testTool.endpoint(correlationId, null, reportName, "endmessage");
+		assertNotNull(findAndGetReport(testTool, databaseStorage, correlationId));
+		int averageStorageSize = databaseStorage.getJdbcTemplate().queryForObject(
+				"select avg(storageSize) from " + databaseStorage.getTable(), Integer.class);
+		// Keep one report only
+		databaseStorage.setMaxStorageSize(averageStorageSize + averageStorageSize / 2);
+		try {
+			correlationId = getCorrelationId();
+			testTool.startpoint(correlationId, null, reportName, new String(message));
+			testTool.endpoint(correlationId, null, reportName, "endmessage");
+		} finally {
+			databaseStorage.setMaxStorageSize(-1);
+		}
+		assertEquals(1, databaseStorage.getSize());
+		assertEquals(message, findAndGetReport(testTool, databaseStorage, correlationId).getCheckpoints().get(0)
+				.getMessage());
+		// Messages of the deleted reports have been released in the same transaction
+		assertEquals(1, getNumberOfMessages(databaseStorage, message));
+		assertEquals(1, getReferenceCount(databaseStorage, message));
+	}
+
+	private int getNumberOfMessages(Storage storage, String message) {
+		if (storage instanceof nl.nn.testtool.storage.file.Storage) {
+			return ((nl.nn.testtool.storage.file.Storage)storage).getMessageStore().getSize();
+		} else if (storage instanceof DatabaseStorage) {
+			DatabaseStorage databaseStorage = (DatabaseStorage)storage;
+			return databaseStorage.getJdbcTemplate().queryForObject(
+					"select count(*) from " + databaseStorage.getMessageTable(), Integer.class);
+		}
+		return -1;
+	}
+
+	private int getReferenceCount(DatabaseStorage databaseStorage, String message) {
+		return databaseStorage.getJdbcTemplate().queryForObject("select REFERENCECOUNT from "
+				+ databaseStorage.getMessageTable() + " where HASH = ?", Integer.class,
+				MessageReference.getHash(message));
+	}
+
+	@Test
+	public void testReportSkeleton() throws StorageException {
+		String message = "Message long enough to be deduplicated. ";
+		message = message + message + message;
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage");
+		testTool.infopoint(correlationId, null, "binary", new byte[] {0, 1, (byte)0xff});
+		testTool.infopoint(correlationId, null, "large", message);
+		testTool.infopoint(correlationId, null, "null", null);
+		testTool.endpoint(correlationId, null, reportName, "endmessage");
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		Report skeleton = testTool.getDebugStorage().getReportSkeleton(report.getStorageId());
+		assertEquals(report.getName(), skeleton.getName());
+		assertEquals(report.getCheckpoints().size(), skeleton.getCheckpoints().size());
+		for (int i = 0; i < report.getCheckpoints().size(); i++) {
+			Checkpoint checkpoint = report.getCheckpoints().get(i);
+			assertEquals(checkpoint.getName(), skeleton.getCheckpoints().get(i).getName());
+			assertEquals(checkpoint.getType(), skeleton.getCheckpoints().get(i).getType());
+			assertEquals(checkpoint.getLevel(), skeleton.getCheckpoints().get(i).getLevel());
+			if (testTool.getDebugStorage() instanceof nl.nn.testtool.storage.memory.Storage || i != 2) {
+				assertEquals(checkpoint.getMessage(), skeleton.getCheckpoints().get(i).getMessage());
+				// Including the null message of checkpoint 3
+				assertFalse(skeleton.getCheckpoints().get(i).isMessageNotLoaded());
+			} else {
+				// Large messages are not part of the skeleton
+				assertNull(skeleton.getCheckpoints().get(i).getMessage());
+				assertTrue(skeleton.getCheckpoints().get(i).isMessageNotLoaded());
+			}
+			assertEquals(checkpoint.getMessage(),
+					testTool.getDebugStorage().getCheckpointMessage(report.getStorageId(), i));
+		}
+		assertEquals(message, testTool.getDebugStorage().getCheckpointMessage(report.getStorageId(), 2));
+		assertEquals(Base64.getEncoder().encodeToString(new byte[] {0, 1, (byte)0xff}),
+				testTool.getDebugStorage().getCheckpointMessage(report.getStorageId(), 1));
+		assertThrows(IndexOutOfBoundsException.class,
+				() -> testTool.getDebugStorage().getCheckpointMessage(report.getStorageId(), 5));
+	}
+
+	@Test
+	public void testCheckpointPaths() throws StorageException {
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		testTool.infopoint(correlationId, null, "info", "info1");
+		testTool.startpoint(correlationId, null, "level2", "startmessage2");
+		testTool.infopoint(correlationId, null, "info", "info2");
+		testTool.infopoint(correlationId, null, "info", "info3");
+		testTool.endpoint(correlationId, null, "level2", "endmessage2");
+		testTool.infopoint(correlationId, null, "info", "info4");
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		String[] expectedPaths = new String[] {
+				"/" + reportName + "[0]",
+				"/" + reportName + "[0]/info[0]",
+				"/" + reportName + "[0]/level2[0]",
+				"/" + reportName + "[0]/level2[0]/info[0]",
+				"/" + reportName + "[0]/level2[0]/info[1]",
+				"/" + reportName + "[0]/level2[0]/level2[0]",
+				"/" + reportName + "[0]/info[1]",
+				"/" + reportName + "[0]/" + reportName + "[0]"
+		};
+		assertEquals(expectedPaths.length, report.getCheckpoints().size());
+		for (int i = 0; i < expectedPaths.length; i++) {
+			assertEquals(expectedPaths[i], report.getCheckpoints().get(i).getPath().toString());
+		}
+		// Paths are computed again after a change
+		report.getCheckpoints().get(2).setName("info");
+		assertEquals("/" + reportName + "[0]/info[1]", report.getCheckpoints().get(2).getPath().toString());
+		assertEquals("/" + reportName + "[0]/info[1]/info[0]", report.getCheckpoints().get(3).getPath().toString());
+	}
+
+	@Test
+	public void testInternedCheckpointMetadata() {
+		String correlationId1 = getCorrelationId();
+		String correlationId2 = getCorrelationId();
+		testTool.startpoint(correlationId1, null, reportName, "startmessage1");
+		testTool.startpoint(correlationId2, null, reportName, "startmessage2");
+		testTool.infopoint(correlationId1, new String("SourceClass"), new String("info"), "info1");
+		testTool.infopoint(correlationId2, new String("SourceClass"), new String("info"), "info2");
+		Checkpoint checkpoint1 = testTool.getReportInProgress(correlationId1).getCheckpoints().get(1);
+		Checkpoint checkpoint2 = testTool.getReportInProgress(correlationId2).getCheckpoints().get(1);
+		assertSame(checkpoint1.getName(), checkpoint2.getName());
+		assertSame(checkpoint1.getSourceClassName(), checkpoint2.getSourceClassName());
+		assertEquals(Checkpoint.STUB_FOLLOW_REPORT_STRATEGY, checkpoint1.getStub());
+		assertEquals(-1, checkpoint1.getPreTruncatedMessageLength());
+		testTool.endpoint(correlationId1, null, reportName, "endmessage1");
+		testTool.endpoint(correlationId2, null, reportName, "endmessage2");
+	}
+
+	@Test
+	public void testCheckpointIndex() throws StorageException, CloneNotSupportedException {
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage1");
+		testTool.infopoint(correlationId, null, "info", "info1");
+		testTool.infopoint(correlationId, null, "info", "info2");
+		testTool.endpoint(correlationId, null, reportName, "endmessage1");
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		List<Checkpoint> checkpoints = report.getCheckpoints();
+		for (int i = 0; i < checkpoints.size(); i++) {
+			assertEquals(i, checkpoints.get(i).getIndex());
+			assertEquals(report.getStorageId() + "#" + i, checkpoints.get(i).getUid());
+		}
+		Checkpoint removed = checkpoints.remove(1);
+		assertEquals(-1, removed.getIndex());
+		assertEquals(1, checkpoints.get(1).getIndex());
+		assertEquals(2, checkpoints.get(2).getIndex());
+		checkpoints.add(0, removed);
+		assertEquals(0, removed.getIndex());
+		assertEquals(3, checkpoints.get(3).getIndex());
+		Report clone = report.clone();
+		assertEquals(3, clone.getCheckpoints().get(3).getIndex());
+	}
+
 	@Test
 	public void testStreamsWithWriterAndOutputStream() throws IOException, StorageException {
 		String correlationId = getCorrelationId();
@@ -984,6 +1942,38 @@ public class TestCreateReport extends ReportRelatedTestCase {
 		assertEquals(169, byteArrayInputStream.read());
 	}
 
+	@Test
+	public void testBinaryMessage() throws StorageException {
+		byte[] bytes = new byte[] {(byte)0xff, 0, 1, (byte)0xfe};
+		String base64 = Base64.getEncoder().encodeToString(bytes);
+		String correlationId = getCorrelationId();
+		testTool.startpoint(correlationId, null, reportName, "startmessage");
+		byte[] result = testTool.infopoint(correlationId, null, "binary", bytes);
+		assertSame(bytes, result);
+		Checkpoint checkpoint = testTool.getReportInProgress(0).getCheckpoints().get(1);
+		assertTrue(checkpoint.isBinaryMessage());
+		assertEquals(MessageEncoderImpl.BASE64_ENCODER, checkpoint.getEncoding());
+		assertEquals(base64, checkpoint.getMessage());
+		assertEquals(bytes.length, checkpoint.getEstimatedMemoryUsage());
+		// Decided without encoding the binary content
+		assertFalse(checkpoint.isMessageXml());
+		assertFalse(checkpoint.containsVariables());
+		assertEquals(base64, checkpoint.getMessageWithResolvedVariables(null));
+		// Changes made by the application after the checkpoint should not change the report
+		bytes[1] = 2;
+		assertEquals(base64, checkpoint.getMessage());
+		testTool.endpoint(correlationId, null, reportName, "endmessage");
+		Report report = findAndGetReport(testTool, testTool.getDebugStorage(), correlationId);
+		report.setTestTool(testTool);
+		checkpoint = report.getCheckpoints().get(1);
+		assertTrue(checkpoint.isBinaryMessage());
+		assertEquals(base64, checkpoint.getMessage());
+		bytes[1] = 0;
+		byte[] stub = (byte[])checkpoint.getMessageAsObject();
+		assertArrayEquals(bytes, stub);
+		assertNotSame(checkpoint.getBinaryMessage(), stub);
+	}
+
 	@Test
 	public void testStreamWithException() throws IOException, StorageException {
 		testTool.setMessageCapturer(new MessageCapturerImpl() {
@@ -19,8 +19,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -36,6 +38,8 @@ import nl.nn.testtool.Checkpoint;
 import nl.nn.testtool.Report;
 import nl.nn.testtool.Rerunner;
 import nl.nn.testtool.SecurityContext;
+import nl.nn.testtool.StorePipeline;
+import nl.nn.testtool.StubableCode;
 import nl.nn.testtool.TestTool;
 import nl.nn.testtool.run.ReportRunner;
 import nl.nn.testtool.storage.Storage;
@@ -111,6 +115,109 @@ public class TestRerun {
 		assertEquals((Integer)10, i);
 	}
 
+	@Test
+	public void testRerunWithStorePipeline() throws StorageException {
+		testTool.setRerunner(new Rerunner() {
+			@Override
+			public String rerun(String correlationId, Report originalReport, SecurityContext securityContext,
+					ReportRunner reportRunner) {
+				addSomething(testTool, correlationId, reportName, 100);
+				return null;
+			}
+		});
+		String correlationId = ReportRelatedTestCase.getCorrelationId();
+		addSomething(testTool, correlationId, reportName, 10);
+		Storage storage = testTool.getDebugStorage();
+		Report report = ReportRelatedTestCase.findAndGetReport(testTool, storage, correlationId);
+		report.setTestTool(testTool);
+		StorePipeline storePipeline = new StorePipeline();
+		testTool.setStorePipeline(storePipeline);
+		try {
+			String rerunCorrelationId = ReportRelatedTestCase.getCorrelationId();
+			assertNull(testTool.rerun(rerunCorrelationId, report, null, null));
+			// Stored synchronously, hence available as soon as the rerun has finished
+			ReportRelatedTestCase.findAndGetReport(testTool, storage, rerunCorrelationId);
+			assertEquals(0, storePipeline.getStored());
+		} finally {
+			storePipeline.close();
+			testTool.setStorePipeline(null);
+		}
+	}
+
+	@Test
+	public void testRerunStubCheckpointsWithSameName() throws StorageException {
+		List<Integer> rerunResults = new ArrayList<Integer>();
+		testTool.setRerunner(new Rerunner() {
+			@Override
+			public String rerun(String correlationId, Report originalReport, SecurityContext securityContext,
+					ReportRunner reportRunner) {
+				rerunResults.addAll(addInputpoints(testTool, correlationId, reportName, 100));
+				return null;
+			}
+		});
+		String correlationId = ReportRelatedTestCase.getCorrelationId();
+		assertEquals(Arrays.asList(0, 1, 2), addInputpoints(testTool, correlationId, reportName, 0));
+		Storage storage = testTool.getDebugStorage();
+		Report report = ReportRelatedTestCase.findAndGetReport(testTool, storage, correlationId);
+		report.setTestTool(testTool);
+		// Stub the second and third inputpoint with the same name
+		report.getCheckpoints().get(2).setStub(Checkpoint.STUB_YES);
+		report.getCheckpoints().get(3).setStub(Checkpoint.STUB_YES);
+		assertNull(testTool.rerun(ReportRelatedTestCase.getCorrelationId(), report, null, null));
+		assertEquals(Arrays.asList(100, 1, 2), rerunResults);
+	}
+
+	@Test
+	public void testRerunStubCheckpointOfStubableCode() throws StorageException {
+		List<Integer> rerunResults = new ArrayList<Integer>();
+		testTool.setRerunner(new Rerunner() {
+			@Override
+			public String rerun(String correlationId, Report originalReport, SecurityContext securityContext,
+					ReportRunner reportRunner) {
+				rerunResults.addAll(addNestedInputpoints(testTool, correlationId, reportName, 100));
+				return null;
+			}
+		});
+		String correlationId = ReportRelatedTestCase.getCorrelationId();
+		assertEquals(Arrays.asList(0, 1, 2), addNestedInputpoints(testTool, correlationId, reportName, 0));
+		Storage storage = testTool.getDebugStorage();
+		Report report = ReportRelatedTestCase.findAndGetReport(testTool, storage, correlationId);
+		report.setTestTool(testTool);
+		// Stub the second inputpoint added by the stubable code of the first inputpoint (with the same name)
+		assertEquals((Integer)2, report.getCheckpoints().get(3).getMessageAsObject());
+		report.getCheckpoints().get(3).setStub(Checkpoint.STUB_YES);
+		assertNull(testTool.rerun(ReportRelatedTestCase.getCorrelationId(), report, null, null));
+		assertEquals(Arrays.asList(100, 101, 2), rerunResults);
+	}
+
+	private static List<Integer> addNestedInputpoints(TestTool testTool, String correlationId, String name,
+			int offset) {
+		List<Integer> results = new ArrayList<Integer>();
+		testTool.startpoint(correlationId, null, name, "start");
+		results.add(testTool.inputpoint(correlationId, null, "input", new StubableCode() {
+			@Override
+			public Object execute() {
+				results.add(testTool.inputpoint(correlationId, null, "input", offset + 1));
+				results.add(testTool.inputpoint(correlationId, null, "input", offset + 2));
+				return offset;
+			}
+		}, null));
+		testTool.endpoint(correlationId, null, name, "end");
+		// Result of the first inputpoint is added last
+		results.add(0, results.remove(results.size() - 1));
+		return results;
+	}
+
+	private static List<Integer> addInputpoints(TestTool testTool, String correlationId, String name, int offset) {
+		List<Integer> results = new ArrayList<Integer>();
+		testTool.startpoint(correlationId, null, name, "start");
+		for (int j = 0; j < 3; j++) {
+			results.add(testTool.inputpoint(correlationId, null, "input", offset + j));
+		}
+		testTool.endpoint(correlationId, null, name, "end");
+		return results;
+	}
+
 	private static void addSomething(TestTool testTool, String correlationId, String name, Integer something) {
 		something = testTool.startpoint(correlationId, null, name, something);
 		i = i + something;
@@ -15,34 +15,57 @@
 */
 package nl.nn.testtool.test.junit.util;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import nl.nn.testtool.Checkpoint;
+import nl.nn.testtool.MessageEncoderImpl;
 import nl.nn.testtool.Report;
+import nl.nn.testtool.ReportCodec;
+import nl.nn.testtool.storage.DictionaryStore;
 import nl.nn.testtool.storage.StorageException;
 import nl.nn.testtool.storage.memory.Storage;
 import nl.nn.testtool.test.junit.Common;
 import nl.nn.testtool.test.junit.ReportRelatedTestCase;
 import nl.nn.testtool.transform.ReportXmlTransformer;
 import nl.nn.testtool.util.Export;
+import nl.nn.testtool.util.Import;
+import nl.nn.testtool.util.StreamUtil;
+import nl.nn.testtool.util.XmlUtil;
 
 /**
  * @author Jaco de Groot
  */
 public class TestExport {
+	private static Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 	public static final String RESOURCE_PATH = "nl/nn/testtool/test/junit/util/";
 
 	@Test
@@ -140,6 +163,300 @@ public class TestExport {
 		assertExport(RESOURCE_PATH, "test", report, false, false, false, true);
 	}
 
+	@Test
+	public void testReportBytes() throws IOException, StorageException {
+		Report report = new Report();
+		report.setStartTime(1234567890123L);
+		report.setEndTime(1234567890456L);
+		report.setCorrelationId("correlationId");
+		report.setName("name");
+		report.setDescription("description");
+		report.setPath("/path/");
+		report.setStubStrategy("stubStrategy");
+		report.setTransformation("transformation");
+		report.setVariableCsv("name;value\nx;y");
+		List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		checkpoints.add(createCheckpoint(report, "Start", Checkpoint.TYPE_STARTPOINT, 0, "<a>\u00e9\ud83d\ude00</a>"));
+		checkpoints.add(createCheckpoint(report, "Info", Checkpoint.TYPE_INFOPOINT, 1, null));
+		checkpoints.add(createCheckpoint(report, "Surrogate", Checkpoint.TYPE_INFOPOINT, 1, "a\ud83db\ude00"));
+		Checkpoint checkpoint = createCheckpoint(report, "Binary", Checkpoint.TYPE_INFOPOINT, 1,
+				Base64.getEncoder().encodeToString(new byte[] {0, 1, (byte)0xff}));
+		checkpoint.setEncoding(MessageEncoderImpl.BASE64_ENCODER);
+		checkpoints.add(checkpoint);
+		checkpoint = createCheckpoint(report, "End", Checkpoint.TYPE_ENDPOINT, 0, "end");
+		checkpoint.setStub(Checkpoint.STUB_YES);
+		checkpoint.setStubbed(true);
+		checkpoint.setStubNotFound("stubNotFound");
+		checkpoint.setStreaming("Character stream");
+		checkpoint.setWaitingForStream(true);
+		checkpoint.setNoCloseReceivedForStream(true);
+		checkpoint.setPreTruncatedMessageLength(123);
+		checkpoints.add(checkpoint);
+		StringBuilder largeMessage = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			largeMessage.append("<a>" + i + "</a>");
+		}
+		checkpoints.add(createCheckpoint(report, "Large", Checkpoint.TYPE_INFOPOINT, 0, largeMessage.toString()));
+		report.setCheckpoints(checkpoints);
+		byte[] bytes = Export.getReportBytes(report);
+		assertTrue(ReportCodec.isEncoded(bytes));
+		Report decoded = Import.getReport(new ByteArrayInputStream(bytes), null, (long)bytes.length, null, null, log);
+		assertEquals(toXml(report), toXml(decoded));
+		assertEquals("a\ud83db\ude00", decoded.getCheckpoints().get(2).getMessage());
+		assertSame(decoded, decoded.getCheckpoints().get(0).getReport());
+		Report skeleton = ReportCodec.decodeSkeleton(ReportCodec.Source.of(bytes), null);
+		for (int i = 0; i < report.getCheckpoints().size(); i++) {
+			assertEquals(report.getCheckpoints().get(i).getName(), skeleton.getCheckpoints().get(i).getName());
+			if (i == 5) {
+				// Large messages are not part of the skeleton
+				assertNull(skeleton.getCheckpoints().get(i).getMessage());
+				assertTrue(skeleton.getCheckpoints().get(i).isMessageNotLoaded());
+			} else {
+				assertEquals(report.getCheckpoints().get(i).getMessage(),
+						skeleton.getCheckpoints().get(i).getMessage());
+				assertFalse(skeleton.getCheckpoints().get(i).isMessageNotLoaded());
+			}
+			assertEquals(report.getCheckpoints().get(i).getMessage(),
+					ReportCodec.decodeMessage(ReportCodec.Source.of(bytes), i, null, null));
+		}
+
+		// Report stored by an older version
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(
+				new GZIPOutputStream(byteArrayOutputStream))) {
+			objectOutputStream.writeObject(report);
+		}
+		byte[] legacyBytes = byteArrayOutputStream.toByteArray();
+		assertFalse(ReportCodec.isEncoded(legacyBytes));
+		Report legacy = Import.getReport(new ByteArrayInputStream(legacyBytes), null, (long)legacyBytes.length, null,
+				null, log);
+		assertEquals(toXml(report), toXml(legacy));
+		assertTrue(legacy.getCheckpoints().get(3).isBinaryMessage());
+		bytes = Export.getReportBytes(legacy);
+		decoded = Import.getReport(new ByteArrayInputStream(bytes), null, (long)bytes.length, null, null, log);
+		assertTrue(decoded.getCheckpoints().get(3).isBinaryMessage());
+		assertArrayEquals(new byte[] {0, 1, (byte)0xff}, decoded.getCheckpoints().get(3).getBinaryMessage());
+		assertEquals(toXml(report), toXml(decoded));
+
+		// Messages written as reference
+		Map<String, String> messages = new HashMap<String, String>();
+		bytes = Export.getReportBytes(report, 3, messages);
+		assertEquals(4, messages.size());
+		assertEquals(messages.keySet(), Import.getMessageReferences(new ByteArrayInputStream(bytes), null));
+		decoded = Import.getReport(new ByteArrayInputStream(bytes), null, (long)bytes.length, messages::get, null, log);
+		assertEquals(toXml(report), toXml(decoded));
+
+		// Report streamed to an output stream (like the file and database storage do)
+		byteArrayOutputStream = new ByteArrayOutputStream();
+		Map<String, String> streamedMessages = new HashMap<String, String>();
+		long size = ReportCodec.encode(report, 3, streamedMessages, byteArrayOutputStream);
+		assertEquals(bytes.length, size);
+		assertArrayEquals(bytes, byteArrayOutputStream.toByteArray());
+		assertEquals(messages, streamedMessages);
+	}
+
+	@Test
+	public void testReportCompression() throws IOException, StorageException, InterruptedException {
+		MemoryDictionaryStore dictionaryStore = new MemoryDictionaryStore();
+		dictionaryStore.setTrainingInterval(10);
+		for (int i = 0; i < 10; i++) {
+			assertNull(dictionaryStore.getCurrentDictionary());
+			ReportCodec.encode(createCompressionReport(i), -1, null, new ByteArrayOutputStream(),
+					ReportCodec.DEFAULT_COMPRESSION_LEVEL, dictionaryStore);
+		}
+		// Trained on a background thread
+		long timeout = System.currentTimeMillis() + 10000;
+		while (dictionaryStore.isTraining() && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertNotNull(dictionaryStore.getCurrentDictionary());
+		assertEquals(1, dictionaryStore.getCurrentDictionary().getId());
+		assertTrue(dictionaryStore.getCurrentDictionary().getBytes().length > 0);
+
+		Report report = createCompressionReport(10);
+		byte[] bytes = encode(report, ReportCodec.DEFAULT_COMPRESSION_LEVEL, null);
+		byte[] bytesWithDictionary = encode(report, ReportCodec.DEFAULT_COMPRESSION_LEVEL, dictionaryStore);
+		assertTrue(bytesWithDictionary.length + " should be smaller than " + bytes.length,
+				bytesWithDictionary.length < bytes.length);
+		assertEquals(toXml(report), toXml(ReportCodec.decode(bytesWithDictionary, null, dictionaryStore)));
+		assertEquals(report.getCheckpoints().get(2).getMessage(), ReportCodec.decodeMessage(
+				ReportCodec.Source.of(bytesWithDictionary), 2, null, dictionaryStore));
+		assertThrows(IOException.class, () -> ReportCodec.decode(bytesWithDictionary, null, null));
+
+		// Retrained dictionary gets a new id, reports compressed with the previous dictionary can still be read
+		dictionaryStore.train();
+		assertEquals(2, dictionaryStore.getCurrentDictionary().getId());
+		assertEquals(toXml(report), toXml(ReportCodec.decode(bytesWithDictionary, null, dictionaryStore)));
+
+		byte[] uncompressed = encode(report, 0, dictionaryStore);
+		assertTrue(uncompressed.length > bytes.length);
+		assertTrue(new String(uncompressed, StandardCharsets.ISO_8859_1).contains("<envelope>"));
+		assertEquals(toXml(report), toXml(ReportCodec.decode(uncompressed, null, null)));
+		assertEquals(toXml(report), toXml(ReportCodec.decode(encode(report, 9, null), null, null)));
+	}
+
+	@Test
+	public void testMaxDictionaries() throws IOException, StorageException {
+		MemoryDictionaryStore dictionaryStore = new MemoryDictionaryStore();
+		dictionaryStore.setMaxDictionaries(2);
+		ByteArrayOutputStream sample = new ByteArrayOutputStream();
+		ReportCodec.encode(createCompressionReport(0), -1, null, sample, 0, null);
+		dictionaryStore.addSample(sample.toByteArray(), 0, sample.size());
+		dictionaryStore.addSample(sample.toByteArray(), 0, sample.size());
+		dictionaryStore.train();
+		dictionaryStore.train();
+		assertEquals(2, dictionaryStore.getCurrentDictionary().getId());
+		dictionaryStore.train();
+		assertEquals(2, dictionaryStore.getCurrentDictionary().getId());
+		assertEquals(2, dictionaryStore.countDictionaries());
+	}
+
+	private static Report createCompressionReport(int i) {
+		Report report = new Report();
+		report.setCorrelationId("correlationId" + i);
+		report.setName("Pipeline OrderService");
+		List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		String envelope = "<envelope><header><from>OrderService</from><to>Warehouse</to></header><body>";
+		checkpoints.add(createCheckpoint(report, "Pipeline OrderService", Checkpoint.TYPE_STARTPOINT, 0,
+				envelope + "<order id=\"" + i + "\"><product>Product " + i + "</product></order></body></envelope>"));
+		checkpoints.add(createCheckpoint(report, "Sender Warehouse", Checkpoint.TYPE_INFOPOINT, 1,
+				envelope + "<stock><product>Product " + i + "</product><count>" + i * 7 + "</count></stock></body>"
+				+ "</envelope>"));
+		StringBuilder largeMessage = new StringBuilder(envelope);
+		for (int j = 0; j < 500; j++) {
+			largeMessage.append("<line number=\"" + j + "\"><product>Product " + (i + j) + "</product></line>");
+		}
+		largeMessage.append("</body></envelope>");
+		checkpoints.add(createCheckpoint(report, "Large", Checkpoint.TYPE_INFOPOINT, 1, largeMessage.toString()));
+		checkpoints.add(createCheckpoint(report, "Pipeline OrderService", Checkpoint.TYPE_ENDPOINT, 0,
+				envelope + "<result>OK</result></body></envelope>"));
+		report.setCheckpoints(checkpoints);
+		return report;
+	}
+
+	private static byte[] encode(Report report, int compressionLevel, DictionaryStore dictionaryStore)
+			throws IOException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		ReportCodec.encode(report, -1, null, byteArrayOutputStream, compressionLevel, dictionaryStore);
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	@Test
+	public void testWriteUtf8() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			builder.append("\u00e9\ud83d\ude00");
+		}
+		for (String string : new String[] {"", "abc", builder.toString(), "a\ud83d", "\ude00a", "a\ud83db"}) {
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+			StreamUtil.writeUtf8(string, byteArrayOutputStream);
+			assertArrayEquals(string.getBytes(StandardCharsets.UTF_8), byteArrayOutputStream.toByteArray());
+		}
+	}
+
+	@Test
+	public void testReportToXml() throws IOException, StorageException {
+		Report report = new Report();
+		report.setStartTime(1L);
+		report.setEndTime(2L);
+		report.setName("a < b & \"c\"");
+		List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		checkpoints.add(createCheckpoint(report, "Xml", Checkpoint.TYPE_STARTPOINT, 0,
+				"<?xml version=\"1.0\"?><a>&amp;</a>"));
+		checkpoints.add(createCheckpoint(report, "Text", Checkpoint.TYPE_INFOPOINT, 1, "<a> & b"));
+		checkpoints.add(createCheckpoint(report, "Null", Checkpoint.TYPE_INFOPOINT, 1, null));
+		StringBuilder largeMessage = new StringBuilder("<root>");
+		for (int i = 0; i < 1000; i++) {
+			largeMessage.append("<a>" + i + "</a>");
+		}
+		largeMessage.append("</root>");
+		checkpoints.add(createCheckpoint(report, "Large", Checkpoint.TYPE_ENDPOINT, 0, largeMessage.toString()));
+		report.setCheckpoints(checkpoints);
+		StringWriter stringWriter = new StringWriter();
+		report.toXml(stringWriter, null);
+		String xml = stringWriter.toString();
+		assertTrue(xml.startsWith("<Report Name=\"a &lt; b &amp; &quot;c&quot;\" Description=\"\" Path=\"\""
+				+ " CorrelationId=\"\" StartTime=\"1\" EndTime=\"2\" NumberOfCheckpoints=\"4\""));
+		assertTrue(xml.contains(" TextDecl=\"&lt;?xml version=&quot;1.0&quot;?&gt;\"><a>&amp;</a></Checkpoint>"));
+		assertTrue(xml.contains("TestExport\">&lt;a&gt; &amp; b</Checkpoint>"));
+		assertTrue(xml.contains(" Null=\"true\"/>"));
+		assertEquals(xml, report.toXml());
+		assertTrue(checkpoints.get(0).isMessageXml());
+		assertFalse(checkpoints.get(1).isMessageXml());
+		assertFalse(checkpoints.get(2).isMessageXml());
+		assertTrue(checkpoints.get(3).isMessageXml());
+
+		// Whether a message is xml is kept when changing other fields and reset when changing the message
+		Checkpoint checkpoint = createCheckpoint(null, "Changed", Checkpoint.TYPE_INFOPOINT, 1, "<a/>");
+		assertTrue(checkpoint.isMessageXml());
+		checkpoint.setLevel(2);
+		assertTrue(checkpoint.isMessageXml());
+		checkpoint.setMessage("<a>");
+		assertFalse(checkpoint.isMessageXml());
+		checkpoint.setMessage("<a></a>");
+		assertTrue(checkpoint.isMessageXml());
+
+		Report decoded = ReportCodec.decode(Export.getReportBytes(report), null, null);
+		for (int i = 0; i < checkpoints.size(); i++) {
+			assertEquals(checkpoints.get(i).isMessageXml(), decoded.getCheckpoints().get(i).isMessageXml());
+		}
+		report.flushCachedXml();
+		assertEquals(report.toXml(), decoded.toXml());
+		stringWriter = new StringWriter();
+		decoded.toXml(stringWriter, null);
+		assertEquals(report.toXml(), stringWriter.toString());
+
+		// Transformed xml
+		report.setTransformation("<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\">"
+				+ "<xsl:template match=\"/\"><Checkpoints><xsl:value-of select=\"count(//Checkpoint)\"/></Checkpoints>"
+				+ "</xsl:template></xsl:stylesheet>");
+		report.flushCachedXml();
+		stringWriter = new StringWriter();
+		report.toXml(stringWriter, null);
+		assertTrue(stringWriter.toString(), stringWriter.toString().endsWith("<Checkpoints>4</Checkpoints>"));
+		assertEquals(report.toXml(), stringWriter.toString());
+	}
+
+	@Test
+	public void testIsXml() {
+		assertTrue(XmlUtil.isXml("<a/>"));
+		assertTrue(XmlUtil.isXml(" \n<a>b</a>"));
+		assertTrue(XmlUtil.isXml("<?xml version=\"1.0\"?><a/>"));
+		assertFalse(XmlUtil.isXml(null));
+		assertFalse(XmlUtil.isXml(""));
+		assertFalse(XmlUtil.isXml("a"));
+		assertFalse(XmlUtil.isXml("<a>"));
+		assertFalse(XmlUtil.isXml("<a/><b/>"));
+		assertFalse(XmlUtil.isXml(" <?xml version=\"1.0\"?><a/>"));
+		// Pooled parsers are reset after a parse error
+		assertTrue(XmlUtil.isXml("<a/>"));
+	}
+
+	private static Checkpoint createCheckpoint(Report report, String name, int type, int level, String message) {
+		Checkpoint checkpoint = new Checkpoint();
+		checkpoint.setThreadName("main");
+		checkpoint.setSourceClassName(TestExport.class.getName());
+		checkpoint.setName(name);
+		checkpoint.setType(type);
+		checkpoint.setLevel(level);
+		checkpoint.setMessage(message);
+		checkpoint.setReport(report);
+		return checkpoint;
+	}
+
+	private static String toXml(Report report) throws IOException {
+		byte[] bytes = Export.getReportBytesPortable(report);
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+			byte[] buffer = new byte[8192];
+			int length;
+			while ((length = gzipInputStream.read(buffer)) != -1) {
+				byteArrayOutputStream.write(buffer, 0, length);
+			}
+		}
+		return byteArrayOutputStream.toString("UTF-8");
+	}
+
 	private static void getBeanProperties(Class<?> clazz, String verb, Map<String, Method> beanProperties) {
 		Method[] methods = clazz.getMethods();
 		for (int i = 0; i < methods.length; i++) {
@@ -197,4 +514,30 @@ public class TestExport {
 		ReportRelatedTestCase.assertXml(resourcePath, testCaseName + "Export", actual);
 	}
 
+	private static class MemoryDictionaryStore extends DictionaryStore {
+		// Written by the background thread training the dictionary
+		private Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<Integer, byte[]>();
+
+		@Override
+		protected int readLatestDictionaryId() {
+			return dictionaries.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+		}
+
+		@Override
+		protected byte[] readDictionary(int id) {
+			return dictionaries.get(id);
+		}
+
+		@Override
+		protected int countDictionaries() {
+			return dictionaries.size();
+		}
+
+		@Override
+		protected int writeDictionary(int id, byte[] dictionary) {
+			dictionaries.put(id, dictionary);
+			return id;
+		}
+	}
+
 }